@@ -0,0 +1,112 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.metrics.Usage;
+
+/**
+ * Limits on what one move of an AI may cost beyond its time, checked by the {@link AiInvoker}
+ * against the {@link Usage} of each call. Immutable; start from {@link #UNLIMITED}.
+ */
+public final class AiBudget {
+
+	/**
+	 * What happens when a move goes over budget
+	 */
+	public enum Action {
+		/** The move is played and the excess reported */
+		WARN,
+		/** The call is stopped, as soon as the excess is seen, and the AI forfeits */
+		FORFEIT
+	}
+
+	/**
+	 * No limits
+	 */
+	public static final AiBudget UNLIMITED =
+			new AiBudget(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Action.WARN);
+
+	private final long cpuNanos;
+	private final long allocatedBytes;
+	private final int threads;
+	private final Action action;
+
+	private AiBudget(long cpuNanos, long allocatedBytes, int threads, Action action) {
+		this.cpuNanos = cpuNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.threads = threads;
+		this.action = action;
+	}
+
+	/**
+	 * @param cpu the most CPU time a move may use, over all its threads
+	 * @return a copy of this budget with the limit
+	 */
+	@Nonnull public AiBudget cpu(@Nonnull Duration cpu) {
+		if (cpu.isNegative()) throw new IllegalArgumentException("cpu < 0");
+		return new AiBudget(cpu.toNanos(), allocatedBytes, threads, action);
+	}
+
+	/**
+	 * @param bytes the most a move may allocate, over all its threads
+	 * @return a copy of this budget with the limit
+	 */
+	@Nonnull public AiBudget allocation(long bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("bytes < 0");
+		return new AiBudget(cpuNanos, bytes, threads, action);
+	}
+
+	/**
+	 * @param threads the most threads a move may keep busy at once besides the one it was
+	 * called on, see {@link Usage#threads()}
+	 * @return a copy of this budget with the limit
+	 */
+	@Nonnull public AiBudget threads(int threads) {
+		if (threads < 0) throw new IllegalArgumentException("threads < 0");
+		return new AiBudget(cpuNanos, allocatedBytes, threads, action);
+	}
+
+	/**
+	 * @param action what happens when a move goes over budget
+	 * @return a copy of this budget with the action
+	 */
+	@Nonnull public AiBudget action(@Nonnull Action action) {
+		return new AiBudget(cpuNanos, allocatedBytes, threads, Objects.requireNonNull(action));
+	}
+
+	@Nonnull public Action action() { return action; }
+
+	/**
+	 * @return whether any limit is set
+	 */
+	public boolean isLimited() {
+		return cpuNanos != Long.MAX_VALUE || allocatedBytes != Long.MAX_VALUE
+				|| threads != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @param usage the usage of a move
+	 * @return what went over budget, if anything; unknown figures never do
+	 */
+	@Nonnull public Optional<String> exceeded(@Nonnull Usage usage) {
+		var over = new ArrayList<String>();
+		if (usage.cpuNanos() > cpuNanos) over.add(String.format(Locale.ROOT,
+				"%.1f ms CPU > %.1f ms", usage.cpuNanos() / 1e6, cpuNanos / 1e6));
+		if (usage.allocatedBytes() > allocatedBytes) over.add(String.format(Locale.ROOT,
+				"%.1f MB allocated > %.1f MB", usage.allocatedBytes() / 1e6, allocatedBytes / 1e6));
+		if (usage.threads() > threads)
+			over.add(usage.threads() + " threads > " + threads);
+		return over.isEmpty() ? Optional.empty() : Optional.of(String.join(", ", over));
+	}
+
+	@Override public String toString() {
+		return isLimited() ? String.format(Locale.ROOT, "%s at %.1f ms CPU, %.1f MB, %d threads",
+				action, cpuNanos / 1e6, allocatedBytes / 1e6, threads) : "unlimited";
+	}
+}
@@ -0,0 +1,373 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.metrics.Usage;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * Asks {@link Ai}s for moves on an {@link AiScheduler} lane and enforces their
+ * {@link AiDeadline}s, for both the UI and headless games.
+ * <br>
+ * At the soft limit a move the AI has {@link AiDeadline#offer offered} is taken; at the hard
+ * limit the best offered move is taken if there is one and the call times out otherwise. Either
+ * way the deadline is cancelled and the worker interrupted, so a cooperating AI gives its thread
+ * back straight away. The result of a call is decided exactly once, whatever arrives later is
+ * ignored.
+ * <br>
+ * Every call is metered for the CPU time, allocation and threads it used, see {@link Usage},
+ * and checked against its {@link AiBudget}; an AI that goes over a forfeiting budget is stopped
+ * as soon as that is seen. Every decided call is recorded in the invoker's {@link AiMetrics},
+ * under the AI's name and the side it played.
+ */
+public final class AiInvoker implements AutoCloseable {
+
+	/**
+	 * How a call ended
+	 */
+	public enum Outcome {
+		/** The AI returned a move in time */
+		MOVE,
+		/** The AI did not return in time but had offered a move */
+		BEST_SO_FAR,
+		/** The AI did not return in time and had not offered a move, or the call was cancelled */
+		TIMEOUT,
+		/** The AI threw */
+		ERROR,
+		/** The AI went over a budget whose action is to {@link AiBudget.Action#FORFEIT forfeit} */
+		OVER_BUDGET
+	}
+
+	/**
+	 * The result of a call
+	 */
+	public static final class Result {
+		private final Outcome outcome;
+		private final Move move;
+		private final Throwable error;
+		private final long elapsedNanos;
+		private final Usage usage;
+		private final String overBudget;
+
+		Result(Outcome outcome, Move move, Throwable error, long elapsedNanos, Usage usage,
+		       String overBudget) {
+			this.outcome = outcome;
+			this.move = move;
+			this.error = error;
+			this.elapsedNanos = elapsedNanos;
+			this.usage = usage;
+			this.overBudget = overBudget;
+		}
+
+		@Nonnull public Outcome outcome() { return outcome; }
+		/**
+		 * @return the move to play; empty on {@link Outcome#TIMEOUT} and {@link Outcome#ERROR}
+		 */
+		@Nonnull public Optional<Move> move() { return Optional.ofNullable(move); }
+		/**
+		 * @return what the AI threw, for {@link Outcome#ERROR}
+		 */
+		@Nonnull public Optional<Throwable> error() { return Optional.ofNullable(error); }
+		/**
+		 * @return the time from the call until the result was decided
+		 */
+		public long elapsedNanos() { return elapsedNanos; }
+		/**
+		 * @return what the call had used when the result was decided
+		 */
+		@Nonnull public Usage usage() { return usage; }
+		/**
+		 * @return what went over budget, whatever the budget's action
+		 */
+		@Nonnull public Optional<String> overBudget() { return Optional.ofNullable(overBudget); }
+
+		@Override public String toString() {
+			return outcome + (move != null ? " " + move : "") + (error != null ? " " + error : "")
+					+ (overBudget != null ? " over budget: " + overBudget : "");
+		}
+	}
+
+	/**
+	 * A move being picked
+	 */
+	public static final class Call {
+		private final AiDeadline deadline;
+		private final AiBudget budget;
+		private final AiMetrics.Recorder recorder;
+		private final CompletableFuture<Result> result = new CompletableFuture<>();
+		private final AtomicBoolean decided = new AtomicBoolean();
+		private volatile Future<?> worker;
+		private volatile Usage.Meter meter;
+
+		private Call(AiDeadline deadline, AiBudget budget, AiMetrics.Recorder recorder) {
+			this.deadline = deadline;
+			this.budget = budget;
+			this.recorder = recorder;
+		}
+
+		/**
+		 * @return the deadline of this call
+		 */
+		@Nonnull public AiDeadline deadline() { return deadline; }
+
+		/**
+		 * @return completes once the result is decided, normally no later than the hard limit
+		 */
+		@Nonnull public CompletableFuture<Result> result() { return result; }
+
+		/**
+		 * Gives up on the move: the call times out unless it already has a result, and the AI is
+		 * asked to stop
+		 */
+		public void cancel() { finish(Outcome.TIMEOUT, null, null); }
+
+		private void finish(Outcome outcome, Move move, Throwable error) {
+			// whatever the outcome the move is no longer wanted once this has been called
+			deadline.cancel();
+			if (!decided.compareAndSet(false, true)) return;
+			long elapsed = System.nanoTime() - deadline.startNanos();
+			Usage.Meter running = meter;
+			Usage usage = running == null ? Usage.NONE : running.current();
+			var over = budget.exceeded(usage);
+			// recorded before anyone waiting on the result can look at the metrics
+			recorder.record(AiMetrics.Outcome.valueOf(outcome.name()), elapsed,
+					deadline.hardNanos() - deadline.startNanos(), usage, over.isPresent());
+			result.complete(new Result(outcome, move, error, elapsed, usage, over.orElse(null)));
+			// the worker itself decided, it is about to return anyway
+			if (outcome == Outcome.MOVE || outcome == Outcome.ERROR) return;
+			Future<?> thread = worker;
+			if (thread != null) thread.cancel(true);
+		}
+
+		private void sample() {
+			Usage.Meter running = meter;
+			if (running == null) return;
+			var usage = running.current();
+			if (budget.action() == AiBudget.Action.FORFEIT && budget.exceeded(usage).isPresent())
+				finish(Outcome.OVER_BUDGET, null, null);
+		}
+
+		private void expire(boolean hard) {
+			var best = deadline.best();
+			if (best.isPresent()) finish(Outcome.BEST_SO_FAR, best.get(), null);
+			else if (hard) finish(Outcome.TIMEOUT, null, null);
+		}
+	}
+
+	/**
+	 * An AI thinking during the other side's turn
+	 */
+	public static final class Pondering {
+		private final AiDeadline deadline;
+		// claimed by the worker as it starts, or by a stop before it could
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+		private volatile Future<?> worker;
+
+		private Pondering(AiDeadline deadline) { this.deadline = deadline; }
+
+		/**
+		 * Asks the AI to stop and waits until it has, so the caller can go on to
+		 * {@link Ai#onMoveMade}. An AI that does not stop within {@link #GRACE} is interrupted
+		 * and left behind.
+		 */
+		public void stop() {
+			try {
+				stopAsync().get(GRACE.toNanos(), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException | TimeoutException e) {
+				// interrupted by now, and no longer waited for
+			}
+		}
+
+		/**
+		 * Asks the AI to stop without waiting for it. An AI that does not stop within
+		 * {@link #GRACE} is interrupted.
+		 *
+		 * @return completes once the AI has returned from {@link Ai#ponder}, or right away if it
+		 * never started; only then may the caller go on to {@link Ai#onMoveMade}
+		 */
+		@Nonnull public CompletableFuture<Void> stopAsync() {
+			deadline.cancel();
+			if (started.compareAndSet(false, true)) done.complete(null);
+			else if (!done.isDone()) CompletableFuture.delayedExecutor(GRACE.toNanos(),
+					TimeUnit.NANOSECONDS).execute(() -> {
+				Future<?> running = worker;
+				if (!done.isDone() && running != null) running.cancel(true);
+			});
+			return done;
+		}
+
+		/**
+		 * @return whether the AI has stopped pondering
+		 */
+		public boolean isDone() { return done.isDone(); }
+	}
+
+	/**
+	 * How long {@link Pondering#stop()} waits for the AI
+	 */
+	public static final Duration GRACE = Duration.ofMillis(250);
+
+	// a pondering AI next to the one picking a move
+	private static final int QUOTA = 2;
+	// how often running calls are metered, see Usage.Meter#sample
+	private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AiScheduler.Lane lane;
+	private final AiMetrics metrics;
+
+	/**
+	 * @param lane the lane the AIs run in, owned by this invoker from now on
+	 * @param metrics where calls are recorded
+	 */
+	public AiInvoker(@Nonnull AiScheduler.Lane lane, @Nonnull AiMetrics metrics) {
+		this.lane = Objects.requireNonNull(lane);
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * @param lane the lane the AIs run in, owned by this invoker from now on; calls are recorded
+	 * in the {@link AiMetrics#shared() shared} metrics
+	 */
+	public AiInvoker(@Nonnull AiScheduler.Lane lane) { this(lane, AiMetrics.shared()); }
+
+	/**
+	 * @param name the name of a new {@link AiScheduler.Kind#CPU CPU} lane on the
+	 * {@link AiScheduler#shared() shared} scheduler
+	 */
+	public AiInvoker(@Nonnull String name) { this(name, AiMetrics.shared()); }
+
+	/**
+	 * @param name the name of a new {@link AiScheduler.Kind#CPU CPU} lane on the
+	 * {@link AiScheduler#shared() shared} scheduler
+	 * @param metrics where calls are recorded
+	 */
+	public AiInvoker(@Nonnull String name, @Nonnull AiMetrics metrics) {
+		this(AiScheduler.shared().lane(name, AiScheduler.Kind.CPU, QUOTA), metrics);
+	}
+
+	/**
+	 * Asks the AI for a move without blocking, with an {@link AiBudget#UNLIMITED unlimited}
+	 * budget.
+	 *
+	 * @param ai the AI to ask
+	 * @param board the board to pick a move on
+	 * @param deadline the limits of the move
+	 * @return the call
+	 */
+	@Nonnull public Call invoke(@Nonnull Ai ai, @Nonnull Board board,
+	                            @Nonnull AiDeadline deadline) {
+		return invoke(ai, board, deadline, AiBudget.UNLIMITED);
+	}
+
+	/**
+	 * Asks the AI for a move without blocking.
+	 *
+	 * @param ai the AI to ask
+	 * @param board the board to pick a move on
+	 * @param deadline the limits of the move
+	 * @param budget the limits on what the move may cost
+	 * @return the call
+	 */
+	@Nonnull public Call invoke(@Nonnull Ai ai, @Nonnull Board board,
+	                            @Nonnull AiDeadline deadline, @Nonnull AiBudget budget) {
+		Objects.requireNonNull(ai);
+		Objects.requireNonNull(board);
+		var call = new Call(Objects.requireNonNull(deadline), Objects.requireNonNull(budget),
+				metrics.recorder(ai.name(), AiMetrics.Side.of(board)));
+		call.worker = lane.submit(() -> {
+			var meter = Usage.start();
+			call.meter = meter;
+			try {
+				Move move = ai.pickMove(board, deadline);
+				if (move == null) throw new NullPointerException("Ai(" + ai.name() + ") " +
+						"returned no move");
+				boolean forfeit = budget.action() == AiBudget.Action.FORFEIT
+						&& budget.exceeded(meter.stop()).isPresent();
+				if (forfeit) call.finish(Outcome.OVER_BUDGET, null, null);
+				else call.finish(Outcome.MOVE, move, null);
+			} catch (Throwable e) {
+				call.finish(Outcome.ERROR, null, e);
+			} finally {
+				meter.stop();
+			}
+		});
+		// the call may have been decided before the worker was known
+		if (call.result.isDone()) call.worker.cancel(true);
+		var scheduler = lane.scheduler();
+		var soft = scheduler.schedule(() -> call.expire(false), deadline.remainingSoftNanos());
+		var hard = scheduler.schedule(() -> call.expire(true), deadline.remainingHardNanos());
+		var sampler = scheduler.every(call::sample, SAMPLE_NANOS);
+		call.result.whenComplete((r, e) -> {
+			soft.cancel(false);
+			hard.cancel(false);
+			sampler.cancel(false);
+		});
+		return call;
+	}
+
+	/**
+	 * Lets the AI {@link Ai#ponder ponder} without blocking. A pondering AI that throws only
+	 * loses the benefit of pondering.
+	 *
+	 * @param ai the AI whose side is not to move
+	 * @param board the board the other side is picking a move on
+	 * @param limit the longest the AI may ponder
+	 * @return the pondering, to be {@link Pondering#stop() stopped} before the next move is made
+	 */
+	@Nonnull public Pondering ponder(@Nonnull Ai ai, @Nonnull Board board,
+	                                 @Nonnull Duration limit) {
+		Objects.requireNonNull(ai);
+		Objects.requireNonNull(board);
+		var pondering = new Pondering(AiDeadline.of(limit, limit));
+		pondering.worker = lane.submit(() -> {
+			// stopped before it started
+			if (!pondering.started.compareAndSet(false, true)) return;
+			try {
+				ai.ponder(board, pondering.deadline);
+			} catch (RuntimeException ignored) {
+				// pondering is only ever a head start
+			} finally {
+				pondering.done.complete(null);
+			}
+		});
+		return pondering;
+	}
+
+	/**
+	 * @return the number of AIs still running, including ones whose calls have already been
+	 * decided but that have not given their thread back yet
+	 */
+	public int running() { return lane.stats().running(); }
+
+	/**
+	 * @return where calls are recorded
+	 */
+	@Nonnull public AiMetrics metrics() { return metrics; }
+
+	/**
+	 * @return the lane the AIs run in
+	 */
+	@Nonnull public AiScheduler.Lane lane() { return lane; }
+
+	/**
+	 * Interrupts every running AI and stops accepting calls
+	 */
+	@Override public void close() { lane.close(); }
+}
@@ -0,0 +1,274 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import io.github.fastclasspathscanner.FastClasspathScanner;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+
+/**
+ * Finds and creates {@link Ai}s on the classpath. Unlike {@link ResourceManager} this does not
+ * touch JavaFX, so it can be used headless.
+ * <br>
+ * The build writes an index of the AIs it compiled to {@link #INDEX}, the provider file of
+ * {@link ServiceLoader}, with each AI's {@link Ai#name()} as a comment, see {@link #main}.
+ * {@link #discover()} reads it instead of scanning the whole classpath, so no AI is created
+ * until one is asked for; other jars can list their AIs the same way, with or without names.
+ * <br>
+ * Builds that skip Maven's {@code process-classes} phase, such as an IDE's, compile new AIs
+ * without adding them to the index; run {@code mvn process-classes} to regenerate it. Until
+ * then {@link #discover()} still finds them, as it checks indexes in class directories against
+ * the classes next to them. Indexes in jars are trusted as they are.
+ */
+public final class AiLoader {
+
+	/**
+	 * The resource AIs are listed in
+	 */
+	public static final String INDEX = "META-INF/services/" + Ai.class.getName();
+
+	/**
+	 * An AI that can be created on demand
+	 */
+	public static final class Available {
+		private final String className;
+		private final Supplier<Class<? extends Ai>> type;
+		private volatile String name;
+
+		Available(String className, String name, Supplier<Class<? extends Ai>> type) {
+			this.className = className;
+			this.name = name;
+			this.type = type;
+		}
+
+		/**
+		 * @return the name of the AI, from the index if listed there and from a throwaway
+		 * instance otherwise
+		 */
+		@Nonnull public String name() {
+			String known = name;
+			if (known == null) name = known = create().name();
+			return known;
+		}
+
+		@Nonnull public String className() { return className; }
+
+		/**
+		 * @return the class of the AI, loaded but not initialised until needed
+		 */
+		@Nonnull public Class<? extends Ai> type() { return type.get(); }
+
+		/**
+		 * @return a new instance
+		 */
+		@Nonnull public Ai create() { return instantiate(type()); }
+
+		@Override public String toString() { return name(); }
+	}
+
+	private AiLoader() {}
+
+	/**
+	 * @return every AI listed in an {@link #INDEX} on the classpath and every AI compiled into a
+	 * class directory with an index that misses it, or if there is no index, every AI found by a
+	 * {@link #scan()}
+	 */
+	@Nonnull public static ImmutableList<Available> discover() {
+		var loader = Thread.currentThread().getContextClassLoader();
+		try {
+			var names = indexedNames(loader);
+			if (!names.isEmpty()) {
+				var found = ImmutableList.<Available>builder();
+				ServiceLoader.load(Ai.class, loader).stream().forEach(provider -> {
+					String className = provider.type().getName();
+					found.add(new Available(className, names.get(className), provider::type));
+				});
+				for (Class<? extends Ai> cls : unindexed(loader, names.keySet()))
+					found.add(new Available(cls.getName(), null, () -> cls));
+				return found.build();
+			}
+		} catch (ServiceConfigurationError | UncheckedIOException e) {
+			// an index naming a class that is not there is no worse than no index
+		}
+		return scan().stream()
+				.map(cls -> new Available(cls.getName(), null, () -> cls))
+				.collect(ImmutableList.toImmutableList());
+	}
+
+	// class name to the name written after it, for every AI in every index
+	private static Map<String, String> indexedNames(ClassLoader loader) {
+		Map<String, String> names = new HashMap<>();
+		try {
+			for (URL url : Collections.list(loader.getResources(INDEX))) {
+				try (var reader = new BufferedReader(
+						new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int comment = line.indexOf('#');
+						if (comment < 0) comment = line.length();
+						String className = line.substring(0, comment).trim();
+						if (className.isEmpty()) continue;
+						String name = line.substring(Math.min(comment + 1, line.length())).trim();
+						names.put(className, name.isEmpty() ? null : name);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return names;
+	}
+
+	// AIs compiled into a class directory since its index was written, which only a build that
+	// skipped process-classes leaves behind
+	private static List<Class<? extends Ai>> unindexed(ClassLoader loader, Set<String> indexed) {
+		List<Class<? extends Ai>> missing = new ArrayList<>();
+		try {
+			for (URL url : Collections.list(loader.getResources(INDEX))) {
+				// jars are built whole, so their indexes are as new as their classes
+				if (!url.getProtocol().equals("file")) continue;
+				// the directory META-INF/services/ is in
+				Path classes = Paths.get(url.toURI()).getParent().getParent().getParent();
+				for (Class<? extends Ai> cls : compiled(classes, loader))
+					if (!indexed.contains(cls.getName())) missing.add(cls);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException("Unreadable index location", e);
+		}
+		return missing;
+	}
+
+	/**
+	 * @return every {@link #listable listable} class on the classpath implementing {@link Ai};
+	 * scans the whole classpath, which takes seconds
+	 */
+	@SuppressWarnings("unchecked")
+	@Nonnull public static ImmutableList<Class<? extends Ai>> scan() {
+		var found = new FastClasspathScanner()
+				.enableAllInfo()
+				.enableExternalClasses()
+				.scan()
+				.getClassesImplementing(Ai.class.getName());
+		return found.stream().map(c -> {
+			Class<?> clazz = c.loadClass();
+			if (!Ai.class.isAssignableFrom(clazz))
+				throw new IllegalArgumentException(c + " does not implement " + Ai.class);
+			return (Class<? extends Ai>) clazz;
+		}).filter(AiLoader::listable).collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * @param cls an {@link Ai} class with a public no argument constructor
+	 * @return a new instance
+	 */
+	@Nonnull public static Ai instantiate(@Nonnull Class<? extends Ai> cls) {
+		try {
+			return cls.getConstructor().newInstance();
+		} catch (InstantiationException
+				| IllegalAccessException
+				| InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new RuntimeException("Unable to create Ai instance of class " + cls, e);
+		}
+	}
+
+	/**
+	 * @param cls a class implementing {@link Ai}
+	 * @return whether it can be listed, that is it is public, concrete and has a public no
+	 * argument constructor
+	 */
+	static boolean listable(Class<?> cls) {
+		if (!Modifier.isPublic(cls.getModifiers()) || Modifier.isAbstract(cls.getModifiers())
+				|| cls.isInterface()) return false;
+		try {
+			cls.getConstructor();
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param ais the AIs to list
+	 * @param writer receives the index, one AI per line with its name as a comment
+	 * @throws IOException if the writer fails
+	 */
+	static void writeIndex(@Nonnull Iterable<Class<? extends Ai>> ais, @Nonnull Writer writer)
+			throws IOException {
+		writer.write("# Generated by the build, see " + AiLoader.class.getName() + "\n");
+		for (Class<? extends Ai> cls : ais) {
+			// a newline in a name would end the comment early
+			String name = instantiate(cls).name().replaceAll("\\s+", " ");
+			writer.write(cls.getName() + " # " + name + "\n");
+		}
+	}
+
+	// the listable AIs compiled into a class directory, loaded but not initialised
+	@SuppressWarnings("unchecked")
+	private static List<Class<? extends Ai>> compiled(Path classes, ClassLoader loader) {
+		List<Class<? extends Ai>> ais = new ArrayList<>();
+		for (String className : new FastClasspathScanner()
+				.overrideClasspath(classes.toString())
+				.enableClassInfo()
+				.enableExternalClasses()
+				.scan()
+				.getClassesImplementing(Ai.class.getName())
+				.getNames()) {
+			Class<?> cls;
+			try {
+				cls = Class.forName(className, false, loader);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("Compiled but not loadable: " + className, e);
+			}
+			if (listable(cls)) ais.add((Class<? extends Ai>) cls);
+		}
+		return ais;
+	}
+
+	/**
+	 * Writes the {@link #INDEX} of the AIs compiled into a directory; run by the build after
+	 * compiling, with the class output directory as the only argument.
+	 *
+	 * @param args the class output directory
+	 * @throws IOException if the index cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) throw new IllegalArgumentException("Usage: AiLoader <classes dir>");
+		Path classes = Paths.get(args[0]);
+		List<Class<? extends Ai>> ais = compiled(classes, AiLoader.class.getClassLoader());
+		Path index = classes.resolve(INDEX);
+		Files.createDirectories(Objects.requireNonNull(index.getParent()));
+		try (var writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+			ais.sort(Comparator.comparing(Class::getName));
+			writeIndex(ais, writer);
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+
+/**
+ * Runs the work of every {@link Ai} in the process on a shared set of threads.
+ * <br>
+ * Each game gets its own {@link Lane} with a quota of tasks it may have running at once.
+ * {@link Kind#CPU CPU} lanes share a fixed pool of platform threads, one per processor by
+ * default, handed out round robin between the lanes with work queued, so one game's AI cannot
+ * starve another's. {@link Kind#IO IO} lanes, for AIs that mostly wait, run on virtual threads
+ * when the runtime has them and on a cached pool otherwise; only their quota applies.
+ * <br>
+ * Both the scheduler and each lane report how many tasks are queued and running and how long
+ * tasks waited before they started.
+ *
+ * @see AiInvoker
+ */
+public final class AiScheduler implements AutoCloseable {
+
+	/**
+	 * What an AI spends its time on
+	 */
+	public enum Kind {
+		/** Searching; runs on the bounded platform pool */
+		CPU,
+		/** Waiting on something else, such as a remote AI; runs on virtual threads */
+		IO
+	}
+
+	/**
+	 * Counters of a scheduler or lane
+	 */
+	public static final class Stats {
+		private final int queued;
+		private final int running;
+		private final long started;
+		private final long totalWaitNanos;
+		private final long maxWaitNanos;
+
+		Stats(int queued, int running, long started, long totalWaitNanos, long maxWaitNanos) {
+			this.queued = queued;
+			this.running = running;
+			this.started = started;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+		}
+
+		/**
+		 * @return the number of tasks waiting for a thread
+		 */
+		public int queued() { return queued; }
+		/**
+		 * @return the number of tasks running
+		 */
+		public int running() { return running; }
+		/**
+		 * @return the number of tasks started so far
+		 */
+		public long started() { return started; }
+		/**
+		 * @return the mean time from submission to start
+		 */
+		public double meanWaitNanos() {
+			return started == 0 ? 0 : (double) totalWaitNanos / started;
+		}
+		/**
+		 * @return the longest time from submission to start
+		 */
+		public long maxWaitNanos() { return maxWaitNanos; }
+
+		@Override public String toString() {
+			return String.format(Locale.ROOT, "%d queued, %d running, %d started, " +
+							"wait mean %.2f ms max %.2f ms", queued, running, started,
+					meanWaitNanos() / 1e6, maxWaitNanos / 1e6);
+		}
+	}
+
+	private static final class Counters {
+		int queued, running;
+		long started, totalWaitNanos, maxWaitNanos;
+
+		void start(long waitNanos) {
+			queued--;
+			running++;
+			started++;
+			totalWaitNanos += waitNanos;
+			maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+		}
+
+		Stats stats() {
+			return new Stats(queued, running, started, totalWaitNanos, maxWaitNanos);
+		}
+	}
+
+	private final class Task extends FutureTask<Void> {
+		final Lane lane;
+		final long submitted = System.nanoTime();
+
+		Task(Lane lane, Runnable runnable) {
+			super(runnable, null);
+			this.lane = lane;
+		}
+
+		@Override public void run() {
+			try {
+				super.run();
+			} finally {
+				finished(this);
+			}
+		}
+	}
+
+	/**
+	 * The share of the scheduler given to one game
+	 */
+	public final class Lane implements AutoCloseable {
+		private final String name;
+		private final Kind kind;
+		private final int quota;
+		private final ArrayDeque<Task> queue = new ArrayDeque<>();
+		private final Set<Task> active = new HashSet<>();
+		private final Counters counters = new Counters();
+		private boolean ready, closed;
+
+		private Lane(String name, Kind kind, int quota) {
+			this.name = name;
+			this.kind = kind;
+			this.quota = quota;
+		}
+
+		@Nonnull public String name() { return name; }
+		@Nonnull public Kind kind() { return kind; }
+		public int quota() { return quota; }
+		@Nonnull public AiScheduler scheduler() { return AiScheduler.this; }
+
+		/**
+		 * @param task the work to run
+		 * @return the future of the task; cancelling it with interruption interrupts the task
+		 * if it has started
+		 * @throws RejectedExecutionException if the lane or scheduler has been closed
+		 */
+		@Nonnull public Future<?> submit(@Nonnull Runnable task) {
+			var wrapped = new Task(this, Objects.requireNonNull(task));
+			synchronized (lock) {
+				if (closed || AiScheduler.this.closed)
+					throw new RejectedExecutionException("Lane " + name + " is closed");
+				queue.add(wrapped);
+				counters.queued++;
+				total.queued++;
+				if (kind == Kind.CPU) {
+					markReady(this);
+					dispatch();
+				} else startIo(this);
+			}
+			return wrapped;
+		}
+
+		/**
+		 * @return the counters of this lane
+		 */
+		@Nonnull public Stats stats() {
+			synchronized (lock) {
+				return counters.stats();
+			}
+		}
+
+		/**
+		 * Cancels everything queued, interrupts everything running and rejects further tasks
+		 */
+		@Override public void close() {
+			synchronized (lock) {
+				if (closed) return;
+				closed = true;
+				for (Task task : queue) task.cancel(false);
+				for (Task task : active) task.cancel(true);
+				total.queued -= queue.size();
+				counters.queued -= queue.size();
+				queue.clear();
+				if (ready) {
+					readyLanes.remove(this);
+					ready = false;
+				}
+			}
+		}
+
+		@Override public String toString() { return name + " (" + kind + ", " + quota + ")"; }
+	}
+
+	private static final class Holder {
+		static final AiScheduler SHARED =
+				new AiScheduler(Runtime.getRuntime().availableProcessors());
+	}
+
+	private final Object lock = new Object();
+	private final int platformThreads;
+	private final ExecutorService platform;
+	private final ExecutorService io;
+	private final boolean virtual;
+	private final ScheduledThreadPoolExecutor timer;
+	private final ArrayDeque<Lane> readyLanes = new ArrayDeque<>();
+	private final Counters total = new Counters();
+	private int platformRunning;
+	private boolean closed;
+
+	/**
+	 * @param platformThreads the number of platform threads CPU lanes share
+	 */
+	public AiScheduler(int platformThreads) {
+		if (platformThreads <= 0) throw new IllegalArgumentException("platformThreads <= 0");
+		this.platformThreads = platformThreads;
+		this.platform = Executors.newFixedThreadPool(platformThreads, new ThreadFactoryBuilder()
+				.setNameFormat("ai-cpu-%d")
+				.setDaemon(true)
+				.build());
+		ExecutorService virtualThreads = newVirtualExecutor();
+		this.virtual = virtualThreads != null;
+		this.io = virtual ? virtualThreads : Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("ai-io-%d").setDaemon(true).build());
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+				.setNameFormat("ai-deadline")
+				.setDaemon(true)
+				.build());
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor only exists from Java 21 on
+	private static ExecutorService newVirtualExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the scheduler shared by the whole process, with one platform thread per
+	 * processor; never closed
+	 */
+	@Nonnull public static AiScheduler shared() { return Holder.SHARED; }
+
+	/**
+	 * @param name the name of the lane, for diagnostics
+	 * @param kind where the lane's tasks run
+	 * @param quota the number of the lane's tasks that may run at once
+	 * @return a new lane
+	 */
+	@Nonnull public Lane lane(@Nonnull String name, @Nonnull Kind kind, int quota) {
+		if (quota <= 0) throw new IllegalArgumentException("quota <= 0");
+		return new Lane(Objects.requireNonNull(name), Objects.requireNonNull(kind), quota);
+	}
+
+	/**
+	 * @param task the task to run on the scheduler's timer thread, which must return quickly
+	 * @param delayNanos the delay
+	 * @return the future of the task
+	 */
+	@Nonnull public ScheduledFuture<?> schedule(@Nonnull Runnable task, long delayNanos) {
+		return timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param task the task to run on the scheduler's timer thread, which must return quickly
+	 * @param periodNanos the time between runs, the first one after a period
+	 * @return the future of the task, to be cancelled once no longer needed
+	 */
+	@Nonnull public ScheduledFuture<?> every(@Nonnull Runnable task, long periodNanos) {
+		return timer.scheduleAtFixedRate(task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of platform threads CPU lanes share
+	 */
+	public int platformThreads() { return platformThreads; }
+
+	/**
+	 * @return whether IO lanes run on virtual threads
+	 */
+	public boolean virtualThreads() { return virtual; }
+
+	/**
+	 * @return the counters over all lanes
+	 */
+	@Nonnull public Stats stats() {
+		synchronized (lock) {
+			return total.stats();
+		}
+	}
+
+	private void markReady(Lane lane) {
+		if (!lane.ready && !lane.queue.isEmpty() && lane.active.size() < lane.quota) {
+			lane.ready = true;
+			readyLanes.add(lane);
+		}
+	}
+
+	// starts whatever may start, under the lock
+	private void dispatch() {
+		while (platformRunning < platformThreads && !readyLanes.isEmpty()) {
+			Lane lane = readyLanes.poll();
+			lane.ready = false;
+			if (lane.queue.isEmpty()) continue;
+			start(lane.queue.poll(), platform);
+			platformRunning++;
+			// to the back of the line, behind every other lane with work queued
+			markReady(lane);
+		}
+	}
+
+	private void startIo(Lane lane) {
+		while (lane.active.size() < lane.quota && !lane.queue.isEmpty())
+			start(lane.queue.poll(), io);
+	}
+
+	private void start(Task task, ExecutorService executor) {
+		long wait = System.nanoTime() - task.submitted;
+		task.lane.active.add(task);
+		task.lane.counters.start(wait);
+		total.start(wait);
+		executor.execute(task);
+	}
+
+	private void finished(Task task) {
+		synchronized (lock) {
+			Lane lane = task.lane;
+			if (!lane.active.remove(task)) return;
+			lane.counters.running--;
+			total.running--;
+			if (lane.kind == Kind.CPU) {
+				platformRunning--;
+				markReady(lane);
+				dispatch();
+			} else startIo(lane);
+		}
+	}
+
+	/**
+	 * Interrupts every running task; tasks submitted afterwards are rejected
+	 */
+	@Override public void close() {
+		synchronized (lock) {
+			closed = true;
+		}
+		platform.shutdownNow();
+		io.shutdownNow();
+		timer.shutdownNow();
+	}
+}
@@ -0,0 +1,250 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Gets an AI's code compiled by the JIT before its first timed move, by having a throwaway
+ * instance pick moves on synthetic boards first.
+ * <br>
+ * The boards are games from the generated starting locations played on by random moves, so they
+ * cover the opening and the middle game for the side the AI is about to play. Every warm-up move
+ * gets its own deadline but none of it counts against a game's clock. The instance is a fresh one
+ * from the given factory, started and terminated like in a game, so whatever it learns about the
+ * boards stays out of the instance that plays; only the process wide JIT state carries over.
+ */
+public final class AiWarmUp {
+
+	/**
+	 * What a warm-up did
+	 */
+	public static final class Report {
+		private final String ai;
+		private final AiMetrics.Side side;
+		private final int moves;
+		private final int failures;
+		private final long nanos;
+		private final long compilationMillis;
+		private final double firstPassNanos;
+		private final double lastPassNanos;
+
+		Report(String ai, AiMetrics.Side side, int moves, int failures, long nanos,
+		       long compilationMillis, double firstPassNanos, double lastPassNanos) {
+			this.ai = ai;
+			this.side = side;
+			this.moves = moves;
+			this.failures = failures;
+			this.nanos = nanos;
+			this.compilationMillis = compilationMillis;
+			this.firstPassNanos = firstPassNanos;
+			this.lastPassNanos = lastPassNanos;
+		}
+
+		@Nonnull public String ai() { return ai; }
+		@Nonnull public AiMetrics.Side side() { return side; }
+		/**
+		 * @return the number of moves asked for
+		 */
+		public int moves() { return moves; }
+		/**
+		 * @return the number of moves that timed out, threw or went over budget
+		 */
+		public int failures() { return failures; }
+		/**
+		 * @return how long the warm-up took
+		 */
+		public long nanos() { return nanos; }
+		/**
+		 * @return the time the JIT spent compiling during the warm-up, for the whole process;
+		 * -1 if the JVM does not measure it
+		 */
+		public long compilationMillis() { return compilationMillis; }
+		/**
+		 * @return the mean latency of a move in the first pass over the boards
+		 */
+		public double firstPassNanos() { return firstPassNanos; }
+		/**
+		 * @return the mean latency of a move in the last pass over the same boards
+		 */
+		public double lastPassNanos() { return lastPassNanos; }
+		/**
+		 * @return how many times faster the last pass was than the first; about 1 for AIs that
+		 * use all the time they are given, whose gain is in the work done per move instead
+		 */
+		public double speedUp() {
+			return lastPassNanos == 0 ? 1 : firstPassNanos / lastPassNanos;
+		}
+
+		@Override public String toString() {
+			return String.format(Locale.ROOT, "Warm-up %s as %s: %d moves (%d failed) in %.1f s, " +
+							"JIT %d ms, pass mean %.1f ms -> %.1f ms (%.2fx)", ai, side, moves,
+					failures, nanos / 1e9, compilationMillis, firstPassNanos / 1e6,
+					lastPassNanos / 1e6, speedUp());
+		}
+	}
+
+	private final GameSetup setup;
+	private int detectives = 5;
+	private int boards = 8;
+	private int passes = 2;
+	private Duration perMove = Duration.ofSeconds(1);
+	private int seed = 0;
+
+	/**
+	 * @param setup the setup the boards are generated on
+	 */
+	public AiWarmUp(@Nonnull GameSetup setup) {
+		this.setup = Objects.requireNonNull(setup);
+	}
+
+	@Nonnull public AiWarmUp detectives(int detectives) {
+		if (detectives <= 0 || detectives > ScotlandYard.DETECTIVES.size())
+			throw new IllegalArgumentException("detectives out of range: " + detectives);
+		this.detectives = detectives;
+		return this;
+	}
+
+	/**
+	 * @param boards the number of boards per pass
+	 * @return this warm-up
+	 */
+	@Nonnull public AiWarmUp boards(int boards) {
+		if (boards <= 0) throw new IllegalArgumentException("boards <= 0");
+		this.boards = boards;
+		return this;
+	}
+
+	/**
+	 * @param passes the number of times every board is played, at least 1; the first and last
+	 * are compared in the {@link Report}
+	 * @return this warm-up
+	 */
+	@Nonnull public AiWarmUp passes(int passes) {
+		if (passes <= 0) throw new IllegalArgumentException("passes <= 0");
+		this.passes = passes;
+		return this;
+	}
+
+	/**
+	 * @param perMove the hard limit of every warm-up move
+	 * @return this warm-up
+	 */
+	@Nonnull public AiWarmUp perMove(@Nonnull Duration perMove) {
+		if (perMove.isNegative() || perMove.isZero())
+			throw new IllegalArgumentException("perMove <= 0");
+		this.perMove = perMove;
+		return this;
+	}
+
+	@Nonnull public AiWarmUp seed(int seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param side the side to move on every board
+	 * @return the boards, the same for the same options
+	 */
+	@Nonnull public ImmutableList<Board> boards(@Nonnull AiMetrics.Side side) {
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var factory = new MyGameStateFactory();
+		var result = ImmutableList.<Board>builder();
+		var random = new Random(seed);
+		int found = 0;
+		for (int game = 0; found < boards; game++) {
+			if (game > boards * 100)
+				throw new IllegalStateException("No boards with " + side + " to move");
+			var locations = ScotlandYard.generateDetectiveLocations(seed + game, detectives);
+			var players = ImmutableList.<Player>builder();
+			for (int i = 0; i < detectives; i++)
+				players.add(new Player(pieces.get(i), defaultDetectiveTickets(), locations.get(i)));
+			Board.GameState state = factory.build(setup, new Player(Piece.MrX.MRX,
+							defaultMrXTickets(), ScotlandYard.generateMrXLocation(seed + game)),
+					players.build());
+			// spread the boards from the first move to the middle of the game
+			int plies = random.nextInt(setup.moves.size() * 3);
+			for (int i = 0; i < plies && state.getWinner().isEmpty(); i++) {
+				var moves = state.getAvailableMoves().asList();
+				state = state.advance(moves.get(random.nextInt(moves.size())));
+			}
+			if (!state.getWinner().isEmpty() || state.getAvailableMoves().isEmpty()) continue;
+			if (AiMetrics.Side.of(state) != side) continue;
+			result.add(state);
+			found++;
+		}
+		return result.build();
+	}
+
+	/**
+	 * Warms an AI up, blocking until done.
+	 *
+	 * @param name the name to report the AI under
+	 * @param factory creates the throwaway instance
+	 * @param side the side the AI is about to play
+	 * @param scheduler where the warm-up moves run
+	 * @return what the warm-up did
+	 */
+	@Nonnull public Report run(@Nonnull String name, @Nonnull Supplier<Ai> factory,
+	                           @Nonnull AiMetrics.Side side, @Nonnull AiScheduler scheduler) {
+		var boards = boards(side);
+		CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+		boolean timed = jit != null && jit.isCompilationTimeMonitoringSupported();
+		long compiledBefore = timed ? jit.getTotalCompilationTime() : 0;
+		long start = System.nanoTime();
+		int failures = 0;
+		double first = 0, last = 0;
+		Ai ai = factory.get();
+		// warm-up moves stay out of the metrics of the real ones
+		var invoker = new AiInvoker(scheduler.lane("warm-up-" + name, AiScheduler.Kind.CPU, 1),
+				new AiMetrics());
+		try {
+			ai.onStart();
+			for (int pass = 0; pass < passes; pass++) {
+				long total = 0;
+				for (Board board : boards) {
+					var result = invoker.invoke(ai, board, AiDeadline.within(perMove))
+							.result().get();
+					total += result.elapsedNanos();
+					if (result.move().isEmpty() || !board.getAvailableMoves()
+							.contains(result.move().get())) failures++;
+				}
+				if (pass == 0) first = (double) total / boards.size();
+				last = (double) total / boards.size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while warming up " + name, e);
+		} catch (ExecutionException e) {
+			throw new AssertionError("Calls always complete normally", e);
+		} finally {
+			invoker.close();
+			ai.onTerminate();
+		}
+		return new Report(name, side, passes * boards.size(), failures,
+				System.nanoTime() - start,
+				timed ? jit.getTotalCompilationTime() - compiledBefore : -1, first, last);
+	}
+}
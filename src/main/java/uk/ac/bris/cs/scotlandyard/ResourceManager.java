@@ -6,14 +6,12 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.graph.ImmutableValueGraph;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 
-import io.github.fastclasspathscanner.FastClasspathScanner;
 import javafx.geometry.Point2D;
 import javafx.scene.image.Image;
 import uk.ac.bris.cs.scotlandyard.model.Ai;
@@ -77,31 +75,11 @@ public final class ResourceManager {
 		return new Point2D(entry.getKey(), entry.getValue());
 	}
 
-	public static Ai instantiateAi(Class<Ai> cls) {
-		try {
-			return cls.getConstructor().newInstance();
-		} catch (InstantiationException
-				| IllegalAccessException
-				| InvocationTargetException
-				| NoSuchMethodException e) {
-			throw new RuntimeException("Unable to create Ai instance of class " + cls, e);
-		}
-	}
+	public static Ai instantiateAi(Class<Ai> cls) { return AiLoader.instantiate(cls); }
 
-	@SuppressWarnings("unchecked") public static ImmutableList<Ai> scanAis() {
-		var found = new FastClasspathScanner()
-				.enableAllInfo()
-				.enableExternalClasses()
-				.scan()
-				.getClassesImplementing(Ai.class.getName());
-		return found.stream().map(c -> {
-			try {
-				Class<Ai> clazz = (Class<Ai>) c.loadClass();
-				if (!Ai.class.isAssignableFrom(clazz))
-					throw new IllegalArgumentException(c + " does not implement " + Ai.class);
-				return instantiateAi(clazz);
-			} catch (Exception e) { throw new RuntimeException(e); }
-		}).collect(ImmutableList.toImmutableList());
-	}
+	/**
+	 * @return every AI on the classpath, none of them created yet, see {@link AiLoader#discover()}
+	 */
+	public static ImmutableList<AiLoader.Available> scanAis() { return AiLoader.discover(); }
 
 }
@@ -0,0 +1,164 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * A compact, array backed view of a {@link GameSetup#graph}.
+ * <br>
+ * Stations are renumbered to dense indices in ascending station order and edges are stored in
+ * compressed sparse row form. Every (undirected) edge appears once in each direction and carries
+ * two bitmasks: the {@link Transport}s on that edge and the {@link Ticket}s that may be used to
+ * travel along it (which always includes {@link Ticket#SECRET}).
+ */
+public final class GraphIndex {
+
+	private static final LoadingCache<ImmutableValueGraph<Integer, ImmutableSet<Transport>>,
+			GraphIndex> CACHE = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(GraphIndex::new));
+
+	private final int[] nodes;
+	private final int[] offsets;
+	private final int[] targets;
+	private final byte[] transports;
+	private final byte[] tickets;
+
+	private GraphIndex(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		this.nodes = graph.nodes().stream().mapToInt(Integer::intValue).sorted().toArray();
+		this.offsets = new int[nodes.length + 1];
+		int edges = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			offsets[i] = edges;
+			edges += graph.adjacentNodes(nodes[i]).size();
+		}
+		offsets[nodes.length] = edges;
+		this.targets = new int[edges];
+		this.transports = new byte[edges];
+		this.tickets = new byte[edges];
+		for (int i = 0; i < nodes.length; i++) {
+			int[] adjacent = graph.adjacentNodes(nodes[i]).stream()
+					.mapToInt(Integer::intValue).sorted().toArray();
+			for (int j = 0; j < adjacent.length; j++) {
+				int edge = offsets[i] + j;
+				targets[edge] = index(adjacent[j]);
+				int transportMask = 0;
+				int ticketMask = 1 << Ticket.SECRET.ordinal();
+				for (Transport t : graph.edgeValueOrDefault(nodes[i], adjacent[j], ImmutableSet.of())) {
+					transportMask |= 1 << t.ordinal();
+					ticketMask |= 1 << t.requiredTicket().ordinal();
+				}
+				transports[edge] = (byte) transportMask;
+				tickets[edge] = (byte) ticketMask;
+			}
+		}
+	}
+
+	/**
+	 * @param graph the game graph
+	 * @return the index for the given graph; indices are cached for as long as the graph instance
+	 * is reachable
+	 */
+	@Nonnull public static GraphIndex of(
+			@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		return CACHE.getUnchecked(Objects.requireNonNull(graph));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the index for the graph of the given setup
+	 */
+	@Nonnull public static GraphIndex of(@Nonnull GameSetup setup) { return of(setup.graph); }
+
+	/**
+	 * @param transports the transports
+	 * @return a bitmask of the given transports, suitable for {@link #transports(int)}
+	 */
+	public static int mask(@Nonnull Iterable<Transport> transports) {
+		int mask = 0;
+		for (Transport t : transports) mask |= 1 << t.ordinal();
+		return mask;
+	}
+
+	/**
+	 * @return the number of stations
+	 */
+	public int size() { return nodes.length; }
+
+	/**
+	 * @return the number of directed edges, twice the number of graph edges
+	 */
+	public int edgeCount() { return targets.length; }
+
+	/**
+	 * @param index the dense index
+	 * @return the station number at the given index
+	 */
+	public int node(int index) { return nodes[index]; }
+
+	/**
+	 * @param node the station number
+	 * @return the dense index of the given station; negative if the station is not in the graph
+	 */
+	public int index(int node) {
+		int index = Arrays.binarySearch(nodes, node);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * @param index the dense index of a station
+	 * @return the first edge leaving the given station
+	 */
+	public int edgesFrom(int index) { return offsets[index]; }
+
+	/**
+	 * @param index the dense index of a station
+	 * @return one past the last edge leaving the given station
+	 */
+	public int edgesTo(int index) { return offsets[index + 1]; }
+
+	/**
+	 * @param index the dense index of a station
+	 * @return the number of stations adjacent to the given station
+	 */
+	public int degree(int index) { return offsets[index + 1] - offsets[index]; }
+
+	/**
+	 * @param edge the edge
+	 * @return the dense index of the station the given edge leads to
+	 */
+	public int target(int edge) { return targets[edge]; }
+
+	/**
+	 * @param edge the edge
+	 * @return the transports on the given edge as a bitmask of {@link Transport#ordinal()}s
+	 */
+	public int transports(int edge) { return transports[edge]; }
+
+	/**
+	 * @param edge the edge
+	 * @return the tickets usable on the given edge as a bitmask of {@link Ticket#ordinal()}s
+	 */
+	public int tickets(int edge) { return tickets[edge]; }
+
+	/**
+	 * @param edge the edge
+	 * @param ticket the ticket
+	 * @return whether the given ticket can be used to travel along the given edge
+	 */
+	public boolean allows(int edge, @Nonnull Ticket ticket) {
+		return (tickets[edge] & (1 << ticket.ordinal())) != 0;
+	}
+}
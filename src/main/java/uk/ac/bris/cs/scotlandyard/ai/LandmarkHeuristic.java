@@ -0,0 +1,307 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.GameSetupRegistry;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Landmark based (ALT) distance bounds over the game graph.
+ * <br>
+ * Instead of an all-pairs table this keeps {@code k} distance vectors per {@link TransportClass}
+ * from a handful of landmark stations picked by farthest-point selection, so memory grows
+ * linearly with the size of the map. By the triangle inequality the landmarks give admissible
+ * lower bounds and (weak) upper bounds for any pair of stations; exact distances are answered
+ * with an A* search guided by the lower bound. All distances are in moves.
+ */
+public final class LandmarkHeuristic {
+
+	/**
+	 * Distance returned when the target cannot be reached
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * Default number of landmarks
+	 */
+	public static final int DEFAULT_LANDMARKS = 16;
+
+	/**
+	 * Sets of transport a player is allowed to travel with
+	 */
+	public enum TransportClass {
+		/**
+		 * Every transport, i.e MrX holding secret tickets
+		 */
+		ANY(ImmutableSet.copyOf(Transport.values())),
+		/**
+		 * Every transport except the ferry, i.e a detective
+		 */
+		DETECTIVE(ImmutableSet.of(Transport.TAXI, Transport.BUS, Transport.UNDERGROUND)),
+		TAXI(ImmutableSet.of(Transport.TAXI)),
+		BUS(ImmutableSet.of(Transport.BUS)),
+		UNDERGROUND(ImmutableSet.of(Transport.UNDERGROUND));
+
+		private final ImmutableSet<Transport> transports;
+		private final int mask;
+		TransportClass(ImmutableSet<Transport> transports) {
+			this.transports = transports;
+			this.mask = GraphIndex.mask(transports);
+		}
+		/**
+		 * @return the transports in this class
+		 */
+		@Nonnull public ImmutableSet<Transport> transports() { return transports; }
+	}
+
+	// per graph rather than per setup, as landmarks do not depend on the reveal rounds
+	private static final LoadingCache<GraphIndex, LandmarkHeuristic> CACHE =
+			CacheBuilder.newBuilder()
+					.weakKeys()
+					.build(CacheLoader.from(graph ->
+							new LandmarkHeuristic(graph, DEFAULT_LANDMARKS)));
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private final GraphIndex graph;
+	private final int[] landmarks;
+	// [class][landmark][station index], UNREACHABLE where disconnected
+	private final int[][][] distances;
+
+	/**
+	 * @param graph the indexed game graph
+	 * @param k the number of landmarks, clamped to the number of stations
+	 */
+	public LandmarkHeuristic(@Nonnull GraphIndex graph, int k) {
+		if (k <= 0) throw new IllegalArgumentException("k <= 0");
+		this.graph = Objects.requireNonNull(graph);
+		this.landmarks = selectLandmarks(graph, Math.min(k, graph.size()));
+		TransportClass[] classes = TransportClass.values();
+		this.distances = new int[classes.length][landmarks.length][];
+		for (TransportClass c : classes) {
+			for (int i = 0; i < landmarks.length; i++)
+				distances[c.ordinal()][i] = breadthFirst(graph, landmarks[i], c.mask);
+		}
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return a shared heuristic for the graph of the given setup with
+	 * {@link #DEFAULT_LANDMARKS} landmarks; setups with equal graphs share the same instance
+	 * whenever their graphs are one instance, as is the case once setups are interned
+	 */
+	@Nonnull public static LandmarkHeuristic of(@Nonnull GameSetup setup) {
+		return CACHE.getUnchecked(GraphIndex.of(GameSetupRegistry.shared().intern(setup)));
+	}
+
+	/**
+	 * @return the indexed graph this heuristic was built on
+	 */
+	@Nonnull public GraphIndex graph() { return graph; }
+
+	/**
+	 * @return the landmark stations in selection order
+	 */
+	@Nonnull public int[] landmarks() {
+		return Arrays.stream(landmarks).map(graph::node).toArray();
+	}
+
+	/**
+	 * @param from the source station
+	 * @param to the target station
+	 * @param c the transport class
+	 * @return an admissible lower bound of the distance between the two stations;
+	 * {@link #UNREACHABLE} if the landmarks prove there is no path
+	 */
+	public int lowerBound(int from, int to, @Nonnull TransportClass c) {
+		return lowerBoundIndexed(indexOf(from), indexOf(to), c.ordinal());
+	}
+
+	/**
+	 * @param from the source station
+	 * @param to the target station
+	 * @param c the transport class
+	 * @return an upper bound of the distance between the two stations through the nearest
+	 * landmark; {@link #UNREACHABLE} if no landmark reaches both
+	 */
+	public int upperBound(int from, int to, @Nonnull TransportClass c) {
+		int a = indexOf(from), b = indexOf(to);
+		if (a == b) return 0;
+		int best = UNREACHABLE;
+		for (int[] vector : distances[c.ordinal()]) {
+			if (vector[a] == UNREACHABLE || vector[b] == UNREACHABLE) continue;
+			best = Math.min(best, vector[a] + vector[b]);
+		}
+		return best;
+	}
+
+	/**
+	 * @param from the source station
+	 * @param to the target station
+	 * @param c the transport class
+	 * @return the exact distance between the two stations, computed with an A* search using
+	 * {@link #lowerBound(int, int, TransportClass)} as the heuristic; {@link #UNREACHABLE} if
+	 * there is no path
+	 */
+	public int distance(int from, int to, @Nonnull TransportClass c) {
+		int source = indexOf(from), target = indexOf(to);
+		if (source == target) return 0;
+		int cls = c.ordinal();
+		if (lowerBoundIndexed(source, target, cls) == UNREACHABLE) return UNREACHABLE;
+		Scratch s = SCRATCH.get().reset(graph.size());
+		s.visit(source, 0);
+		s.push(source, lowerBoundIndexed(source, target, cls));
+		while (s.size > 0) {
+			int current = s.pop();
+			if (current == target) return s.g[current];
+			if (s.closed[current] == s.generation) continue;
+			s.closed[current] = s.generation;
+			int g = s.g[current] + 1;
+			for (int e = graph.edgesFrom(current); e < graph.edgesTo(current); e++) {
+				if ((graph.transports(e) & c.mask) == 0) continue;
+				int next = graph.target(e);
+				if (s.seen[next] == s.generation && s.g[next] <= g) continue;
+				int h = lowerBoundIndexed(next, target, cls);
+				if (h == UNREACHABLE) continue;
+				s.visit(next, g);
+				s.push(next, g + h);
+			}
+		}
+		return UNREACHABLE;
+	}
+
+	private int lowerBoundIndexed(int a, int b, int cls) {
+		if (a == b) return 0;
+		int best = 0;
+		for (int[] vector : distances[cls]) {
+			int da = vector[a], db = vector[b];
+			if (da == UNREACHABLE && db == UNREACHABLE) continue;
+			if (da == UNREACHABLE || db == UNREACHABLE) return UNREACHABLE;
+			best = Math.max(best, Math.abs(da - db));
+		}
+		return best;
+	}
+
+	private int indexOf(int node) {
+		int index = graph.index(node);
+		if (index < 0) throw new IllegalArgumentException("Station " + node + " not in graph");
+		return index;
+	}
+
+	private static int[] selectLandmarks(GraphIndex graph, int k) {
+		int all = TransportClass.ANY.mask;
+		int[] selected = new int[k];
+		// start from the station farthest away from an arbitrary one
+		int[] nearest = breadthFirst(graph, 0, all);
+		selected[0] = farthest(nearest);
+		nearest = breadthFirst(graph, selected[0], all);
+		for (int i = 1; i < k; i++) {
+			selected[i] = farthest(nearest);
+			int[] next = breadthFirst(graph, selected[i], all);
+			for (int j = 0; j < nearest.length; j++) nearest[j] = Math.min(nearest[j], next[j]);
+		}
+		return selected;
+	}
+
+	// unreachable stations count as farthest so that every component gets a landmark
+	private static int farthest(int[] distances) {
+		int best = 0;
+		for (int i = 1; i < distances.length; i++) {
+			if (distances[i] > distances[best]) best = i;
+		}
+		return best;
+	}
+
+	private static int[] breadthFirst(GraphIndex graph, int source, int transportMask) {
+		int[] distance = new int[graph.size()];
+		Arrays.fill(distance, UNREACHABLE);
+		int[] queue = new int[graph.size()];
+		int head = 0, tail = 0;
+		distance[source] = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			int current = queue[head++];
+			for (int e = graph.edgesFrom(current); e < graph.edgesTo(current); e++) {
+				if ((graph.transports(e) & transportMask) == 0) continue;
+				int next = graph.target(e);
+				if (distance[next] != UNREACHABLE) continue;
+				distance[next] = distance[current] + 1;
+				queue[tail++] = next;
+			}
+		}
+		return distance;
+	}
+
+	// per-thread A* state; generation stamps avoid clearing O(n) arrays for every query
+	private static final class Scratch {
+		int generation;
+		int[] seen = new int[0], closed = new int[0], g = new int[0];
+		int[] heapNodes = new int[16], heapKeys = new int[16];
+		int size;
+
+		Scratch reset(int n) {
+			if (seen.length < n) {
+				seen = new int[n];
+				closed = new int[n];
+				g = new int[n];
+				generation = 0;
+			}
+			if (++generation == 0) {
+				Arrays.fill(seen, 0);
+				Arrays.fill(closed, 0);
+				generation = 1;
+			}
+			size = 0;
+			return this;
+		}
+
+		void visit(int node, int cost) {
+			seen[node] = generation;
+			g[node] = cost;
+		}
+
+		void push(int node, int key) {
+			if (size == heapNodes.length) {
+				heapNodes = Arrays.copyOf(heapNodes, size * 2);
+				heapKeys = Arrays.copyOf(heapKeys, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapKeys[parent] <= key) break;
+				heapNodes[i] = heapNodes[parent];
+				heapKeys[i] = heapKeys[parent];
+				i = parent;
+			}
+			heapNodes[i] = node;
+			heapKeys[i] = key;
+		}
+
+		int pop() {
+			int top = heapNodes[0];
+			int node = heapNodes[--size], key = heapKeys[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) break;
+				if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) child++;
+				if (heapKeys[child] >= key) break;
+				heapNodes[i] = heapNodes[child];
+				heapKeys[i] = heapKeys[child];
+				i = child;
+			}
+			heapNodes[i] = node;
+			heapKeys[i] = key;
+			return top;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SplittableRandom;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.TransportClass;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Model;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.RevealSchedule;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A probability distribution over MrX's location, as seen by the detectives.
+ * <br>
+ * This is the weighted counterpart of {@link MrXLocationTracker}: instead of a flat candidate
+ * set each station carries a probability, kept as an unnormalised {@code double[]} over
+ * {@link GraphIndex} indices together with its total mass. New {@link LogEntry}s are applied one
+ * at a time, spreading each station's mass over the legal destinations as weighted by a
+ * {@link MrXMotionModel}; detective occupied stations are then zeroed. Only MrX's newest move is
+ * weighed against where the detectives are now: older entries, when a distribution is created
+ * or updated late, are spread evenly by ticket alone, since where the detectives stood back then
+ * is no longer known. Readers work on an
+ * immutable snapshot with a cumulative table, so any number of threads can {@link #sample}
+ * determinisations between updates without rebuilding anything.
+ */
+public final class MrXLocationDistribution implements Model.Observer {
+
+	/**
+	 * An immutable view of the distribution at one point in the game
+	 */
+	public static final class Snapshot {
+		private final GraphIndex graph;
+		private final double[] cumulative;
+		private final double total;
+
+		private Snapshot(GraphIndex graph, double[] weights) {
+			this.graph = graph;
+			this.cumulative = new double[weights.length];
+			double sum = 0;
+			for (int i = 0; i < weights.length; i++) cumulative[i] = sum += weights[i];
+			this.total = sum;
+		}
+
+		/**
+		 * @param node the station
+		 * @return the probability MrX is at the given station
+		 */
+		public double probability(int node) {
+			int i = graph.index(node);
+			if (i < 0 || total == 0) return 0;
+			return (cumulative[i] - (i == 0 ? 0 : cumulative[i - 1])) / total;
+		}
+
+		/**
+		 * @param random the random source
+		 * @return a station drawn from the distribution; arbitrary if every station has zero
+		 * probability
+		 */
+		public int sample(@Nonnull SplittableRandom random) {
+			double target = random.nextDouble() * total;
+			int low = 0, high = cumulative.length - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cumulative[mid] > target) high = mid;
+				else low = mid + 1;
+			}
+			return graph.node(low);
+		}
+
+		/**
+		 * @return the stations with a non zero probability and their probabilities
+		 */
+		@Nonnull public ImmutableMap<Integer, Double> probabilities() {
+			var builder = ImmutableMap.<Integer, Double>builder();
+			double previous = 0;
+			for (int i = 0; i < cumulative.length; i++) {
+				if (cumulative[i] > previous) builder.put(graph.node(i),
+						(cumulative[i] - previous) / total);
+				previous = cumulative[i];
+			}
+			return builder.build();
+		}
+
+		/**
+		 * @return the Shannon entropy of the distribution in bits
+		 */
+		public double entropy() {
+			double entropy = 0, previous = 0;
+			for (double c : cumulative) {
+				double p = (c - previous) / total;
+				previous = c;
+				if (p > 0) entropy -= p * Math.log(p);
+			}
+			return entropy / Math.log(2);
+		}
+	}
+
+	private static final int[] NONE = {};
+
+	private final GraphIndex graph;
+	private final RevealSchedule schedule;
+	private final MrXMotionModel model;
+	private final double[] start;
+
+	private double[] weights;
+	private double[] scratch;
+	private double total;
+	private int processed;
+	private int doubleTickets = -1;
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Creates a distribution with an {@link MrXMotionModel#evasive(double) evasive} model where
+	 * MrX starts uniformly at any of {@link ScotlandYard#MRX_LOCATIONS} on the graph
+	 *
+	 * @param setup the game setup
+	 */
+	public MrXLocationDistribution(@Nonnull GameSetup setup) {
+		this(setup, MrXMotionModel.evasive(0.5), ScotlandYard.MRX_LOCATIONS.stream()
+				.filter(node -> GraphIndex.of(setup).index(node) >= 0)
+				.collect(ImmutableList.toImmutableList()));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @param model the motion model
+	 * @param startLocations the stations MrX may start from, all equally likely
+	 */
+	public MrXLocationDistribution(@Nonnull GameSetup setup,
+	                               @Nonnull MrXMotionModel model,
+	                               @Nonnull Collection<Integer> startLocations) {
+		this.graph = GraphIndex.of(Objects.requireNonNull(setup));
+		this.schedule = setup.revealSchedule();
+		this.model = Objects.requireNonNull(model);
+		this.start = new double[graph.size()];
+		for (int node : startLocations) {
+			int index = graph.index(node);
+			if (index < 0)
+				throw new IllegalArgumentException("Station " + node + " not in graph");
+			start[index] = 1;
+		}
+		if (startLocations.isEmpty()) Arrays.fill(start, 1);
+		this.scratch = new double[graph.size()];
+		reset();
+	}
+
+	@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+		update(board);
+	}
+
+	/**
+	 * Forgets every processed log entry and goes back to the start distribution
+	 */
+	public synchronized void reset() {
+		weights = start.clone();
+		total = Arrays.stream(weights).sum();
+		processed = 0;
+		doubleTickets = -1;
+		snapshot = new Snapshot(graph, weights);
+	}
+
+	/**
+	 * Applies the travel log entries of the given board that have not been seen yet and zeroes
+	 * stations currently occupied by detectives. Any number of entries may be new, as when the
+	 * distribution is created mid-game. If the travel log is shorter than what has been
+	 * processed the board is assumed to be from a different game and the distribution starts
+	 * over.
+	 *
+	 * @param board the current board
+	 */
+	public synchronized void update(@Nonnull Board board) {
+		ImmutableList<LogEntry> log = board.getMrXTravelLog();
+		if (log.size() < processed) reset();
+		int[] detectives = detectiveIndices(board);
+		int[] distance = detectiveDistances(detectives);
+		// a drop in MrX's double tickets means the last two new entries were one move
+		int doubles = board.getPlayerTickets(Piece.MrX.MRX)
+				.map(t -> t.getCount(Ticket.DOUBLE)).orElse(-1);
+		int doubleFrom = doubleTickets > doubles && doubles >= 0 ? log.size() - 2 : log.size();
+		doubleTickets = doubles;
+		// the newest move is the only one made with the detectives where they are now
+		int newest = Math.min(doubleFrom, log.size() - 1);
+		for (int i = processed; i < log.size(); i++)
+			apply(log.get(i), i, i >= doubleFrom, i == log.size() - 1 ? detectives : NONE,
+					i >= newest ? distance : null);
+		processed = log.size();
+		for (int d : detectives) {
+			total -= weights[d];
+			weights[d] = 0;
+		}
+		renormalise();
+		snapshot = new Snapshot(graph, weights);
+	}
+
+	// detectives block the destinations, a null distance spreads the mass evenly
+	private void apply(LogEntry entry, int round, boolean doubleMove,
+	                   int[] detectives, int[] distance) {
+		var location = entry.location();
+		if (location.isPresent()) {
+			Arrays.fill(weights, 0);
+			int index = graph.index(location.get());
+			if (index >= 0) weights[index] = 1;
+			total = index >= 0 ? 1 : 0;
+			return;
+		}
+		var context = new MrXMotionModel.Context() {
+			@Nonnull @Override public GraphIndex graph() { return graph; }
+			@Nonnull @Override public RevealSchedule schedule() { return schedule; }
+			@Override public int round() { return round; }
+			@Nonnull @Override public Ticket ticket() { return entry.ticket(); }
+			@Override public boolean doubleMove() { return doubleMove; }
+			@Override public int detectiveDistance(int index) { return distance[index]; }
+		};
+		double[] next = scratch;
+		Arrays.fill(next, 0);
+		int ticket = 1 << entry.ticket().ordinal();
+		double moved = 0;
+		for (int from = 0; from < weights.length; from++) {
+			double mass = weights[from];
+			if (mass == 0) continue;
+			double sum = 0;
+			int legal = 0;
+			for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++) {
+				if (!legal(e, ticket, detectives)) continue;
+				if (distance != null) sum += model.weight(context, from, graph.target(e));
+				legal++;
+			}
+			if (legal == 0) continue;
+			for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++) {
+				if (!legal(e, ticket, detectives)) continue;
+				int to = graph.target(e);
+				double share = sum > 0 ? model.weight(context, from, to) / sum : 1.0 / legal;
+				next[to] += mass * share;
+			}
+			moved += mass;
+		}
+		scratch = weights;
+		weights = next;
+		total = moved;
+	}
+
+	private boolean legal(int edge, int ticket, int[] detectives) {
+		if ((graph.tickets(edge) & ticket) == 0) return false;
+		int to = graph.target(edge);
+		for (int d : detectives) if (d == to) return false;
+		return true;
+	}
+
+	// keep the mass around 1 so long games neither underflow nor drift
+	private void renormalise() {
+		if (total <= 0) {
+			total = 0;
+			return;
+		}
+		if (total > 1e-3 && total < 1e3) return;
+		for (int i = 0; i < weights.length; i++) weights[i] /= total;
+		total = 1;
+	}
+
+	private int[] detectiveIndices(Board board) {
+		return board.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.map(p -> board.getDetectiveLocation((Detective) p))
+				.flatMap(Optional::stream)
+				.mapToInt(graph::index)
+				.filter(i -> i >= 0)
+				.toArray();
+	}
+
+	private int[] detectiveDistances(int[] detectives) {
+		int[] distance = new int[graph.size()];
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		int[] queue = new int[graph.size()];
+		int head = 0, tail = 0;
+		for (int d : detectives) {
+			if (distance[d] == 0) continue;
+			distance[d] = 0;
+			queue[tail++] = d;
+		}
+		int detectiveMask = GraphIndex.mask(TransportClass.DETECTIVE.transports());
+		while (head < tail) {
+			int current = queue[head++];
+			for (int e = graph.edgesFrom(current); e < graph.edgesTo(current); e++) {
+				if ((graph.transports(e) & detectiveMask) == 0) continue;
+				int next = graph.target(e);
+				if (distance[next] != Integer.MAX_VALUE) continue;
+				distance[next] = distance[current] + 1;
+				queue[tail++] = next;
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * @return the number of travel log entries processed so far
+	 */
+	public int processedEntries() { return processed; }
+
+	/**
+	 * @return the distribution as of the last update; safe to share between threads
+	 */
+	@Nonnull public Snapshot snapshot() { return snapshot; }
+
+	/**
+	 * @param random the random source
+	 * @return a station drawn from the current distribution
+	 */
+	public int sample(@Nonnull SplittableRandom random) { return snapshot.sample(random); }
+
+	/**
+	 * @param node the station
+	 * @return the current probability MrX is at the given station
+	 */
+	public double probability(int node) { return snapshot.probability(node); }
+}
@@ -0,0 +1,235 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Model;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Tracks the set of stations MrX could be at, as seen by the detectives.
+ * <br>
+ * The candidate set is a bitset over {@link GraphIndex} indices. Each new {@link LogEntry} either
+ * collapses the set to the revealed station or expands it through the adjacency masks of the
+ * ticket used; stations occupied by detectives are then removed since MrX cannot be there
+ * without having been caught. Only entries that have not been seen before are processed, so a
+ * tracker registered as a {@link Model.Observer} does constant work per move regardless of how
+ * often it is queried. The tracker can also be fed boards directly with {@link #update(Board)}.
+ */
+public final class MrXLocationTracker implements Model.Observer {
+
+	// dense masks cost words * n longs per ticket, fall back to walking edges beyond this
+	private static final long DENSE_LIMIT = 1 << 20;
+	private static final Ticket[] TICKETS =
+			{Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND, Ticket.SECRET};
+	// the masks only depend on the graph and are never written to, so trackers share them
+	private static final LoadingCache<GraphIndex, long[][]> MASKS = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(graph -> buildMasks(graph, (graph.size() + 63) >>> 6)));
+
+	private final GraphIndex graph;
+	private final int words;
+	private final long[] start;
+	// [ticket ordinal][station index * words + word], shared per graph and null when the graph
+	// is too large
+	private final long[][] masks;
+
+	private long[] current;
+	private long[] scratch;
+	private int processed;
+	private volatile long[] snapshot;
+
+	/**
+	 * Creates a tracker that assumes MrX starts at any of {@link ScotlandYard#MRX_LOCATIONS}
+	 * that are on the graph, or anywhere if none are.
+	 *
+	 * @param setup the game setup
+	 */
+	public MrXLocationTracker(@Nonnull GameSetup setup) {
+		this(setup, defaultStart(GraphIndex.of(setup)));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @param startLocations the stations MrX may start from
+	 */
+	public MrXLocationTracker(@Nonnull GameSetup setup,
+	                          @Nonnull Collection<Integer> startLocations) {
+		this.graph = GraphIndex.of(Objects.requireNonNull(setup));
+		this.words = (graph.size() + 63) >>> 6;
+		this.start = new long[words];
+		for (int node : startLocations) {
+			int index = graph.index(node);
+			if (index < 0)
+				throw new IllegalArgumentException("Station " + node + " not in graph");
+			start[index >>> 6] |= 1L << index;
+		}
+		this.masks = (long) graph.size() * words <= DENSE_LIMIT ? MASKS.getUnchecked(graph) : null;
+		this.current = start.clone();
+		this.scratch = new long[words];
+		this.snapshot = current.clone();
+	}
+
+	private static ImmutableList<Integer> defaultStart(GraphIndex graph) {
+		var locations = ScotlandYard.MRX_LOCATIONS.stream()
+				.filter(node -> graph.index(node) >= 0)
+				.collect(ImmutableList.toImmutableList());
+		if (!locations.isEmpty()) return locations;
+		var builder = ImmutableList.<Integer>builder();
+		for (int i = 0; i < graph.size(); i++) builder.add(graph.node(i));
+		return builder.build();
+	}
+
+	private static long[][] buildMasks(GraphIndex graph, int words) {
+		long[][] masks = new long[Ticket.values().length][];
+		for (Ticket ticket : TICKETS) {
+			long[] mask = new long[graph.size() * words];
+			for (int i = 0; i < graph.size(); i++) {
+				for (int e = graph.edgesFrom(i); e < graph.edgesTo(i); e++) {
+					if (!graph.allows(e, ticket)) continue;
+					int target = graph.target(e);
+					mask[i * words + (target >>> 6)] |= 1L << target;
+				}
+			}
+			masks[ticket.ordinal()] = mask;
+		}
+		return masks;
+	}
+
+	@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+		update(board);
+	}
+
+	/**
+	 * Processes the travel log entries of the given board that this tracker has not seen yet and
+	 * removes the stations currently occupied by detectives. If the travel log is shorter than
+	 * what has been processed the board is assumed to be from a different game and the tracker
+	 * starts over.
+	 *
+	 * @param board the current board
+	 */
+	public synchronized void update(@Nonnull Board board) {
+		ImmutableList<LogEntry> log = board.getMrXTravelLog();
+		if (log.size() < processed) reset();
+		for (int i = processed; i < log.size(); i++) apply(log.get(i));
+		processed = log.size();
+		for (Piece piece : board.getPlayers()) {
+			if (!piece.isDetective()) continue;
+			board.getDetectiveLocation((Detective) piece).ifPresent(this::remove);
+		}
+		snapshot = current.clone();
+	}
+
+	/**
+	 * Forgets every processed log entry and goes back to the start locations
+	 */
+	public synchronized void reset() {
+		current = start.clone();
+		processed = 0;
+		snapshot = current.clone();
+	}
+
+	private void apply(LogEntry entry) {
+		var location = entry.location();
+		if (location.isPresent()) {
+			Arrays.fill(current, 0);
+			int index = graph.index(location.get());
+			if (index >= 0) current[index >>> 6] |= 1L << index;
+			return;
+		}
+		long[] next = scratch;
+		Arrays.fill(next, 0);
+		int ticket = entry.ticket().ordinal();
+		for (int w = 0; w < words; w++) {
+			long word = current[w];
+			while (word != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (masks != null) {
+					long[] mask = masks[ticket];
+					for (int j = 0, base = i * words; j < words; j++) next[j] |= mask[base + j];
+				} else {
+					for (int e = graph.edgesFrom(i); e < graph.edgesTo(i); e++) {
+						if ((graph.tickets(e) & (1 << ticket)) == 0) continue;
+						int target = graph.target(e);
+						next[target >>> 6] |= 1L << target;
+					}
+				}
+			}
+		}
+		scratch = current;
+		current = next;
+	}
+
+	private void remove(int node) {
+		int index = graph.index(node);
+		if (index >= 0) current[index >>> 6] &= ~(1L << index);
+	}
+
+	/**
+	 * @return the number of travel log entries processed so far
+	 */
+	public int processedEntries() { return processed; }
+
+	/**
+	 * @return the number of stations MrX could be at
+	 */
+	public int count() {
+		int count = 0;
+		for (long word : snapshot) count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @param node the station
+	 * @return whether MrX could be at the given station
+	 */
+	public boolean isCandidate(int node) {
+		int index = graph.index(node);
+		return index >= 0 && (snapshot[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * @return a copy of the candidate set as a bitset over {@link GraphIndex} indices
+	 */
+	@Nonnull public long[] toBits() { return snapshot.clone(); }
+
+	/**
+	 * @return the stations MrX could be at
+	 */
+	@Nonnull public ImmutableSet<Integer> candidates() {
+		long[] bits = snapshot;
+		var builder = ImmutableSet.<Integer>builder();
+		for (int w = 0; w < bits.length; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				builder.add(graph.node((w << 6) + Long.numberOfTrailingZeros(word)));
+				word &= word - 1;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the indexed graph the candidate bitset is defined over
+	 */
+	@Nonnull public GraphIndex graph() { return graph; }
+
+	// the shared adjacency masks, null when the graph is too large for them
+	long[][] masks() { return masks; }
+}
@@ -0,0 +1,82 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.RevealSchedule;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A model of how MrX moves, used by {@link MrXLocationDistribution} to weigh the stations MrX
+ * could have moved to for a single travel log entry.
+ * <br>
+ * Weights are relative to the other legal destinations from the same station and need not be
+ * normalised. Returning zero for every destination makes the distribution fall back to
+ * treating them as equally likely.
+ */
+@FunctionalInterface
+public interface MrXMotionModel {
+
+	/**
+	 * What is known about the game when a travel log entry is applied
+	 */
+	interface Context {
+		/**
+		 * @return the indexed game graph
+		 */
+		@Nonnull GraphIndex graph();
+		/**
+		 * @return the reveal schedule of the game
+		 */
+		@Nonnull RevealSchedule schedule();
+		/**
+		 * @return the zero based round of the entry, i.e its index in the travel log
+		 */
+		int round();
+		/**
+		 * @return the ticket used in the entry
+		 */
+		@Nonnull Ticket ticket();
+		/**
+		 * @return whether the entry is one half of a double move
+		 */
+		boolean doubleMove();
+		/**
+		 * @param index a station index
+		 * @return the number of detective moves from the given station to the nearest detective
+		 */
+		int detectiveDistance(int index);
+	}
+
+	/**
+	 * @param context the entry being applied
+	 * @param from the station index MrX moved from
+	 * @param to the station index MrX may have moved to
+	 * @return the relative weight of the move, &gt;= 0
+	 */
+	double weight(@Nonnull Context context, int from, int to);
+
+	/**
+	 * @return a model where MrX picks uniformly among the legal destinations
+	 */
+	@Nonnull static MrXMotionModel uniform() { return (context, from, to) -> 1; }
+
+	/**
+	 * A model where MrX prefers stations far away from the detectives. He is assumed to be more
+	 * careful when he spends a secret or double ticket, and in the rounds just before he has to
+	 * reveal himself.
+	 *
+	 * @param strength how strongly distance is preferred, 0 is {@link #uniform()}
+	 * @return the model
+	 */
+	@Nonnull static MrXMotionModel evasive(double strength) {
+		if (strength < 0) throw new IllegalArgumentException("strength < 0");
+		return (context, from, to) -> {
+			double beta = strength;
+			if (context.ticket() == Ticket.SECRET) beta *= 1.5;
+			if (context.doubleMove()) beta *= 1.5;
+			int untilReveal = context.schedule().roundsUntilReveal(context.round());
+			if (untilReveal >= 0 && untilReveal <= 1) beta *= 1.25;
+			return Math.exp(beta * Math.min(context.detectiveDistance(to), 6));
+		};
+	}
+}
@@ -0,0 +1,247 @@
+package uk.ac.bris.cs.scotlandyard.ai.book;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.search.GameStateEngine;
+import uk.ac.bris.cs.scotlandyard.ai.search.StateHash;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * Precomputed MrX moves for the opening positions of one {@link
+ * uk.ac.bris.cs.scotlandyard.model.GameSetup}, built offline by {@link OpeningBookBuilder}.
+ * <br>
+ * Positions are keyed by {@link StateHash#canonical}, so a book entry is found whatever colours
+ * the detectives were dealt. Keys are held sorted in a {@code long[]} with the moves, scores and
+ * depths in parallel arrays, so a lookup is one binary search.
+ * <br>
+ * The file format is big endian: the magic {@code SYOB}, a version, the 16 byte setup
+ * fingerprint, the number of rounds covered and the number of entries, followed by the keys,
+ * the {@link StateHash#moveCode move codes}, the scores and the depths, each as one column.
+ */
+public final class OpeningBook {
+
+	/** The system property naming a book file for {@link #standard()} */
+	public static final String PATH_PROPERTY = "scotlandyard.book";
+	/** The classpath resource {@link #standard()} falls back to */
+	public static final String RESOURCE = "/opening-book.bin";
+
+	private static final int MAGIC = 0x53594F42;
+	private static final int VERSION = 1;
+	private static final OpeningBook EMPTY =
+			new OpeningBook(HashCode.fromBytes(new byte[16]), 0, new long[0], new int[0],
+					new int[0], new byte[0]);
+
+	private static volatile OpeningBook standard;
+
+	private final HashCode fingerprint;
+	private final int rounds;
+	private final long[] keys;
+	private final int[] moves;
+	private final int[] scores;
+	private final byte[] depths;
+
+	private OpeningBook(HashCode fingerprint, int rounds, long[] keys, int[] moves, int[] scores,
+	                    byte[] depths) {
+		this.fingerprint = fingerprint;
+		this.rounds = rounds;
+		this.keys = keys;
+		this.moves = moves;
+		this.scores = scores;
+		this.depths = depths;
+	}
+
+	/**
+	 * A searched position
+	 */
+	static final class Entry {
+		final int moveCode;
+		final int score;
+		final int depth;
+
+		Entry(int moveCode, int score, int depth) {
+			this.moveCode = moveCode;
+			this.score = score;
+			this.depth = depth;
+		}
+	}
+
+	static OpeningBook of(HashCode fingerprint, int rounds, Map<Long, Entry> entries) {
+		long[] keys = entries.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+		int[] moves = new int[keys.length], scores = new int[keys.length];
+		byte[] depths = new byte[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			Entry entry = entries.get(keys[i]);
+			moves[i] = entry.moveCode;
+			scores[i] = entry.score;
+			depths[i] = (byte) Math.min(entry.depth, Byte.MAX_VALUE);
+		}
+		return new OpeningBook(fingerprint, rounds, keys, moves, scores, depths);
+	}
+
+	/**
+	 * @return a book without any positions
+	 */
+	@Nonnull public static OpeningBook empty() { return EMPTY; }
+
+	/**
+	 * @return the book named by {@value #PATH_PROPERTY}, or else the {@value #RESOURCE} resource,
+	 * or else the empty book; loaded once
+	 */
+	@Nonnull public static OpeningBook standard() {
+		var book = standard;
+		if (book == null) {
+			synchronized (OpeningBook.class) {
+				book = standard;
+				if (book == null) standard = book = loadStandard();
+			}
+		}
+		return book;
+	}
+
+	private static OpeningBook loadStandard() {
+		try {
+			String path = System.getProperty(PATH_PROPERTY);
+			if (path != null) {
+				try (InputStream in = Files.newInputStream(Paths.get(path))) {
+					return read(in);
+				}
+			}
+			try (InputStream in = OpeningBook.class.getResourceAsStream(RESOURCE)) {
+				return in == null ? EMPTY : read(in);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to load the opening book", e);
+		}
+	}
+
+	/**
+	 * @param in the stream to read a book from; not closed
+	 * @return the book
+	 * @throws IOException if the stream fails or does not hold a book
+	 */
+	@Nonnull public static OpeningBook read(@Nonnull InputStream in) throws IOException {
+		var data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) throw new IOException("Not an opening book");
+		int version = data.readInt();
+		if (version != VERSION) throw new IOException("Unsupported book version " + version);
+		byte[] fingerprint = new byte[16];
+		data.readFully(fingerprint);
+		int rounds = data.readInt();
+		int size = data.readInt();
+		if (size < 0) throw new IOException("Corrupted book size " + size);
+		long[] keys = new long[size];
+		int[] moves = new int[size], scores = new int[size];
+		byte[] depths = new byte[size];
+		for (int i = 0; i < size; i++) keys[i] = data.readLong();
+		for (int i = 0; i < size; i++) moves[i] = data.readInt();
+		for (int i = 0; i < size; i++) scores[i] = data.readInt();
+		data.readFully(depths);
+		for (int i = 1; i < size; i++)
+			if (keys[i - 1] >= keys[i]) throw new IOException("Book keys are not sorted");
+		return new OpeningBook(HashCode.fromBytes(fingerprint), rounds, keys, moves, scores,
+				depths);
+	}
+
+	/**
+	 * @param path the file to read
+	 * @return the book
+	 * @throws IOException if the file cannot be read or does not hold a book
+	 */
+	@Nonnull public static OpeningBook read(@Nonnull Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * @param out the stream to write this book to; flushed but not closed
+	 * @throws IOException if the stream fails
+	 */
+	public void write(@Nonnull OutputStream out) throws IOException {
+		var data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.write(fingerprint.asBytes());
+		data.writeInt(rounds);
+		data.writeInt(keys.length);
+		for (long key : keys) data.writeLong(key);
+		for (int move : moves) data.writeInt(move);
+		for (int score : scores) data.writeInt(score);
+		data.write(depths);
+		data.flush();
+	}
+
+	/**
+	 * @param state a state where it is MrX's turn
+	 * @return the book move for the state, if the state is in the book and the move is legal
+	 */
+	@Nonnull public Optional<Move> lookup(@Nonnull GameStateEngine.State state) {
+		int i = index(state);
+		if (i < 0) return Optional.empty();
+		return state.gameState().getAvailableMoves().stream()
+				.filter(m -> StateHash.moveCode(m) == moves[i])
+				.findFirst();
+	}
+
+	/**
+	 * @param state a state
+	 * @return the score of the book move, see
+	 * {@link uk.ac.bris.cs.scotlandyard.ai.search.AlphaBetaSearch.Result#score()}, if the state
+	 * is in the book
+	 */
+	@Nonnull public OptionalInt score(@Nonnull GameStateEngine.State state) {
+		int i = index(state);
+		return i < 0 ? OptionalInt.empty() : OptionalInt.of(scores[i]);
+	}
+
+	private int index(GameStateEngine.State state) {
+		Objects.requireNonNull(state);
+		if (keys.length == 0 || !state.gameState().getSetup().fingerprint().equals(fingerprint))
+			return -1;
+		int i = Arrays.binarySearch(keys, StateHash.canonical(state));
+		return i < 0 ? -1 : i;
+	}
+
+	/**
+	 * @param state a state
+	 * @return the depth the book move was searched to, or 0 if the state is not in the book
+	 */
+	public int depth(@Nonnull GameStateEngine.State state) {
+		int i = index(state);
+		return i < 0 ? 0 : depths[i];
+	}
+
+	/**
+	 * @return the fingerprint of the setup this book was built for
+	 */
+	@Nonnull public HashCode fingerprint() { return fingerprint; }
+
+	/**
+	 * @return the number of MrX moves from the start each line was built for
+	 */
+	public int rounds() { return rounds; }
+
+	/**
+	 * @return the number of positions in the book
+	 */
+	public int size() { return keys.length; }
+}
@@ -0,0 +1,240 @@
+package uk.ac.bris.cs.scotlandyard.ai.book;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.search.AlphaBetaSearch;
+import uk.ac.bris.cs.scotlandyard.ai.search.GameStateEngine;
+import uk.ac.bris.cs.scotlandyard.ai.search.StateHash;
+import uk.ac.bris.cs.scotlandyard.ai.search.TranspositionTable;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Builds an {@link OpeningBook} offline by searching every start configuration: each of the MrX
+ * start locations against each combination of detective start locations.
+ * <br>
+ * Every configuration is searched with an {@link AlphaBetaSearch} for a fixed time per move, on
+ * a pool of worker threads sharing one {@link TranspositionTable}. For books deeper than one
+ * round the line is continued with MrX's book move and the detectives' searched replies, which is
+ * the line a paranoid MrX expects. Colours do not matter to the book, so only combinations of
+ * detective locations are searched, not their permutations.
+ * <br>
+ * Run it with {@code --out <file>} and optionally {@code --rounds}, {@code --millis} per searched
+ * move, {@code --detectives}, {@code --threads}, {@code --depth} and {@code --megabytes} for the
+ * table.
+ */
+public final class OpeningBookBuilder {
+
+	/**
+	 * Told how far a build has got, from the worker threads
+	 */
+	@FunctionalInterface public interface Progress {
+		/**
+		 * @param done the configurations searched so far
+		 * @param total the configurations to search
+		 * @param positions the positions in the book so far
+		 */
+		void searched(int done, int total, int positions);
+	}
+
+	private final GameSetup setup;
+	private ImmutableList<Integer> mrXStarts = ScotlandYard.MRX_LOCATIONS;
+	private ImmutableList<Integer> detectiveStarts = ScotlandYard.DETECTIVE_LOCATIONS;
+	private int detectives = 5;
+	private int rounds = 1;
+	private long millis = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxDepth = 32;
+	private TranspositionTable table = TranspositionTable.shared();
+	private Progress progress = (done, total, positions) -> {};
+
+	/**
+	 * @param setup the setup to build the book for
+	 */
+	public OpeningBookBuilder(@Nonnull GameSetup setup) {
+		this.setup = Objects.requireNonNull(setup);
+	}
+
+	@Nonnull public OpeningBookBuilder mrXStarts(@Nonnull ImmutableList<Integer> starts) {
+		this.mrXStarts = Objects.requireNonNull(starts);
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder detectiveStarts(@Nonnull ImmutableList<Integer> starts) {
+		this.detectiveStarts = Objects.requireNonNull(starts);
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder detectives(int detectives) {
+		if (detectives <= 0 || detectives > ScotlandYard.DETECTIVES.size())
+			throw new IllegalArgumentException("detectives out of range: " + detectives);
+		this.detectives = detectives;
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder rounds(int rounds) {
+		if (rounds <= 0) throw new IllegalArgumentException("rounds <= 0");
+		this.rounds = rounds;
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder millisPerMove(long millis) {
+		if (millis <= 0) throw new IllegalArgumentException("millis <= 0");
+		this.millis = millis;
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder threads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+		this.threads = threads;
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder maxDepth(int maxDepth) {
+		if (maxDepth <= 0) throw new IllegalArgumentException("maxDepth <= 0");
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	@Nonnull public OpeningBookBuilder table(@Nonnull TranspositionTable table) {
+		this.table = Objects.requireNonNull(table);
+		return this;
+	}
+
+	/**
+	 * @param progress told after every configuration searched; it must be thread safe
+	 * @return this builder
+	 */
+	@Nonnull public OpeningBookBuilder progress(@Nonnull Progress progress) {
+		this.progress = Objects.requireNonNull(progress);
+		return this;
+	}
+
+	/**
+	 * Searches every configuration, blocking until done.
+	 *
+	 * @return the book
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	@Nonnull public OpeningBook build() throws InterruptedException {
+		if (detectives > detectiveStarts.size())
+			throw new IllegalArgumentException("More detectives than start locations");
+		Set<Set<Integer>> combinations =
+				Sets.combinations(Set.copyOf(detectiveStarts), detectives);
+		Map<Long, OpeningBook.Entry> entries = new ConcurrentHashMap<>();
+		ThreadLocal<AlphaBetaSearch> searches = ThreadLocal.withInitial(() ->
+				new AlphaBetaSearch(new GameStateEngine(), table, maxDepth));
+		List<GameStateEngine.State> starts = new ArrayList<>();
+		for (int mrX : mrXStarts) {
+			if (detectiveStarts.contains(mrX)) continue;
+			for (Set<Integer> locations : combinations) starts.add(start(mrX, locations));
+		}
+		List<Callable<Void>> tasks = new ArrayList<>();
+		AtomicInteger done = new AtomicInteger();
+		for (GameStateEngine.State start : starts) {
+			tasks.add(() -> {
+				line(searches.get(), start, entries);
+				progress.searched(done.incrementAndGet(), starts.size(), entries.size());
+				return null;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) f.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Book search failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return OpeningBook.of(setup.fingerprint(), rounds, entries);
+	}
+
+	private GameStateEngine.State start(int mrX, Set<Integer> locations) {
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var players = ImmutableList.<Player>builder();
+		int i = 0;
+		for (int location : locations.stream().sorted().toArray(Integer[]::new))
+			players.add(new Player(pieces.get(i++), defaultDetectiveTickets(), location));
+		GameState game = new MyGameStateFactory().build(setup,
+				new Player(Piece.MrX.MRX, defaultMrXTickets(), mrX), players.build());
+		return new GameStateEngine.State(game, mrX);
+	}
+
+	private void line(AlphaBetaSearch search, GameStateEngine.State state,
+	                  Map<Long, OpeningBook.Entry> entries) {
+		var engine = new GameStateEngine();
+		for (int round = 0; round < rounds && !engine.isTerminal(state); ) {
+			var result = search.search(state, deadline());
+			Move move = result.bestMove();
+			if (move.commencedBy().isMrX()) {
+				entries.putIfAbsent(StateHash.canonical(state), new OpeningBook.Entry(
+						StateHash.moveCode(move), result.score(), result.depth()));
+				round++;
+			}
+			state = engine.advance(state, move);
+		}
+	}
+
+	private long deadline() { return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis); }
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+		var builder = new OpeningBookBuilder(setup);
+		Path out = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--out": out = Paths.get(value); break;
+				case "--rounds": builder.rounds(Integer.parseInt(value)); break;
+				case "--millis": builder.millisPerMove(Long.parseLong(value)); break;
+				case "--detectives": builder.detectives(Integer.parseInt(value)); break;
+				case "--threads": builder.threads(Integer.parseInt(value)); break;
+				case "--depth": builder.maxDepth(Integer.parseInt(value)); break;
+				case "--megabytes":
+					builder.table(TranspositionTable.ofMegabytes(Integer.parseInt(value)));
+					break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (out == null) throw new IllegalArgumentException("Missing --out <file>");
+		builder.progress((done, total, positions) -> {
+			if (done % 100 == 0 || done == total)
+				System.out.printf("%d/%d configurations, %d positions%n", done, total, positions);
+		});
+		OpeningBook book = builder.build();
+		try (OutputStream stream = Files.newOutputStream(out)) {
+			book.write(stream);
+		}
+		System.out.printf("Wrote %d positions to %s%n", book.size(), out);
+	}
+}
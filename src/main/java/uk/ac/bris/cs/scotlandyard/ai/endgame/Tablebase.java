@@ -0,0 +1,308 @@
+package uk.ac.bris.cs.scotlandyard.ai.endgame;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.GraphIndex;
+import uk.ac.bris.cs.scotlandyard.ai.search.GameStateEngine;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Board.TicketBoard;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Exact results for the last rounds of games with few detectives, solved offline by
+ * {@link TablebaseBuilder}.
+ * <br>
+ * Like the searches, the tablebase is about the perfect information game: it says who wins if
+ * the detectives knew where MrX is. It is built under a ticket rich abstraction: detectives are
+ * never short of taxi, bus or underground tickets and neither is MrX, whose secret and double
+ * tickets are tracked exactly up to the caps the table was built with. Since detectives then are
+ * interchangeable, their locations are stored as an unordered set.
+ * <br>
+ * For every number of rounds left, one bit per position (MrX's location, his secret and double
+ * tickets, the detectives' locations) says whether MrX, to move, wins. Positions are indexed as
+ * {@code ((combination * stations + mrX) * (secrets + 1) + secret) * (doubles + 1) + double}
+ * where the combination is the colexicographic rank of the sorted detective locations.
+ * <br>
+ * The file format is big endian: the magic {@code SYTB}, a version, the 16 byte setup fingerprint,
+ * the detective count, the secret and double caps, the number of rounds and stations, then for
+ * every layer from one round left upwards its word count and words.
+ */
+public final class Tablebase {
+
+	/**
+	 * What the tablebase knows about a position
+	 */
+	public enum Outcome {
+		/** MrX wins with best play */
+		MRX_WINS,
+		/** The detectives win with best play */
+		DETECTIVES_WIN,
+		/** The position is not covered */
+		UNKNOWN
+	}
+
+	/** The system property naming a tablebase file for {@link #standard()} */
+	public static final String PATH_PROPERTY = "scotlandyard.tablebase";
+	/** The classpath resource {@link #standard()} falls back to */
+	public static final String RESOURCE = "/tablebase.bin";
+
+	private static final int MAGIC = 0x53595442;
+	private static final int VERSION = 1;
+	private static final Ticket[] DETECTIVE_TICKETS = {Ticket.TAXI, Ticket.BUS, Ticket.UNDERGROUND};
+	private static final Tablebase EMPTY = new Tablebase(HashCode.fromBytes(new byte[16]),
+			1, 0, 0, 0, new long[0][]);
+
+	private static volatile Tablebase standard;
+
+	final HashCode fingerprint;
+	final int detectives;
+	final int secrets;
+	final int doubles;
+	final int stations;
+	private final long[][] layers;
+	private final long[][] binomials;
+
+	Tablebase(HashCode fingerprint, int detectives, int secrets, int doubles, int stations,
+	          long[][] layers) {
+		this.fingerprint = fingerprint;
+		this.detectives = detectives;
+		this.secrets = secrets;
+		this.doubles = doubles;
+		this.stations = stations;
+		this.layers = layers;
+		this.binomials = binomials(stations, detectives);
+	}
+
+	static long[][] binomials(int n, int k) {
+		long[][] c = new long[n + 1][k + 1];
+		for (int i = 0; i <= n; i++) {
+			c[i][0] = 1;
+			for (int j = 1; j <= Math.min(i, k); j++)
+				c[i][j] = c[i - 1][j - 1] + (j <= i - 1 ? c[i - 1][j] : 0);
+		}
+		return c;
+	}
+
+	/**
+	 * @param sorted detective station indices in ascending order
+	 * @return the colexicographic rank of the combination
+	 */
+	long rank(int[] sorted) {
+		long rank = 0;
+		for (int i = 0; i < sorted.length; i++) rank += binomials[sorted[i]][i + 1];
+		return rank;
+	}
+
+	/**
+	 * @param rank a colexicographic rank
+	 * @return the detective station indices of that rank in ascending order
+	 */
+	int[] unrank(long rank) {
+		int[] sorted = new int[detectives];
+		long rest = rank;
+		for (int i = detectives - 1; i >= 0; i--) {
+			int v = i;
+			while (v + 1 < stations && binomials[v + 1][i + 1] <= rest) v++;
+			sorted[i] = v;
+			rest -= binomials[v][i + 1];
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return the number of detective combinations
+	 */
+	long combinations() { return binomials[stations][detectives]; }
+
+	long index(long combination, int mrX, int secret, int doubleTickets) {
+		return ((combination * stations + mrX) * (secrets + 1) + secret) * (doubles + 1)
+				+ doubleTickets;
+	}
+
+	long bits() { return combinations() * stations * (secrets + 1) * (doubles + 1); }
+
+	/**
+	 * @return a tablebase that covers nothing
+	 */
+	@Nonnull public static Tablebase empty() { return EMPTY; }
+
+	/**
+	 * @return the tablebase named by {@value #PATH_PROPERTY}, or else the {@value #RESOURCE}
+	 * resource, or else the empty tablebase; loaded once
+	 */
+	@Nonnull public static Tablebase standard() {
+		var tablebase = standard;
+		if (tablebase == null) {
+			synchronized (Tablebase.class) {
+				tablebase = standard;
+				if (tablebase == null) standard = tablebase = loadStandard();
+			}
+		}
+		return tablebase;
+	}
+
+	private static Tablebase loadStandard() {
+		try {
+			String path = System.getProperty(PATH_PROPERTY);
+			if (path != null) return read(Paths.get(path));
+			try (InputStream in = Tablebase.class.getResourceAsStream(RESOURCE)) {
+				return in == null ? EMPTY : read(in);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to load the tablebase", e);
+		}
+	}
+
+	/**
+	 * Looks a position up. Positions are covered when it is MrX's turn, the game has as many
+	 * detectives as the table, no more rounds are left than were solved, every detective holds at
+	 * least one taxi, bus and underground ticket per round left and MrX one per round left plus
+	 * one per double ticket. If MrX has more secret or double tickets than the caps, only a MrX
+	 * win is certain.
+	 *
+	 * @param state the state
+	 * @return the outcome
+	 */
+	@Nonnull public Outcome probe(@Nonnull GameStateEngine.State state) {
+		Objects.requireNonNull(state);
+		GameState game = state.gameState();
+		if (layers.length == 0 || !game.getSetup().fingerprint().equals(fingerprint))
+			return Outcome.UNKNOWN;
+		if (game.getAvailableMoves().stream().noneMatch(m -> m.commencedBy().isMrX()))
+			return Outcome.UNKNOWN;
+		int left = game.getSetup().revealSchedule().rounds() - game.getMrXTravelLog().size();
+		if (left < 1 || left > layers.length) return Outcome.UNKNOWN;
+		GraphIndex graph = GraphIndex.of(game.getSetup());
+		if (graph.size() != stations) return Outcome.UNKNOWN;
+		int[] locations = new int[detectives];
+		int found = 0;
+		for (Piece piece : game.getPlayers()) {
+			if (piece.isMrX()) continue;
+			if (found == detectives) return Outcome.UNKNOWN;
+			TicketBoard tickets = game.getPlayerTickets(piece).orElseThrow();
+			for (Ticket ticket : DETECTIVE_TICKETS)
+				if (tickets.getCount(ticket) < left) return Outcome.UNKNOWN;
+			locations[found++] = graph.index(
+					game.getDetectiveLocation((Detective) piece).orElseThrow());
+		}
+		if (found != detectives) return Outcome.UNKNOWN;
+		TicketBoard mrX = game.getPlayerTickets(Piece.MrX.MRX).orElseThrow();
+		int secret = mrX.getCount(Ticket.SECRET), doubleTickets = mrX.getCount(Ticket.DOUBLE);
+		for (Ticket ticket : DETECTIVE_TICKETS)
+			if (mrX.getCount(ticket) < left + doubleTickets) return Outcome.UNKNOWN;
+		boolean capped = secret > secrets || doubleTickets > doubles;
+		Arrays.sort(locations);
+		long bit = index(rank(locations), graph.index(state.mrXLocation()),
+				Math.min(secret, secrets), Math.min(doubleTickets, doubles));
+		if ((layers[left - 1][(int) (bit >>> 6)] >>> bit & 1) != 0) return Outcome.MRX_WINS;
+		return capped ? Outcome.UNKNOWN : Outcome.DETECTIVES_WIN;
+	}
+
+	/**
+	 * @param in the stream to read a tablebase from; not closed
+	 * @return the tablebase
+	 * @throws IOException if the stream fails or does not hold a tablebase
+	 */
+	@Nonnull public static Tablebase read(@Nonnull InputStream in) throws IOException {
+		var data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) throw new IOException("Not a tablebase");
+		int version = data.readInt();
+		if (version != VERSION) throw new IOException("Unsupported tablebase version " + version);
+		byte[] fingerprint = new byte[16];
+		data.readFully(fingerprint);
+		int detectives = data.readInt(), secrets = data.readInt(), doubles = data.readInt();
+		int rounds = data.readInt(), stations = data.readInt();
+		if (detectives < 1 || secrets < 0 || doubles < 0 || rounds < 0 || stations < detectives)
+			throw new IOException("Corrupted tablebase header");
+		long[][] layers = new long[rounds][];
+		for (int r = 0; r < rounds; r++) {
+			int words = data.readInt();
+			if (words < 0) throw new IOException("Corrupted tablebase layer");
+			layers[r] = new long[words];
+			for (int i = 0; i < words; i++) layers[r][i] = data.readLong();
+		}
+		var tablebase = new Tablebase(HashCode.fromBytes(fingerprint), detectives, secrets,
+				doubles, stations, layers);
+		for (long[] layer : layers)
+			if (layer.length != words(tablebase.bits()))
+				throw new IOException("Tablebase layer has the wrong size");
+		return tablebase;
+	}
+
+	/**
+	 * @param path the file to read
+	 * @return the tablebase
+	 * @throws IOException if the file cannot be read or does not hold a tablebase
+	 */
+	@Nonnull public static Tablebase read(@Nonnull Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * @param out the stream to write this tablebase to; flushed but not closed
+	 * @throws IOException if the stream fails
+	 */
+	public void write(@Nonnull OutputStream out) throws IOException {
+		var data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.write(fingerprint.asBytes());
+		data.writeInt(detectives);
+		data.writeInt(secrets);
+		data.writeInt(doubles);
+		data.writeInt(layers.length);
+		data.writeInt(stations);
+		for (long[] layer : layers) {
+			data.writeInt(layer.length);
+			for (long word : layer) data.writeLong(word);
+		}
+		data.flush();
+	}
+
+	static int words(long bits) {
+		long words = (bits + 63) >>> 6;
+		if (words > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Tablebase layer too large: " + bits + " bits");
+		return (int) words;
+	}
+
+	/**
+	 * @return the number of detectives the tablebase is for
+	 */
+	public int detectives() { return detectives; }
+
+	/**
+	 * @return the number of final rounds solved
+	 */
+	public int rounds() { return layers.length; }
+
+	/**
+	 * @return the size of the stored layers in bytes
+	 */
+	public long bytes() { return Arrays.stream(layers).mapToLong(l -> l.length * 8L).sum(); }
+
+	/**
+	 * @return the fingerprint of the setup this tablebase was built for
+	 */
+	@Nonnull public HashCode fingerprint() { return fingerprint; }
+}
@@ -0,0 +1,322 @@
+package uk.ac.bris.cs.scotlandyard.ai.endgame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.GraphIndex;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Solves a {@link Tablebase} by retrograde analysis, one round at a time from the end of the
+ * game backwards.
+ * <br>
+ * With no rounds left MrX has won. Going back one round, the detectives' half of the round is
+ * solved first: from every combination of detective locations all joint replies are enumerated,
+ * in every order the detectives may move in, and MrX survives it if none of them reaches his
+ * station and he wins every resulting position. MrX's half then follows: he wins if some single
+ * move, or some double move while he has a double ticket, leads to a detectives' half he
+ * survives. As in the game, a move that ends MrX's last round can no longer be caught.
+ * <br>
+ * Each half is computed in parallel over detective combinations on a dedicated
+ * {@link ForkJoinPool}, setting bits with atomic ors since neighbouring combinations share
+ * words. Only the two most recent detectives' halves are kept besides the stored layers.
+ * <br>
+ * Run it with {@code --out <file>} and optionally {@code --rounds}, {@code --detectives},
+ * {@code --secrets}, {@code --doubles} and {@code --threads}.
+ */
+public final class TablebaseBuilder {
+
+	/**
+	 * Told how far a build has got
+	 */
+	@FunctionalInterface public interface Progress {
+		/**
+		 * @param solved the rounds solved so far, counted from the end of the game
+		 * @param rounds the rounds to solve
+		 */
+		void solved(int solved, int rounds);
+	}
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final int DETECTIVE_TICKETS = 1 << Ticket.TAXI.ordinal()
+			| 1 << Ticket.BUS.ordinal() | 1 << Ticket.UNDERGROUND.ordinal();
+
+	private final GameSetup setup;
+	private int detectives = 1;
+	private int secrets = 2;
+	private int doubles = 1;
+	private int rounds = 3;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private Progress progress = (solved, rounds) -> {};
+
+	/**
+	 * @param setup the setup to solve the tablebase for
+	 */
+	public TablebaseBuilder(@Nonnull GameSetup setup) {
+		this.setup = Objects.requireNonNull(setup);
+	}
+
+	@Nonnull public TablebaseBuilder detectives(int detectives) {
+		if (detectives <= 0 || detectives > ScotlandYard.DETECTIVES.size())
+			throw new IllegalArgumentException("detectives out of range: " + detectives);
+		this.detectives = detectives;
+		return this;
+	}
+
+	@Nonnull public TablebaseBuilder secrets(int secrets) {
+		if (secrets < 0) throw new IllegalArgumentException("secrets < 0");
+		this.secrets = secrets;
+		return this;
+	}
+
+	@Nonnull public TablebaseBuilder doubles(int doubles) {
+		if (doubles < 0) throw new IllegalArgumentException("doubles < 0");
+		this.doubles = doubles;
+		return this;
+	}
+
+	@Nonnull public TablebaseBuilder rounds(int rounds) {
+		if (rounds <= 0) throw new IllegalArgumentException("rounds <= 0");
+		this.rounds = rounds;
+		return this;
+	}
+
+	@Nonnull public TablebaseBuilder threads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @param progress told after every round solved
+	 * @return this builder
+	 */
+	@Nonnull public TablebaseBuilder progress(@Nonnull Progress progress) {
+		this.progress = Objects.requireNonNull(progress);
+		return this;
+	}
+
+	/**
+	 * Solves every layer, blocking until done.
+	 *
+	 * @return the tablebase
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	@Nonnull public Tablebase build() throws InterruptedException {
+		GraphIndex graph = GraphIndex.of(setup);
+		if (detectives >= graph.size())
+			throw new IllegalArgumentException("More detectives than stations");
+		var shape = new Tablebase(setup.fingerprint(), detectives, secrets, doubles,
+				graph.size(), new long[0][]);
+		int words = Tablebase.words(shape.bits());
+		var solver = new Solver(graph, shape);
+		long[][] layers = new long[rounds][];
+		// null stands for the detectives' half of MrX's last round, which MrX always survives
+		long[] older = null;
+		long[] previous = null;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int r = 1; r <= rounds; r++) {
+				long[] afterSingle = previous, afterDouble = older;
+				boolean doubleMoves = r > 1;
+				long[] layer = new long[words];
+				run(pool, shape, c ->
+						solver.mrX(c, afterSingle, doubleMoves, afterDouble, layer));
+				layers[r - 1] = layer;
+				long[] detectiveHalf = new long[words];
+				run(pool, shape, c -> solver.detectives(c, layer, detectiveHalf));
+				older = previous;
+				previous = detectiveHalf;
+				progress.solved(r, rounds);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Tablebase(setup.fingerprint(), detectives, secrets, doubles, graph.size(),
+				layers);
+	}
+
+	private interface CombinationTask {
+		void solve(long combination);
+	}
+
+	private static void run(ForkJoinPool pool, Tablebase shape, CombinationTask task)
+			throws InterruptedException {
+		try {
+			pool.submit(() -> LongStream.range(0, shape.combinations()).parallel()
+					.forEach(task::solve)).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Tablebase worker failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The per combination work of one round, shared by all workers
+	 */
+	private static final class Solver {
+		private final GraphIndex graph;
+		private final Tablebase shape;
+		private final int k;
+		private final int secrets;
+		private final int doubles;
+
+		Solver(GraphIndex graph, Tablebase shape) {
+			this.graph = graph;
+			this.shape = shape;
+			this.k = shape.detectives;
+			this.secrets = shape.secrets;
+			this.doubles = shape.doubles;
+		}
+
+		/**
+		 * Sets the MrX to move bits of one combination
+		 */
+		void mrX(long combination, long[] afterSingle, boolean doubleMoves, long[] afterDouble,
+		         long[] out) {
+			int[] occupied = shape.unrank(combination);
+			for (int x = 0; x < shape.stations; x++) {
+				if (contains(occupied, x)) continue;
+				for (int s = 0; s <= secrets; s++)
+					for (int d = 0; d <= doubles; d++)
+						if (mrXWins(combination, occupied, x, s, d, afterSingle,
+								doubleMoves && d > 0, afterDouble))
+							set(out, shape.index(combination, x, s, d));
+			}
+		}
+
+		private boolean mrXWins(long c, int[] occupied, int x, int s, int d,
+		                        long[] afterSingle, boolean canDouble, long[] afterDouble) {
+			for (int e = graph.edgesFrom(x); e < graph.edgesTo(x); e++) {
+				int y = graph.target(e);
+				int s1 = s - cost(e);
+				if (s1 < 0 || contains(occupied, y)) continue;
+				if (afterSingle == null || get(afterSingle, shape.index(c, y, s1, d))) return true;
+				if (!canDouble) continue;
+				for (int f = graph.edgesFrom(y); f < graph.edgesTo(y); f++) {
+					int z = graph.target(f);
+					int s2 = s1 - cost(f);
+					if (s2 < 0 || contains(occupied, z)) continue;
+					if (afterDouble == null || get(afterDouble, shape.index(c, z, s2, d - 1)))
+						return true;
+				}
+			}
+			return false;
+		}
+
+		// ferries need a secret ticket, anything else is paid with a ticket MrX has plenty of
+		private int cost(int edge) { return (graph.tickets(edge) & DETECTIVE_TICKETS) == 0 ? 1 : 0; }
+
+		/**
+		 * Sets the bits of one combination for positions MrX survives the detectives' half of a
+		 * round in, given the MrX to move layer that follows it
+		 */
+		void detectives(long combination, long[] next, long[] out) {
+			int[] start = shape.unrank(combination);
+			var replies = new Replies(k);
+			replies.enumerate(start.clone(), 0);
+			for (int x = 0; x < shape.stations; x++) {
+				if (contains(start, x) || replies.threatened[x]) continue;
+				for (int s = 0; s <= secrets; s++)
+					for (int d = 0; d <= doubles; d++) {
+						boolean survives = true;
+						for (int i = 0; i < replies.count && survives; i++)
+							survives = get(next, shape.index(replies.ranks[i], x, s, d));
+						if (survives) set(out, shape.index(combination, x, s, d));
+					}
+			}
+		}
+
+		/**
+		 * Every joint reply of the detectives to one combination, as the ranks of where they end
+		 * up, and every station one of them can reach along the way
+		 */
+		private final class Replies {
+			final boolean[] threatened = new boolean[shape.stations];
+			long[] ranks = new long[16];
+			int count;
+			private final int[] sorted;
+
+			Replies(int k) { this.sorted = new int[k]; }
+
+			void enumerate(int[] locations, int moved) {
+				boolean anyMoved = false;
+				for (int i = 0; i < locations.length; i++) {
+					if ((moved & 1 << i) != 0) continue;
+					int from = locations[i];
+					for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++) {
+						int to = graph.target(e);
+						if ((graph.tickets(e) & DETECTIVE_TICKETS) == 0
+								|| contains(locations, to)) continue;
+						anyMoved = true;
+						threatened[to] = true;
+						locations[i] = to;
+						enumerate(locations, moved | 1 << i);
+						locations[i] = from;
+					}
+				}
+				if (!anyMoved) add(locations);
+			}
+
+			private void add(int[] locations) {
+				System.arraycopy(locations, 0, sorted, 0, sorted.length);
+				Arrays.sort(sorted);
+				if (count == ranks.length) ranks = Arrays.copyOf(ranks, count * 2);
+				ranks[count++] = shape.rank(sorted);
+			}
+		}
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) if (v == value) return true;
+		return false;
+	}
+
+	private static boolean get(long[] words, long bit) {
+		return (words[(int) (bit >>> 6)] >>> bit & 1) != 0;
+	}
+
+	private static void set(long[] words, long bit) {
+		WORDS.getAndBitwiseOr(words, (int) (bit >>> 6), 1L << bit);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+		var builder = new TablebaseBuilder(setup);
+		Path out = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--out": out = Paths.get(value); break;
+				case "--rounds": builder.rounds(Integer.parseInt(value)); break;
+				case "--detectives": builder.detectives(Integer.parseInt(value)); break;
+				case "--secrets": builder.secrets(Integer.parseInt(value)); break;
+				case "--doubles": builder.doubles(Integer.parseInt(value)); break;
+				case "--threads": builder.threads(Integer.parseInt(value)); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (out == null) throw new IllegalArgumentException("Missing --out <file>");
+		builder.progress((solved, rounds) ->
+				System.out.printf("Solved %d of %d rounds%n", solved, rounds));
+		Tablebase tablebase = builder.build();
+		try (OutputStream stream = Files.newOutputStream(out)) {
+			tablebase.write(stream);
+		}
+		System.out.printf("Wrote %d rounds, %d bytes to %s%n", tablebase.rounds(),
+				tablebase.bytes(), out);
+	}
+}
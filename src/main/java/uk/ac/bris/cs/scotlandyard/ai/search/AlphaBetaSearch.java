@@ -0,0 +1,299 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.GraphIndex;
+import uk.ac.bris.cs.scotlandyard.ai.endgame.Tablebase;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.FunctionalVisitor;
+
+/**
+ * Iterative deepening paranoid minimax with alpha-beta pruning over {@link GameStateEngine}.
+ * <br>
+ * Paranoid means the detectives are treated as one coalition minimising MrX's score, one ply per
+ * piece moved. Moves are ordered by the transposition table move, then two killer moves per ply,
+ * then the history heuristic, keyed by piece and destination. Scores are from MrX's point of view
+ * in units of {@link #SCALE} per unit of {@link GameStateEngine#evaluate}, with wins and losses at
+ * {@link #WIN} minus the distance in plies. Positions the engine's {@link Tablebase} has solved
+ * are not searched further and score {@link #TABLEBASE_WIN}, below any win seen to the end.
+ * <br>
+ * The search is single threaded and deterministic: given the same table contents it visits the
+ * same nodes in the same order. It checks the deadline every few hundred nodes and throws away
+ * an unfinished iteration, so the result is always from the last depth that completed.
+ */
+public final class AlphaBetaSearch {
+
+	/**
+	 * The outcome of a search
+	 */
+	public static final class Result {
+		private final Move bestMove;
+		private final int score;
+		private final int depth;
+		private final long nodes;
+		private final long elapsedNanos;
+
+		Result(Move bestMove, int score, int depth, long nodes, long elapsedNanos) {
+			this.bestMove = bestMove;
+			this.score = score;
+			this.depth = depth;
+			this.nodes = nodes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return the best move of the deepest completed iteration
+		 */
+		@Nonnull public Move bestMove() { return bestMove; }
+		/**
+		 * @return the score of {@link #bestMove()} from MrX's point of view
+		 */
+		public int score() { return score; }
+		/**
+		 * @return the deepest completed iteration, 0 if not even the first one completed
+		 */
+		public int depth() { return depth; }
+		/**
+		 * @return the number of nodes visited over all iterations
+		 */
+		public long nodes() { return nodes; }
+		/**
+		 * @return the wall time spent searching
+		 */
+		public long elapsedNanos() { return elapsedNanos; }
+	}
+
+	/** Score of a won game for MrX, before subtracting the plies it takes */
+	public static final int WIN = 1_000_000;
+	/** Score of a win for MrX known from the tablebase, at an unknown distance */
+	public static final int TABLEBASE_WIN = WIN / 2;
+	/** Score of a {@link GameStateEngine#evaluate} of 1 */
+	public static final int SCALE = 10_000;
+
+	private static final int MAX_PLY = 64;
+	private static final int INFINITY = Integer.MAX_VALUE;
+	private static final int TT_MOVE = 1 << 30, KILLER_1 = 1 << 29, KILLER_2 = 1 << 28;
+	private static final int MISSING = -1;
+
+	private static final class Timeout extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		Timeout() { super(null, null, false, false); }
+	}
+
+	private static final Timeout TIMEOUT = new Timeout();
+
+	private final GameStateEngine engine;
+	private final TranspositionTable table;
+	private final int maxDepth;
+	private final Move[][] killers = new Move[MAX_PLY][2];
+	private int[][] history = new int[0][0];
+	private GraphIndex graph;
+	private long deadline;
+	private AiDeadline turn;
+	private long nodes;
+
+	/**
+	 * @param engine the engine
+	 * @param table the transposition table; may be shared with later searches
+	 * @param maxDepth the depth at which iterative deepening stops, at most 63
+	 */
+	public AlphaBetaSearch(@Nonnull GameStateEngine engine, @Nonnull TranspositionTable table,
+	                       int maxDepth) {
+		if (maxDepth <= 0 || maxDepth >= MAX_PLY)
+			throw new IllegalArgumentException("maxDepth out of range: " + maxDepth);
+		this.engine = Objects.requireNonNull(engine);
+		this.table = Objects.requireNonNull(table);
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Searches with increasing depth until the deadline passes or {@code maxDepth} completes.
+	 *
+	 * @param root the state to search from, must not be terminal
+	 * @param deadlineNanos the {@link System#nanoTime()} by which to return
+	 * @return the result of the deepest completed iteration
+	 */
+	@Nonnull public Result search(@Nonnull GameStateEngine.State root, long deadlineNanos) {
+		return search(root, deadlineNanos, null);
+	}
+
+	/**
+	 * Searches like {@link #search(GameStateEngine.State, long)} until the deadline's
+	 * {@link SearchBudget#deadline(AiDeadline) search budget} runs out or it is stopped, and
+	 * {@link AiDeadline#offer offers} the best move of every completed iteration.
+	 *
+	 * @param root the state to search from, must not be terminal
+	 * @param deadline the deadline of the turn
+	 * @return the result of the deepest completed iteration
+	 */
+	@Nonnull public Result search(@Nonnull GameStateEngine.State root,
+	                              @Nonnull AiDeadline deadline) {
+		return search(root, SearchBudget.deadline(deadline), Objects.requireNonNull(deadline));
+	}
+
+	private Result search(GameStateEngine.State root, long deadlineNanos, AiDeadline turn) {
+		if (engine.isTerminal(root))
+			throw new IllegalArgumentException("Cannot search a terminal state");
+		long start = System.nanoTime();
+		prepare(root);
+		table.newSearch();
+		deadline = deadlineNanos;
+		this.turn = turn;
+		nodes = 0;
+		Move[] moves = order(engine.moves(root), MISSING, 0);
+		boolean mrX = moves[0].commencedBy().isMrX();
+		Move best = moves[0];
+		int bestScore = 0, depth = 0;
+		if (moves.length == 1) return new Result(best, 0, 0, 0, System.nanoTime() - start);
+		try {
+			for (int d = 1; d <= maxDepth; d++) {
+				int alpha = -INFINITY, beta = INFINITY;
+				Move iterationBest = null;
+				int iterationScore = mrX ? -INFINITY : INFINITY;
+				for (Move move : moves) {
+					int score = minimax(engine.advance(root, move), d - 1, 1, alpha, beta);
+					if (mrX ? score > iterationScore : score < iterationScore) {
+						iterationScore = score;
+						iterationBest = move;
+					}
+					if (mrX) alpha = Math.max(alpha, score);
+					else beta = Math.min(beta, score);
+				}
+				best = Objects.requireNonNull(iterationBest);
+				bestScore = iterationScore;
+				depth = d;
+				if (turn != null) turn.offer(best);
+				// search the best move first in the next iteration
+				int i = Arrays.asList(moves).indexOf(best);
+				System.arraycopy(moves, 0, moves, 1, i);
+				moves[0] = best;
+				if (Math.abs(bestScore) >= WIN - MAX_PLY) break;
+			}
+		} catch (Timeout e) {
+			// keep the last completed iteration
+		} finally {
+			this.turn = null;
+		}
+		return new Result(best, bestScore, depth, nodes, System.nanoTime() - start);
+	}
+
+	private void prepare(GameStateEngine.State root) {
+		GraphIndex graph = GraphIndex.of(root.gameState().getSetup());
+		if (graph != this.graph) {
+			this.graph = graph;
+			history = new int[6][graph.size()];
+		} else for (int[] h : history) for (int i = 0; i < h.length; i++) h[i] >>= 2;
+		for (Move[] k : killers) Arrays.fill(k, null);
+	}
+
+	private int minimax(GameStateEngine.State state, int depth, int ply, int alpha, int beta) {
+		if ((++nodes & 0xff) == 0 && (System.nanoTime() - deadline > 0
+				|| (turn != null && turn.shouldStop()))) throw TIMEOUT;
+		if (engine.isTerminal(state))
+			return engine.evaluate(state) > 0.5 ? WIN - ply : ply - WIN;
+		switch (engine.probe(state)) {
+			case MRX_WINS: return TABLEBASE_WIN;
+			case DETECTIVES_WIN: return -TABLEBASE_WIN;
+			default: break;
+		}
+		if (depth == 0 || ply >= MAX_PLY - 1)
+			return (int) Math.round(engine.evaluate(state) * SCALE);
+		long key = StateHash.of(state);
+		long entry = table.probe(key);
+		int hint = MISSING;
+		if (entry != TranspositionTable.MISS) {
+			hint = TranspositionTable.moveCode(entry);
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT) return score;
+				if (bound == TranspositionTable.LOWER && score >= beta) return score;
+				if (bound == TranspositionTable.UPPER && score <= alpha) return score;
+			}
+		}
+		ImmutableList<Move> legal = engine.moves(state);
+		boolean mrX = legal.get(0).commencedBy().isMrX();
+		Move[] moves = order(legal, hint, ply);
+		int alpha0 = alpha, beta0 = beta;
+		int best = mrX ? -INFINITY : INFINITY;
+		Move bestMove = moves[0];
+		for (Move move : moves) {
+			int score = minimax(engine.advance(state, move), depth - 1, ply + 1, alpha, beta);
+			if (mrX ? score > best : score < best) {
+				best = score;
+				bestMove = move;
+			}
+			if (mrX) alpha = Math.max(alpha, score);
+			else beta = Math.min(beta, score);
+			if (alpha >= beta) {
+				cutoff(move, depth, ply);
+				break;
+			}
+		}
+		int bound = best <= alpha0 ? TranspositionTable.UPPER
+				: best >= beta0 ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+		table.store(key, depth, bound, toTable(best, ply), StateHash.moveCode(bestMove));
+		return best;
+	}
+
+	private void cutoff(Move move, int depth, int ply) {
+		Move[] k = killers[ply];
+		if (!move.equals(k[0])) {
+			k[1] = k[0];
+			k[0] = move;
+		}
+		int[] h = history[StateHash.pieceId(move.commencedBy())];
+		int to = graph.index(destination(move));
+		if (to >= 0) h[to] = Math.min(h[to] + depth * depth, KILLER_2 - 1);
+	}
+
+	// orders by table move, killers and history; ties are broken by move code so that the order
+	// does not depend on how the engine happened to build its move set
+	private Move[] order(ImmutableList<Move> legal, int hint, int ply) {
+		int n = legal.size();
+		long[] keys = new long[n];
+		Move[] k = killers[ply];
+		for (int i = 0; i < n; i++) {
+			Move move = legal.get(i);
+			int code = StateHash.moveCode(move);
+			int score;
+			if ((code & 0xffff) == hint) score = TT_MOVE;
+			else if (move.equals(k[0])) score = KILLER_1;
+			else if (move.equals(k[1])) score = KILLER_2;
+			else {
+				int to = graph.index(destination(move));
+				score = to < 0 ? 0 : history[StateHash.pieceId(move.commencedBy())][to];
+			}
+			long tie = n <= 1 << 12 ? (code & 0xfffffL) << 12 | i : i;
+			keys[i] = (long) (Integer.MAX_VALUE - score) << 32 | tie;
+		}
+		Arrays.sort(keys);
+		Move[] moves = new Move[n];
+		int indexMask = n <= 1 << 12 ? 0xfff : -1;
+		for (int i = 0; i < n; i++) moves[i] = legal.get((int) keys[i] & indexMask);
+		return moves;
+	}
+
+	private static int destination(Move move) {
+		return move.accept(new FunctionalVisitor<>(m -> m.destination, m -> m.destination2));
+	}
+
+	// win scores are stored relative to the node so they stay correct at other plies
+	private static int toTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY) return score + ply;
+		if (score <= MAX_PLY - WIN) return score - ply;
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY) return score - ply;
+		if (score <= MAX_PLY - WIN) return score + ply;
+		return score;
+	}
+}
@@ -0,0 +1,496 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.GraphIndex;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Plays many independent random games side by side, for evaluating setups and start positions.
+ * <br>
+ * Each worker owns a batch of lanes, one game per lane, held as struct of arrays columns: one
+ * {@code int[]} per feature with a slot per lane, e.g. the location of player {@code p} in lane
+ * {@code g} is at {@code p * lanes + g}. A step plays one uniformly random move in every lane
+ * that is still going, with the same rules and the same move set as {@link PlayoutKernel}, and
+ * between steps finished games are tallied and their lanes dealt the next game. Every lane draws
+ * from its own SplitMix64 stream kept in a {@code long[]} column, so there are no per game
+ * objects at all.
+ * <br>
+ * Results are aggregated per start configuration.
+ */
+public final class BatchSimulator {
+
+	/**
+	 * Aggregate outcomes of the games played from one start configuration
+	 */
+	public static final class Stats {
+		private final long games;
+		private final long mrXWins;
+		private final long detectiveWins;
+		private final long stalled;
+		private final long rounds;
+		private final long plies;
+
+		Stats(long games, long mrXWins, long detectiveWins, long stalled, long rounds,
+		      long plies) {
+			this.games = games;
+			this.mrXWins = mrXWins;
+			this.detectiveWins = detectiveWins;
+			this.stalled = stalled;
+			this.rounds = rounds;
+			this.plies = plies;
+		}
+
+		/**
+		 * @return the number of games played
+		 */
+		public long games() { return games; }
+		/**
+		 * @return the number of games MrX won
+		 */
+		public long mrXWins() { return mrXWins; }
+		/**
+		 * @return the number of games the detectives won
+		 */
+		public long detectiveWins() { return detectiveWins; }
+		/**
+		 * @return the number of games where nobody could move any more
+		 */
+		public long stalled() { return stalled; }
+		/**
+		 * @return the number of games cut off by the ply limit
+		 */
+		public long unfinished() { return games - mrXWins - detectiveWins - stalled; }
+		/**
+		 * @return the fraction of games MrX won
+		 */
+		public double mrXWinRate() { return games == 0 ? 0 : (double) mrXWins / games; }
+		/**
+		 * @return the mean length of MrX's travel log at the end of a game
+		 */
+		public double meanRounds() { return games == 0 ? 0 : (double) rounds / games; }
+		/**
+		 * @return the mean number of moves per game
+		 */
+		public double meanPlies() { return games == 0 ? 0 : (double) plies / games; }
+
+		@Override public String toString() {
+			return String.format("%d games, MrX %.3f, detectives %d, stalled %d, " +
+							"unfinished %d, %.1f rounds", games, mrXWinRate(), detectiveWins,
+					stalled, unfinished(), meanRounds());
+		}
+	}
+
+	private static final int ONGOING = PlayoutKernel.ONGOING;
+	private static final int MRX_WON = PlayoutKernel.MRX_WON;
+	private static final int DETECTIVES_WON = PlayoutKernel.DETECTIVES_WON;
+	private static final int STALLED = PlayoutKernel.STALLED;
+	private static final int UNFINISHED = 4;
+	private static final int EMPTY = 5;
+	// per start: games, mrX wins, detective wins, stalled, rounds, plies
+	private static final int FIELDS = 6;
+
+	private static final int MRX = 0;
+	private static final int TICKETS = Ticket.values().length;
+	private static final int DOUBLE = Ticket.DOUBLE.ordinal();
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final GameSetup setup;
+	private final GraphIndex graph;
+	private int lanes = 1024;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxPlies = 1000;
+
+	/**
+	 * @param setup the setup of the games to play
+	 */
+	public BatchSimulator(@Nonnull GameSetup setup) {
+		this.setup = Objects.requireNonNull(setup);
+		this.graph = GraphIndex.of(setup);
+	}
+
+	@Nonnull public BatchSimulator lanes(int lanes) {
+		if (lanes <= 0) throw new IllegalArgumentException("lanes <= 0");
+		this.lanes = lanes;
+		return this;
+	}
+
+	@Nonnull public BatchSimulator threads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+		this.threads = threads;
+		return this;
+	}
+
+	@Nonnull public BatchSimulator maxPlies(int maxPlies) {
+		if (maxPlies <= 0) throw new IllegalArgumentException("maxPlies <= 0");
+		this.maxPlies = maxPlies;
+		return this;
+	}
+
+	/**
+	 * Plays the given number of random games from every start, blocking until done.
+	 *
+	 * @param starts the start configurations, all with the same number of detectives; MrX's
+	 * location is taken from the state, so starts may be mid game as long as nobody has won
+	 * @param gamesPerStart the number of games per start
+	 * @param seed the seed; every game draws from a stream derived from the seed and the game's
+	 * number, so the results do not depend on the number of threads or lanes
+	 * @return the stats of each start, in order
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	@Nonnull public ImmutableList<Stats> simulate(@Nonnull List<GameStateEngine.State> starts,
+	                                              long gamesPerStart, long seed)
+			throws InterruptedException {
+		if (starts.isEmpty()) return ImmutableList.of();
+		if (gamesPerStart < 0) throw new IllegalArgumentException("gamesPerStart < 0");
+		var columns = new Starts(starts);
+		long total = gamesPerStart * starts.size();
+		var next = new AtomicLong();
+		var results = new AtomicLongArray(starts.size() * FIELDS);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			tasks.add(() -> {
+				new Batch(columns, results, gamesPerStart, seed).run(next, total);
+				return null;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) f.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Simulation worker failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		var stats = ImmutableList.<Stats>builder();
+		for (int s = 0; s < starts.size(); s++) {
+			int o = s * FIELDS;
+			stats.add(new Stats(results.get(o), results.get(o + 1), results.get(o + 2),
+					results.get(o + 3), results.get(o + 4), results.get(o + 5)));
+		}
+		return stats.build();
+	}
+
+	/**
+	 * Plays a single game from the start, choosing each move by its index among the legal moves
+	 * like a {@link PlayoutKernel.Policy} does, so both can be checked to follow the same rules.
+	 *
+	 * @param start the start configuration
+	 * @param choose from the number of legal moves to the index of the move to play
+	 * @return the stats of the one game
+	 */
+	Stats replay(GameStateEngine.State start, IntUnaryOperator choose) {
+		return new Batch(new Starts(List.of(start)), new AtomicLongArray(FIELDS), 1, 0)
+				.replay(choose);
+	}
+
+	/**
+	 * The start configurations as columns with a slot per start
+	 */
+	private final class Starts {
+		final int count;
+		final int players;
+		final int[] locations;
+		final int[] tickets;
+		final int[] remaining;
+		final int[] logSize;
+
+		Starts(List<GameStateEngine.State> states) {
+			this.count = states.size();
+			this.players = states.get(0).gameState().getPlayers().size();
+			this.locations = new int[players * count];
+			this.tickets = new int[players * TICKETS * count];
+			this.remaining = new int[count];
+			this.logSize = new int[count];
+			for (int s = 0; s < count; s++) {
+				var state = states.get(s);
+				var game = state.gameState();
+				if (GraphIndex.of(game.getSetup()) != graph)
+					throw new IllegalArgumentException("Start " + s + " is not on this graph");
+				if (!game.getWinner().isEmpty() || game.getAvailableMoves().isEmpty())
+					throw new IllegalArgumentException("Start " + s + " is over");
+				if (game.getPlayers().size() != players)
+					throw new IllegalArgumentException("Starts differ in number of players");
+				List<Piece> pieces = new ArrayList<>();
+				pieces.add(Piece.MrX.MRX);
+				game.getPlayers().stream().filter(Piece::isDetective).forEach(pieces::add);
+				for (int p = 0; p < players; p++) {
+					Piece piece = pieces.get(p);
+					int node = p == MRX ? state.mrXLocation()
+							: game.getDetectiveLocation((Detective) piece).orElseThrow();
+					locations[p * count + s] = graph.index(node);
+					var counts = game.getPlayerTickets(piece).orElseThrow();
+					for (Ticket t : Ticket.values())
+						tickets[(p * TICKETS + t.ordinal()) * count + s] = counts.getCount(t);
+				}
+				for (var move : game.getAvailableMoves())
+					remaining[s] |= 1 << pieces.indexOf(move.commencedBy());
+				logSize[s] = game.getMrXTravelLog().size();
+			}
+		}
+	}
+
+	/**
+	 * One worker's lanes
+	 */
+	private final class Batch {
+		private final Starts starts;
+		private final AtomicLongArray results;
+		private final long gamesPerStart;
+		private final long seed;
+		private final int players;
+		private final int rounds = setup.revealSchedule().rounds();
+		private final int[] locations;
+		private final int[] tickets;
+		private final int[] remaining;
+		private final int[] logSize;
+		private final int[] status;
+		private final int[] plies;
+		private final int[] start;
+		private final long[] random;
+		private final long[] local;
+
+		Batch(Starts starts, AtomicLongArray results, long gamesPerStart, long seed) {
+			this.starts = starts;
+			this.results = results;
+			this.gamesPerStart = gamesPerStart;
+			this.seed = seed;
+			this.players = starts.players;
+			this.locations = new int[players * lanes];
+			this.tickets = new int[players * TICKETS * lanes];
+			this.remaining = new int[lanes];
+			this.logSize = new int[lanes];
+			this.status = new int[lanes];
+			this.plies = new int[lanes];
+			this.start = new int[lanes];
+			this.random = new long[lanes];
+			this.local = new long[starts.count * FIELDS];
+		}
+
+		/**
+		 * Plays games until the shared counter passes the total, refilling lanes as their games
+		 * end, then adds this worker's tallies to the shared results
+		 */
+		void run(AtomicLong next, long total) {
+			int ongoing = 0;
+			for (int g = 0; g < lanes; g++) {
+				long game = next.getAndIncrement();
+				if (game < total) {
+					deal(g, game);
+					ongoing++;
+				} else status[g] = EMPTY;
+			}
+			while (ongoing > 0) {
+				for (int g = 0; g < lanes; g++) if (status[g] == ONGOING) step(g);
+				for (int g = 0; g < lanes; g++) {
+					if (status[g] == ONGOING || status[g] == EMPTY) continue;
+					record(g);
+					long game = next.getAndIncrement();
+					if (game < total) deal(g, game);
+					else {
+						status[g] = EMPTY;
+						ongoing--;
+					}
+				}
+			}
+			for (int i = 0; i < local.length; i++)
+				if (local[i] != 0) results.addAndGet(i, local[i]);
+		}
+
+		Stats replay(IntUnaryOperator choose) {
+			deal(0, 0);
+			while (status[0] == ONGOING) {
+				int count = count(0);
+				if (count > 0) play(0, choose.applyAsInt(count));
+			}
+			record(0);
+			return new Stats(local[0], local[1], local[2], local[3], local[4], local[5]);
+		}
+
+		private void record(int g) {
+			int o = start[g] * FIELDS;
+			local[o]++;
+			if (status[g] == MRX_WON) local[o + 1]++;
+			else if (status[g] == DETECTIVES_WON) local[o + 2]++;
+			else if (status[g] == STALLED) local[o + 3]++;
+			local[o + 4] += logSize[g];
+			local[o + 5] += plies[g];
+		}
+
+		private void deal(int g, long game) {
+			int s = (int) (game / gamesPerStart), n = starts.count;
+			start[g] = s;
+			for (int p = 0; p < players; p++) {
+				locations[p * lanes + g] = starts.locations[p * n + s];
+				for (int t = 0; t < TICKETS; t++)
+					tickets[(p * TICKETS + t) * lanes + g] =
+							starts.tickets[(p * TICKETS + t) * n + s];
+			}
+			remaining[g] = starts.remaining[s];
+			logSize[g] = starts.logSize[s];
+			status[g] = ONGOING;
+			plies[g] = 0;
+			random[g] = mix(seed ^ mix(game));
+		}
+
+		private void step(int g) {
+			int count = count(g);
+			if (count > 0) play(g, nextInt(g, count));
+		}
+
+		// the number of moves in lane g, stalling the game if there are none
+		private int count(int g) {
+			int count = moves(g, -1);
+			if (count == 0) status[g] = STALLED;
+			return count;
+		}
+
+		private void play(int g, int move) {
+			moves(g, move);
+			if (++plies[g] >= maxPlies && status[g] == ONGOING) status[g] = UNFINISHED;
+		}
+
+		// the same rejection sampling as SplittableRandom.nextInt(bound)
+		private int nextInt(int g, int bound) {
+			int m = bound - 1;
+			int r = (int) (mix(random[g] += GOLDEN_GAMMA) >>> 33);
+			for (int u = r; u + m - (r = u % bound) < 0; )
+				u = (int) (mix(random[g] += GOLDEN_GAMMA) >>> 33);
+			return r;
+		}
+
+		private int ticket(int p, int t, int g) { return tickets[(p * TICKETS + t) * lanes + g]; }
+
+		private void addTicket(int p, int t, int g, int delta) {
+			tickets[(p * TICKETS + t) * lanes + g] += delta;
+		}
+
+		private int location(int p, int g) { return locations[p * lanes + g]; }
+
+		private int held(int p, int g) {
+			int mask = 0;
+			for (int t = 0; t < TICKETS; t++) if (ticket(p, t, g) > 0) mask |= 1 << t;
+			return mask;
+		}
+
+		private boolean occupied(int station, int blockers, int g) {
+			for (int d = 1; d < players; d++)
+				if ((blockers >>> d & 1) != 0 && location(d, g) == station) return true;
+			return false;
+		}
+
+		private boolean canMoveAvoiding(int p, int blockers, int g) {
+			int from = location(p, g), held = held(p, g);
+			for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++)
+				if ((graph.tickets(e) & held) != 0 && !occupied(graph.target(e), blockers, g))
+					return true;
+			return false;
+		}
+
+		/**
+		 * Counts the moves of lane g in the same order as {@link PlayoutKernel}, playing the
+		 * target-th one if the target is not negative
+		 *
+		 * @return the number of moves counted
+		 */
+		private int moves(int g, int target) {
+			int count = 0;
+			int detectives = ((1 << players) - 1) & ~(1 << MRX);
+			boolean doubles = logSize[g] + 1 < rounds;
+			for (int p = 0; p < players; p++) {
+				if ((remaining[g] >>> p & 1) == 0) continue;
+				int from = location(p, g), held = held(p, g);
+				boolean canDouble = p == MRX && doubles && ticket(p, DOUBLE, g) > 0;
+				for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++) {
+					int to1 = graph.target(e);
+					if (occupied(to1, detectives, g)) continue;
+					int first = graph.tickets(e) & held;
+					for (int t1 = 0; t1 < TICKETS; t1++) {
+						if ((first >>> t1 & 1) == 0) continue;
+						if (count++ == target) {
+							play(g, p, t1, to1, -1, -1);
+							return count;
+						}
+						if (!canDouble) continue;
+						for (int f = graph.edgesFrom(to1); f < graph.edgesTo(to1); f++) {
+							int to2 = graph.target(f);
+							if (occupied(to2, detectives, g)) continue;
+							int second = graph.tickets(f) & held;
+							if (ticket(p, t1, g) < 2) second &= ~(1 << t1);
+							for (int t2 = 0; t2 < TICKETS; t2++) {
+								if ((second >>> t2 & 1) == 0) continue;
+								if (count++ == target) {
+									play(g, p, t1, to1, t2, to2);
+									return count;
+								}
+							}
+						}
+					}
+				}
+			}
+			return count;
+		}
+
+		private void play(int g, int p, int t1, int to1, int t2, int to2) {
+			int all = ((1 << players) - 1) & ~(1 << MRX);
+			if (p == MRX) {
+				addTicket(MRX, t1, g, -1);
+				if (t2 >= 0) {
+					addTicket(MRX, DOUBLE, g, -1);
+					addTicket(MRX, t2, g, -1);
+					locations[g] = to2;
+					logSize[g] += 2;
+				} else {
+					locations[g] = to1;
+					logSize[g]++;
+				}
+				int next = 0;
+				for (int d = 1; d < players; d++) if (canMoveAvoiding(d, 0, g)) next |= 1 << d;
+				remaining[g] = next;
+				return;
+			}
+			addTicket(p, t1, g, -1);
+			addTicket(MRX, t1, g, 1);
+			locations[p * lanes + g] = to1;
+			int left = remaining[g] & ~(1 << p);
+			int moved = all & ~left;
+			int next = 0;
+			for (int d = 1; d < players; d++)
+				if ((left >>> d & 1) != 0 && canMoveAvoiding(d, moved, g)) next |= 1 << d;
+			remaining[g] = next == 0 ? 1 << MRX : next;
+			boolean captured = false;
+			for (int d = 1; d < players; d++) if (location(d, g) == location(MRX, g)) captured = true;
+			if (logSize[g] == rounds) status[g] = MRX_WON;
+			else if (captured || (remaining[g] == 1 << MRX && !canMoveAvoiding(MRX, all, g)))
+				status[g] = DETECTIVES_WON;
+			else {
+				boolean any = false;
+				for (int d = 1; d < players && !any; d++) any = canMoveAvoiding(d, all, g);
+				if (!any) status[g] = MRX_WON;
+			}
+		}
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,99 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic;
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.TransportClass;
+import uk.ac.bris.cs.scotlandyard.ai.MrXLocationDistribution;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.FunctionalVisitor;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+
+/**
+ * A detective {@link Ai} backed by an {@link InformationSetSearch}.
+ * <br>
+ * MrX's location is tracked with a {@link MrXLocationDistribution} and every search iteration
+ * plays on a {@link GameStateEngine#determiniser determinisation} drawn from it. The first
+ * detective asked in a round searches for most of the timeout and gets a plan for every
+ * detective still to move; the others play their part of that plan straight away, so the round
+ * is played as one coordinated move.
+ */
+public final class DetectiveIsmctsAi implements Ai {
+
+	private InformationSetSearch<GameStateEngine.State> search;
+	private MrXLocationDistribution distribution;
+	private GameSetup setup;
+	private final Deque<Move> plan = new ArrayDeque<>();
+	private int planRound = -1;
+
+	@Nonnull @Override public String name() { return "ISMCTS Detectives"; }
+
+	@Override public void onStart() {
+		search = new InformationSetSearch<>(new GameStateEngine(),
+				MonteCarloTreeSearch.Config.defaults());
+		distribution = null;
+		plan.clear();
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+		return pickMove(board, SearchBudget.turn(timeoutPair));
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		var moves = board.getAvailableMoves();
+		if (moves.stream().anyMatch(m -> m.commencedBy().isMrX())) return evade(board);
+		int round = board.getMrXTravelLog().size();
+		if (planRound == round && !plan.isEmpty() && moves.contains(plan.peek()))
+			return plan.poll();
+		plan.clear();
+		if (moves.size() == 1) return moves.iterator().next();
+		if (search == null) onStart();
+		if (distribution == null || !board.getSetup().equals(setup)) {
+			setup = board.getSetup();
+			distribution = new MrXLocationDistribution(setup);
+		}
+		distribution.update(board);
+		var snapshot = distribution.snapshot();
+		var determiniser = GameStateEngine.determiniser(board);
+		// nothing searched if the time was already up, any legal move will do then
+		search.search(random -> determiniser.apply(snapshot.sample(random)),
+				SearchBudget.deadline(deadline)).ifPresent(result -> plan.addAll(result.plan()));
+		planRound = round;
+		Move move = plan.poll();
+		return move != null && moves.contains(move) ? move : moves.iterator().next();
+	}
+
+	// this AI is meant for the detectives; as MrX it just runs from the nearest detective
+	private static Move evade(Board board) {
+		var heuristic = LandmarkHeuristic.of(board.getSetup());
+		var detectives = board.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.mapToInt(p -> board.getDetectiveLocation((Detective) p).orElseThrow())
+				.toArray();
+		return board.getAvailableMoves().stream().max(Comparator.comparingInt(m -> {
+			int to = m.accept(new FunctionalVisitor<>(s -> s.destination, d -> d.destination2));
+			int nearest = LandmarkHeuristic.UNREACHABLE;
+			for (int d : detectives)
+				nearest = Math.min(nearest, heuristic.lowerBound(d, to, TransportClass.DETECTIVE));
+			return nearest;
+		})).orElseThrow();
+	}
+
+	@Override public void onTerminate() {
+		if (search != null) search.close();
+		search = null;
+	}
+}
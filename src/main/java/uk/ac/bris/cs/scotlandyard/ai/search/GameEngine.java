@@ -0,0 +1,82 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.SplittableRandom;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * The rules of the game as seen by a search, over some state representation {@code S}.
+ * <br>
+ * Searches only ever go through this interface, so a faster state implementation can be swapped
+ * in without touching the search itself. States are treated as immutable values.
+ *
+ * @param <S> the state type
+ */
+public interface GameEngine<S> {
+
+	/**
+	 * @param state the state
+	 * @return the legal moves from the given state; empty if the game is over
+	 */
+	@Nonnull ImmutableList<Move> moves(@Nonnull S state);
+
+	/**
+	 * @param state the state
+	 * @param move a move from {@link #moves(Object)}
+	 * @return the state after the move has been made
+	 */
+	@Nonnull S advance(@Nonnull S state, @Nonnull Move move);
+
+	/**
+	 * @param state the state
+	 * @return whether the game is over, either with a winner or because nobody can move
+	 */
+	boolean isTerminal(@Nonnull S state);
+
+	/**
+	 * @param state the state
+	 * @return MrX's chance of winning from the given state in [0, 1]; exact for terminal states
+	 * and a heuristic estimate otherwise
+	 */
+	double evaluate(@Nonnull S state);
+
+	/**
+	 * @param a a state
+	 * @param b another state
+	 * @return whether both states describe the same position, even if they are different objects
+	 */
+	default boolean isSame(@Nonnull S a, @Nonnull S b) { return a.equals(b); }
+
+	/**
+	 * Prunes the search for a retained tree's new root, see
+	 * {@link MonteCarloTreeSearch#resume(Object, long)}. May return true for states that cannot
+	 * reach the target, but never false for one that can.
+	 *
+	 * @param state a state
+	 * @param target a later state
+	 * @return whether some sequence of moves might lead from state to target
+	 */
+	default boolean mayReach(@Nonnull S state, @Nonnull S target) { return true; }
+
+	/**
+	 * Plays random moves from the given state until the game ends or the depth runs out.
+	 *
+	 * @param state the state to start from
+	 * @param random the random source, owned by the calling thread
+	 * @param maxDepth the maximum number of moves to play before falling back to
+	 * {@link #evaluate(Object)}
+	 * @return MrX's reward in [0, 1]
+	 */
+	default double playout(@Nonnull S state, @Nonnull SplittableRandom random, int maxDepth) {
+		S current = state;
+		for (int depth = 0; depth < maxDepth && !isTerminal(current); depth++) {
+			ImmutableList<Move> moves = moves(current);
+			current = advance(current, moves.get(random.nextInt(moves.size())));
+		}
+		return evaluate(current);
+	}
+}
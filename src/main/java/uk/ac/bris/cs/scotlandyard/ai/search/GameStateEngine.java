@@ -0,0 +1,269 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic;
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.TransportClass;
+import uk.ac.bris.cs.scotlandyard.ai.endgame.Tablebase;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.FunctionalVisitor;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+
+/**
+ * A {@link GameEngine} backed by {@link GameState#advance(Move)}.
+ * <br>
+ * A {@link GameState} does not expose where MrX is, so states carry his location alongside.
+ * Non terminal states are evaluated from MrX's distance to the nearest detective, using
+ * {@link LandmarkHeuristic} so that evaluation stays cheap on any map, and from how far the game
+ * has progressed. Positions covered by the engine's {@link Tablebase} evaluate exactly.
+ */
+public final class GameStateEngine implements GameEngine<GameStateEngine.State> {
+
+	/**
+	 * A game state together with MrX's location
+	 */
+	public static final class State {
+		private final GameState state;
+		private final int mrXLocation;
+
+		public State(@Nonnull GameState state, int mrXLocation) {
+			this.state = Objects.requireNonNull(state);
+			this.mrXLocation = mrXLocation;
+		}
+
+		/**
+		 * @return the game state
+		 */
+		@Nonnull public GameState gameState() { return state; }
+
+		/**
+		 * @return MrX's location
+		 */
+		public int mrXLocation() { return mrXLocation; }
+	}
+
+	private final Tablebase tablebase;
+	private final ThreadLocal<PlayoutKernel> kernels = new ThreadLocal<>();
+	private volatile Entry<GameSetup, LandmarkHeuristic> heuristic;
+
+	/**
+	 * Creates an engine probing the {@link Tablebase#standard() standard} tablebase
+	 */
+	public GameStateEngine() { this(Tablebase.standard()); }
+
+	/**
+	 * @param tablebase the tablebase to probe, {@link Tablebase#empty()} for none
+	 */
+	public GameStateEngine(@Nonnull Tablebase tablebase) {
+		this.tablebase = Objects.requireNonNull(tablebase);
+	}
+
+	/**
+	 * @param board a board where it is MrX's turn
+	 * @return MrX's location, known from the source of his available moves; empty if it is not
+	 * MrX's turn
+	 */
+	@Nonnull public static OptionalInt mrXLocation(@Nonnull Board board) {
+		return board.getAvailableMoves().stream()
+				.filter(m -> m.commencedBy().isMrX())
+				.mapToInt(Move::source)
+				.findFirst();
+	}
+
+	/**
+	 * Turns a board into a searchable state. Boards that already are {@link GameState}s are used
+	 * as is; anything else is rebuilt through {@link MyGameStateFactory#resume}.
+	 *
+	 * @param board the board
+	 * @param mrXLocation where MrX is, or is assumed to be
+	 * @return the state
+	 */
+	@Nonnull public static State resume(@Nonnull Board board, int mrXLocation) {
+		if (board instanceof GameState) return new State((GameState) board, mrXLocation);
+		return determinise(board, mrXLocation);
+	}
+
+	/**
+	 * Builds a state from what is visible on the board plus a guess of MrX's location. Unlike
+	 * {@link #resume(Board, int)} this always rebuilds the state, so a {@link GameState} handed to
+	 * the detectives cannot leak MrX's real location into their search.
+	 *
+	 * @param board the board
+	 * @param mrXLocation the assumed location of MrX
+	 * @return the state
+	 */
+	@Nonnull public static State determinise(@Nonnull Board board, int mrXLocation) {
+		return determiniser(board).apply(mrXLocation);
+	}
+
+	/**
+	 * Reads everything but MrX's location off the board once, for when many determinisations of
+	 * the same board are needed.
+	 *
+	 * @param board the board
+	 * @return a function from an assumed MrX location to the state
+	 */
+	@Nonnull public static IntFunction<State> determiniser(@Nonnull Board board) {
+		var setup = board.getSetup();
+		var detectives = board.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.map(p -> new Player(p, tickets(board, p),
+						board.getDetectiveLocation((Detective) p).orElseThrow()))
+				.collect(ImmutableList.toImmutableList());
+		var mrXTickets = tickets(board, MRX);
+		var log = board.getMrXTravelLog();
+		var moving = board.getAvailableMoves().stream()
+				.map(Move::commencedBy)
+				.collect(ImmutableSet.toImmutableSet());
+		ImmutableSet<Piece> remaining = moving.isEmpty() ? ImmutableSet.of(MRX) : moving;
+		var factory = new MyGameStateFactory();
+		return location -> new State(factory.resume(setup,
+				new Player(MRX, mrXTickets, location), detectives, log, remaining), location);
+	}
+
+	private static ImmutableMap<Ticket, Integer> tickets(Board board, Piece piece) {
+		var tickets = board.getPlayerTickets(piece).orElseThrow();
+		return Stream.of(Ticket.values()).collect(ImmutableMap.toImmutableMap(
+				t -> t, tickets::getCount));
+	}
+
+	@Nonnull @Override public ImmutableList<Move> moves(@Nonnull State state) {
+		return state.state.getAvailableMoves().asList();
+	}
+
+	@Nonnull @Override public State advance(@Nonnull State state, @Nonnull Move move) {
+		int location = move.commencedBy().isMrX() ? move.accept(new FunctionalVisitor<>(
+				m -> m.destination, m -> m.destination2)) : state.mrXLocation;
+		return new State(state.state.advance(move), location);
+	}
+
+	@Override public boolean isTerminal(@Nonnull State state) {
+		return !state.state.getWinner().isEmpty() || state.state.getAvailableMoves().isEmpty();
+	}
+
+	@Override public boolean isSame(@Nonnull State a, @Nonnull State b) {
+		if (a == b) return true;
+		if (a.mrXLocation != b.mrXLocation) return false;
+		GameState x = a.state, y = b.state;
+		if (!x.getMrXTravelLog().equals(y.getMrXTravelLog())) return false;
+		if (!x.getPlayers().equals(y.getPlayers())) return false;
+		for (Piece piece : x.getPlayers()) {
+			if (piece.isDetective() && !x.getDetectiveLocation((Detective) piece)
+					.equals(y.getDetectiveLocation((Detective) piece))) return false;
+			if (!tickets(x, piece).equals(tickets(y, piece))) return false;
+		}
+		return x.getAvailableMoves().equals(y.getAvailableMoves());
+	}
+
+	@Override public boolean mayReach(@Nonnull State state, @Nonnull State target) {
+		var log = state.state.getMrXTravelLog();
+		var targetLog = target.state.getMrXTravelLog();
+		if (log.size() > targetLog.size() || !targetLog.subList(0, log.size()).equals(log))
+			return false;
+		if (log.size() < targetLog.size()) return true;
+		// same round: MrX has made his move and detectives that moved are where they ended up
+		if (state.mrXLocation != target.mrXLocation) return false;
+		var moving = state.state.getAvailableMoves().stream()
+				.map(Move::commencedBy)
+				.collect(ImmutableSet.toImmutableSet());
+		for (Piece piece : state.state.getPlayers()) {
+			if (!piece.isDetective() || moving.contains(piece)) continue;
+			if (!state.state.getDetectiveLocation((Detective) piece)
+					.equals(target.state.getDetectiveLocation((Detective) piece))) return false;
+		}
+		return true;
+	}
+
+	@Override public double evaluate(@Nonnull State state) {
+		GameState game = state.state;
+		if (!game.getWinner().isEmpty()) return game.getWinner().contains(MRX) ? 1 : 0;
+		// nobody can move, the real game would stall; count it as the detectives being stuck
+		if (game.getAvailableMoves().isEmpty()) return 1;
+		switch (tablebase.probe(state)) {
+			case MRX_WINS: return 1;
+			case DETECTIVES_WIN: return 0;
+			default: break;
+		}
+		int[] detectives = game.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.mapToInt(p -> game.getDetectiveLocation((Detective) p).orElseThrow())
+				.toArray();
+		return estimate(game.getSetup(), state.mrXLocation, detectives,
+				game.getMrXTravelLog().size());
+	}
+
+	private double estimate(GameSetup setup, int mrXLocation, int[] detectives, int logSize) {
+		LandmarkHeuristic heuristic = heuristic(setup);
+		int nearest = LandmarkHeuristic.UNREACHABLE;
+		for (int location : detectives)
+			nearest = Math.min(nearest,
+					heuristic.distance(location, mrXLocation, TransportClass.DETECTIVE));
+		double safety = nearest == LandmarkHeuristic.UNREACHABLE ? 1 : nearest / (nearest + 1.5);
+		double progress = (double) logSize / setup.revealSchedule().rounds();
+		return 0.75 * safety + 0.25 * progress;
+	}
+
+	/**
+	 * Plays the rollout on a per thread {@link PlayoutKernel}, which follows the same rules as
+	 * advancing the state and picks uniformly among the same moves, but allocates nothing per
+	 * move.
+	 */
+	@Override public double playout(@Nonnull State state, @Nonnull SplittableRandom random,
+	                                int maxDepth) {
+		GameSetup setup = state.state.getSetup();
+		PlayoutKernel kernel = kernels.get();
+		if (kernel == null || !kernel.plays(setup)) {
+			kernel = new PlayoutKernel(setup);
+			kernels.set(kernel);
+		}
+		kernel.load(state.state, state.mrXLocation);
+		switch (kernel.play(random, PlayoutKernel.Policy.UNIFORM, maxDepth)) {
+			case PlayoutKernel.MRX_WON:
+			case PlayoutKernel.STALLED: return 1;
+			case PlayoutKernel.DETECTIVES_WON: return 0;
+			default:
+				// a state reached without moves is still the one loaded, which may be solved
+				if (kernel.plies() == 0) return evaluate(state);
+				return estimate(setup, kernel.mrXLocation(), kernel.detectiveLocations(),
+						kernel.round());
+		}
+	}
+
+	/**
+	 * @param state a non terminal state
+	 * @return the outcome of the state according to this engine's tablebase
+	 */
+	@Nonnull public Tablebase.Outcome probe(@Nonnull State state) {
+		return tablebase.probe(state);
+	}
+
+	private LandmarkHeuristic heuristic(GameSetup setup) {
+		var cached = heuristic;
+		if (cached == null || cached.getKey() != setup) {
+			cached = new SimpleImmutableEntry<>(setup, LandmarkHeuristic.of(setup));
+			heuristic = cached;
+		}
+		return cached.getValue();
+	}
+}
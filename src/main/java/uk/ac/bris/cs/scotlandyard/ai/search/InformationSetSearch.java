@@ -0,0 +1,233 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * Single observer information set Monte Carlo tree search for the detectives, who cannot see
+ * where MrX is.
+ * <br>
+ * Every iteration starts from a fresh determinisation drawn from a sampler and only considers
+ * the moves legal in it, selecting by UCB over availability counts (see {@link IsmctsNode}).
+ * Each worker of a dedicated {@link ForkJoinPool} grows its own tree from its own samples; the
+ * trees are merged per information set once the deadline passes. The result is a plan: the most
+ * visited line of consecutive moves by the searching side, one per piece still to move.
+ *
+ * @param <S> the state type of the engine
+ */
+public final class InformationSetSearch<S> implements AutoCloseable {
+
+	/**
+	 * The outcome of a search
+	 */
+	public static final class Result {
+		private final ImmutableList<Move> plan;
+		private final ImmutableMap<Move, Integer> visits;
+		private final double value;
+		private final long playouts;
+		private final long elapsedNanos;
+
+		Result(ImmutableList<Move> plan, ImmutableMap<Move, Integer> visits, double value,
+		       long playouts, long elapsedNanos) {
+			this.plan = plan;
+			this.visits = visits;
+			this.value = value;
+			this.playouts = playouts;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return the first move of the plan
+		 */
+		@Nonnull public Move bestMove() { return plan.get(0); }
+		/**
+		 * @return the most visited line of moves by the side to move at the root, in order
+		 */
+		@Nonnull public ImmutableList<Move> plan() { return plan; }
+		/**
+		 * @return merged visit counts of every root move
+		 */
+		@Nonnull public ImmutableMap<Move, Integer> visits() { return visits; }
+		/**
+		 * @return the mean reward of {@link #bestMove()} for the side making it
+		 */
+		public double value() { return value; }
+		/**
+		 * @return the number of iterations completed over all workers
+		 */
+		public long playouts() { return playouts; }
+		/**
+		 * @return the wall time spent searching
+		 */
+		public long elapsedNanos() { return elapsedNanos; }
+	}
+
+	private final GameEngine<S> engine;
+	private final MonteCarloTreeSearch.Config config;
+	private final SplittableRandom seeds;
+	private ForkJoinPool pool;
+
+	public InformationSetSearch(@Nonnull GameEngine<S> engine,
+	                            @Nonnull MonteCarloTreeSearch.Config config) {
+		this.engine = Objects.requireNonNull(engine);
+		this.config = Objects.requireNonNull(config);
+		this.seeds = new SplittableRandom(config.seed());
+	}
+
+	/**
+	 * Searches until the deadline.
+	 *
+	 * @param sampler draws a determinisation consistent with what the searching side knows;
+	 * called concurrently with a random source owned by the calling worker
+	 * @param deadlineNanos the {@link System#nanoTime()} at which to stop
+	 * @return the result, or empty if no iteration completed, as when the deadline has already
+	 * passed, the search was interrupted or the sampled states have no moves
+	 */
+	@Nonnull public Optional<Result> search(@Nonnull Function<SplittableRandom, S> sampler,
+	                                        long deadlineNanos) {
+		return search(sampler, deadlineNanos, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Searches for a fixed number of iterations, mostly for testing.
+	 *
+	 * @param sampler draws a determinisation, see {@link #search(Function, long)}
+	 * @param playouts the number of iterations, spread over the workers
+	 * @return the result, or empty if no iteration completed
+	 */
+	@Nonnull public Optional<Result> search(@Nonnull Function<SplittableRandom, S> sampler,
+	                                        int playouts) {
+		return search(sampler, Long.MAX_VALUE, playouts);
+	}
+
+	private Optional<Result> search(Function<SplittableRandom, S> sampler, long deadlineNanos,
+	                                long maxPlayouts) {
+		Objects.requireNonNull(sampler);
+		long start = System.nanoTime();
+		int workers = config.workers();
+		List<Callable<IsmctsNode>> tasks = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++) {
+			SplittableRandom random = nextRandom();
+			long quota = maxPlayouts / workers + (i < maxPlayouts % workers ? 1 : 0);
+			tasks.add(() -> work(sampler, deadlineNanos, quota, random));
+		}
+		IsmctsNode merged = new IsmctsNode(null, false);
+		try {
+			for (Future<IsmctsNode> f : pool().invokeAll(tasks)) merged.merge(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Search worker failed", e.getCause());
+		}
+		if (merged.children().isEmpty()) return Optional.empty();
+		return Optional.of(result(merged, System.nanoTime() - start));
+	}
+
+	private synchronized SplittableRandom nextRandom() { return seeds.split(); }
+
+	private synchronized ForkJoinPool pool() {
+		if (pool == null) pool = SearchThreads.newPool("ismcts", config.workers());
+		return pool;
+	}
+
+	private IsmctsNode work(Function<SplittableRandom, S> sampler, long deadlineNanos,
+	                        long quota, SplittableRandom random) {
+		IsmctsNode root = new IsmctsNode(null, false);
+		List<IsmctsNode> path = new ArrayList<>();
+		long playouts = 0;
+		while (playouts < quota && System.nanoTime() < deadlineNanos
+				&& !Thread.currentThread().isInterrupted()) {
+			iterate(root, sampler.apply(random), path, random);
+			playouts++;
+		}
+		return root;
+	}
+
+	private void iterate(IsmctsNode root, S state, List<IsmctsNode> path,
+	                     SplittableRandom random) {
+		path.clear();
+		IsmctsNode node = root;
+		path.add(node);
+		double reward;
+		while (true) {
+			if (engine.isTerminal(state)) {
+				reward = engine.evaluate(state);
+				break;
+			}
+			ImmutableList<Move> moves = engine.moves(state);
+			int unexplored = 0;
+			for (Move move : moves) {
+				IsmctsNode child = node.child(move);
+				if (child == null) unexplored++;
+				else child.availability++;
+			}
+			if (unexplored > 0) {
+				int pick = random.nextInt(unexplored);
+				for (Move move : moves) {
+					if (node.child(move) != null || pick-- > 0) continue;
+					node = node.addChild(move);
+					break;
+				}
+				node.availability++;
+				path.add(node);
+				reward = engine.playout(engine.advance(state, node.move), random,
+						config.playoutDepth());
+				break;
+			}
+			IsmctsNode best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (Move move : moves) {
+				IsmctsNode child = Objects.requireNonNull(node.child(move));
+				double score = child.ucb(config.exploration());
+				if (score > bestScore) {
+					bestScore = score;
+					best = child;
+				}
+			}
+			node = Objects.requireNonNull(best);
+			path.add(node);
+			state = engine.advance(state, node.move);
+		}
+		for (IsmctsNode n : path) n.update(reward);
+	}
+
+	private static Result result(IsmctsNode root, long elapsedNanos) {
+		var visits = ImmutableMap.<Move, Integer>builder();
+		for (IsmctsNode child : root.children()) visits.put(child.move, child.visits);
+		var plan = ImmutableList.<Move>builder();
+		IsmctsNode node = root;
+		IsmctsNode first = null;
+		while (!node.children().isEmpty()) {
+			IsmctsNode best = null;
+			for (IsmctsNode child : node.children())
+				if (best == null || child.visits > best.visits) best = child;
+			node = Objects.requireNonNull(best);
+			if (first == null) first = node;
+			// the plan ends when the other side is to move
+			else if (node.mrXMoved != first.mrXMoved) break;
+			plan.add(node.move);
+		}
+		return new Result(plan.build(), visits.build(), Objects.requireNonNull(first).mean(),
+				root.visits, elapsedNanos);
+	}
+
+	@Override public synchronized void close() {
+		if (pool != null) pool.shutdownNow();
+		pool = null;
+	}
+}
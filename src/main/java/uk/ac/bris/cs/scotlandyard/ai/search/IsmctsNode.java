@@ -0,0 +1,77 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * A node of an {@link InformationSetSearch} tree, owned by a single worker.
+ * <br>
+ * Children are keyed by move because different determinisations allow different moves from the
+ * same node. Besides visits each node counts how often it was <em>available</em>, i.e. legal in
+ * the determinisation of an iteration that reached its parent, which replaces the parent's visit
+ * count in the UCB formula. Values are stored from the point of view of the side that made
+ * {@link #move}.
+ */
+final class IsmctsNode {
+
+	final Move move;
+	final boolean mrXMoved;
+	int visits;
+	int availability;
+	double value;
+	private final Map<Move, IsmctsNode> children = new LinkedHashMap<>(4);
+
+	IsmctsNode(@Nullable Move move, boolean mrXMoved) {
+		this.move = move;
+		this.mrXMoved = mrXMoved;
+	}
+
+	@Nullable IsmctsNode child(Move move) { return children.get(move); }
+
+	IsmctsNode addChild(Move move) {
+		IsmctsNode child = new IsmctsNode(move, move.commencedBy().isMrX());
+		children.put(move, child);
+		return child;
+	}
+
+	Collection<IsmctsNode> children() { return children.values(); }
+
+	/**
+	 * @param mrXReward MrX's reward in [0, 1]
+	 */
+	void update(double mrXReward) {
+		value += mrXMoved ? mrXReward : 1 - mrXReward;
+		visits++;
+	}
+
+	double mean() { return visits == 0 ? 0 : value / visits; }
+
+	double ucb(double exploration) {
+		return mean() + exploration * Math.sqrt(Math.log(availability) / visits);
+	}
+
+	/**
+	 * Adds the statistics of another worker's node to this one. Detective moves are followed
+	 * down the tree since the detectives see each other's moves, so those nodes are the same
+	 * information set in every worker; below a hidden MrX move nodes are specific to the
+	 * determinisations that reached them and are not merged.
+	 *
+	 * @param other the node to merge in
+	 */
+	void merge(IsmctsNode other) {
+		visits += other.visits;
+		availability += other.availability;
+		value += other.value;
+		for (IsmctsNode theirs : other.children.values()) {
+			if (theirs.mrXMoved) continue;
+			IsmctsNode ours = children.get(theirs.move);
+			if (ours == null) ours = addChild(theirs.move);
+			ours.merge(theirs);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * A node of a {@link MonteCarloTreeSearch} tree. All statistics are lock-free counters so that
+ * any number of workers can select, expand and back up through the same node.
+ * <br>
+ * Values are stored from the point of view of the side that made {@link #move}, as fixed point
+ * sums of rewards in [0, 1].
+ */
+final class MctsNode {
+
+	static final long SCALE = 1 << 20;
+
+	final Move move;
+	final boolean mrXMoved;
+	final AtomicInteger visits = new AtomicInteger();
+	final AtomicInteger virtualLoss = new AtomicInteger();
+	final AtomicLong value = new AtomicLong();
+	private final AtomicReference<MctsNode[]> children = new AtomicReference<>();
+
+	MctsNode(@Nullable Move move, boolean mrXMoved) {
+		this.move = move;
+		this.mrXMoved = mrXMoved;
+	}
+
+	@Nullable MctsNode[] children() { return children.get(); }
+
+	/**
+	 * Expands this node with the given moves unless another worker got there first
+	 *
+	 * @return the children of this node
+	 */
+	MctsNode[] expand(ImmutableList<Move> moves) {
+		MctsNode[] existing = children.get();
+		if (existing != null) return existing;
+		MctsNode[] created = new MctsNode[moves.size()];
+		for (int i = 0; i < created.length; i++) {
+			Move m = moves.get(i);
+			created[i] = new MctsNode(m, m.commencedBy().isMrX());
+		}
+		return children.compareAndSet(null, created) ? created : children.get();
+	}
+
+	/**
+	 * @param mrXReward MrX's reward in [0, 1]
+	 */
+	void update(double mrXReward) {
+		double reward = mrXMoved ? mrXReward : 1 - mrXReward;
+		value.addAndGet(Math.round(reward * SCALE));
+		visits.incrementAndGet();
+	}
+
+	double mean() {
+		int n = visits.get();
+		return n == 0 ? 0 : (double) value.get() / SCALE / n;
+	}
+
+	/**
+	 * UCT score with virtual loss: in-flight visits count as losses for the side to move
+	 */
+	double uct(double logParent, double exploration) {
+		int n = visits.get() + virtualLoss.get();
+		if (n == 0) return Double.POSITIVE_INFINITY;
+		double q = (double) value.get() / SCALE / n;
+		return q + exploration * Math.sqrt(logParent / n);
+	}
+}
@@ -0,0 +1,412 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * A tree-parallel Monte Carlo tree search over any {@link GameEngine}.
+ * <br>
+ * Workers on a dedicated {@link ForkJoinPool} descend the same tree concurrently, selecting
+ * children by UCT. Nodes only hold lock-free counters (see {@link MctsNode}) and every worker
+ * adds a virtual loss to the nodes on its current path, which steers the other workers onto
+ * different branches instead of making them queue up behind each other. Leaves are expanded on
+ * their second visit and evaluated with {@link GameEngine#playout}.
+ *
+ * @param <S> the state type of the engine
+ */
+public final class MonteCarloTreeSearch<S> implements AutoCloseable {
+
+	/**
+	 * Search parameters
+	 */
+	public static final class Config {
+		private final double exploration;
+		private final int workers;
+		private final int playoutDepth;
+		private final long seed;
+
+		public Config(double exploration, int workers, int playoutDepth, long seed) {
+			if (exploration < 0) throw new IllegalArgumentException("exploration < 0");
+			if (workers <= 0) throw new IllegalArgumentException("workers <= 0");
+			if (playoutDepth < 0) throw new IllegalArgumentException("playoutDepth < 0");
+			this.exploration = exploration;
+			this.workers = workers;
+			this.playoutDepth = playoutDepth;
+			this.seed = seed;
+		}
+
+		/**
+		 * @return a configuration with one worker per available processor
+		 */
+		@Nonnull public static Config defaults() {
+			return new Config(Math.sqrt(2), Runtime.getRuntime().availableProcessors(), 24,
+					System.nanoTime());
+		}
+
+		@Nonnull public Config withWorkers(int workers) {
+			return new Config(exploration, workers, playoutDepth, seed);
+		}
+
+		@Nonnull public Config withPlayoutDepth(int playoutDepth) {
+			return new Config(exploration, workers, playoutDepth, seed);
+		}
+
+		@Nonnull public Config withSeed(long seed) {
+			return new Config(exploration, workers, playoutDepth, seed);
+		}
+
+		public double exploration() { return exploration; }
+		public int workers() { return workers; }
+		public int playoutDepth() { return playoutDepth; }
+		public long seed() { return seed; }
+	}
+
+	/**
+	 * The outcome of a search
+	 */
+	public static final class Result {
+		private final Move bestMove;
+		private final ImmutableMap<Move, Integer> visits;
+		private final double value;
+		private final long playouts;
+		private final long reusedVisits;
+		private final long elapsedNanos;
+
+		Result(Move bestMove, ImmutableMap<Move, Integer> visits, double value,
+		       long playouts, long reusedVisits, long elapsedNanos) {
+			this.bestMove = bestMove;
+			this.visits = visits;
+			this.value = value;
+			this.playouts = playouts;
+			this.reusedVisits = reusedVisits;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return the most visited move at the root
+		 */
+		@Nonnull public Move bestMove() { return bestMove; }
+		/**
+		 * @return visit counts of every root move
+		 */
+		@Nonnull public ImmutableMap<Move, Integer> visits() { return visits; }
+		/**
+		 * @return the mean reward of {@link #bestMove()} for the side making it
+		 */
+		public double value() { return value; }
+		/**
+		 * @return the number of playouts completed during this search
+		 */
+		public long playouts() { return playouts; }
+		/**
+		 * @return the visits the root already had from earlier searches, see
+		 * {@link MonteCarloTreeSearch#resume(Object, long)}
+		 */
+		public long reusedVisits() { return reusedVisits; }
+		/**
+		 * @return the wall time spent searching
+		 */
+		public long elapsedNanos() { return elapsedNanos; }
+		/**
+		 * @return playouts per second
+		 */
+		public double playoutsPerSecond() {
+			return elapsedNanos == 0 ? 0 : playouts * 1e9 / elapsedNanos;
+		}
+	}
+
+	private static final BooleanSupplier NEVER = () -> false;
+
+	// a round is at most MrX's move and one move per detective
+	private static final int MAX_REUSE_DEPTH = 8;
+
+	private final GameEngine<S> engine;
+	private final Config config;
+	private final SplittableRandom seeds;
+	private final Object treeLock = new Object();
+	private ForkJoinPool pool;
+	private MctsNode retainedRoot;
+	private S retainedState;
+
+	public MonteCarloTreeSearch(@Nonnull GameEngine<S> engine, @Nonnull Config config) {
+		this.engine = Objects.requireNonNull(engine);
+		this.config = Objects.requireNonNull(config);
+		this.seeds = new SplittableRandom(config.seed);
+	}
+
+	/**
+	 * @return the engine this search runs on
+	 */
+	@Nonnull public GameEngine<S> engine() { return engine; }
+
+	/**
+	 * @return the configuration of this search
+	 */
+	@Nonnull public Config config() { return config; }
+
+	/**
+	 * Searches from the given state until the deadline.
+	 *
+	 * @param state the state to search from, must not be terminal
+	 * @param deadlineNanos the {@link System#nanoTime()} at which to stop
+	 * @return the result
+	 */
+	@Nonnull public Result search(@Nonnull S state, long deadlineNanos) {
+		return search(new MctsNode(null, false), state, deadlineNanos, Long.MAX_VALUE, NEVER);
+	}
+
+	/**
+	 * Searches from the given state for a fixed number of playouts, mostly for testing.
+	 *
+	 * @param state the state to search from, must not be terminal
+	 * @param playouts the number of playouts, spread over the workers
+	 * @return the result
+	 */
+	@Nonnull public Result search(@Nonnull S state, int playouts) {
+		return search(new MctsNode(null, false), state, Long.MAX_VALUE, playouts, NEVER);
+	}
+
+	/**
+	 * Searches from the given state until the deadline like {@link #search(Object, long)}, but
+	 * keeps the tree afterwards and starts from the part of the previous tree that is still
+	 * relevant.
+	 * <br>
+	 * The retained root first follows the moves reported through {@link #advance(Move)}. If the
+	 * given state still is not the root, the explored part of the tree below it is searched for
+	 * the state, pruned by {@link GameEngine#mayReach}, which covers moves that were never
+	 * reported. Without a match the search starts from scratch.
+	 *
+	 * @param state the state to search from, must not be terminal
+	 * @param deadlineNanos the {@link System#nanoTime()} at which to stop
+	 * @return the result
+	 */
+	@Nonnull public Result resume(@Nonnull S state, long deadlineNanos) {
+		return resume(state, deadlineNanos, Long.MAX_VALUE);
+	}
+
+	Result resume(S state, long deadlineNanos, long maxPlayouts) {
+		return resume(state, deadlineNanos, maxPlayouts, NEVER);
+	}
+
+	private Result resume(S state, long deadlineNanos, long maxPlayouts, BooleanSupplier stop) {
+		MctsNode root = reusable(Objects.requireNonNull(state));
+		Result result = search(root, state, deadlineNanos, maxPlayouts, stop);
+		synchronized (treeLock) {
+			retainedRoot = root;
+			retainedState = state;
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps searching the retained tree from where the last move reported through
+	 * {@link #advance(Move)} left it, typically while the opponent is thinking. The next
+	 * {@link #resume(Object, long)} then starts from a bigger tree.
+	 * <br>
+	 * Must not run concurrently with {@link #advance(Move)} or another search; stop it first.
+	 *
+	 * @param deadlineNanos the {@link System#nanoTime()} at which to stop at the latest
+	 * @param stop polled by every worker between playouts; pondering ends once it returns true
+	 * @return the result, or empty if there is no retained tree to search or the game is over
+	 */
+	@Nonnull public Optional<Result> ponder(long deadlineNanos, @Nonnull BooleanSupplier stop) {
+		Objects.requireNonNull(stop);
+		S state;
+		synchronized (treeLock) {
+			state = retainedState;
+		}
+		if (state == null || engine.isTerminal(state)) return Optional.empty();
+		return Optional.of(resume(state, deadlineNanos, Long.MAX_VALUE, stop));
+	}
+
+	/**
+	 * Advances the retained tree by a move that has been played. Moves the tree has not explored,
+	 * or that are not legal from the retained root, are tolerated and only cost the reuse.
+	 *
+	 * @param move the move played
+	 */
+	public void advance(@Nonnull Move move) {
+		Objects.requireNonNull(move);
+		synchronized (treeLock) {
+			if (retainedState == null) return;
+			MctsNode next = null;
+			MctsNode[] children = retainedRoot.children();
+			if (children != null) for (MctsNode child : children)
+				if (child.move.equals(move)) next = child;
+			try {
+				retainedState = engine.advance(retainedState, move);
+			} catch (IllegalArgumentException e) {
+				retainedRoot = null;
+				retainedState = null;
+				return;
+			}
+			retainedRoot = next != null ? next : new MctsNode(move, move.commencedBy().isMrX());
+		}
+	}
+
+	/**
+	 * Drops the retained tree
+	 */
+	public void forget() {
+		synchronized (treeLock) {
+			retainedRoot = null;
+			retainedState = null;
+		}
+	}
+
+	private MctsNode reusable(S state) {
+		MctsNode root;
+		S at;
+		synchronized (treeLock) {
+			root = retainedRoot;
+			at = retainedState;
+			retainedRoot = null;
+			retainedState = null;
+		}
+		if (root == null) return new MctsNode(null, false);
+		if (engine.isSame(at, state)) return root;
+		MctsNode found = find(root, at, state, MAX_REUSE_DEPTH);
+		return found != null ? found : new MctsNode(null, false);
+	}
+
+	private MctsNode find(MctsNode node, S at, S target, int depth) {
+		MctsNode[] children = node.children();
+		if (depth == 0 || children == null) return null;
+		// different moves may reach the same state, e.g. hidden moves ending on the same
+		// station, so keep the most searched of them rather than whichever comes first
+		MctsNode best = null;
+		for (MctsNode child : children) {
+			if (child.visits.get() == 0) continue;
+			S next = engine.advance(at, child.move);
+			if (!engine.mayReach(next, target)) continue;
+			MctsNode found = engine.isSame(next, target) ? child :
+					find(child, next, target, depth - 1);
+			if (found != null && (best == null || found.visits.get() > best.visits.get()))
+				best = found;
+		}
+		return best;
+	}
+
+	Result search(MctsNode root, S state, long deadlineNanos, long maxPlayouts,
+	              BooleanSupplier stop) {
+		if (engine.isTerminal(state))
+			throw new IllegalArgumentException("Cannot search a terminal state");
+		long reused = root.visits.get();
+		root.expand(engine.moves(state));
+		long start = System.nanoTime();
+		int workers = config.workers;
+		List<Callable<Long>> tasks = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++) {
+			SplittableRandom random = nextRandom();
+			long quota = maxPlayouts / workers + (i < maxPlayouts % workers ? 1 : 0);
+			tasks.add(() -> work(root, state, deadlineNanos, quota, stop, random));
+		}
+		long playouts = 0;
+		try {
+			for (Future<Long> f : pool().invokeAll(tasks)) playouts += f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Search worker failed", e.getCause());
+		}
+		return result(root, playouts, reused, System.nanoTime() - start);
+	}
+
+	private synchronized SplittableRandom nextRandom() { return seeds.split(); }
+
+	private synchronized ForkJoinPool pool() {
+		if (pool == null) pool = SearchThreads.newPool("mcts", config.workers);
+		return pool;
+	}
+
+	private long work(MctsNode root, S rootState, long deadlineNanos, long quota,
+	                  BooleanSupplier stop, SplittableRandom random) {
+		long playouts = 0;
+		List<MctsNode> path = new ArrayList<>();
+		while (playouts < quota && System.nanoTime() < deadlineNanos
+				&& !Thread.currentThread().isInterrupted() && !stop.getAsBoolean()) {
+			iterate(root, rootState, path, random);
+			playouts++;
+		}
+		return playouts;
+	}
+
+	private void iterate(MctsNode root, S rootState, List<MctsNode> path,
+	                     SplittableRandom random) {
+		path.clear();
+		MctsNode node = root;
+		S state = rootState;
+		node.virtualLoss.incrementAndGet();
+		path.add(node);
+		double reward;
+		while (true) {
+			if (engine.isTerminal(state)) {
+				reward = engine.evaluate(state);
+				break;
+			}
+			MctsNode[] children = node.children();
+			if (children == null) {
+				if (node.visits.get() == 0) {
+					reward = engine.playout(state, random, config.playoutDepth);
+					break;
+				}
+				children = node.expand(engine.moves(state));
+			}
+			node = select(node, children);
+			node.virtualLoss.incrementAndGet();
+			path.add(node);
+			state = engine.advance(state, node.move);
+		}
+		for (MctsNode n : path) {
+			n.update(reward);
+			n.virtualLoss.decrementAndGet();
+		}
+	}
+
+	private MctsNode select(MctsNode parent, MctsNode[] children) {
+		double logParent = Math.log(parent.visits.get() + parent.virtualLoss.get() + 1);
+		MctsNode best = children[0];
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (MctsNode child : children) {
+			double score = child.uct(logParent, config.exploration);
+			if (score > bestScore) {
+				bestScore = score;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	static Result result(MctsNode root, long playouts, long reused, long elapsedNanos) {
+		MctsNode[] children = Objects.requireNonNull(root.children());
+		MctsNode best = children[0];
+		var visits = ImmutableMap.<Move, Integer>builder();
+		for (MctsNode child : children) {
+			visits.put(child.move, child.visits.get());
+			int n = child.visits.get(), m = best.visits.get();
+			if (n > m || (n == m && child.mean() > best.mean())) best = child;
+		}
+		return new Result(best.move, visits.build(), best.mean(), playouts, reused,
+				elapsedNanos);
+	}
+
+	@Override public synchronized void close() {
+		if (pool != null) pool.shutdownNow();
+		pool = null;
+		forget();
+	}
+}
@@ -0,0 +1,89 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic;
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.TransportClass;
+import uk.ac.bris.cs.scotlandyard.ai.book.OpeningBook;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.FunctionalVisitor;
+
+/**
+ * A MrX {@link Ai} backed by a parallel {@link MonteCarloTreeSearch} over
+ * {@link GameStateEngine}, using every available processor for most of the turn's timeout.
+ * <br>
+ * MrX knows where everyone is, so he can search the real game, and the tree is kept between
+ * turns: it follows the moves reported to {@link #onMoveMade}, so the part of last turn's search
+ * below the moves actually played carries over, and it keeps searching it while the detectives
+ * move, see {@link #ponder}.
+ * <br>
+ * When asked to play the detectives, which this AI is not meant for, it simply heads for MrX's
+ * last known location.
+ */
+public final class MrXMctsAi implements Ai {
+
+	private MonteCarloTreeSearch<GameStateEngine.State> search;
+
+	@Nonnull @Override public String name() { return "MCTS MrX"; }
+
+	@Override public void onStart() {
+		search = new MonteCarloTreeSearch<>(new GameStateEngine(),
+				MonteCarloTreeSearch.Config.defaults());
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+		return pickMove(board, SearchBudget.turn(timeoutPair));
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		var moves = board.getAvailableMoves().asList();
+		if (moves.size() == 1) return moves.get(0);
+		var location = GameStateEngine.mrXLocation(board);
+		if (location.isEmpty()) return chase(board);
+		if (search == null) onStart();
+		var state = GameStateEngine.resume(board, location.getAsInt());
+		var book = OpeningBook.standard().lookup(state);
+		if (book.isPresent()) return book.get();
+		return search.resume(state, SearchBudget.deadline(deadline)).bestMove();
+	}
+
+	/**
+	 * Keeps growing the tree below MrX's last move while the detectives think
+	 */
+	@Override public void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		if (search != null) search.ponder(deadline.hardNanos(), deadline::shouldStop);
+	}
+
+	@Override public void onMoveMade(@Nonnull Board board, @Nonnull Move move) {
+		if (search != null) search.advance(move);
+	}
+
+	private static Move chase(Board board) {
+		var target = board.getMrXTravelLog().reverse().stream()
+				.map(LogEntry::location)
+				.flatMap(Optional::stream)
+				.findFirst();
+		var moves = board.getAvailableMoves().asList();
+		if (target.isEmpty()) return moves.get(0);
+		var heuristic = LandmarkHeuristic.of(board.getSetup());
+		return moves.stream().min(Comparator.comparingInt(m -> heuristic.distance(
+				m.accept(new FunctionalVisitor<>(s -> s.destination, d -> d.destination2)),
+				target.get(), TransportClass.DETECTIVE))).orElseThrow();
+	}
+
+	@Override public void onTerminate() {
+		if (search != null) search.close();
+		search = null;
+	}
+}
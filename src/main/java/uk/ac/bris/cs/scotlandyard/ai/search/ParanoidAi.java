@@ -0,0 +1,74 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.ai.MrXLocationDistribution;
+import uk.ac.bris.cs.scotlandyard.ai.book.OpeningBook;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+/**
+ * A deterministic {@link Ai} for either side, backed by an {@link AlphaBetaSearch}.
+ * <br>
+ * MrX searches the real game. The detectives search the game with MrX at his most likely
+ * location according to a {@link MrXLocationDistribution}, lowest station first on ties. Both
+ * sides use the {@link TranspositionTable#shared() shared} transposition table, so the move
+ * depends on nothing but the board, the table's contents and the time available.
+ */
+public final class ParanoidAi implements Ai {
+
+	private static final int MAX_DEPTH = 32;
+
+	private AlphaBetaSearch search;
+	private MrXLocationDistribution distribution;
+	private GameSetup setup;
+
+	@Nonnull @Override public String name() { return "Paranoid Alpha-Beta"; }
+
+	@Override public void onStart() {
+		search = new AlphaBetaSearch(new GameStateEngine(), TranspositionTable.shared(),
+				MAX_DEPTH);
+		distribution = null;
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+		return pickMove(board, SearchBudget.turn(timeoutPair));
+	}
+
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		var moves = board.getAvailableMoves().asList();
+		if (moves.size() == 1) return moves.get(0);
+		if (search == null) onStart();
+		var mrXLocation = GameStateEngine.mrXLocation(board);
+		if (mrXLocation.isPresent()) {
+			var state = GameStateEngine.resume(board, mrXLocation.getAsInt());
+			return OpeningBook.standard().lookup(state)
+					.orElseGet(() -> search.search(state, deadline).bestMove());
+		}
+		if (distribution == null || !board.getSetup().equals(setup)) {
+			setup = board.getSetup();
+			distribution = new MrXLocationDistribution(setup);
+		}
+		distribution.update(board);
+		int likely = distribution.snapshot().probabilities().entrySet().stream()
+				.max(Map.Entry.<Integer, Double>comparingByValue()
+						.thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())))
+				.map(Map.Entry::getKey)
+				.orElse(ScotlandYard.MRX_LOCATIONS.get(0));
+		var state = GameStateEngine.determinise(board, likely);
+		// only when the distribution has lost track of MrX and the guess is off
+		if (state.gameState().getAvailableMoves().isEmpty()) return moves.get(0);
+		return search.search(state, deadline).bestMove();
+	}
+}
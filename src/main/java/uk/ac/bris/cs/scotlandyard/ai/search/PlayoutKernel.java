@@ -0,0 +1,340 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.ai.GraphIndex;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Plays games to the end on primitive state, for rollouts.
+ * <br>
+ * A kernel is loaded from a {@link Board} and then follows the rules of
+ * {@link uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory} move for move, including which
+ * pieces are still to move, how tickets change hands and when the game is over, but on plain
+ * arrays of {@link GraphIndex} indices and ticket counts. Moves are generated into a reused
+ * buffer of {@code long} codes holding exactly the distinct moves the engine would offer, so
+ * choosing one uniformly is the same as choosing uniformly from
+ * {@link Board#getAvailableMoves()}. Once the buffer has grown to fit, playing a ply allocates
+ * nothing.
+ * <br>
+ * Kernels are mutable and not thread safe; use one per thread.
+ */
+public final class PlayoutKernel {
+
+	/**
+	 * Chooses moves during a playout
+	 */
+	@FunctionalInterface
+	public interface Policy {
+		/** Chooses uniformly among the legal moves, like playing random moves through the engine */
+		Policy UNIFORM = (kernel, random) -> random.nextInt(kernel.moveCount());
+
+		/**
+		 * @param kernel the kernel, with at least one legal move
+		 * @param random the random source, owned by the calling thread
+		 * @return the index of the move to play, below {@link PlayoutKernel#moveCount()}
+		 */
+		int choose(@Nonnull PlayoutKernel kernel, @Nonnull SplittableRandom random);
+	}
+
+	/** The game goes on */
+	public static final int ONGOING = 0;
+	/** MrX has won */
+	public static final int MRX_WON = 1;
+	/** The detectives have won */
+	public static final int DETECTIVES_WON = 2;
+	/** Nobody won but nobody can move either */
+	public static final int STALLED = 3;
+
+	private static final int MRX = 0;
+	private static final int TICKETS = Ticket.values().length;
+	private static final int DOUBLE = Ticket.DOUBLE.ordinal();
+	private static final int MAX_PLAYERS = 1 + 5;
+	private static final long DOUBLE_MOVE = 1L << 50;
+
+	private final GraphIndex graph;
+	private final Piece[] pieces = new Piece[MAX_PLAYERS];
+	private final int[] locations = new int[MAX_PLAYERS];
+	private final int[] tickets = new int[MAX_PLAYERS * TICKETS];
+	private int players;
+	private int remaining;
+	private int rounds;
+	private int logSize;
+	private int status;
+	private int plies;
+	private long[] moves = new long[256];
+	private int moveCount;
+
+	/**
+	 * @param setup the setup of the games to play
+	 */
+	public PlayoutKernel(@Nonnull GameSetup setup) {
+		this.graph = GraphIndex.of(Objects.requireNonNull(setup));
+		this.rounds = setup.revealSchedule().rounds();
+	}
+
+	/**
+	 * @param setup a setup
+	 * @return whether this kernel can load boards of the given setup
+	 */
+	public boolean plays(@Nonnull GameSetup setup) { return GraphIndex.of(setup) == graph; }
+
+	/**
+	 * Loads a position. Which pieces are still to move is read off the available moves, like
+	 * {@link GameStateEngine#determiniser(Board)} does.
+	 *
+	 * @param board the board, on the graph this kernel was created for
+	 * @param mrXLocation where MrX is, or is assumed to be
+	 */
+	public void load(@Nonnull Board board, int mrXLocation) {
+		if (!plays(board.getSetup()))
+			throw new IllegalArgumentException("Board is not on this kernel's graph");
+		if (board.getPlayers().size() > MAX_PLAYERS)
+			throw new IllegalArgumentException("Too many players: " + board.getPlayers().size());
+		rounds = board.getSetup().revealSchedule().rounds();
+		logSize = board.getMrXTravelLog().size();
+		plies = 0;
+		players = 0;
+		pieces[MRX] = Piece.MrX.MRX;
+		locations[MRX] = index(mrXLocation);
+		loadTickets(board, MRX);
+		for (Piece piece : board.getPlayers()) {
+			if (piece.isMrX()) continue;
+			int p = ++players;
+			pieces[p] = piece;
+			locations[p] = index(board.getDetectiveLocation((Detective) piece).orElseThrow());
+			loadTickets(board, p);
+		}
+		players++;
+		remaining = 0;
+		for (Move move : board.getAvailableMoves()) remaining |= 1 << player(move.commencedBy());
+		var winner = board.getWinner();
+		if (!winner.isEmpty()) {
+			status = winner.contains(Piece.MrX.MRX) ? MRX_WON : DETECTIVES_WON;
+			moveCount = 0;
+			return;
+		}
+		status = ONGOING;
+		generate();
+	}
+
+	private int index(int node) {
+		int index = graph.index(node);
+		if (index < 0) throw new IllegalArgumentException("Station " + node + " not in graph");
+		return index;
+	}
+
+	private void loadTickets(Board board, int p) {
+		var counts = board.getPlayerTickets(pieces[p]).orElseThrow();
+		for (Ticket ticket : Ticket.values())
+			tickets[p * TICKETS + ticket.ordinal()] = counts.getCount(ticket);
+	}
+
+	private int player(Piece piece) {
+		for (int p = 0; p < players; p++) if (pieces[p] == piece) return p;
+		throw new IllegalArgumentException("Unknown piece " + piece);
+	}
+
+	/**
+	 * Plays moves chosen by the policy until the game is over or the ply limit is reached.
+	 *
+	 * @param random the random source, owned by the calling thread
+	 * @param policy the policy
+	 * @param maxPlies the maximum number of moves to play
+	 * @return the {@link #status()} afterwards
+	 */
+	public int play(@Nonnull SplittableRandom random, @Nonnull Policy policy, int maxPlies) {
+		for (int i = 0; i < maxPlies && status == ONGOING; i++) play(policy.choose(this, random));
+		return status;
+	}
+
+	/**
+	 * Plays one of the current moves.
+	 *
+	 * @param i the index of the move, below {@link #moveCount()}
+	 */
+	public void play(int i) {
+		if (status != ONGOING || i < 0 || i >= moveCount)
+			throw new IllegalArgumentException("No move " + i);
+		long code = moves[i];
+		int p = (int) (code & 7);
+		int ticket1 = (int) (code >>> 3 & 7), to1 = (int) (code >>> 6 & 0xfffff);
+		plies++;
+		if (p == MRX) {
+			if ((code & DOUBLE_MOVE) != 0) {
+				tickets[DOUBLE]--;
+				tickets[ticket1]--;
+				tickets[(int) (code >>> 26 & 7)]--;
+				locations[MRX] = (int) (code >>> 29 & 0xfffff);
+				logSize += 2;
+			} else {
+				tickets[ticket1]--;
+				locations[MRX] = to1;
+				logSize++;
+			}
+			remaining = 0;
+			for (int d = 1; d < players; d++) if (canMoveAvoiding(d, 0)) remaining |= 1 << d;
+		} else {
+			tickets[p * TICKETS + ticket1]--;
+			tickets[ticket1]++;
+			locations[p] = to1;
+			int left = remaining & ~(1 << p);
+			// detectives not left to move, whether they moved or never could, block the rest
+			int moved = ((1 << players) - 2) & ~left;
+			remaining = 0;
+			for (int d = 1; d < players; d++)
+				if ((left >>> d & 1) != 0 && canMoveAvoiding(d, moved)) remaining |= 1 << d;
+			if (remaining == 0) remaining = 1 << MRX;
+			status = winnerAfterDetectiveMove();
+			if (status != ONGOING) {
+				moveCount = 0;
+				return;
+			}
+		}
+		generate();
+	}
+
+	private int winnerAfterDetectiveMove() {
+		boolean captured = false;
+		for (int d = 1; d < players; d++) if (locations[d] == locations[MRX]) captured = true;
+		if (logSize == rounds) return MRX_WON;
+		if (captured || (remaining == 1 << MRX && !canMoveAvoiding(MRX, detectives())))
+			return DETECTIVES_WON;
+		for (int d = 1; d < players; d++) if (canMoveAvoiding(d, detectives())) return ONGOING;
+		return MRX_WON;
+	}
+
+	private int detectives() { return ((1 << players) - 1) & ~(1 << MRX); }
+
+	// whether p holds a ticket for some edge to a station none of the given players stand on
+	private boolean canMoveAvoiding(int p, int blockers) {
+		int from = locations[p], held = held(p);
+		for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++)
+			if ((graph.tickets(e) & held) != 0 && !occupied(graph.target(e), blockers))
+				return true;
+		return false;
+	}
+
+	private int held(int p) {
+		int mask = 0;
+		for (int t = 0; t < TICKETS; t++) if (tickets[p * TICKETS + t] > 0) mask |= 1 << t;
+		return mask;
+	}
+
+	private boolean occupied(int station, int blockers) {
+		for (int d = 1; d < players; d++)
+			if ((blockers >>> d & 1) != 0 && locations[d] == station) return true;
+		return false;
+	}
+
+	private void generate() {
+		moveCount = 0;
+		int detectives = detectives();
+		boolean doubles = logSize + 1 < rounds;
+		for (int p = 0; p < players; p++) {
+			if ((remaining >>> p & 1) == 0) continue;
+			int base = p * TICKETS, from = locations[p], held = held(p);
+			boolean canDouble = p == MRX && doubles && tickets[base + DOUBLE] > 0;
+			for (int e = graph.edgesFrom(from); e < graph.edgesTo(from); e++) {
+				int to1 = graph.target(e);
+				if (occupied(to1, detectives)) continue;
+				int first = graph.tickets(e) & held;
+				for (int t1 = 0; t1 < TICKETS; t1++) {
+					if ((first >>> t1 & 1) == 0) continue;
+					long single = p | (long) t1 << 3 | (long) to1 << 6;
+					add(single);
+					if (!canDouble) continue;
+					for (int f = graph.edgesFrom(to1); f < graph.edgesTo(to1); f++) {
+						int to2 = graph.target(f);
+						if (occupied(to2, detectives)) continue;
+						int second = graph.tickets(f) & held;
+						if (tickets[base + t1] < 2) second &= ~(1 << t1);
+						for (int t2 = 0; t2 < TICKETS; t2++)
+							if ((second >>> t2 & 1) != 0)
+								add(single | DOUBLE_MOVE | (long) t2 << 26 | (long) to2 << 29);
+					}
+				}
+			}
+		}
+		if (moveCount == 0) status = STALLED;
+	}
+
+	private void add(long code) {
+		if (moveCount == moves.length) moves = Arrays.copyOf(moves, moveCount * 2);
+		moves[moveCount++] = code;
+	}
+
+	/**
+	 * @return {@link #ONGOING}, {@link #MRX_WON}, {@link #DETECTIVES_WON} or {@link #STALLED}
+	 */
+	public int status() { return status; }
+
+	/**
+	 * @return the number of travel log entries, i.e. MrX moves made with doubles counting twice
+	 */
+	public int round() { return logSize; }
+
+	/**
+	 * @return the number of moves played since the last {@link #load}
+	 */
+	public int plies() { return plies; }
+
+	/**
+	 * @return the number of legal moves; zero once the game is over
+	 */
+	public int moveCount() { return moveCount; }
+
+	/**
+	 * @param i the index of a move
+	 * @return whether MrX makes the move
+	 */
+	public boolean isMrXMove(int i) { return (moves[i] & 7) == MRX; }
+
+	/**
+	 * @param i the index of a move
+	 * @return the station the move ends on
+	 */
+	public int destination(int i) {
+		long code = moves[i];
+		return graph.node((int) ((code & DOUBLE_MOVE) != 0 ? code >>> 29 & 0xfffff
+				: code >>> 6 & 0xfffff));
+	}
+
+	/**
+	 * @return MrX's station
+	 */
+	public int mrXLocation() { return graph.node(locations[MRX]); }
+
+	/**
+	 * @return the detectives' stations, in the order of {@link Board#getPlayers()}
+	 */
+	@Nonnull public int[] detectiveLocations() {
+		int[] stations = new int[players - 1];
+		for (int d = 1; d < players; d++) stations[d - 1] = graph.node(locations[d]);
+		return stations;
+	}
+
+	/**
+	 * @param i the index of a move
+	 * @return the move as the engine would offer it; allocates, so not meant for playouts
+	 */
+	@Nonnull public Move move(int i) {
+		long code = moves[i];
+		Piece piece = pieces[(int) (code & 7)];
+		int source = graph.node(locations[(int) (code & 7)]);
+		Ticket ticket1 = Ticket.values()[(int) (code >>> 3 & 7)];
+		int to1 = graph.node((int) (code >>> 6 & 0xfffff));
+		if ((code & DOUBLE_MOVE) == 0) return new Move.SingleMove(piece, source, ticket1, to1);
+		return new Move.DoubleMove(piece, source, ticket1, to1,
+				Ticket.values()[(int) (code >>> 26 & 7)], graph.node((int) (code >>> 29 & 0xfffff)));
+	}
+}
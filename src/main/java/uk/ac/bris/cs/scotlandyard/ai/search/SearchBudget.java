@@ -0,0 +1,56 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+
+/**
+ * Turns the timeout or {@link AiDeadline} given to
+ * {@link uk.ac.bris.cs.scotlandyard.model.Ai#pickMove} into a search deadline that leaves the
+ * caller enough slack to receive the move before the turn ends.
+ */
+public final class SearchBudget {
+
+	private static final long MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final long SLACK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private SearchBudget() {}
+
+	/**
+	 * @param timeoutPair the timeout of the turn
+	 * @return the {@link System#nanoTime()} by which a search should stop: three quarters of the
+	 * timeout but at least one second before it runs out, and never less than 50ms from now
+	 */
+	public static long deadline(@Nonnull Pair<Long, TimeUnit> timeoutPair) {
+		long timeout = timeoutPair.right().toNanos(timeoutPair.left());
+		long budget = Math.max(MIN_NANOS, Math.min(timeout * 3 / 4, timeout - SLACK_NANOS));
+		return System.nanoTime() + budget;
+	}
+
+	/**
+	 * @param timeoutPair the timeout of the turn
+	 * @return a deadline starting now with the hard limit at the timeout and the soft limit at
+	 * {@link #deadline(Pair)}, for AIs that implement {@link
+	 * uk.ac.bris.cs.scotlandyard.model.Ai#pickMove(uk.ac.bris.cs.scotlandyard.model.Board,
+	 * AiDeadline)} and are called the old way
+	 */
+	@Nonnull public static AiDeadline turn(@Nonnull Pair<Long, TimeUnit> timeoutPair) {
+		long now = System.nanoTime();
+		return new AiDeadline(now, deadline(timeoutPair),
+				now + Math.max(MIN_NANOS, timeoutPair.right().toNanos(timeoutPair.left())));
+	}
+
+	/**
+	 * @param deadline the deadline of the turn
+	 * @return the {@link System#nanoTime()} by which a search should stop: the soft limit, but
+	 * never less than 50ms from now unless the hard limit is closer
+	 */
+	public static long deadline(@Nonnull AiDeadline deadline) {
+		long now = System.nanoTime();
+		if (deadline.softNanos() - now >= MIN_NANOS) return deadline.softNanos();
+		return deadline.hardNanos() - now < MIN_NANOS ? deadline.hardNanos() : now + MIN_NANOS;
+	}
+}
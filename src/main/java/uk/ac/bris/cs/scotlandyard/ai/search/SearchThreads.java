@@ -0,0 +1,32 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the dedicated worker pools searches run on, so search threads are easy to tell apart
+ * in a profiler and never compete with the common pool.
+ */
+final class SearchThreads {
+
+	private static final AtomicInteger POOL_IDS = new AtomicInteger();
+
+	private SearchThreads() {}
+
+	/**
+	 * @param prefix the thread name prefix, e.g {@code mcts}
+	 * @param workers the parallelism of the pool
+	 * @return a new pool whose threads are named {@code <prefix>-<pool>-worker-<n>}
+	 */
+	static ForkJoinPool newPool(String prefix, int workers) {
+		int id = POOL_IDS.getAndIncrement();
+		AtomicInteger threads = new AtomicInteger();
+		return new ForkJoinPool(workers, p -> {
+			ForkJoinWorkerThread thread =
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			thread.setName(prefix + "-" + id + "-worker-" + threads.getAndIncrement());
+			return thread;
+		}, null, false);
+	}
+}
@@ -0,0 +1,112 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Zobrist style hashing of search states and moves.
+ * <br>
+ * A state hash is the XOR of one pseudo random key per feature: every piece's location and
+ * ticket counts, the pieces still to move, and the round, plus the setup's fingerprint so that
+ * positions of different games never share a hash. Instead of a table of random numbers
+ * each key is computed by running the feature through the SplitMix64 finaliser, so the hash
+ * works on any map and is the same in every JVM, which makes transposition tables and searches
+ * reproducible.
+ */
+public final class StateHash {
+
+	private static final int LOCATION = 1, TICKET = 2, TO_MOVE = 3, ROUND = 4, DETECTIVE = 5;
+
+	private StateHash() {}
+
+	/**
+	 * @param state the state
+	 * @return the 64 bit hash of the state; equal positions hash the same
+	 */
+	public static long of(@Nonnull GameStateEngine.State state) {
+		GameState game = state.gameState();
+		long hash = game.getSetup().fingerprint().asLong() ^ key(ROUND, 0,
+				game.getMrXTravelLog().size());
+		for (Piece piece : game.getPlayers()) {
+			int id = pieceId(piece);
+			int location = piece.isMrX() ? state.mrXLocation()
+					: game.getDetectiveLocation((Detective) piece).orElseThrow();
+			hash ^= key(LOCATION, id, location);
+			var tickets = game.getPlayerTickets(piece).orElseThrow();
+			for (Ticket ticket : Ticket.values())
+				hash ^= key(TICKET, id << 3 | ticket.ordinal(), tickets.getCount(ticket));
+		}
+		long moving = 0;
+		for (Move move : game.getAvailableMoves()) moving |= 1L << pieceId(move.commencedBy());
+		for (int id = 0; id < 64; id++) if ((moving >>> id & 1) != 0) hash ^= key(TO_MOVE, id, 0);
+		return hash;
+	}
+
+	/**
+	 * Like {@link #of} but the same for positions that only differ in which colour of detective
+	 * stands where, since detectives with the same tickets are interchangeable. Used to key
+	 * positions that should be found whatever colours the detectives were dealt, e.g. in an
+	 * opening book.
+	 *
+	 * @param state the state
+	 * @return the 64 bit colour blind hash of the state
+	 */
+	public static long canonical(@Nonnull GameStateEngine.State state) {
+		GameState game = state.gameState();
+		long hash = game.getSetup().fingerprint().asLong() ^ key(ROUND, 0,
+				game.getMrXTravelLog().size());
+		for (Piece piece : game.getPlayers()) {
+			var tickets = game.getPlayerTickets(piece).orElseThrow();
+			if (piece.isMrX()) {
+				hash ^= key(LOCATION, 0, state.mrXLocation());
+				for (Ticket ticket : Ticket.values())
+					hash ^= key(TICKET, ticket.ordinal(), tickets.getCount(ticket));
+				continue;
+			}
+			long packed = 0;
+			for (Ticket ticket : Ticket.values())
+				packed = packed * 31 + tickets.getCount(ticket);
+			hash ^= mix(key(DETECTIVE, game.getDetectiveLocation((Detective) piece).orElseThrow(),
+					0) ^ packed);
+		}
+		boolean mrXToMove = game.getAvailableMoves().stream()
+				.anyMatch(m -> m.commencedBy().isMrX());
+		return mrXToMove ? hash : ~hash;
+	}
+
+	/**
+	 * @param piece the piece
+	 * @return 0 for MrX and 1 + the ordinal for detectives
+	 */
+	public static int pieceId(@Nonnull Piece piece) {
+		return piece.isMrX() ? 0 : 1 + ((Detective) piece).ordinal();
+	}
+
+	/**
+	 * @param move the move
+	 * @return a hash of the move that, unlike {@link Move#hashCode()}, is the same in every JVM
+	 */
+	public static int moveCode(@Nonnull Move move) {
+		return move.accept(new Move.FunctionalVisitor<>(
+				m -> (int) mix(((long) pieceId(m.commencedBy()) << 40)
+						^ ((long) m.ticket.ordinal() << 32) ^ m.destination),
+				m -> (int) mix(1L << 62 ^ ((long) pieceId(m.commencedBy()) << 56)
+						^ ((long) m.ticket1.ordinal() << 52) ^ ((long) m.ticket2.ordinal() << 48)
+						^ ((long) m.destination1 << 24) ^ m.destination2)));
+	}
+
+	private static long key(int kind, int feature, int value) {
+		return mix(((long) kind << 56) ^ ((long) feature << 32) ^ (value & 0xffffffffL));
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,255 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A fixed capacity, lock-free transposition table that any number of searches and threads may
+ * share.
+ * <br>
+ * The table is a single {@code long[]} of buckets of {@value #BUCKET} slots, 64 bytes per bucket
+ * so that a probe touches one cache line. Every slot is two {@code long}s: the key XOR-ed with
+ * the packed entry, then the entry. Reads and writes never lock; a slot torn by two concurrent
+ * writers fails the XOR check on the next probe and reads as a miss, so a corrupted entry can
+ * never be mistaken for a valid one.
+ * <br>
+ * Entries are packed as the score in the low 32 bits, then the depth (8 bits, stored plus one so
+ * that no valid entry is zero), the bound (2 bits), the low 16 bits of the best move's
+ * {@link StateHash#moveCode(uk.ac.bris.cs.scotlandyard.model.Move) code} and the generation
+ * (6 bits). A store replaces the entry for the same position if there is one, otherwise an
+ * empty slot, otherwise the slot with the lowest priority: entries from an older generation go
+ * first, then the shallowest. {@link #newSearch()} starts a new generation.
+ */
+public final class TranspositionTable {
+
+	/**
+	 * A snapshot of the table's counters
+	 */
+	public static final class Stats {
+		private final long hits, misses, collisions, stores, overwrites;
+
+		Stats(long hits, long misses, long collisions, long stores, long overwrites) {
+			this.hits = hits;
+			this.misses = misses;
+			this.collisions = collisions;
+			this.stores = stores;
+			this.overwrites = overwrites;
+		}
+
+		/** @return probes that found their position */
+		public long hits() { return hits; }
+		/** @return probes that did not find their position */
+		public long misses() { return misses; }
+		/** @return misses where the bucket held other positions, i.e. index collisions */
+		public long collisions() { return collisions; }
+		/** @return entries written */
+		public long stores() { return stores; }
+		/** @return stores that evicted another position */
+		public long overwrites() { return overwrites; }
+		/** @return hits over probes, 0 if there were no probes */
+		public double hitRate() {
+			long probes = hits + misses;
+			return probes == 0 ? 0 : (double) hits / probes;
+		}
+
+		@Override public String toString() {
+			return String.format("Stats{hits=%d, misses=%d, collisions=%d, stores=%d, " +
+					"overwrites=%d, hitRate=%.3f}", hits, misses, collisions, stores,
+					overwrites, hitRate());
+		}
+	}
+
+	/** The score is exact */
+	public static final int EXACT = 0;
+	/** The score is a lower bound, the search failed high */
+	public static final int LOWER = 1;
+	/** The score is an upper bound, the search failed low */
+	public static final int UPPER = 2;
+	/** What {@link #probe(long)} returns for positions not in the table */
+	public static final long MISS = 0;
+
+	/** Slots per bucket */
+	public static final int BUCKET = 4;
+	/** Bytes per slot */
+	public static final int SLOT_BYTES = 16;
+	/** The system property that sizes {@link #shared()}, in megabytes */
+	public static final String SHARED_MEGABYTES_PROPERTY = "scotlandyard.tt.megabytes";
+
+	private static final int DEFAULT_SHARED_MEGABYTES = 64;
+	private static final int MAX_MEGABYTES = 4096;
+	private static final int GENERATIONS = 64;
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private static volatile TranspositionTable shared;
+
+	private final long[] slots;
+	private final int bucketMask;
+	private final AtomicInteger generation = new AtomicInteger();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder collisions = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+	private final LongAdder overwrites = new LongAdder();
+
+	/**
+	 * @param entries the number of entries, rounded up to a power of two of at least
+	 * {@value #BUCKET}
+	 */
+	public TranspositionTable(int entries) {
+		if (entries <= 0 || entries > 1 << 28)
+			throw new IllegalArgumentException("entries out of range: " + entries);
+		int capacity = Math.max(BUCKET, Integer.highestOneBit(entries - 1) << 1);
+		this.slots = new long[capacity * 2];
+		this.bucketMask = capacity / BUCKET - 1;
+	}
+
+	/**
+	 * @param megabytes the memory to use, between 1 and {@value #MAX_MEGABYTES}
+	 * @return a table of the largest power of two capacity that fits
+	 */
+	@Nonnull public static TranspositionTable ofMegabytes(int megabytes) {
+		if (megabytes < 1 || megabytes > MAX_MEGABYTES)
+			throw new IllegalArgumentException("megabytes out of range: " + megabytes);
+		return new TranspositionTable(Integer.highestOneBit(
+				(int) ((long) megabytes * (1 << 20) / SLOT_BYTES)));
+	}
+
+	/**
+	 * Positions are hashed together with their {@link uk.ac.bris.cs.scotlandyard.model.GameSetup}
+	 * and scores are always from MrX's point of view, so one table can serve every search in the
+	 * process, including both sides of a self-play game.
+	 *
+	 * @return the process wide table, sized by {@value #SHARED_MEGABYTES_PROPERTY} (64MB unless
+	 * set) and allocated on first use
+	 */
+	@Nonnull public static TranspositionTable shared() {
+		var table = shared;
+		if (table == null) {
+			synchronized (TranspositionTable.class) {
+				table = shared;
+				if (table == null) shared = table = ofMegabytes(
+						Integer.getInteger(SHARED_MEGABYTES_PROPERTY, DEFAULT_SHARED_MEGABYTES));
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @return the number of entries the table can hold
+	 */
+	public int capacity() { return (bucketMask + 1) * BUCKET; }
+
+	/**
+	 * @return the memory used by the slots in bytes
+	 */
+	public long bytes() { return (long) slots.length * Long.BYTES; }
+
+	/**
+	 * Starts a new generation; entries stored before it are replaced first
+	 */
+	public void newSearch() { generation.incrementAndGet(); }
+
+	/**
+	 * @param key the position hash, see {@link StateHash#of}
+	 * @return the packed entry, or {@link #MISS}
+	 */
+	public long probe(long key) {
+		int base = bucket(key);
+		boolean occupied = false;
+		for (int i = base; i < base + BUCKET * 2; i += 2) {
+			long data = (long) SLOTS.getOpaque(slots, i + 1);
+			if (data == MISS) continue;
+			if (((long) SLOTS.getOpaque(slots, i) ^ data) == key) {
+				hits.increment();
+				return data;
+			}
+			occupied = true;
+		}
+		misses.increment();
+		if (occupied) collisions.increment();
+		return MISS;
+	}
+
+	/**
+	 * @param key the position hash
+	 * @param depth the remaining depth the score was searched to, 0 to 254
+	 * @param bound one of {@link #EXACT}, {@link #LOWER} and {@link #UPPER}
+	 * @param score the score
+	 * @param moveCode the code of the best move, or anything if there is none
+	 */
+	public void store(long key, int depth, int bound, int score, int moveCode) {
+		int current = generation.get() & (GENERATIONS - 1);
+		long data = pack(depth, bound, score, moveCode, current);
+		int base = bucket(key);
+		int victim = -1, lowest = Integer.MAX_VALUE;
+		boolean evicts = false;
+		for (int i = base; i < base + BUCKET * 2; i += 2) {
+			long old = (long) SLOTS.getOpaque(slots, i + 1);
+			if (old == MISS || ((long) SLOTS.getOpaque(slots, i) ^ old) == key) {
+				victim = i;
+				evicts = false;
+				break;
+			}
+			int priority = depth(old) + (generation(old) == current ? 256 : 0);
+			if (priority < lowest) {
+				lowest = priority;
+				victim = i;
+				evicts = true;
+			}
+		}
+		SLOTS.setOpaque(slots, victim + 1, data);
+		SLOTS.setOpaque(slots, victim, key ^ data);
+		stores.increment();
+		if (evicts) overwrites.increment();
+	}
+
+	/**
+	 * @return the counters accumulated since creation or the last {@link #clear()}
+	 */
+	@Nonnull public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), collisions.sum(), stores.sum(),
+				overwrites.sum());
+	}
+
+	/**
+	 * Empties the table and resets the counters; not safe to call during a search
+	 */
+	public void clear() {
+		Arrays.fill(slots, 0);
+		for (LongAdder adder : new LongAdder[]{hits, misses, collisions, stores, overwrites})
+			adder.reset();
+	}
+
+	private int bucket(long key) {
+		return ((int) (key ^ key >>> 32) & bucketMask) * BUCKET * 2;
+	}
+
+	static long pack(int depth, int bound, int score, int moveCode, int generation) {
+		if (depth < 0 || depth > 254) throw new IllegalArgumentException("depth out of range");
+		return (score & 0xffffffffL)
+				| (long) (depth + 1) << 32
+				| (long) bound << 40
+				| (long) (moveCode & 0xffff) << 42
+				| (long) generation << 58;
+	}
+
+	/** @return the score of a packed entry */
+	public static int score(long entry) { return (int) entry; }
+
+	/** @return the depth of a packed entry */
+	public static int depth(long entry) { return (int) (entry >>> 32 & 0xff) - 1; }
+
+	/** @return the bound of a packed entry */
+	public static int bound(long entry) { return (int) (entry >>> 40 & 0x3); }
+
+	/** @return the low 16 bits of the best move's code of a packed entry */
+	public static int moveCode(long entry) { return (int) (entry >>> 42 & 0xffff); }
+
+	/** @return the generation a packed entry was stored in, modulo 64 */
+	public static int generation(long entry) { return (int) (entry >>> 58); }
+}
@@ -0,0 +1,131 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The outcome of one headless game
+ */
+public final class GameResult {
+
+	/**
+	 * Who won
+	 */
+	public enum Winner {MRX, DETECTIVES, NONE}
+
+	/**
+	 * How the game ended
+	 */
+	public enum Ending {
+		/** By the rules */
+		NORMAL,
+		/** Nobody won but nobody could move either */
+		STALLED,
+		/** A side ran out of time and forfeited */
+		TIMEOUT,
+		/** A side picked a move that was not available and forfeited */
+		INVALID_MOVE,
+		/** A side threw an exception and forfeited */
+		ERROR,
+		/** A side went over its {@link uk.ac.bris.cs.scotlandyard.AiBudget} and forfeited */
+		OVER_BUDGET
+	}
+
+	/**
+	 * Move counts and latencies of one side
+	 */
+	public static final class Side {
+		private final String ai;
+		private final int moves;
+		private final long totalNanos;
+		private final long maxNanos;
+
+		Side(String ai, int moves, long totalNanos, long maxNanos) {
+			this.ai = ai;
+			this.moves = moves;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		/**
+		 * @return the name of the AI playing this side
+		 */
+		@Nonnull public String ai() { return ai; }
+		/**
+		 * @return the number of moves picked
+		 */
+		public int moves() { return moves; }
+		/**
+		 * @return the time spent picking moves
+		 */
+		public long totalNanos() { return totalNanos; }
+		/**
+		 * @return the longest time spent on one move
+		 */
+		public long maxNanos() { return maxNanos; }
+		/**
+		 * @return the mean time spent on one move
+		 */
+		public double meanMillis() { return moves == 0 ? 0 : totalNanos / 1e6 / moves; }
+	}
+
+	private final long game;
+	private final int seed;
+	private final Side mrX;
+	private final Side detectives;
+	private final Winner winner;
+	private final Ending ending;
+	private final int rounds;
+	private final long elapsedNanos;
+
+	GameResult(long game, int seed, Side mrX, Side detectives, Winner winner, Ending ending,
+	           int rounds, long elapsedNanos) {
+		this.game = game;
+		this.seed = seed;
+		this.mrX = Objects.requireNonNull(mrX);
+		this.detectives = Objects.requireNonNull(detectives);
+		this.winner = Objects.requireNonNull(winner);
+		this.ending = Objects.requireNonNull(ending);
+		this.rounds = rounds;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of the game within its tournament
+	 */
+	public long game() { return game; }
+	/**
+	 * @return the seed the start locations were generated from
+	 */
+	public int seed() { return seed; }
+	/**
+	 * @return MrX's side
+	 */
+	@Nonnull public Side mrX() { return mrX; }
+	/**
+	 * @return the detectives' side
+	 */
+	@Nonnull public Side detectives() { return detectives; }
+	/**
+	 * @return who won
+	 */
+	@Nonnull public Winner winner() { return winner; }
+	/**
+	 * @return how the game ended
+	 */
+	@Nonnull public Ending ending() { return ending; }
+	/**
+	 * @return the length of MrX's travel log at the end
+	 */
+	public int rounds() { return rounds; }
+	/**
+	 * @return the wall time of the whole game
+	 */
+	public long elapsedNanos() { return elapsedNanos; }
+
+	@Override public String toString() {
+		return "Game " + game + " (seed " + seed + "): " + mrX.ai + " vs " + detectives.ai +
+				", " + winner + " " + ending + " after " + rounds + " rounds";
+	}
+}
@@ -0,0 +1,182 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import uk.ac.bris.cs.scotlandyard.AiBudget;
+import uk.ac.bris.cs.scotlandyard.AiInvoker;
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Model;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyModelFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Plays one game between two AIs through {@link MyModelFactory}, the way the UI's MapController
+ * does but without a stage: moves are picked through an {@link AiInvoker} with the timeout as the
+ * hard limit, and a side that overruns it without offering a move, picks a move that is not
+ * available, throws or goes over a forfeiting {@link AiBudget} forfeits the game to the other
+ * side. If enabled, the side not to move {@link Ai#ponder ponders} meanwhile. Every move is
+ * recorded in the given {@link AiMetrics}.
+ */
+final class HeadlessGame {
+
+	private final GameSetup setup;
+	private final int detectives;
+	private final Duration timeout;
+	private final AiScheduler scheduler;
+	private final boolean ponder;
+	private final AiMetrics metrics;
+	private final Function<String, AiBudget> budgets;
+
+	HeadlessGame(GameSetup setup, int detectives, Duration timeout, AiScheduler scheduler,
+	             boolean ponder, AiMetrics metrics, Function<String, AiBudget> budgets) {
+		this.setup = setup;
+		this.detectives = detectives;
+		this.timeout = timeout;
+		this.scheduler = scheduler;
+		this.ponder = ponder;
+		this.metrics = metrics;
+		this.budgets = budgets;
+	}
+
+	/**
+	 * @return a model with MrX and the detectives at locations generated from the seed
+	 */
+	Model model(int seed) {
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var locations = ScotlandYard.generateDetectiveLocations(seed, detectives);
+		var players = ImmutableList.<Player>builder();
+		for (int i = 0; i < detectives; i++)
+			players.add(new Player(pieces.get(i), defaultDetectiveTickets(), locations.get(i)));
+		return new MyModelFactory().build(setup,
+				new Player(Piece.MrX.MRX, defaultMrXTickets(),
+						ScotlandYard.generateMrXLocation(seed)),
+				players.build());
+	}
+
+	private static final class Tally {
+		final String ai;
+		int moves;
+		long totalNanos, maxNanos;
+
+		Tally(String ai) { this.ai = ai; }
+
+		void add(long nanos) {
+			moves++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		GameResult.Side side() { return new GameResult.Side(ai, moves, totalNanos, maxNanos); }
+	}
+
+	/**
+	 * @param game the number of the game, reported in the result
+	 * @param seed the seed for the starting locations
+	 * @param mrXName the name to report MrX's AI under
+	 * @param mrXAi the AI playing MrX
+	 * @param detectiveName the name to report the detectives' AI under
+	 * @param detectiveAi the AI playing all detectives, may be the same instance as MrX's
+	 * @return the result
+	 */
+	GameResult play(long game, int seed, String mrXName, Ai mrXAi,
+	                String detectiveName, Ai detectiveAi) {
+		long start = System.nanoTime();
+		Model model = model(seed);
+		var mrX = new Tally(mrXName);
+		var detective = new Tally(detectiveName);
+		var invoker = new AiInvoker(
+				scheduler.lane("game-" + game, AiScheduler.Kind.CPU, 2), metrics);
+		GameResult.Winner winner = GameResult.Winner.NONE;
+		GameResult.Ending ending = GameResult.Ending.NORMAL;
+		try {
+			mrXAi.onStart();
+			if (detectiveAi != mrXAi) detectiveAi.onStart();
+			while (true) {
+				Board board = model.getCurrentBoard();
+				ImmutableSet<Piece> won = board.getWinner();
+				if (!won.isEmpty()) {
+					winner = won.contains(Piece.MrX.MRX)
+							? GameResult.Winner.MRX : GameResult.Winner.DETECTIVES;
+					break;
+				}
+				var moves = board.getAvailableMoves();
+				if (moves.isEmpty()) {
+					ending = GameResult.Ending.STALLED;
+					break;
+				}
+				boolean mrXTurn = moves.stream().anyMatch(m -> m.commencedBy().isMrX());
+				Ai ai = mrXTurn ? mrXAi : detectiveAi;
+				Tally tally = mrXTurn ? mrX : detective;
+				AiBudget budget = budgets.apply(tally.ai);
+				// like a timeout in the UI, any failure hands the game to the other side
+				GameResult.Winner other = mrXTurn
+						? GameResult.Winner.DETECTIVES : GameResult.Winner.MRX;
+				Ai waiting = mrXTurn ? detectiveAi : mrXAi;
+				var pondering = ponder && waiting != ai
+						? invoker.ponder(waiting, board, timeout) : null;
+				AiInvoker.Result result;
+				try {
+					result = invoker.invoke(ai, board, AiDeadline.within(timeout), budget)
+							.result().get();
+				} finally {
+					if (pondering != null) pondering.stop();
+				}
+				tally.add(result.elapsedNanos());
+				if (result.outcome() == AiInvoker.Outcome.TIMEOUT) {
+					winner = other;
+					ending = GameResult.Ending.TIMEOUT;
+					break;
+				}
+				if (result.outcome() == AiInvoker.Outcome.ERROR) {
+					winner = other;
+					ending = GameResult.Ending.ERROR;
+					break;
+				}
+				if (result.outcome() == AiInvoker.Outcome.OVER_BUDGET) {
+					winner = other;
+					ending = GameResult.Ending.OVER_BUDGET;
+					break;
+				}
+				Move move = result.move().orElseThrow();
+				if (!moves.contains(move)) {
+					metrics.recorder(ai.name(), mrXTurn ? AiMetrics.Side.MRX
+							: AiMetrics.Side.DETECTIVES)
+							.invalidMove(AiMetrics.Outcome.valueOf(result.outcome().name()));
+					winner = other;
+					ending = GameResult.Ending.INVALID_MOVE;
+					break;
+				}
+				mrXAi.onMoveMade(board, move);
+				if (detectiveAi != mrXAi) detectiveAi.onMoveMade(board, move);
+				model.chooseMove(move);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during game " + game, e);
+		} catch (ExecutionException e) {
+			throw new AssertionError("Calls always complete normally", e);
+		} finally {
+			invoker.close();
+			mrXAi.onTerminate();
+			if (detectiveAi != mrXAi) detectiveAi.onTerminate();
+		}
+		return new GameResult(game, seed, mrX.side(), detective.side(), winner, ending,
+				model.getCurrentBoard().getMrXTravelLog().size(), System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,354 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Bradley-Terry ratings fitted to game results, on the Elo scale.
+ * <br>
+ * MrX and the detectives are not symmetric, so every AI gets a MrX rating and a detective
+ * rating, and MrX rated {@code m} beats detectives rated {@code d} with probability
+ * {@code 1 / (1 + 10^((d - m) / 400))}. Results are only kept as win counts per pairing, so
+ * any number of them can be streamed in through {@link #add(GameResult)} or
+ * {@link #read(Reader)}. Games without a winner count as half a win for each side.
+ * <br>
+ * Ratings are fitted by minorisation-maximisation. Every rating also gets one virtual drawn game
+ * against an opponent rated {@link #BASE}; this keeps the ratings of sides that always win or
+ * always lose finite and anchors the scale. Confidence intervals come from the Fisher
+ * information of each rating with the others held fixed.
+ * <br>
+ * Run {@link #main(String[])} with result files written by {@link ResultWriter} to print a
+ * leaderboard.
+ */
+public final class Ratings {
+
+	/**
+	 * The rating of a side that wins exactly half its games against the virtual opponent
+	 */
+	public static final double BASE = 1500;
+
+	private static final double SCALE = 400 / Math.log(10);
+	private static final double Z95 = 1.959964;
+	private static final double PRIOR = 0.5;
+	private static final int MAX_ITERATIONS = 10_000;
+
+	/**
+	 * A rating with its 95% confidence interval
+	 */
+	public static final class Rating {
+		private final double elo;
+		private final double error;
+		private final double games;
+
+		Rating(double elo, double error, double games) {
+			this.elo = elo;
+			this.error = error;
+			this.games = games;
+		}
+
+		/**
+		 * @return the rating; NaN if no games were played
+		 */
+		public double elo() { return elo; }
+		/**
+		 * @return the lower end of the 95% confidence interval
+		 */
+		public double low() { return elo - Z95 * error; }
+		/**
+		 * @return the upper end of the 95% confidence interval
+		 */
+		public double high() { return elo + Z95 * error; }
+		/**
+		 * @return the standard error of the rating
+		 */
+		public double error() { return error; }
+		/**
+		 * @return the number of games behind the rating
+		 */
+		public long games() { return Math.round(games); }
+
+		@Override public String toString() {
+			return String.format(Locale.ROOT, "%.0f +/- %.0f", elo, Z95 * error);
+		}
+	}
+
+	/**
+	 * One line of the leaderboard
+	 */
+	public static final class Standing {
+		private final String ai;
+		private final Rating mrX;
+		private final Rating detectives;
+		private final Rating overall;
+
+		Standing(String ai, Rating mrX, Rating detectives, Rating overall) {
+			this.ai = ai;
+			this.mrX = mrX;
+			this.detectives = detectives;
+			this.overall = overall;
+		}
+
+		@Nonnull public String ai() { return ai; }
+		/**
+		 * @return the rating as MrX
+		 */
+		@Nonnull public Rating mrX() { return mrX; }
+		/**
+		 * @return the rating as the detectives
+		 */
+		@Nonnull public Rating detectives() { return detectives; }
+		/**
+		 * @return the mean of both ratings; NaN unless the AI played both sides
+		 */
+		@Nonnull public Rating overall() { return overall; }
+	}
+
+	private final Map<String, Integer> index = new LinkedHashMap<>();
+	// pairing of MrX index << 32 | detective index to {games, MrX's score}
+	private final Map<Long, double[]> pairings = new HashMap<>();
+	private long results;
+
+	/**
+	 * @param result the result to add
+	 */
+	public void add(@Nonnull GameResult result) {
+		add(result.mrX().ai(), result.detectives().ai(), result.winner());
+	}
+
+	/**
+	 * @param mrX the AI that played MrX
+	 * @param detectives the AI that played the detectives
+	 * @param winner who won
+	 */
+	public synchronized void add(@Nonnull String mrX, @Nonnull String detectives,
+	                             @Nonnull GameResult.Winner winner) {
+		long key = (long) id(mrX) << 32 | id(detectives);
+		double[] counts = pairings.computeIfAbsent(key, k -> new double[2]);
+		counts[0]++;
+		counts[1] += score(winner);
+		results++;
+	}
+
+	private int id(String ai) {
+		return index.computeIfAbsent(Objects.requireNonNull(ai), k -> index.size());
+	}
+
+	static double score(GameResult.Winner winner) {
+		switch (winner) {
+			case MRX: return 1;
+			case DETECTIVES: return 0;
+			default: return 0.5;
+		}
+	}
+
+	/**
+	 * Adds results written by {@link ResultWriter}, either format, one line at a time.
+	 *
+	 * @param in the results
+	 * @return the number of results read
+	 * @throws IOException if reading fails
+	 * @throws IllegalArgumentException if a line is not a result
+	 */
+	public long read(@Nonnull Reader in) throws IOException {
+		var reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		String line = reader.readLine();
+		if (line == null) return 0;
+		long read = 0;
+		if (line.startsWith("{")) {
+			do {
+				if (line.isBlank()) continue;
+				add(jsonString(line, "\"mrX\":{\"ai\":"),
+						jsonString(line, "\"detectives\":{\"ai\":"),
+						GameResult.Winner.valueOf(jsonString(line, "\"winner\":")));
+				read++;
+			} while ((line = reader.readLine()) != null);
+			return read;
+		}
+		List<String> header = csv(line);
+		int mrX = column(header, "mrx_ai"), detectives = column(header, "detective_ai"),
+				winner = column(header, "winner");
+		while ((line = reader.readLine()) != null) {
+			if (line.isBlank()) continue;
+			List<String> fields = csv(line);
+			if (fields.size() != header.size())
+				throw new IllegalArgumentException("Malformed result " + line);
+			add(fields.get(mrX), fields.get(detectives),
+					GameResult.Winner.valueOf(fields.get(winner)));
+			read++;
+		}
+		return read;
+	}
+
+	private static int column(List<String> header, String name) {
+		int i = header.indexOf(name);
+		if (i < 0) throw new IllegalArgumentException("No " + name + " column in " + header);
+		return i;
+	}
+
+	private static List<String> csv(String line) {
+		List<String> fields = new ArrayList<>();
+		var field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') field.append(c);
+				else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+					field.append(line.charAt(++i));
+				else quoted = false;
+			} else if (c == '"') quoted = true;
+			else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else field.append(c);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static String jsonString(String line, String key) {
+		int i = line.indexOf(key);
+		if (i < 0 || i + key.length() >= line.length() || line.charAt(i + key.length()) != '"')
+			throw new IllegalArgumentException("No " + key + " in " + line);
+		var value = new StringBuilder();
+		for (i += key.length() + 1; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') return value.toString();
+			if (c != '\\') value.append(c);
+			else if (line.charAt(++i) == 'u') {
+				value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+				i += 4;
+			} else value.append(line.charAt(i));
+		}
+		throw new IllegalArgumentException("Unterminated string in " + line);
+	}
+
+	/**
+	 * @return the number of results added
+	 */
+	public synchronized long results() { return results; }
+
+	/**
+	 * Fits the ratings to every result added so far.
+	 *
+	 * @return one standing per AI, best overall first
+	 */
+	@Nonnull public synchronized ImmutableList<Standing> leaderboard() {
+		int n = index.size();
+		double[] wins = new double[n], losses = new double[n];
+		double[] mrXGames = new double[n], detectiveGames = new double[n];
+		for (var entry : pairings.entrySet()) {
+			int m = (int) (entry.getKey() >>> 32), d = (int) (long) entry.getKey();
+			double[] counts = entry.getValue();
+			wins[m] += counts[1];
+			mrXGames[m] += counts[0];
+			losses[d] += counts[0] - counts[1];
+			detectiveGames[d] += counts[0];
+		}
+		// strengths relative to the virtual opponent, whose strength is 1
+		double[] mrX = new double[n], detectives = new double[n];
+		Arrays.fill(mrX, 1);
+		Arrays.fill(detectives, 1);
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double[] mrXDenominator = new double[n], detectiveDenominator = new double[n];
+			for (var entry : pairings.entrySet()) {
+				int m = (int) (entry.getKey() >>> 32), d = (int) (long) entry.getKey();
+				double games = entry.getValue()[0] / (mrX[m] + detectives[d]);
+				mrXDenominator[m] += games;
+				detectiveDenominator[d] += games;
+			}
+			double change = 0;
+			for (int i = 0; i < n; i++) {
+				double m = (wins[i] + PRIOR) / (mrXDenominator[i] + 2 * PRIOR / (mrX[i] + 1));
+				double d = (losses[i] + PRIOR) /
+						(detectiveDenominator[i] + 2 * PRIOR / (detectives[i] + 1));
+				change = Math.max(change, Math.max(Math.abs(Math.log(m / mrX[i])),
+						Math.abs(Math.log(d / detectives[i]))));
+				mrX[i] = m;
+				detectives[i] = d;
+			}
+			if (change < 1e-10) break;
+		}
+		double[] mrXInformation = new double[n], detectiveInformation = new double[n];
+		for (var entry : pairings.entrySet()) {
+			int m = (int) (entry.getKey() >>> 32), d = (int) (long) entry.getKey();
+			double p = mrX[m] / (mrX[m] + detectives[d]);
+			double information = entry.getValue()[0] * p * (1 - p);
+			mrXInformation[m] += information;
+			detectiveInformation[d] += information;
+		}
+		List<Standing> standings = new ArrayList<>(n);
+		for (var entry : index.entrySet()) {
+			int i = entry.getValue();
+			Rating m = rating(mrX[i], mrXInformation[i], mrXGames[i]);
+			Rating d = rating(detectives[i], detectiveInformation[i], detectiveGames[i]);
+			standings.add(new Standing(entry.getKey(), m, d, new Rating(
+					(m.elo + d.elo) / 2, Math.hypot(m.error, d.error) / 2, m.games + d.games)));
+		}
+		standings.sort(Comparator.comparingDouble((Standing s) ->
+				Double.isNaN(s.overall.elo) ? Double.NEGATIVE_INFINITY : s.overall.elo).reversed()
+				.thenComparing(s -> s.ai));
+		return ImmutableList.copyOf(standings);
+	}
+
+	private static Rating rating(double strength, double information, double games) {
+		if (games == 0) return new Rating(Double.NaN, Double.NaN, 0);
+		// the virtual game against strength 1 adds 2 * PRIOR games at p(1 - p)
+		double p = strength / (strength + 1);
+		return new Rating(BASE + SCALE * Math.log(strength),
+				SCALE / Math.sqrt(information + 2 * PRIOR * p * (1 - p)), games);
+	}
+
+	/**
+	 * @param standings a leaderboard
+	 * @return the leaderboard as a text table
+	 */
+	@Nonnull public static String format(@Nonnull List<Standing> standings) {
+		int width = standings.stream().mapToInt(s -> s.ai.length()).max().orElse(0);
+		width = Math.max(width, 2);
+		var sb = new StringBuilder(String.format(Locale.ROOT,
+				"%-4s %-" + width + "s %12s %12s %12s %8s%n", "#", "AI", "overall", "MrX",
+				"detectives", "games"));
+		int rank = 1;
+		for (Standing s : standings)
+			sb.append(String.format(Locale.ROOT, "%-4d %-" + width + "s %12s %12s %12s %8d%n",
+					rank++, s.ai, s.overall, s.mrX, s.detectives,
+					s.mrX.games() + s.detectives.games()));
+		return sb.toString();
+	}
+
+	/**
+	 * Prints the leaderboard of the given result files.
+	 *
+	 * @param args result files written by {@link ResultWriter}
+	 * @throws IOException if a file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) throw new IllegalArgumentException("No result files given");
+		var ratings = new Ratings();
+		for (String file : args) {
+			try (var in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+				ratings.read(in);
+			}
+		}
+		System.out.println(ratings.results() + " results");
+		System.out.print(format(ratings.leaderboard()));
+	}
+}
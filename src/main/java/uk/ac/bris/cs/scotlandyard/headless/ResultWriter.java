@@ -0,0 +1,117 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Streams {@link GameResult}s as they come in, one line per game. Writes are synchronised and
+ * flushed per line, so a tournament can be followed while it runs and a crash loses nothing.
+ */
+public abstract class ResultWriter implements Closeable {
+
+	private final Writer out;
+
+	private ResultWriter(Writer out) { this.out = Objects.requireNonNull(out); }
+
+	/**
+	 * @param out where to write comma separated values, starting with a header line
+	 * @return the writer
+	 * @throws IOException if the header cannot be written
+	 */
+	@Nonnull public static ResultWriter csv(@Nonnull Writer out) throws IOException {
+		var writer = new ResultWriter(out) {
+			@Override String format(GameResult r) {
+				return String.join(",", Long.toString(r.game()), Integer.toString(r.seed()),
+						quote(r.mrX().ai()), quote(r.detectives().ai()), r.winner().name(),
+						r.ending().name(), Integer.toString(r.rounds()),
+						Integer.toString(r.mrX().moves()), millis(r.mrX().meanMillis()),
+						millis(r.mrX().maxNanos() / 1e6),
+						Integer.toString(r.detectives().moves()),
+						millis(r.detectives().meanMillis()),
+						millis(r.detectives().maxNanos() / 1e6),
+						millis(r.elapsedNanos() / 1e6));
+			}
+		};
+		writer.line("game,seed,mrx_ai,detective_ai,winner,ending,rounds," +
+				"mrx_moves,mrx_mean_ms,mrx_max_ms," +
+				"detective_moves,detective_mean_ms,detective_max_ms,elapsed_ms");
+		return writer;
+	}
+
+	/**
+	 * @param out where to write one JSON object per line
+	 * @return the writer
+	 */
+	@Nonnull public static ResultWriter jsonl(@Nonnull Writer out) {
+		return new ResultWriter(out) {
+			@Override String format(GameResult r) {
+				return "{\"game\":" + r.game() + ",\"seed\":" + r.seed() +
+						",\"winner\":\"" + r.winner() + "\",\"ending\":\"" + r.ending() +
+						"\",\"rounds\":" + r.rounds() +
+						",\"mrX\":" + side(r.mrX()) + ",\"detectives\":" + side(r.detectives()) +
+						",\"elapsedMs\":" + millis(r.elapsedNanos() / 1e6) + "}";
+			}
+
+			private String side(GameResult.Side side) {
+				return "{\"ai\":" + json(side.ai()) + ",\"moves\":" + side.moves() +
+						",\"meanMs\":" + millis(side.meanMillis()) +
+						",\"maxMs\":" + millis(side.maxNanos() / 1e6) + "}";
+			}
+		};
+	}
+
+	/**
+	 * @param path the file to write, JSON lines if it ends with {@code .jsonl} and comma separated
+	 * values otherwise
+	 * @return the writer, which owns the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	@Nonnull public static ResultWriter open(@Nonnull Path path) throws IOException {
+		Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		return path.getFileName().toString().endsWith(".jsonl") ? jsonl(out) : csv(out);
+	}
+
+	abstract String format(GameResult result);
+
+	/**
+	 * @param result the result to write
+	 * @throws IOException if writing fails
+	 */
+	public void write(@Nonnull GameResult result) throws IOException { line(format(result)); }
+
+	final synchronized void line(String line) throws IOException {
+		out.write(line);
+		out.write('\n');
+		out.flush();
+	}
+
+	@Override public synchronized void close() throws IOException { out.close(); }
+
+	private static String millis(double millis) {
+		return String.format(Locale.ROOT, "%.3f", millis);
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	private static String json(String value) {
+		var sb = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
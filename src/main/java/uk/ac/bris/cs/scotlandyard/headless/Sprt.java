@@ -0,0 +1,113 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A sequential probability ratio test for a head-to-head match, deciding whether one AI is
+ * {@code elo1} stronger than the other rather than only {@code elo0}, after as few games as the
+ * results allow.
+ * <br>
+ * Scores are from the first AI's point of view: 1 for a win, whichever side it played, 0 for a
+ * loss and 0.5 for a game without a winner. Playing both sides from every start, as
+ * {@link Tournament#match} does, cancels out how much easier one side is. The log likelihood
+ * ratio uses the usual normal approximation from the observed score variance, which is
+ * regularised by one virtual win and one virtual loss so that a streak of identical results does
+ * not end the test at once.
+ */
+public final class Sprt {
+
+	/**
+	 * The state of the test
+	 */
+	public enum Decision {
+		/** Not enough evidence yet */
+		CONTINUE,
+		/** The first AI is not {@code elo1} stronger */
+		ACCEPT_H0,
+		/** The first AI is at least {@code elo1} stronger */
+		ACCEPT_H1
+	}
+
+	private final double elo0, elo1;
+	private final double lower, upper;
+	private final double score0, score1;
+	private long wins, draws, losses;
+
+	/**
+	 * @param elo0 the rating difference of the null hypothesis
+	 * @param elo1 the rating difference of the alternative, greater than elo0
+	 * @param alpha the chance of accepting H1 when H0 holds
+	 * @param beta the chance of accepting H0 when H1 holds
+	 */
+	public Sprt(double elo0, double elo1, double alpha, double beta) {
+		if (!(elo1 > elo0)) throw new IllegalArgumentException("elo1 <= elo0");
+		if (!(alpha > 0 && alpha < 1)) throw new IllegalArgumentException("alpha out of (0, 1)");
+		if (!(beta > 0 && beta < 1)) throw new IllegalArgumentException("beta out of (0, 1)");
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.lower = Math.log(beta / (1 - alpha));
+		this.upper = Math.log((1 - beta) / alpha);
+		this.score0 = expected(elo0);
+		this.score1 = expected(elo1);
+	}
+
+	private static double expected(double elo) { return 1 / (1 + Math.pow(10, -elo / 400)); }
+
+	/**
+	 * @param score the first AI's score in one game, 0, 0.5 or 1
+	 * @return the decision after this game
+	 */
+	public synchronized Decision add(double score) {
+		if (score == 1) wins++;
+		else if (score == 0) losses++;
+		else if (score == 0.5) draws++;
+		else throw new IllegalArgumentException("Score not 0, 0.5 or 1: " + score);
+		return decision();
+	}
+
+	/**
+	 * @return the log likelihood ratio of H1 against H0
+	 */
+	public synchronized double llr() {
+		long games = wins + draws + losses;
+		if (games == 0) return 0;
+		double w = wins + 1, d = draws, l = losses + 1, n = w + d + l;
+		double mean = (w + d / 2) / n;
+		double variance = (w * (1 - mean) * (1 - mean) + d * (0.5 - mean) * (0.5 - mean) +
+				l * mean * mean) / n;
+		return games * (score1 - score0) * (2 * mean - score0 - score1) / (2 * variance);
+	}
+
+	/**
+	 * @return the current decision
+	 */
+	@Nonnull public synchronized Decision decision() {
+		double llr = llr();
+		if (llr >= upper) return Decision.ACCEPT_H1;
+		if (llr <= lower) return Decision.ACCEPT_H0;
+		return Decision.CONTINUE;
+	}
+
+	/**
+	 * @return the number of games added
+	 */
+	public synchronized long games() { return wins + draws + losses; }
+
+	/**
+	 * @return the bound below which H0 is accepted
+	 */
+	public double lowerBound() { return lower; }
+
+	/**
+	 * @return the bound above which H1 is accepted
+	 */
+	public double upperBound() { return upper; }
+
+	@Override public synchronized String toString() {
+		return String.format(Locale.ROOT, "SPRT elo0=%.1f elo1=%.1f: +%d =%d -%d, " +
+						"LLR %.2f [%.2f, %.2f], %s", elo0, elo1, wins, draws, losses, llr(), lower,
+				upper, decision());
+	}
+}
@@ -0,0 +1,443 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.AiBudget;
+import uk.ac.bris.cs.scotlandyard.AiLoader;
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.AiWarmUp;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.metrics.Usage;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.remote.AiHost;
+import uk.ac.bris.cs.scotlandyard.remote.AiHostClient;
+
+/**
+ * Plays AIs against each other without a UI.
+ * <br>
+ * Every entrant plays MrX against every entrant as detectives, itself included, for the same
+ * number of games. Game {@code i} of every pairing starts from the locations generated from
+ * {@code seed + i}, so pairings are compared on the same starts. Each game gets fresh AI
+ * instances and runs with real timeouts, see {@link HeadlessGame}; games run concurrently on a
+ * fixed pool, their AIs on an {@link AiScheduler} of the tournament's own, and results are
+ * streamed to a {@link ResultWriter} as they finish. If enabled, every entrant is
+ * {@link AiWarmUp warmed up} for both sides before the first game.
+ * <br>
+ * Run it with {@code --out <file.csv|file.jsonl>} (standard output as CSV if absent) and
+ * optionally {@code --ais <name,name,...>} (every AI on the classpath by default),
+ * {@code --games} per pairing, {@code --seed}, {@code --threads}, {@code --timeout} in
+ * milliseconds, {@code --detectives}, {@code --ponder true} and a budget for every AI with
+ * {@code --cpu-budget} in milliseconds, {@code --alloc-budget} in megabytes,
+ * {@code --thread-budget} and {@code --budget-action <warn|forfeit>}, forfeit only with
+ * {@code --threads 1} and no pondering, and
+ * {@code --warm-up <ms per move>} to {@link AiWarmUp warm} every AI up first, and
+ * {@code --isolate <max heap>} to run every AI in an {@link AiHost} of its own with that heap,
+ * as in {@code -Xmx}. With
+ * {@code --sprt <elo0,elo1>} and two AIs it plays a {@link #match head-to-head match} instead,
+ * stopping early once the {@link Sprt} decides. A summary per pairing, a {@link Ratings}
+ * leaderboard and the {@link AiMetrics} of every AI are printed at the end.
+ */
+public final class Tournament {
+
+	private final GameSetup setup;
+	private final Map<String, Supplier<Ai>> entrants = new LinkedHashMap<>();
+	private int games = 10;
+	private int seed = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private Duration timeout = Duration.ofSeconds(15);
+	private int detectives = 5;
+	private boolean ponder;
+	private AiBudget budget = AiBudget.UNLIMITED;
+	private final Map<String, AiBudget> budgets = new LinkedHashMap<>();
+	private final AiMetrics metrics = new AiMetrics();
+	private Duration warmUp = Duration.ZERO;
+	private final List<AiWarmUp.Report> warmUps = new ArrayList<>();
+
+	/**
+	 * @param setup the setup every game is played on
+	 */
+	public Tournament(@Nonnull GameSetup setup) {
+		this.setup = Objects.requireNonNull(setup);
+	}
+
+	/**
+	 * @param name the name results are reported under
+	 * @param factory creates a fresh instance for every game
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament entrant(@Nonnull String name, @Nonnull Supplier<Ai> factory) {
+		if (entrants.putIfAbsent(Objects.requireNonNull(name), Objects.requireNonNull(factory))
+				!= null) throw new IllegalArgumentException("Duplicate entrant " + name);
+		return this;
+	}
+
+	/**
+	 * @param cls an AI class with a public no argument constructor, entered under its
+	 * {@link Ai#name()}
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament entrant(@Nonnull Class<? extends Ai> cls) {
+		return entrant(AiLoader.instantiate(cls).name(), () -> AiLoader.instantiate(cls));
+	}
+
+	@Nonnull public Tournament games(int games) {
+		if (games <= 0) throw new IllegalArgumentException("games <= 0");
+		this.games = games;
+		return this;
+	}
+
+	@Nonnull public Tournament seed(int seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	@Nonnull public Tournament threads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+		this.threads = threads;
+		return this;
+	}
+
+	@Nonnull public Tournament timeout(@Nonnull Duration timeout) {
+		if (timeout.isNegative() || timeout.isZero())
+			throw new IllegalArgumentException("timeout <= 0");
+		this.timeout = timeout;
+		return this;
+	}
+
+	@Nonnull public Tournament detectives(int detectives) {
+		if (detectives <= 0 || detectives > ScotlandYard.DETECTIVES.size())
+			throw new IllegalArgumentException("detectives out of range: " + detectives);
+		this.detectives = detectives;
+		return this;
+	}
+
+	/**
+	 * @param ponder whether the side not to move {@link Ai#ponder ponders}; off by default, as it
+	 * takes threads from the other games
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament ponder(boolean ponder) {
+		this.ponder = ponder;
+		return this;
+	}
+
+	/**
+	 * @param budget the budget of every entrant without one of its own; unlimited by default. A
+	 * {@link AiBudget.Action#FORFEIT forfeiting} budget needs one {@link #threads(int) thread}
+	 * and no {@link #ponder(boolean) pondering}, see {@link Usage}.
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament budget(@Nonnull AiBudget budget) {
+		this.budget = Objects.requireNonNull(budget);
+		return this;
+	}
+
+	/**
+	 * @param name the name of an entrant
+	 * @param budget the budget of that entrant, under the same conditions as
+	 * {@link #budget(AiBudget)}
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament budget(@Nonnull String name, @Nonnull AiBudget budget) {
+		budgets.put(Objects.requireNonNull(name), Objects.requireNonNull(budget));
+		return this;
+	}
+
+	/**
+	 * @param perMove the limit of every {@link AiWarmUp warm-up} move; zero, the default, skips
+	 * the warm-up
+	 * @return this tournament
+	 */
+	@Nonnull public Tournament warmUp(@Nonnull Duration perMove) {
+		if (perMove.isNegative()) throw new IllegalArgumentException("perMove < 0");
+		this.warmUp = perMove;
+		return this;
+	}
+
+	/**
+	 * @return what the warm-ups of every entrant and side did so far
+	 */
+	@Nonnull public ImmutableList<AiWarmUp.Report> warmUps() {
+		synchronized (warmUps) {
+			return ImmutableList.copyOf(warmUps);
+		}
+	}
+
+	/**
+	 * @return the latency, cost and outcomes of every move played so far, per AI and side
+	 */
+	@Nonnull public AiMetrics metrics() { return metrics; }
+
+	/**
+	 * @return the entrants in the order they were added
+	 */
+	@Nonnull public ImmutableMap<String, Supplier<Ai>> entrants() {
+		return ImmutableMap.copyOf(entrants);
+	}
+
+	/**
+	 * Plays every game, blocking until done.
+	 *
+	 * @param writer receives every result as soon as its game ends
+	 * @return all results, ordered by game number
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	@Nonnull public ImmutableList<GameResult> run(@Nonnull ResultWriter writer)
+			throws InterruptedException {
+		Objects.requireNonNull(writer);
+		if (entrants.isEmpty()) throw new IllegalStateException("No entrants");
+		checkBudgets();
+		warmUp();
+		var scheduler = scheduler();
+		var game = new HeadlessGame(setup, detectives, timeout, scheduler, ponder,
+				metrics, name -> budgets.getOrDefault(name, budget));
+		List<Callable<GameResult>> tasks = new ArrayList<>();
+		long number = 0;
+		for (String mrX : entrants.keySet())
+			for (String detective : entrants.keySet())
+				for (int i = 0; i < games; i++)
+					tasks.add(task(game, writer, number++, seed + i, mrX, detective));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			var results = ImmutableList.<GameResult>builder();
+			for (Future<GameResult> f : executor.invokeAll(tasks)) results.add(f.get());
+			return results.build();
+		} catch (ExecutionException e) {
+			throw failed(e);
+		} finally {
+			executor.shutdownNow();
+			scheduler.close();
+		}
+	}
+
+	// a call is charged for every thread busy while it runs, so a move could forfeit for the
+	// work of another game or of the pondering side
+	private void checkBudgets() {
+		if (threads == 1 && !ponder) return;
+		for (AiBudget each : Iterables.concat(List.of(budget), budgets.values()))
+			if (each.isLimited() && each.action() == AiBudget.Action.FORFEIT)
+				throw new IllegalStateException("A forfeiting budget needs one thread and no "
+						+ "pondering, or the usage of one AI is charged to another");
+	}
+
+	// two AIs per game, for pondering or an AI slow to give its thread back
+	private AiScheduler scheduler() { return new AiScheduler(2 * threads); }
+
+	// one entrant and side at a time, so each has the processors to itself like in a game
+	private void warmUp() {
+		if (warmUp.isZero()) return;
+		var warm = new AiWarmUp(setup).detectives(detectives).perMove(warmUp);
+		try (var scheduler = new AiScheduler(1)) {
+			for (var entrant : entrants.entrySet())
+				for (AiMetrics.Side side : AiMetrics.Side.values()) {
+					var report = warm.run(entrant.getKey(), entrant.getValue(), side, scheduler);
+					synchronized (warmUps) {
+						warmUps.add(report);
+					}
+				}
+		}
+	}
+
+	/**
+	 * Plays a head-to-head match between exactly two entrants until the test reaches a decision
+	 * or every start has been played. Start {@code i} is played twice, as games {@code 2i} and
+	 * {@code 2i + 1}, with each entrant playing MrX once, so at most twice {@link #games(int)}
+	 * games are played. Games already running when the test decides are finished and counted.
+	 *
+	 * @param writer receives every result as soon as its game ends
+	 * @param sprt the test, fed with the first entrant's scores
+	 * @return the results of the games played, ordered by game number
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	@Nonnull public ImmutableList<GameResult> match(@Nonnull ResultWriter writer,
+	                                                @Nonnull Sprt sprt)
+			throws InterruptedException {
+		Objects.requireNonNull(writer);
+		Objects.requireNonNull(sprt);
+		if (entrants.size() != 2)
+			throw new IllegalStateException("A match needs exactly two entrants");
+		checkBudgets();
+		var names = ImmutableList.copyOf(entrants.keySet());
+		warmUp();
+		var scheduler = scheduler();
+		var game = new HeadlessGame(setup, detectives, timeout, scheduler, ponder,
+				metrics, name -> budgets.getOrDefault(name, budget));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		var completion = new ExecutorCompletionService<GameResult>(executor);
+		List<GameResult> results = new ArrayList<>();
+		int submitted = 0, running = 0;
+		try {
+			while (true) {
+				while (running < threads && submitted < 2 * games
+						&& sprt.decision() == Sprt.Decision.CONTINUE) {
+					int mrX = submitted % 2;
+					completion.submit(task(game, writer, submitted, seed + submitted / 2,
+							names.get(mrX), names.get(1 - mrX)));
+					submitted++;
+					running++;
+				}
+				if (running == 0) break;
+				GameResult result = completion.take().get();
+				running--;
+				results.add(result);
+				double score = Ratings.score(result.winner());
+				sprt.add(result.mrX().ai().equals(names.get(0)) ? score : 1 - score);
+			}
+		} catch (ExecutionException e) {
+			throw failed(e);
+		} finally {
+			executor.shutdownNow();
+			scheduler.close();
+		}
+		results.sort(Comparator.comparingLong(GameResult::game));
+		return ImmutableList.copyOf(results);
+	}
+
+	private Callable<GameResult> task(HeadlessGame game, ResultWriter writer, long id, int start,
+	                                  String mrX, String detective) {
+		return () -> {
+			GameResult result = game.play(id, start, mrX, entrants.get(mrX).get(),
+					detective, entrants.get(detective).get());
+			writer.write(result);
+			return result;
+		};
+	}
+
+	private static RuntimeException failed(ExecutionException e) {
+		if (e.getCause() instanceof IOException)
+			return new UncheckedIOException((IOException) e.getCause());
+		return new RuntimeException("Tournament game failed", e.getCause());
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		var tournament = new Tournament(
+				new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES));
+		String out = null;
+		List<String> names = null;
+		Sprt sprt = null;
+		AiBudget budget = AiBudget.UNLIMITED;
+		String isolate = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--out": out = value; break;
+				case "--ais": names = List.of(value.split(",")); break;
+				case "--games": tournament.games(Integer.parseInt(value)); break;
+				case "--seed": tournament.seed(Integer.parseInt(value)); break;
+				case "--threads": tournament.threads(Integer.parseInt(value)); break;
+				case "--timeout":
+					tournament.timeout(Duration.ofMillis(Long.parseLong(value)));
+					break;
+				case "--detectives": tournament.detectives(Integer.parseInt(value)); break;
+				case "--ponder": tournament.ponder(Boolean.parseBoolean(value)); break;
+				case "--isolate": isolate = value; break;
+				case "--cpu-budget":
+					budget = budget.cpu(Duration.ofMillis(Long.parseLong(value)));
+					break;
+				case "--alloc-budget":
+					budget = budget.allocation(Long.parseLong(value) * 1_000_000);
+					break;
+				case "--warm-up":
+					tournament.warmUp(Duration.ofMillis(Long.parseLong(value)));
+					break;
+				case "--thread-budget": budget = budget.threads(Integer.parseInt(value)); break;
+				case "--budget-action":
+					budget = budget.action(
+							AiBudget.Action.valueOf(value.toUpperCase(Locale.ROOT)));
+					break;
+				case "--sprt": {
+					String[] elo = value.split(",");
+					sprt = new Sprt(Double.parseDouble(elo[0]), Double.parseDouble(elo[1]),
+							0.05, 0.05);
+					break;
+				}
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		tournament.budget(budget);
+		Map<String, AiLoader.Available> available = new LinkedHashMap<>();
+		for (AiLoader.Available ai : AiLoader.discover()) available.put(ai.name(), ai);
+		List<AiHostClient> hosts = new ArrayList<>();
+		for (String name : names == null ? List.copyOf(available.keySet()) : names) {
+			AiLoader.Available ai = available.get(name.trim());
+			if (ai == null) throw new IllegalArgumentException(
+					"No AI named " + name + ", found " + available.keySet());
+			if (isolate == null) {
+				tournament.entrant(ai.name(), ai::create);
+				continue;
+			}
+			// one host per AI, so each has a heap of its own however many games it plays
+			var host = AiHostClient.launch(List.of("-Xmx" + isolate));
+			hosts.add(host);
+			tournament.entrant(ai.name(), () -> host.ai(ai.className()));
+		}
+		try (ResultWriter writer = out == null
+				? ResultWriter.csv(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: ResultWriter.open(Paths.get(out))) {
+			var results = sprt == null ? tournament.run(writer) : tournament.match(writer, sprt);
+			// keep standard output parseable when the results go there
+			var report = out == null ? System.err : System.out;
+			for (var warmUp : tournament.warmUps()) report.println(warmUp);
+			for (String line : summary(results)) report.println(line);
+			var ratings = new Ratings();
+			results.forEach(ratings::add);
+			report.print(Ratings.format(ratings.leaderboard()));
+			if (sprt != null) report.println(sprt);
+			report.print(tournament.metrics().report());
+		} finally {
+			hosts.forEach(AiHostClient::close);
+		}
+	}
+
+	/**
+	 * @param results the results of a tournament
+	 * @return one line per pairing with MrX's win rate and mean move times
+	 */
+	@Nonnull static ImmutableList<String> summary(@Nonnull List<GameResult> results) {
+		Map<String, List<GameResult>> pairings = new LinkedHashMap<>();
+		for (GameResult r : results)
+			pairings.computeIfAbsent(r.mrX().ai() + " vs " + r.detectives().ai(),
+					k -> new ArrayList<>()).add(r);
+		var lines = ImmutableList.<String>builder();
+		for (var entry : pairings.entrySet()) {
+			var games = entry.getValue();
+			long wins = games.stream().filter(r -> r.winner() == GameResult.Winner.MRX).count();
+			long forfeits = games.stream().filter(r -> r.ending() != GameResult.Ending.NORMAL)
+					.count();
+			lines.add(String.format("%s: MrX won %d/%d, %d abnormal endings, " +
+							"mean move %.1f ms / %.1f ms", entry.getKey(), wins, games.size(),
+					forfeits,
+					games.stream().mapToDouble(r -> r.mrX().meanMillis()).average().orElse(0),
+					games.stream().mapToDouble(r -> r.detectives().meanMillis()).average()
+							.orElse(0)));
+		}
+		return lines.build();
+	}
+}
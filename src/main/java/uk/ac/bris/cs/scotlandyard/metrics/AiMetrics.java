@@ -0,0 +1,220 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+
+/**
+ * A registry of how AIs behave when asked for moves, per AI and side: latency, how much of the
+ * deadline each move used, what each move cost in CPU time, allocation and threads, and how
+ * often calls end in each {@link Outcome}.
+ * <br>
+ * Recorders are created on first use and recording never blocks, so the registry can be shared
+ * by every game in the process, see {@link #shared()}.
+ */
+public final class AiMetrics {
+
+	/**
+	 * The side an AI played
+	 */
+	public enum Side {
+		MRX, DETECTIVES;
+
+		/**
+		 * @param board a board with moves available
+		 * @return the side to move
+		 */
+		@Nonnull public static Side of(@Nonnull Board board) {
+			return board.getAvailableMoves().stream().anyMatch(m -> m.commencedBy().isMrX())
+					? MRX : DETECTIVES;
+		}
+	}
+
+	/**
+	 * How a call for a move ended, as far as the metrics are concerned
+	 */
+	public enum Outcome {
+		/** A valid move in time */
+		MOVE,
+		/** The best move offered so far, taken at the deadline */
+		BEST_SO_FAR,
+		/** No move in time */
+		TIMEOUT,
+		/** The AI threw */
+		ERROR,
+		/** The AI went over a forfeiting budget */
+		OVER_BUDGET,
+		/** A move that was not available */
+		INVALID_MOVE
+	}
+
+	/**
+	 * The metrics of one AI playing one side
+	 */
+	public static final class Recorder {
+		private final String ai;
+		private final Side side;
+		private final Histogram latency = new Histogram();
+		private final Histogram deadlineUsed = new Histogram();
+		private final Histogram cpu = new Histogram();
+		private final Histogram allocated = new Histogram();
+		private final LongAccumulator threads = new LongAccumulator(Math::max, 0);
+		private final AtomicLong overBudget = new AtomicLong();
+		private final AtomicLongArray outcomes = new AtomicLongArray(Outcome.values().length);
+
+		private Recorder(String ai, Side side) {
+			this.ai = ai;
+			this.side = side;
+		}
+
+		/**
+		 * @param outcome how the call ended
+		 * @param latencyNanos the time from the call to its result
+		 * @param limitNanos the time the call had until its hard limit
+		 * @param usage what the call cost
+		 * @param overBudget whether it went over its budget, whether or not it forfeited
+		 */
+		public void record(@Nonnull Outcome outcome, long latencyNanos, long limitNanos,
+		                   @Nonnull Usage usage, boolean overBudget) {
+			outcomes.incrementAndGet(outcome.ordinal());
+			latency.record(Math.max(0, latencyNanos));
+			if (limitNanos > 0)
+				deadlineUsed.record(Math.max(0, latencyNanos) * 1000 / limitNanos);
+			if (usage.cpuNanos() >= 0) cpu.record(usage.cpuNanos());
+			if (usage.allocatedBytes() >= 0) allocated.record(usage.allocatedBytes());
+			threads.accumulate(usage.threads());
+			if (overBudget) this.overBudget.incrementAndGet();
+		}
+
+		/**
+		 * Turns a call already recorded as {@link Outcome#MOVE} or {@link Outcome#BEST_SO_FAR}
+		 * into an {@link Outcome#INVALID_MOVE}, once the caller found the move not available
+		 *
+		 * @param recorded the outcome the call was recorded with
+		 */
+		public void invalidMove(@Nonnull Outcome recorded) {
+			outcomes.decrementAndGet(recorded.ordinal());
+			outcomes.incrementAndGet(Outcome.INVALID_MOVE.ordinal());
+		}
+
+		@Nonnull public String ai() { return ai; }
+		@Nonnull public Side side() { return side; }
+
+		/**
+		 * @return the latency of every call in nanoseconds
+		 */
+		@Nonnull public Histogram latency() { return latency; }
+
+		/**
+		 * @return the share of the time until the hard limit each call used, in thousandths
+		 */
+		@Nonnull public Histogram deadlineUsed() { return deadlineUsed; }
+
+		/**
+		 * @return the CPU time of every call in nanoseconds, where the JVM measures it
+		 */
+		@Nonnull public Histogram cpu() { return cpu; }
+
+		/**
+		 * @return the bytes allocated by every call, where the JVM measures it
+		 */
+		@Nonnull public Histogram allocated() { return allocated; }
+
+		/**
+		 * @return the most extra threads any call kept busy at once
+		 */
+		public int threads() { return (int) threads.get(); }
+
+		/**
+		 * @return the number of calls that went over their budget, forfeited or not
+		 */
+		public long overBudget() { return overBudget.get(); }
+
+		/**
+		 * @param outcome an outcome
+		 * @return the number of calls that ended that way
+		 */
+		public long count(@Nonnull Outcome outcome) { return outcomes.get(outcome.ordinal()); }
+
+		/**
+		 * @return the number of calls recorded
+		 */
+		public long calls() { return latency.count(); }
+
+		/**
+		 * @param outcome an outcome
+		 * @return the share of calls that ended that way, 0 if there were none
+		 */
+		public double rate(@Nonnull Outcome outcome) {
+			long calls = calls();
+			return calls == 0 ? 0 : (double) count(outcome) / calls;
+		}
+	}
+
+	private static final AiMetrics SHARED = new AiMetrics();
+
+	private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the registry of the whole process
+	 */
+	@Nonnull public static AiMetrics shared() { return SHARED; }
+
+	/**
+	 * @param ai the name of the AI
+	 * @param side the side it plays
+	 * @return the recorder, created if needed
+	 */
+	@Nonnull public Recorder recorder(@Nonnull String ai, @Nonnull Side side) {
+		Objects.requireNonNull(ai);
+		Objects.requireNonNull(side);
+		return recorders.computeIfAbsent(side + "/" + ai, k -> new Recorder(ai, side));
+	}
+
+	/**
+	 * @return every recorder, ordered by AI and side
+	 */
+	@Nonnull public ImmutableList<Recorder> recorders() {
+		return recorders.values().stream()
+				.sorted(Comparator.comparing(Recorder::ai).thenComparing(Recorder::side))
+				.collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * @return a text table of every recorder: call count, latency percentiles in milliseconds,
+	 * the 99th percentile and maximum share of the deadline used, the 99th percentile of CPU time
+	 * and allocation, the most extra threads, and the rate of every outcome other than a valid
+	 * move and of calls over budget
+	 */
+	@Nonnull public String report() {
+		var sb = new StringBuilder(String.format(Locale.ROOT,
+				"%-24s %-10s %6s %8s %8s %8s %8s %7s %7s %8s %8s %7s %7s %7s %7s %7s %7s%n",
+				"AI", "side", "calls", "p50 ms", "p90 ms", "p99 ms", "max ms", "p99 dl", "max dl",
+				"p99 cpu", "p99 MB", "threads", "best", "timeout", "error", "invalid", "budget"));
+		for (Recorder r : recorders()) {
+			Histogram l = r.latency;
+			sb.append(String.format(Locale.ROOT,
+					"%-24s %-10s %6d %8.1f %8.1f %8.1f %8.1f %6.1f%% %6.1f%% %8.1f %8.1f %7d " +
+							"%6.1f%% %6.1f%% %6.1f%% %6.1f%% %6.1f%%%n",
+					r.ai, r.side, r.calls(), l.percentile(50) / 1e6, l.percentile(90) / 1e6,
+					l.percentile(99) / 1e6, l.max() / 1e6,
+					r.deadlineUsed.percentile(99) / 10.0, r.deadlineUsed.max() / 10.0,
+					r.cpu.percentile(99) / 1e6, r.allocated.percentile(99) / 1e6, r.threads(),
+					100 * r.rate(Outcome.BEST_SO_FAR), 100 * r.rate(Outcome.TIMEOUT),
+					100 * r.rate(Outcome.ERROR), 100 * r.rate(Outcome.INVALID_MOVE),
+					r.calls() == 0 ? 0 : 100.0 * r.overBudget() / r.calls()));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,89 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A histogram of non negative values with log-linear buckets, in the manner of HdrHistogram:
+ * every power of two is split into 32 buckets, so any recorded value is known to within about 3%
+ * over the whole range of {@code long}, in a fixed 15KB.
+ * <br>
+ * Recording is lock free and safe from any number of threads; reads see every recording that
+ * happened before them but are not an atomic snapshot while recordings continue.
+ */
+public final class Histogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	static int index(long value) {
+		if (value < 2 * SUB) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return shift * SUB + (int) (value >>> shift);
+	}
+
+	static long lowest(int index) {
+		if (index < 2 * SUB) return index;
+		int shift = index / SUB - 1;
+		return (long) (index % SUB + SUB) << shift;
+	}
+
+	static long highest(int index) {
+		return index + 1 == BUCKETS ? Long.MAX_VALUE : lowest(index + 1) - 1;
+	}
+
+	/**
+	 * @param value the value to record, not negative
+	 */
+	public void record(long value) {
+		if (value < 0) throw new IllegalArgumentException("value < 0: " + value);
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long count() { return count.get(); }
+
+	/**
+	 * @return the mean of the values recorded, 0 if none
+	 */
+	public double mean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * @return the largest value recorded, exactly; 0 if none
+	 */
+	public long max() { return max.get(); }
+
+	/**
+	 * @param percentile in [0, 100]
+	 * @return the highest value that is equivalent, within the bucket resolution, to the value at
+	 * the given percentile; never more than {@link #max()}; 0 if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100))
+			throw new IllegalArgumentException("percentile out of [0, 100]: " + percentile);
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(highest(i), max());
+		}
+		return max();
+	}
+}
@@ -0,0 +1,150 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ObserverDispatch;
+
+/**
+ * A registry of how the queues of asynchronously dispatched model observers behave, per
+ * observer: how long events wait and take to handle, how deep the queue gets, how long moves
+ * wait for room, and how many events are dropped or make the observer throw. See
+ * {@link ObserverDispatch}.
+ * <br>
+ * Like {@link AiMetrics}, recorders are created on first use and recording never blocks.
+ */
+public final class ObserverMetrics {
+
+	/**
+	 * The metrics of one observer, or of every observer of the same class
+	 */
+	public static final class Recorder {
+		private final String observer;
+		private final Histogram latency = new Histogram();
+		private final Histogram handling = new Histogram();
+		private final Histogram depth = new Histogram();
+		private final Histogram blocked = new Histogram();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+
+		private Recorder(String observer) { this.observer = observer; }
+
+		/**
+		 * @param depth the number of events waiting once one was queued
+		 * @param blockedNanos how long the move waited for room
+		 */
+		public void queued(int depth, long blockedNanos) {
+			this.depth.record(depth);
+			blocked.record(Math.max(0, blockedNanos));
+		}
+
+		/**
+		 * @param latencyNanos the time from queueing an event to the observer being done with it
+		 * @param handlingNanos the time the observer took
+		 * @param failed whether the observer threw
+		 */
+		public void handled(long latencyNanos, long handlingNanos, boolean failed) {
+			latency.record(Math.max(0, latencyNanos));
+			handling.record(Math.max(0, handlingNanos));
+			if (failed) this.failed.incrementAndGet();
+		}
+
+		/**
+		 * Counts an event dropped for a full queue
+		 */
+		public void drop() { dropped.incrementAndGet(); }
+
+		@Nonnull public String observer() { return observer; }
+
+		/**
+		 * @return the time from queueing every event handled to the observer being done with it,
+		 * in nanoseconds
+		 */
+		@Nonnull public Histogram latency() { return latency; }
+
+		/**
+		 * @return the time the observer took with every event, in nanoseconds
+		 */
+		@Nonnull public Histogram handling() { return handling; }
+
+		/**
+		 * @return the number of events waiting every time one was queued
+		 */
+		@Nonnull public Histogram depth() { return depth; }
+
+		/**
+		 * @return how long every move waited for room in the queue, in nanoseconds
+		 */
+		@Nonnull public Histogram blocked() { return blocked; }
+
+		/**
+		 * @return the number of events handled, whether or not the observer threw
+		 */
+		public long handled() { return handling.count(); }
+
+		/**
+		 * @return the number of events dropped for a full queue
+		 */
+		public long dropped() { return dropped.get(); }
+
+		/**
+		 * @return the number of events the observer threw on
+		 */
+		public long failed() { return failed.get(); }
+	}
+
+	private static final ObserverMetrics SHARED = new ObserverMetrics();
+
+	private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the registry of the whole process
+	 */
+	@Nonnull public static ObserverMetrics shared() { return SHARED; }
+
+	/**
+	 * @param observer the name of the observer
+	 * @return the recorder, created if needed
+	 */
+	@Nonnull public Recorder recorder(@Nonnull String observer) {
+		Objects.requireNonNull(observer);
+		return recorders.computeIfAbsent(observer, Recorder::new);
+	}
+
+	/**
+	 * @return every recorder, ordered by observer
+	 */
+	@Nonnull public ImmutableList<Recorder> recorders() {
+		return recorders.values().stream()
+				.sorted(Comparator.comparing(Recorder::observer))
+				.collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * @return a text table of every recorder: events handled, dropped and failed, the 50th and
+	 * 99th percentile of latency and handling time in milliseconds, the deepest queue and the
+	 * longest a move waited for room
+	 */
+	@Nonnull public String report() {
+		var sb = new StringBuilder(String.format(Locale.ROOT,
+				"%-32s %7s %7s %7s %8s %8s %8s %8s %6s %9s%n", "observer", "handled", "dropped",
+				"failed", "p50 ms", "p99 ms", "p50 run", "p99 run", "depth", "block ms"));
+		for (Recorder r : recorders()) {
+			sb.append(String.format(Locale.ROOT,
+					"%-32s %7d %7d %7d %8.1f %8.1f %8.1f %8.1f %6d %9.1f%n",
+					r.observer, r.handled(), r.dropped(), r.failed(),
+					r.latency.percentile(50) / 1e6, r.latency.percentile(99) / 1e6,
+					r.handling.percentile(50) / 1e6, r.handling.percentile(99) / 1e6,
+					r.depth.max(), r.blocked.max() / 1e6));
+		}
+		return sb.toString();
+	}
+}
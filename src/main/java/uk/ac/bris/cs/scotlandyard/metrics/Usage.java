@@ -0,0 +1,174 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * What one call into an AI cost beyond wall clock time: CPU time, bytes allocated and threads
+ * started, as reported by the {@link ThreadMXBean}.
+ * <br>
+ * CPU time and allocation are those of every thread, each charged for what it used between the
+ * start of the call and the last {@link Meter#sample() sample}, so an AI that hands work to
+ * threads of its own is charged for them whether it starts them or reuses a pool. The JVM cannot
+ * tell who a thread works for, so threads of other games running at the same time are charged
+ * too, and a thread that ends between two samples loses its last few milliseconds; the figures
+ * are exact only when one AI runs at a time. Budgets that forfeit a move on these figures are
+ * only fair then, so a tournament refuses them unless it plays one game at a time without
+ * pondering. Values the JVM does not support are -1.
+ */
+public final class Usage {
+
+	/**
+	 * The usage of a call that never started
+	 */
+	public static final Usage NONE = new Usage(0, 0, 0);
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final com.sun.management.ThreadMXBean ALLOCATION = allocation();
+	private static final boolean CPU = THREADS.isThreadCpuTimeSupported();
+
+	private static com.sun.management.ThreadMXBean allocation() {
+		if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return null;
+		var bean = (com.sun.management.ThreadMXBean) THREADS;
+		return bean.isThreadAllocatedMemorySupported() ? bean : null;
+	}
+
+	static {
+		if (CPU && !THREADS.isThreadCpuTimeEnabled()) THREADS.setThreadCpuTimeEnabled(true);
+		if (ALLOCATION != null && !ALLOCATION.isThreadAllocatedMemoryEnabled())
+			ALLOCATION.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	private final long cpuNanos;
+	private final long allocatedBytes;
+	private final int threads;
+
+	/**
+	 * @param cpuNanos CPU time, -1 if unknown
+	 * @param allocatedBytes bytes allocated, -1 if unknown
+	 * @param threads the most threads busy at once besides the one making the call
+	 */
+	public Usage(long cpuNanos, long allocatedBytes, int threads) {
+		this.cpuNanos = cpuNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.threads = threads;
+	}
+
+	/**
+	 * @return CPU time in nanoseconds, -1 if the JVM does not measure it
+	 */
+	public long cpuNanos() { return cpuNanos; }
+
+	/**
+	 * @return bytes allocated, -1 if the JVM does not measure it
+	 */
+	public long allocatedBytes() { return allocatedBytes; }
+
+	/**
+	 * @return the most threads busy at once besides the one making the call: started since the
+	 * call began, or used CPU time or allocated between two samples
+	 */
+	public int threads() { return threads; }
+
+	@Override public String toString() {
+		return String.format(Locale.ROOT, "%.1f ms CPU, %.1f MB allocated, %d threads",
+				cpuNanos / 1e6, allocatedBytes / 1e6, threads);
+	}
+
+	/**
+	 * Starts measuring a call on the current thread, which must run the whole call.
+	 *
+	 * @return the meter
+	 */
+	@Nonnull public static Meter start() { return new Meter(Thread.currentThread().getId()); }
+
+	/**
+	 * Measures one call. {@link #sample()} should be called every few milliseconds from another
+	 * thread while the call runs, so spawned threads and the peak thread count are seen.
+	 */
+	public static final class Meter {
+		private static final long[] UNSEEN = {0, 0};
+
+		private final long worker;
+		// the CPU time and allocation of every other thread alive when the call started
+		private final Map<Long, long[]> started = new HashMap<>();
+		// the last CPU time and allocation seen of every other thread
+		private final Map<Long, long[]> seen = new HashMap<>();
+		private final long startCpu, startAllocated;
+		private int peak;
+		private Usage stopped;
+
+		private Meter(long worker) {
+			this.worker = worker;
+			for (long id : THREADS.getAllThreadIds()) {
+				if (id == worker) continue;
+				long cpu = cpu(id), allocated = allocated(id);
+				if (cpu >= 0 || allocated >= 0) started.put(id, new long[]{cpu, allocated});
+			}
+			startCpu = cpu(worker);
+			startAllocated = allocated(worker);
+		}
+
+		private static long cpu(long thread) {
+			return CPU ? THREADS.getThreadCpuTime(thread) : -1;
+		}
+
+		private static long allocated(long thread) {
+			return ALLOCATION != null ? ALLOCATION.getThreadAllocatedBytes(thread) : -1;
+		}
+
+		/**
+		 * Looks at every thread alive; cheap enough to do every few milliseconds
+		 */
+		public synchronized void sample() {
+			if (stopped != null) return;
+			// the sampler is not working for the call
+			long self = Thread.currentThread().getId();
+			int busy = 0;
+			for (long id : THREADS.getAllThreadIds()) {
+				if (id == worker || id == self) continue;
+				long cpu = cpu(id), allocated = allocated(id);
+				// -1 once the thread has ended, keep what was seen last
+				if (cpu < 0 && allocated < 0) continue;
+				long[] was = seen.get(id);
+				if (was == null) was = started.get(id);
+				if (was == null || cpu > was[0] || allocated > was[1]) busy++;
+				if (was == null) was = UNSEEN;
+				seen.put(id, new long[]{Math.max(was[0], cpu), Math.max(was[1], allocated)});
+			}
+			peak = Math.max(peak, busy);
+		}
+
+		/**
+		 * @return the usage so far, or the final usage once {@link #stop() stopped}
+		 */
+		@Nonnull public synchronized Usage current() {
+			if (stopped != null) return stopped;
+			sample();
+			long cpu = CPU ? cpu(worker) - startCpu : -1;
+			long allocated = ALLOCATION != null ? allocated(worker) - startAllocated : -1;
+			for (var thread : seen.entrySet()) {
+				long[] now = thread.getValue();
+				long[] was = started.getOrDefault(thread.getKey(), UNSEEN);
+				if (cpu >= 0 && now[0] > was[0]) cpu += now[0] - Math.max(0, was[0]);
+				if (allocated >= 0 && now[1] > was[1]) allocated += now[1] - Math.max(0, was[1]);
+			}
+			return new Usage(cpu, allocated, peak);
+		}
+
+		/**
+		 * Stops measuring, once the call has returned
+		 *
+		 * @return the final usage
+		 */
+		@Nonnull public synchronized Usage stop() {
+			if (stopped == null) stopped = current();
+			return stopped;
+		}
+	}
+}
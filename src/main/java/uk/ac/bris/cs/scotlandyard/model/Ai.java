@@ -34,6 +34,42 @@ public interface Ai {
 	 */
 	@Nonnull Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair);
 
+	/**
+	 * Picks a move against a {@link AiDeadline}, which is how the game asks for moves. AIs that
+	 * search for a while should override this, poll {@link AiDeadline#shouldStop()} and
+	 * {@link AiDeadline#offer} their best move so far.
+	 * Defaults to {@link #pickMove(Board, Pair)} with the time left until the hard limit
+	 *
+	 * @param board    the game board
+	 * @param deadline the limits of this move
+	 * @return a correct move from {@link Board#getAvailableMoves()} in the game board
+	 */
+	@Nonnull default Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		return pickMove(board, deadline.asTimeout());
+	}
+
+	/**
+	 * Called when it is the other side's turn, on a thread of its own, so the AI can think ahead
+	 * and reuse the work in its next {@link #pickMove(Board, AiDeadline)}. Should return soon
+	 * after {@link AiDeadline#shouldStop()} turns true, which happens before the next
+	 * {@link #onMoveMade} call; it is not called when one AI plays both sides.
+	 * Defaults to no-op
+	 *
+	 * @param board    the board the other side is picking a move on
+	 * @param deadline cancelled when the other side has picked its move
+	 */
+	default void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {}
+
+	/**
+	 * Called for every move made in the game, by either side, just before it is played. AIs that
+	 * keep a search tree between turns can use this to advance it by the moves actually played
+	 * instead of working them out from the next board.
+	 * Should return quickly; defaults to no-op
+	 *
+	 * @param board the board the move was chosen on
+	 * @param move  the move about to be played
+	 */
+	default void onMoveMade(@Nonnull Board board, @Nonnull Move move) {}
 
 	/**
 	 * Called after the game has ended and that this Ai is about to be terminated
@@ -0,0 +1,131 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+
+/**
+ * The time an {@link Ai} has for one move, and the channel through which it can be stopped.
+ * <br>
+ * Both limits are absolute {@link System#nanoTime()} values. By the soft limit an AI should have
+ * returned, or at least {@link #offer offered} its best move so far, which the caller is then free
+ * to play. At the hard limit the caller gives up: it {@link #cancel() cancels} the deadline,
+ * interrupts the thread and, if nothing was offered, the AI forfeits. Long running AIs should
+ * poll {@link #shouldStop()} so the thread is actually given back.
+ */
+public final class AiDeadline {
+
+	private final long startNanos;
+	private final long softNanos;
+	private final long hardNanos;
+	private final AtomicReference<Move> best = new AtomicReference<>();
+	private volatile boolean cancelled;
+
+	/**
+	 * @param startNanos when the turn started
+	 * @param softNanos the soft limit, not before the start
+	 * @param hardNanos the hard limit, not before the soft limit
+	 */
+	public AiDeadline(long startNanos, long softNanos, long hardNanos) {
+		if (softNanos - startNanos < 0) throw new IllegalArgumentException("soft < start");
+		if (hardNanos - softNanos < 0) throw new IllegalArgumentException("hard < soft");
+		this.startNanos = startNanos;
+		this.softNanos = softNanos;
+		this.hardNanos = hardNanos;
+	}
+
+	/**
+	 * @param soft the time until the soft limit
+	 * @param hard the time until the hard limit
+	 * @return a deadline starting now
+	 */
+	@Nonnull public static AiDeadline of(@Nonnull Duration soft, @Nonnull Duration hard) {
+		long now = System.nanoTime();
+		return new AiDeadline(now, now + soft.toNanos(), now + hard.toNanos());
+	}
+
+	/**
+	 * @param budget the whole time for the move, which becomes the hard limit
+	 * @return a deadline starting now with the soft limit at four fifths of the budget
+	 */
+	@Nonnull public static AiDeadline within(@Nonnull Duration budget) {
+		return of(budget.multipliedBy(4).dividedBy(5), budget);
+	}
+
+	/**
+	 * @param timeoutPair a timeout as passed to {@link Ai#pickMove(Board, Pair)}
+	 * @return a deadline starting now, see {@link #within(Duration)}
+	 */
+	@Nonnull public static AiDeadline within(@Nonnull Pair<Long, TimeUnit> timeoutPair) {
+		return within(Duration.ofNanos(timeoutPair.right().toNanos(timeoutPair.left())));
+	}
+
+	public long startNanos() { return startNanos; }
+	public long softNanos() { return softNanos; }
+	public long hardNanos() { return hardNanos; }
+
+	/**
+	 * @return the time left until the soft limit, negative once it has passed
+	 */
+	public long remainingSoftNanos() { return softNanos - System.nanoTime(); }
+
+	/**
+	 * @return the time left until the hard limit, negative once it has passed
+	 */
+	public long remainingHardNanos() { return hardNanos - System.nanoTime(); }
+
+	/**
+	 * @return the time left until the hard limit in the form {@link Ai#pickMove(Board, Pair)}
+	 * expects, at least a millisecond
+	 */
+	@Nonnull public Pair<Long, TimeUnit> asTimeout() {
+		return new Pair<>(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingHardNanos())),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Asks the AI to stop; called by the caller once it no longer needs the move
+	 */
+	public void cancel() { cancelled = true; }
+
+	/**
+	 * @return whether the deadline has been cancelled
+	 */
+	public boolean isCancelled() { return cancelled; }
+
+	/**
+	 * @return whether the AI should return now: the deadline was cancelled, the soft limit has
+	 * passed or the current thread has been interrupted
+	 */
+	public boolean shouldStop() {
+		return cancelled || remainingSoftNanos() <= 0 || Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * @throws CancellationException if the deadline was cancelled, the hard limit has passed or
+	 * the current thread has been interrupted; the move will not be used in any of these cases
+	 */
+	public void checkCancelled() {
+		if (cancelled || remainingHardNanos() <= 0 || Thread.currentThread().isInterrupted())
+			throw new CancellationException("Move no longer wanted");
+	}
+
+	/**
+	 * Records the best move found so far, to be played if the AI does not return in time.
+	 *
+	 * @param move a move from {@link Board#getAvailableMoves()}
+	 */
+	public void offer(@Nonnull Move move) { best.set(Objects.requireNonNull(move)); }
+
+	/**
+	 * @return the last move {@link #offer offered}, if any
+	 */
+	@Nonnull public Optional<Move> best() { return Optional.ofNullable(best.get()); }
+}
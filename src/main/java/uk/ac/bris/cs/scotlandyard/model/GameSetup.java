@@ -2,9 +2,14 @@ package uk.ac.bris.cs.scotlandyard.model;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.EndpointPair;
 import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.io.Serializable;
+import java.util.Comparator;
 import java.util.Objects;
 
 import javax.annotation.Nonnull;
@@ -25,16 +30,64 @@ public final class GameSetup implements Serializable {
 	 * MrX reveal moves; false is hidden, true is reveal
 	 */
 	public final ImmutableList<Boolean> moves;
+	private final transient RevealSchedule revealSchedule;
+	private final transient HashCode fingerprint;
 	public GameSetup(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
 	                 @Nonnull ImmutableList<Boolean> moves) {
-		this.graph = Objects.requireNonNull(graph);
-		this.moves = Objects.requireNonNull(moves);
+		this(graph, moves, fingerprint(Objects.requireNonNull(graph), Objects.requireNonNull(moves)));
 	}
+	// the fingerprint is only given directly to simulate collisions
+	GameSetup(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	          ImmutableList<Boolean> moves, HashCode fingerprint) {
+		this.graph = graph;
+		this.moves = moves;
+		this.revealSchedule = new RevealSchedule(moves);
+		this.fingerprint = fingerprint;
+	}
+	/**
+	 * @return the reveal moves as a precomputed bitset schedule
+	 */
+	@Nonnull public RevealSchedule revealSchedule() { return revealSchedule; }
+	/**
+	 * A 128-bit content hash over the graph and the reveal moves. Equal setups have the same
+	 * fingerprint, but setups with the same fingerprint are only equal if their graph and
+	 * reveal moves are too, see {@link GameSetupRegistry} for content addressed lookups.
+	 *
+	 * @return the fingerprint of this setup
+	 */
+	@Nonnull public HashCode fingerprint() { return fingerprint; }
+	private static HashCode fingerprint(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	                                    ImmutableList<Boolean> moves) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putBoolean(graph.isDirected());
+		hasher.putInt(graph.nodes().size());
+		graph.nodes().stream().sorted().forEach(hasher::putInt);
+		hasher.putInt(graph.edges().size());
+		graph.edges().stream()
+				.map(e -> graph.isDirected() || e.nodeU() <= e.nodeV() ? e :
+						EndpointPair.unordered(e.nodeV(), e.nodeU()))
+				.sorted(Comparator.<EndpointPair<Integer>>comparingInt(EndpointPair::nodeU)
+						.thenComparingInt(EndpointPair::nodeV))
+				.forEach(e -> {
+					int transports = 0;
+					for (Transport t : graph.edgeValueOrDefault(e, ImmutableSet.of()))
+						transports |= 1 << t.ordinal();
+					hasher.putInt(e.nodeU()).putInt(e.nodeV()).putInt(transports);
+				});
+		hasher.putInt(moves.size());
+		for (Boolean reveal : moves) hasher.putBoolean(reveal);
+		return hasher.hash();
+	}
+	// transient fields are not restored by deserialisation, rebuild them instead
+	private Object readResolve() { return new GameSetup(graph, moves); }
 	@Override public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
-		return Objects.equals(graph, ((GameSetup) o).graph) &&
-				Objects.equals(moves, ((GameSetup) o).moves);
+		GameSetup that = (GameSetup) o;
+		// the fingerprint rules out almost every unequal setup before the full comparison
+		return fingerprint.equals(that.fingerprint)
+				&& moves.equals(that.moves)
+				&& graph.equals(that.graph);
 	}
-	@Override public int hashCode() { return Objects.hash(graph, moves); }
+	@Override public int hashCode() { return fingerprint.asInt(); }
 }
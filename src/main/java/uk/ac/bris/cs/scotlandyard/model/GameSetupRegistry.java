@@ -0,0 +1,58 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A content addressed registry of {@link GameSetup}s keyed by {@link GameSetup#fingerprint()}.
+ * <br>
+ * Interning setups through the registry means that games, replays and AI caches built from the
+ * same graph and reveal moves share a single instance, so identity keyed caches hit and the
+ * graph is only held in memory once. Setups are weakly referenced and disappear from the
+ * registry once nothing else uses them.
+ */
+public final class GameSetupRegistry {
+
+	private static final GameSetupRegistry SHARED = new GameSetupRegistry();
+
+	private final ConcurrentMap<HashCode, GameSetup> setups =
+			new MapMaker().weakValues().makeMap();
+
+	/**
+	 * @return the process wide registry
+	 */
+	@Nonnull public static GameSetupRegistry shared() { return SHARED; }
+
+	/**
+	 * @param setup the setup
+	 * @return the canonical instance equal to the given setup; the given setup itself if it is
+	 * the first of its content to be registered, or if a different setup with the same
+	 * fingerprint is registered already
+	 */
+	@Nonnull public GameSetup intern(@Nonnull GameSetup setup) {
+		GameSetup existing = setups.putIfAbsent(setup.fingerprint(), setup);
+		// a fingerprint collision keeps the first setup registered, the other is not interned
+		return existing != null && existing.equals(setup) ? existing : setup;
+	}
+
+	/**
+	 * @param fingerprint the fingerprint, see {@link GameSetup#fingerprint()}
+	 * @return the registered setup with the given fingerprint; empty if none is registered. On a
+	 * fingerprint collision this is the first setup registered, callers holding the content
+	 * should {@link #intern(GameSetup)} it instead
+	 */
+	@Nonnull public Optional<GameSetup> lookup(@Nonnull HashCode fingerprint) {
+		return Optional.ofNullable(setups.get(Objects.requireNonNull(fingerprint)));
+	}
+
+	/**
+	 * @return the number of distinct setups currently registered
+	 */
+	public int size() { return setups.size(); }
+}
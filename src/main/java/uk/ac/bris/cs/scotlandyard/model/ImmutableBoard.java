@@ -87,10 +87,11 @@ public class ImmutableBoard implements Board, Serializable {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		ImmutableBoard that = (ImmutableBoard) o;
-		return Objects.equals(setup, that.setup) &&
-				Objects.equals(detectiveLocations, that.detectiveLocations) &&
-				Objects.equals(tickets, that.tickets) &&
+		// cheapest comparisons first; setups of the same game are usually one interned instance
+		return Objects.equals(detectiveLocations, that.detectiveLocations) &&
 				Objects.equals(mrXTravelLog, that.mrXTravelLog) &&
+				Objects.equals(setup, that.setup) &&
+				Objects.equals(tickets, that.tickets) &&
 				Objects.equals(winner, that.winner) &&
 				Objects.equals(availableMoves, that.availableMoves);
 	}
@@ -46,7 +46,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
             Objects.requireNonNull(log);
             Objects.requireNonNull(mrX);
             Objects.requireNonNull(detectives);
-            if (setup.moves.isEmpty()) {
+            if (setup.revealSchedule().rounds() == 0) {
                 throw new IllegalArgumentException();
             }
             inspectDetectives(detectives);
@@ -157,7 +157,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
                     // If MrX doesn't have a double ticket
                     if (!player.has(ScotlandYard.Ticket.DOUBLE)) return false;
                     // If it's MrX's last move they can't use two tickets
-                    if (setup.moves.size() == 1) return false;
+                    if (log.size() + 1 >= setup.revealSchedule().rounds()) return false;
                     List<ScotlandYard.Ticket> tickets = Lists.newArrayList(move.tickets());
                     // If MrX is using two of the same ticket they don't have
                     if (tickets.get(0) == tickets.get(1)) {
@@ -274,13 +274,20 @@ public final class MyGameStateFactory implements Factory<GameState> {
             }
         }
 
+        // unlike RevealSchedule.isReveal, a round past the end is an error rather than hidden
+        private boolean isReveal(int round) {
+            if (round >= setup.revealSchedule().rounds())
+                throw new IllegalArgumentException("MrX has no round " + (round + 1) + " left");
+            return setup.revealSchedule().isReveal(round);
+        }
+
         private ImmutableList<LogEntry> newLog(ImmutableList<LogEntry> oldLog, Move move) {
             if (!move.commencedBy().isMrX()) return oldLog;
             else {
                 Move.Visitor<Collection<LogEntry>> visitor = new Move.Visitor<Collection<LogEntry>>() {
                     @Override
                     public Collection<LogEntry> visit(Move.SingleMove move) {
-                        if (setup.moves.get(oldLog.size())) return List.of(LogEntry.reveal(move.ticket, move.destination));
+                        if (isReveal(oldLog.size())) return List.of(LogEntry.reveal(move.ticket, move.destination));
                         else return List.of(LogEntry.hidden(move.ticket));
                     }
 
@@ -288,10 +295,10 @@ public final class MyGameStateFactory implements Factory<GameState> {
                     public Collection<LogEntry> visit(Move.DoubleMove move) {
                         Collection<LogEntry> entries = new ArrayList<>();
 
-                        if (setup.moves.get(oldLog.size())) entries.add(LogEntry.reveal(move.ticket1, move.destination1));
+                        if (isReveal(oldLog.size())) entries.add(LogEntry.reveal(move.ticket1, move.destination1));
                         else entries.add(LogEntry.hidden(move.ticket1));
 
-                        if (setup.moves.get(oldLog.size() + 1)) entries.add(LogEntry.reveal(move.ticket2, move.destination2));
+                        if (isReveal(oldLog.size() + 1)) entries.add(LogEntry.reveal(move.ticket2, move.destination2));
                         else entries.add(LogEntry.hidden(move.ticket2));
 
                         return entries;
@@ -312,7 +319,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
                 boolean detectivesWin = false;
                 if (mrXCaptured()) detectivesWin = true;
                 // check if detectives lose
-                if (log.size() == setup.moves.size()) return ImmutableSet.of(MrX.MRX);
+                if (log.size() == setup.revealSchedule().rounds()) return ImmutableSet.of(MrX.MRX);
                 if (!mrXCanMove() && remaining.contains(MrX.MRX)) detectivesWin = true;
                 if (detectivesWin) {
                     return ImmutableSet.copyOf(
@@ -518,4 +525,26 @@ public final class MyGameStateFactory implements Factory<GameState> {
         return new MyGameState(setup, ImmutableSet.of(MrX.MRX), ImmutableList.of(), mrX, detectives);
     }
 
+    /**
+     * Builds a game state part way through a game, e.g to search from a {@link Board} that is not
+     * itself a {@link GameState}. The winner is determined as if the game had just started.
+     *
+     * @param setup the game setup
+     * @param mrX MrX player
+     * @param detectives detective players
+     * @param log MrX's travel log so far
+     * @param remaining the pieces yet to move in the current round
+     * @return the game state
+     */
+    @Nonnull
+    public GameState resume(
+            GameSetup setup,
+            Player mrX,
+            ImmutableList<Player> detectives,
+            ImmutableList<LogEntry> log,
+            ImmutableSet<Piece> remaining) {
+        if (remaining.isEmpty()) throw new IllegalArgumentException("No remaining pieces");
+        return new MyGameState(setup, remaining, log, mrX, detectives);
+    }
+
 }
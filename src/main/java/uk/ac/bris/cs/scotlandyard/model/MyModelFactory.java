@@ -8,16 +8,35 @@ import com.google.common.collect.ImmutableSet;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * cw-model
  * Stage 2: Complete this class
+ * <br>
+ * Observers are called on the thread making the move unless the factory is given an
+ * asynchronous {@link ObserverDispatch}.
  */
 public final class MyModelFactory implements Factory<Model> {
+	private final ObserverDispatch dispatch;
+
+	public MyModelFactory() { this(ObserverDispatch.SYNCHRONOUS); }
+
+	/**
+	 * @param dispatch how the models built tell their observers about changes
+	 */
+	public MyModelFactory(@Nonnull ObserverDispatch dispatch) {
+		this.dispatch = Objects.requireNonNull(dispatch);
+	}
+
 	private final class MyModel implements Model {
 		private Board.GameState board;
 
 		private Set<Observer> observers;
+		// the queue of every observer in the order registered, when dispatched asynchronously
+		private final Map<Observer, ObserverQueue> queues = new LinkedHashMap<>();
+		// done once every observer is done with the last event, when ordered across observers
+		private CountDownLatch lastDone;
 
 		private MyModel(final GameSetup setup,
 				final Player mrX,
@@ -37,12 +56,15 @@ public final class MyModelFactory implements Factory<Model> {
 		public void registerObserver(@Nonnull Observer observer) {
 			Objects.requireNonNull(observer);
 			if (!observers.add(observer)) throw new IllegalArgumentException();
+			if (dispatch.isAsync()) queues.put(observer, new ObserverQueue(observer, dispatch));
 		}
 
 		@Override
 		public void unregisterObserver(@Nonnull Observer observer) {
 			Objects.requireNonNull(observer);
 			if (!observers.remove(observer)) throw new IllegalArgumentException();
+			ObserverQueue queue = queues.remove(observer);
+			if (queue != null) queue.close();
 		}
 
 		@Nonnull
@@ -60,8 +82,29 @@ public final class MyModelFactory implements Factory<Model> {
 			} else {
 				event = Observer.Event.MOVE_MADE;
 			}
-			for (Observer observer : observers) {
-				observer.onModelChanged(board, event);
+			if (!dispatch.isAsync()) {
+				for (Observer observer : observers) {
+					observer.onModelChanged(board, event);
+				}
+				return;
+			}
+			CountDownLatch after = null, done = null;
+			if (dispatch.ordering() == ObserverDispatch.Ordering.ACROSS_OBSERVERS) {
+				after = lastDone;
+				lastDone = done = new CountDownLatch(queues.size());
+			}
+			var delivery = new ObserverQueue.Delivery(board, event, after, done);
+			int offered = 0;
+			try {
+				for (ObserverQueue queue : queues.values()) {
+					offered++;
+					queue.offer(delivery);
+				}
+			} catch (InterruptedException e) {
+				// the move has been made, only the events for the remaining observers are lost;
+				// they are done with it all the same, or every later event would wait on them
+				for (int i = offered; i < queues.size(); i++) delivery.finish();
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
@@ -0,0 +1,137 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.metrics.ObserverMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+
+/**
+ * How a model built by {@link MyModelFactory} tells its {@link Observer}s about changes.
+ * Immutable; start from {@link #SYNCHRONOUS} or {@link #async()}.
+ * <br>
+ * Synchronous dispatch calls every observer on the thread making the move, before
+ * {@link Model#chooseMove} returns, so the slowest observer holds up the game. Asynchronous
+ * dispatch gives every observer a bounded queue and a thread of its own, so
+ * {@link Model#chooseMove} only waits for a full queue, and only if the {@link Overflow} says
+ * so. Observers that touch a UI toolkit must then hand their work to its thread themselves.
+ */
+public final class ObserverDispatch {
+
+	/**
+	 * What happens to an event for an observer whose queue is full
+	 */
+	public enum Overflow {
+		/** The move waits until there is room, slowing the game to the observer's pace */
+		BLOCK,
+		/** The oldest event waiting is dropped, for observers that only need the latest board */
+		DROP_OLDEST,
+		/** The new event is dropped */
+		DROP_NEWEST
+	}
+
+	/**
+	 * The order events are handled in
+	 */
+	public enum Ordering {
+		/** Every observer sees the events in order, at its own pace */
+		PER_OBSERVER,
+		/** No observer starts on an event until every observer is done with the one before */
+		ACROSS_OBSERVERS
+	}
+
+	/**
+	 * Every observer called on the thread making the move
+	 */
+	public static final ObserverDispatch SYNCHRONOUS =
+			new ObserverDispatch(false, 0, Overflow.BLOCK, Ordering.PER_OBSERVER, null);
+
+	private final boolean async;
+	private final int capacity;
+	private final Overflow overflow;
+	private final Ordering ordering;
+	private final ObserverMetrics metrics;
+
+	private ObserverDispatch(boolean async, int capacity, Overflow overflow, Ordering ordering,
+	                         ObserverMetrics metrics) {
+		this.async = async;
+		this.capacity = capacity;
+		this.overflow = overflow;
+		this.ordering = ordering;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return asynchronous dispatch with room for 64 events per observer, blocking when full,
+	 * in order per observer and recorded in the {@link ObserverMetrics#shared() shared} metrics
+	 */
+	@Nonnull public static ObserverDispatch async() {
+		return new ObserverDispatch(true, 64, Overflow.BLOCK, Ordering.PER_OBSERVER,
+				ObserverMetrics.shared());
+	}
+
+	/**
+	 * @param capacity the number of events that may wait for each observer
+	 * @return a copy of this dispatch with the capacity
+	 */
+	@Nonnull public ObserverDispatch capacity(int capacity) {
+		requireAsync();
+		if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+		return new ObserverDispatch(true, capacity, overflow, ordering, metrics);
+	}
+
+	/**
+	 * @param overflow what happens to an event for a full queue; a
+	 * {@link Observer.Event#GAME_OVER} is never dropped, the oldest event waiting is instead
+	 * @return a copy of this dispatch with the policy
+	 */
+	@Nonnull public ObserverDispatch overflow(@Nonnull Overflow overflow) {
+		requireAsync();
+		return new ObserverDispatch(true, capacity, Objects.requireNonNull(overflow), ordering,
+				metrics);
+	}
+
+	/**
+	 * @param ordering the order events are handled in
+	 * @return a copy of this dispatch with the ordering
+	 */
+	@Nonnull public ObserverDispatch ordering(@Nonnull Ordering ordering) {
+		requireAsync();
+		return new ObserverDispatch(true, capacity, overflow, Objects.requireNonNull(ordering),
+				metrics);
+	}
+
+	/**
+	 * @param metrics where every observer's queue is recorded
+	 * @return a copy of this dispatch recording there
+	 */
+	@Nonnull public ObserverDispatch metrics(@Nonnull ObserverMetrics metrics) {
+		requireAsync();
+		return new ObserverDispatch(true, capacity, overflow, ordering,
+				Objects.requireNonNull(metrics));
+	}
+
+	private void requireAsync() {
+		if (!async) throw new IllegalStateException("Synchronous dispatch has no options");
+	}
+
+	public boolean isAsync() { return async; }
+	public int capacity() { return capacity; }
+	@Nonnull public Overflow overflow() { return overflow; }
+	@Nonnull public Ordering ordering() { return ordering; }
+
+	/**
+	 * @return where observers' queues are recorded; only asynchronous dispatch has one
+	 */
+	@Nonnull public ObserverMetrics metrics() {
+		requireAsync();
+		return metrics;
+	}
+
+	@Override public String toString() {
+		return async ? String.format(Locale.ROOT, "async(%d, %s, %s)", capacity, overflow,
+				ordering) : "synchronous";
+	}
+}
@@ -0,0 +1,172 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.metrics.ObserverMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+
+/**
+ * The bounded queue and thread of one asynchronously dispatched {@link Observer}, see
+ * {@link ObserverDispatch}. The thread is started when an event is queued and ends once the
+ * queue has been empty for a second, so an abandoned game leaves nothing running.
+ */
+final class ObserverQueue {
+
+	/**
+	 * One event, as queued for every observer
+	 */
+	static final class Delivery {
+		final Board board;
+		final Observer.Event event;
+		final long queuedNanos = System.nanoTime();
+		// null unless ordered across observers: the previous event done, and this one
+		private final CountDownLatch after;
+		private final CountDownLatch done;
+
+		Delivery(Board board, Observer.Event event, CountDownLatch after, CountDownLatch done) {
+			this.board = board;
+			this.event = event;
+			this.after = after;
+			this.done = done;
+		}
+
+		/**
+		 * @return the latch every later event waits on, or null
+		 */
+		CountDownLatch done() { return done; }
+
+		private void awaitTurn() throws InterruptedException {
+			if (after != null) after.await();
+		}
+
+		// handled, skipped or dropped, one observer is done with it
+		void finish() {
+			if (done != null) done.countDown();
+		}
+	}
+
+	private final Observer observer;
+	private final ObserverDispatch dispatch;
+	private final ObserverMetrics.Recorder recorder;
+	private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+	private final ThreadPoolExecutor executor;
+	private boolean draining;
+	private boolean closed;
+
+	ObserverQueue(Observer observer, ObserverDispatch dispatch) {
+		this.observer = observer;
+		this.dispatch = dispatch;
+		String name = observer.getClass().getSimpleName().isEmpty()
+				? observer.getClass().getName() : observer.getClass().getSimpleName();
+		this.recorder = dispatch.metrics().recorder(name);
+		this.executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), new ThreadFactoryBuilder()
+				.setNameFormat("observer-" + name.replace("%", "%%") + "-%d")
+				.setDaemon(true)
+				.build());
+	}
+
+	/**
+	 * Queues an event, waiting for room or dropping an event if full, as the dispatch says
+	 *
+	 * @throws InterruptedException if interrupted while waiting for room; the event is dropped
+	 */
+	void offer(Delivery delivery) throws InterruptedException {
+		long start = System.nanoTime();
+		synchronized (this) {
+			try {
+				while (!closed && queue.size() >= dispatch.capacity()) {
+					var overflow = dispatch.overflow();
+					if (overflow == ObserverDispatch.Overflow.BLOCK) wait();
+					// the end of the game is never the one dropped
+					else if (overflow == ObserverDispatch.Overflow.DROP_OLDEST
+							|| delivery.event == Observer.Event.GAME_OVER) drop(queue.removeFirst());
+					else {
+						drop(delivery);
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				drop(delivery);
+				throw e;
+			}
+			if (closed) {
+				delivery.finish();
+				return;
+			}
+			queue.addLast(delivery);
+			recorder.queued(queue.size(), System.nanoTime() - start);
+			if (draining) return;
+			draining = true;
+		}
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			// closed meanwhile, which skipped the event
+			synchronized (this) {
+				draining = false;
+			}
+		}
+	}
+
+	private void drop(Delivery delivery) {
+		recorder.drop();
+		delivery.finish();
+	}
+
+	private void drain() {
+		while (true) {
+			Delivery next;
+			synchronized (this) {
+				next = queue.pollFirst();
+				if (next == null) {
+					draining = false;
+					return;
+				}
+				notifyAll();
+			}
+			try {
+				next.awaitTurn();
+			} catch (InterruptedException e) {
+				// nothing here interrupts, but whoever did wants the thread back
+				next.finish();
+				continue;
+			}
+			long start = System.nanoTime();
+			boolean failed = false;
+			try {
+				observer.onModelChanged(next.board, next.event);
+			} catch (RuntimeException e) {
+				failed = true;
+				// where a synchronous observer's exception would end up eventually
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			} finally {
+				long end = System.nanoTime();
+				recorder.handled(end - next.queuedNanos, end - start, failed);
+				next.finish();
+			}
+		}
+	}
+
+	/**
+	 * Skips every event still queued, so later events ordered across observers do not wait on
+	 * this one, and lets the thread end; an event being handled is finished first
+	 */
+	void close() {
+		synchronized (this) {
+			closed = true;
+			Delivery skipped;
+			while ((skipped = queue.pollFirst()) != null) skipped.finish();
+			notifyAll();
+		}
+		executor.shutdown();
+	}
+}
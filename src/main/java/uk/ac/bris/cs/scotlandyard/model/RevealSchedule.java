@@ -0,0 +1,112 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A compact, precomputed view of {@link GameSetup#moves}.
+ * <br>
+ * Rounds are zero based and correspond to the size of MrX's travel log at the time he makes the
+ * move, i.e round {@code i} is revealed iff {@code setup.moves.get(i)} is true. The schedule is
+ * held as a bitset together with next and previous reveal tables so that timing queries such as
+ * {@link #roundsUntilReveal(int)} are constant time.
+ */
+public final class RevealSchedule {
+
+	/**
+	 * Returned by {@link #nextReveal(int)} and {@link #previousReveal(int)} when there is no
+	 * such reveal round
+	 */
+	public static final int NONE = -1;
+
+	private final int rounds;
+	private final long[] bits;
+	private final int[] next;
+	private final int[] previous;
+
+	/**
+	 * @param moves the reveal moves; false is hidden, true is reveal
+	 */
+	public RevealSchedule(@Nonnull List<Boolean> moves) {
+		this.rounds = moves.size();
+		this.bits = new long[(rounds + 63) >>> 6];
+		for (int i = 0; i < rounds; i++) {
+			if (Objects.requireNonNull(moves.get(i))) bits[i >>> 6] |= 1L << i;
+		}
+		this.next = new int[rounds + 1];
+		this.previous = new int[rounds + 1];
+		next[rounds] = NONE;
+		for (int i = rounds - 1; i >= 0; i--) next[i] = isReveal(i) ? i : next[i + 1];
+		int last = NONE;
+		for (int i = 0; i <= rounds; i++) {
+			if (i < rounds && isReveal(i)) last = i;
+			previous[i] = last;
+		}
+	}
+
+	/**
+	 * @return the total number of rounds (MrX moves) in the game
+	 */
+	public int rounds() { return rounds; }
+
+	/**
+	 * @param round the zero based round
+	 * @return whether MrX's location is revealed in the given round
+	 */
+	public boolean isReveal(int round) {
+		return round >= 0 && round < rounds && (bits[round >>> 6] & (1L << round)) != 0;
+	}
+
+	/**
+	 * @param round the zero based round, from 0 to {@link #rounds()} inclusive
+	 * @return the first reveal round at or after the given round; {@link #NONE} if there is none
+	 */
+	public int nextReveal(int round) { return next[checkRound(round)]; }
+
+	/**
+	 * @param round the zero based round, from 0 to {@link #rounds()} inclusive
+	 * @return the last reveal round at or before the given round; {@link #NONE} if there is none
+	 */
+	public int previousReveal(int round) { return previous[checkRound(round)]; }
+
+	/**
+	 * @param round the zero based round, from 0 to {@link #rounds()} inclusive
+	 * @return the number of rounds from the given round until the next reveal, 0 if the given
+	 * round is a reveal; {@link #NONE} if there are no more reveals
+	 */
+	public int roundsUntilReveal(int round) {
+		int reveal = nextReveal(round);
+		return reveal == NONE ? NONE : reveal - round;
+	}
+
+	/**
+	 * @param round the zero based round, from 0 to {@link #rounds()} inclusive
+	 * @return the number of rounds left in the game before the given round is played
+	 */
+	public int roundsLeft(int round) { return rounds - checkRound(round); }
+
+	/**
+	 * @return a copy of the schedule as a bitset, bit {@code i} set iff round {@code i} is a reveal
+	 */
+	@Nonnull public long[] toBits() { return bits.clone(); }
+
+	private int checkRound(int round) {
+		return Objects.checkIndex(round, rounds + 1);
+	}
+
+	@Override public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		RevealSchedule that = (RevealSchedule) o;
+		return rounds == that.rounds && Arrays.equals(bits, that.bits);
+	}
+	@Override public int hashCode() { return 31 * rounds + Arrays.hashCode(bits); }
+	@Override public String toString() {
+		StringBuilder builder = new StringBuilder(rounds);
+		for (int i = 0; i < rounds; i++) builder.append(isReveal(i) ? 'R' : '.');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,356 @@
+package uk.ac.bris.cs.scotlandyard.remote;
+
+import com.google.common.hash.HashCode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.AiInvoker;
+import uk.ac.bris.cs.scotlandyard.AiLoader;
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.GameSetupRegistry;
+
+/**
+ * Runs AIs for {@link AiHostClient}s, usually in a process of its own so an AI's heap, garbage
+ * collection and crashes stay out of the game's; see {@link Wire} for the protocol.
+ * <br>
+ * Every connection has AIs of its own. Lifecycle calls are made in the order they arrive, on
+ * the thread reading the connection, while moves are picked through an {@link AiInvoker}, which
+ * holds the AI to the deadline sent with the request, so any number of requests can be in
+ * flight on one connection and are answered as they finish. Lifecycle calls that throw are
+ * answered with an error the client does not wait for; they are only reported.
+ * <br>
+ * Run it with {@code --uds <path>} or {@code --tcp <port>} on the loopback address, and
+ * {@code --once true} to serve a single connection and exit, as
+ * {@link AiHostClient#launch AiHostClient.launch} does.
+ */
+public final class AiHost {
+
+	/**
+	 * Accepts connections until closed
+	 */
+	public final class Server implements Closeable {
+		private final ServerSocketChannel channel;
+		private final SocketAddress address;
+
+		private Server(ServerSocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.address = channel.getLocalAddress();
+		}
+
+		/**
+		 * @return the address clients connect to, with the port chosen if 0 was asked for
+		 */
+		@Nonnull public SocketAddress address() { return address; }
+
+		private void accept() {
+			try {
+				while (true) {
+					SocketChannel connection = channel.accept();
+					var thread = new Thread(() -> {
+						try (connection) {
+							serve(connection);
+						} catch (IOException e) {
+							report(new UncheckedIOException("AI host connection failed", e));
+						}
+					}, "ai-host-" + connections.incrementAndGet());
+					thread.setDaemon(true);
+					thread.start();
+				}
+			} catch (ClosedChannelException e) {
+				// closed
+			} catch (IOException e) {
+				report(new UncheckedIOException("AI host stopped accepting", e));
+			}
+		}
+
+		@Override public void close() throws IOException {
+			channel.close();
+			if (address instanceof UnixDomainSocketAddress)
+				Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+		}
+	}
+
+	private final AiScheduler scheduler;
+	private final AiMetrics metrics = new AiMetrics();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * @param scheduler where the AIs run
+	 */
+	public AiHost(@Nonnull AiScheduler scheduler) {
+		this.scheduler = Objects.requireNonNull(scheduler);
+	}
+
+	/**
+	 * A host running its AIs on the {@link AiScheduler#shared() shared} scheduler
+	 */
+	public AiHost() { this(AiScheduler.shared()); }
+
+	/**
+	 * @return the metrics of every move picked by this host, as measured inside it
+	 */
+	@Nonnull public AiMetrics metrics() { return metrics; }
+
+	// where an uncaught exception of the thread would end up, without ending it
+	private static void report(Throwable e) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+
+	/**
+	 * Listens for connections, each served on a thread of its own.
+	 *
+	 * @param address a {@link UnixDomainSocketAddress} or an {@link InetSocketAddress}
+	 * @return the server
+	 * @throws IOException if the address cannot be bound
+	 */
+	@Nonnull public Server listen(@Nonnull SocketAddress address) throws IOException {
+		var channel = address instanceof UnixDomainSocketAddress
+				? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+				: ServerSocketChannel.open();
+		channel.bind(address);
+		var server = new Server(channel);
+		var thread = new Thread(server::accept, "ai-host-accept");
+		thread.setDaemon(true);
+		thread.start();
+		return server;
+	}
+
+	/**
+	 * Serves one socket connection until the client closes it
+	 *
+	 * @param connection the connection
+	 * @throws IOException if the connection fails
+	 */
+	public void serve(@Nonnull SocketChannel connection) throws IOException {
+		if (!(connection.getRemoteAddress() instanceof UnixDomainSocketAddress))
+			connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		serve(connection, connection);
+	}
+
+	/**
+	 * Serves one connection until the client closes it
+	 *
+	 * @param in what the client sends
+	 * @param out where the replies go
+	 * @throws IOException if the connection fails
+	 */
+	public void serve(@Nonnull ReadableByteChannel in, @Nonnull WritableByteChannel out)
+			throws IOException {
+		var connection = new Connection(new Wire.Writer(out), new AiInvoker(
+				scheduler.lane("ai-host-" + connections.incrementAndGet(),
+						AiScheduler.Kind.CPU, Math.max(2, scheduler.platformThreads())),
+				metrics));
+		try {
+			var reader = new Wire.Reader(in);
+			Wire.Frame frame;
+			while ((frame = reader.read()) != null) connection.handle(frame);
+		} finally {
+			connection.invoker.close();
+		}
+	}
+
+	private static final class Connection {
+		private final Wire.Writer writer;
+		private final AiInvoker invoker;
+		// only touched by the thread reading the connection
+		private final Map<Long, Ai> ais = new HashMap<>();
+		private final Map<HashCode, GameSetup> setups = new HashMap<>();
+		// what a cancel of a request in flight does
+		private final ConcurrentMap<Long, Runnable> running = new ConcurrentHashMap<>();
+
+		Connection(Wire.Writer writer, AiInvoker invoker) {
+			this.writer = writer;
+			this.invoker = invoker;
+		}
+
+		void handle(Wire.Frame frame) throws IOException {
+			try {
+				switch (frame.type) {
+					case Wire.SETUP: {
+						HashCode fingerprint = Wire.readFingerprint(frame.body);
+						var setup = GameSetupRegistry.shared().intern(Wire.readSetup(frame.body));
+						if (!setup.fingerprint().equals(fingerprint))
+							throw new IllegalArgumentException("Setup does not match " + fingerprint);
+						setups.put(fingerprint, setup);
+						break;
+					}
+					case Wire.CREATE: create(frame.id, frame.body.readUTF()); break;
+					case Wire.START: ai(frame.id).onStart(); break;
+					case Wire.PICK: pick(frame); break;
+					case Wire.PONDER: ponder(frame); break;
+					case Wire.CANCEL: {
+						Runnable cancel = running.remove(frame.id);
+						if (cancel != null) cancel.run();
+						break;
+					}
+					case Wire.MOVE_MADE: {
+						Board board = Wire.readBoard(frame.body, setups::get);
+						ai(frame.id).onMoveMade(board, Wire.readMove(frame.body));
+						break;
+					}
+					case Wire.TERMINATE: {
+						Ai ai = ai(frame.id);
+						ais.remove(frame.id);
+						ai.onTerminate();
+						break;
+					}
+					default: throw new IllegalArgumentException("Unknown frame type " + frame.type);
+				}
+			} catch (IOException | RuntimeException | LinkageError e) {
+				if (frame.type != Wire.PICK && frame.type != Wire.CREATE)
+					report(new IllegalStateException("AI host failed on frame " + frame.type, e));
+				reply(frame.id, Wire.ERROR, e.toString());
+			}
+		}
+
+		private Ai ai(long id) {
+			Ai ai = ais.get(id);
+			if (ai == null) throw new IllegalArgumentException("No AI " + id);
+			return ai;
+		}
+
+		private void create(long id, String className) {
+			Class<?> cls;
+			try {
+				// not initialised until it is known to be an AI
+				cls = Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("No AI class " + className, e);
+			}
+			if (!Ai.class.isAssignableFrom(cls))
+				throw new IllegalArgumentException(className + " does not implement " + Ai.class);
+			Ai ai = AiLoader.instantiate(cls.asSubclass(Ai.class));
+			ais.put(id, ai);
+			reply(id, Wire.NAME, ai.name());
+		}
+
+		private void pick(Wire.Frame frame) throws IOException {
+			Ai ai = ai(frame.body.readLong());
+			long soft = Math.max(0, frame.body.readLong());
+			long hard = Math.max(soft, frame.body.readLong());
+			Board board = Wire.readBoard(frame.body, setups::get);
+			long now = System.nanoTime();
+			var call = invoker.invoke(ai, board, new AiDeadline(now, now + soft, now + hard));
+			running.put(frame.id, call::cancel);
+			call.result().thenAccept(result -> {
+				running.remove(frame.id);
+				switch (result.outcome()) {
+					case MOVE:
+					case BEST_SO_FAR:
+						reply(frame.id, Wire.MOVE, out -> Wire.writeMove(out, result.move().get()));
+						break;
+					case TIMEOUT: reply(frame.id, Wire.TIMEOUT, out -> {}); break;
+					default:
+						reply(frame.id, Wire.ERROR, result.error().map(Throwable::toString)
+								.orElse(result.outcome().toString()));
+				}
+			});
+		}
+
+		private void ponder(Wire.Frame frame) throws IOException {
+			Ai ai = ai(frame.body.readLong());
+			long limit = Math.max(0, frame.body.readLong());
+			Board board = Wire.readBoard(frame.body, setups::get);
+			var pondering = invoker.ponder(ai, board, Duration.ofNanos(limit));
+			// stopping waits for the AI, which must not hold up the connection
+			running.put(frame.id, () -> CompletableFuture.runAsync(() -> {
+				pondering.stop();
+				reply(frame.id, Wire.DONE, out -> {});
+			}));
+		}
+
+		private void reply(long id, byte status, String text) {
+			reply(id, status, out -> out.writeUTF(text));
+		}
+
+		private void reply(long id, byte status, Wire.Body body) {
+			try {
+				writer.write(Wire.REPLY, id, out -> {
+					out.writeByte(status);
+					body.write(out);
+				});
+			} catch (IOException e) {
+				// the client is gone, the reading thread finds out and cleans up
+			}
+		}
+	}
+
+	/**
+	 * @param args {@code --uds <path>} or {@code --tcp <port>}, and optionally
+	 * {@code --once true}
+	 * @throws IOException if the address cannot be bound or the connection fails
+	 */
+	public static void main(String[] args) throws IOException {
+		SocketAddress address = null;
+		boolean once = false;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--uds": address = UnixDomainSocketAddress.of(Paths.get(value)); break;
+				case "--tcp":
+					address = new InetSocketAddress("127.0.0.1", Integer.parseInt(value));
+					break;
+				case "--once": once = Boolean.parseBoolean(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (address == null) throw new IllegalArgumentException("Need --uds or --tcp");
+		var host = new AiHost();
+		if (!once) {
+			host.listen(address);
+			// serves on daemon threads until killed
+			while (true) {
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+		// a launched host must not outlive its game, even before it has connected
+		ProcessHandle.current().parent().ifPresent(parent ->
+				parent.onExit().thenRun(() -> System.exit(1)));
+		try (var channel = address instanceof UnixDomainSocketAddress
+				? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+				: ServerSocketChannel.open()) {
+			channel.bind(address);
+			try (SocketChannel connection = channel.accept()) {
+				host.serve(connection);
+			}
+		} finally {
+			if (address instanceof UnixDomainSocketAddress)
+				Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,328 @@
+package uk.ac.bris.cs.scotlandyard.remote;
+
+import com.google.common.hash.HashCode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * A connection to an {@link AiHost}, through which {@link RemoteAi}s are created and called.
+ * <br>
+ * Requests are written as they are made and replies matched to them by id on a thread of the
+ * client's own, so one connection carries any number of calls at once, from any number of games.
+ * A host can be connected to over a socket, run as a separate JVM per client with
+ * {@link #launch}, which is what keeps one AI's heap apart from everything else, or stood in
+ * for by a host on pipes in the same process with {@link #inProcess()}, which needs no network.
+ */
+public final class AiHostClient implements AutoCloseable {
+
+	// how long a launched host may take to accept the connection, and a host to create an AI
+	private static final long LAUNCH_NANOS = TimeUnit.SECONDS.toNanos(30);
+	private static final long CREATE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * What the host answered
+	 */
+	static final class Reply {
+		final byte status;
+		final Move move;
+		final String text;
+
+		Reply(byte status, Move move, String text) {
+			this.status = status;
+			this.move = move;
+			this.text = text;
+		}
+	}
+
+	private final Wire.Writer writer;
+	private final Closeable resources;
+	private final AtomicLong ids = new AtomicLong();
+	private final ConcurrentMap<Long, CompletableFuture<Reply>> pending =
+			new ConcurrentHashMap<>();
+	private final Set<HashCode> setups = ConcurrentHashMap.newKeySet();
+	private volatile IOException broken;
+
+	private AiHostClient(ReadableByteChannel in, WritableByteChannel out, Closeable resources) {
+		this.writer = new Wire.Writer(out);
+		this.resources = resources;
+		var reader = new Thread(() -> {
+			try (in) {
+				read(new Wire.Reader(in));
+			} catch (IOException e) {
+				// the connection is over either way
+			}
+		}, "ai-host-client");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * @param address a {@link UnixDomainSocketAddress} or an {@link InetSocketAddress} of a host
+	 * {@link AiHost#listen listening}
+	 * @return the client
+	 * @throws IOException if the host cannot be reached
+	 */
+	@Nonnull public static AiHostClient connect(@Nonnull SocketAddress address)
+			throws IOException {
+		return of(SocketChannel.open(address), () -> {});
+	}
+
+	private static AiHostClient of(SocketChannel channel, Closeable then) {
+		try {
+			if (!(channel.getRemoteAddress() instanceof UnixDomainSocketAddress))
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		} catch (IOException e) {
+			// no worse than Nagle's delay
+		}
+		return new AiHostClient(channel, channel, () -> {
+			try (then) {
+				channel.close();
+			}
+		});
+	}
+
+	/**
+	 * @return a client of a host serving it on pipes in this process; the AIs share this JVM but
+	 * not its {@link AiScheduler#shared() shared} scheduler, whose threads may all be callers
+	 * waiting for the host
+	 */
+	@Nonnull public static AiHostClient inProcess() {
+		try {
+			Pipe requests = Pipe.open(), replies = Pipe.open();
+			var host = new Thread(() -> {
+				var scheduler = new AiScheduler(Runtime.getRuntime().availableProcessors());
+				try (scheduler; var in = requests.source(); var out = replies.sink()) {
+					new AiHost(scheduler).serve(in, out);
+				} catch (IOException e) {
+					// the client closed its end
+				}
+			}, "ai-host-in-process");
+			host.setDaemon(true);
+			host.start();
+			return new AiHostClient(replies.source(), requests.sink(), () -> {
+				// the host sees the end of the requests and closes the replies in turn
+				requests.sink().close();
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Starts a host in a JVM of its own, with this process's classpath, and connects to it over
+	 * a Unix domain socket. The host exits once the client is closed or this process ends.
+	 *
+	 * @param jvmOptions options for the host JVM, such as {@code -Xmx512m}
+	 * @return the client
+	 * @throws IOException if the host cannot be started or does not accept the connection in time
+	 */
+	@Nonnull public static AiHostClient launch(@Nonnull List<String> jvmOptions)
+			throws IOException {
+		Path directory = Files.createTempDirectory("ai-host");
+		Path socket = directory.resolve("host.sock");
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(AiHost.class.getName());
+		command.addAll(List.of("--uds", socket.toString(), "--once", "true"));
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		Closeable cleanUp = () -> {
+			try {
+				if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			} finally {
+				Files.deleteIfExists(socket);
+				Files.deleteIfExists(directory);
+			}
+		};
+		long until = System.nanoTime() + LAUNCH_NANOS;
+		try {
+			while (true) {
+				if (!process.isAlive())
+					throw new IOException("AI host exited with " + process.exitValue());
+				if (Files.exists(socket)) {
+					var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+					try {
+						channel.connect(UnixDomainSocketAddress.of(socket));
+						return of(channel, cleanUp);
+					} catch (IOException e) {
+						// bound but not accepting yet
+						channel.close();
+					}
+				}
+				if (System.nanoTime() - until > 0) throw new IOException("AI host did not start");
+				Thread.sleep(10);
+			}
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			cleanUp.close();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while launching the AI host");
+		} catch (IOException e) {
+			process.destroyForcibly();
+			cleanUp.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates an AI in the host.
+	 *
+	 * @param className the class of the AI, which the host must have on its classpath
+	 * @return the AI
+	 * @throws IllegalArgumentException if the host could not create it
+	 * @throws UncheckedIOException if the connection failed
+	 */
+	@Nonnull public RemoteAi ai(@Nonnull String className) {
+		long id = nextId();
+		var reply = request(Wire.CREATE, id, out -> out.writeUTF(className));
+		try {
+			Reply created = reply.get(CREATE_NANOS, TimeUnit.NANOSECONDS);
+			if (created.status != Wire.NAME) throw new IllegalArgumentException(
+					"Host could not create " + className + ": " + created.text);
+			return new RemoteAi(this, id, created.text);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while creating " + className, e);
+		} catch (ExecutionException e) {
+			throw new UncheckedIOException((IOException) e.getCause());
+		} catch (TimeoutException e) {
+			throw new UncheckedIOException(new IOException("Host did not create " + className));
+		}
+	}
+
+	/**
+	 * @return the number of requests waiting for a reply
+	 */
+	public int pending() { return pending.size(); }
+
+	long nextId() { return ids.incrementAndGet(); }
+
+	/**
+	 * Sends a setup unless it has been sent already, so boards on it can refer to it
+	 */
+	void setup(GameSetup setup) {
+		HashCode fingerprint = setup.fingerprint();
+		if (setups.contains(fingerprint)) return;
+		// whoever sends boards on the setup must wait until it has gone out
+		synchronized (setups) {
+			if (setups.contains(fingerprint)) return;
+			send(Wire.SETUP, 0, out -> {
+				Wire.writeFingerprint(out, fingerprint);
+				Wire.writeSetup(out, setup);
+			});
+			setups.add(fingerprint);
+		}
+	}
+
+	/**
+	 * Sends a frame no reply is expected to
+	 *
+	 * @throws UncheckedIOException if the connection failed
+	 */
+	void send(byte type, long id, Wire.Body body) {
+		IOException failed = broken;
+		if (failed != null) throw new UncheckedIOException(failed);
+		try {
+			writer.write(type, id, body);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Sends a frame and returns its reply, which fails with an {@link IOException} if the
+	 * connection does
+	 */
+	CompletableFuture<Reply> request(byte type, long id, Wire.Body body) {
+		var reply = new CompletableFuture<Reply>();
+		pending.put(id, reply);
+		try {
+			IOException failed = broken;
+			if (failed != null) throw failed;
+			writer.write(type, id, body);
+		} catch (IOException e) {
+			pending.remove(id);
+			reply.completeExceptionally(e);
+		}
+		// the connection may have failed before the request was registered
+		if (broken != null && pending.remove(id) != null) reply.completeExceptionally(broken);
+		return reply;
+	}
+
+	private void read(Wire.Reader reader) {
+		IOException failed;
+		try {
+			Wire.Frame frame;
+			while ((frame = reader.read()) != null) {
+				if (frame.type != Wire.REPLY) throw new IOException("Unexpected frame " + frame.type);
+				byte status = frame.body.readByte();
+				Reply reply;
+				switch (status) {
+					case Wire.MOVE: reply = new Reply(status, Wire.readMove(frame.body), null); break;
+					case Wire.ERROR:
+					case Wire.NAME: reply = new Reply(status, null, frame.body.readUTF()); break;
+					default: reply = new Reply(status, null, null);
+				}
+				// replies to requests given up on are dropped
+				var waiting = pending.remove(frame.id);
+				if (waiting != null) waiting.complete(reply);
+			}
+			failed = new EOFException("AI host closed the connection");
+		} catch (IOException e) {
+			failed = e;
+		}
+		broken = failed;
+		for (Long id : List.copyOf(pending.keySet())) {
+			var waiting = pending.remove(id);
+			if (waiting != null) waiting.completeExceptionally(failed);
+		}
+	}
+
+	/**
+	 * Closes the connection; a launched host exits
+	 */
+	@Override public void close() {
+		try {
+			resources.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package uk.ac.bris.cs.scotlandyard.remote;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.AiInvoker;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * An AI running in an {@link AiHost}, created by {@link AiHostClient#ai}. It stands in for the
+ * AI in every way, so games and {@link AiInvoker}s use it like any other.
+ * <br>
+ * The host holds the AI to the soft and hard limits of every move itself and answers with the
+ * best move offered by the soft limit if there is one. The hard limit it is sent is a little
+ * earlier than the real one, so the answer is back in time. A move no longer wanted, because
+ * the caller gave up or interrupted, is cancelled in the host too.
+ */
+public final class RemoteAi implements Ai {
+
+	// taken off the hard limit sent to the host, for the round trip
+	private static final long MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+	// how often a pondering AI checks whether it should stop
+	private static final long PONDER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final AiHostClient client;
+	private final long id;
+	private final String name;
+
+	RemoteAi(AiHostClient client, long id, String name) {
+		this.client = client;
+		this.id = id;
+		this.name = name;
+	}
+
+	@Nonnull @Override public String name() { return name; }
+
+	@Override public void onStart() { client.send(Wire.START, id, out -> {}); }
+
+	@Nonnull @Override public Move pickMove(@Nonnull Board board,
+	                                        Pair<Long, TimeUnit> timeoutPair) {
+		return pickMove(board, AiDeadline.within(timeoutPair));
+	}
+
+	@Nonnull @Override public Move pickMove(@Nonnull Board board,
+	                                        @Nonnull AiDeadline deadline) {
+		client.setup(board.getSetup());
+		long request = client.nextId();
+		long hard = Math.max(0, deadline.remainingHardNanos());
+		long soft = Math.max(0, Math.min(hard, deadline.remainingSoftNanos()));
+		var reply = client.request(Wire.PICK, request, out -> {
+			out.writeLong(id);
+			out.writeLong(soft);
+			out.writeLong(hard - Math.min(MARGIN_NANOS, (hard - soft) / 2));
+			Wire.writeBoard(out, board);
+		});
+		AiHostClient.Reply answer;
+		try {
+			// callers interrupt at the hard limit; the extra time only matters to those that do not
+			answer = reply.get(hard + AiInvoker.GRACE.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException | TimeoutException e) {
+			client.send(Wire.CANCEL, request, out -> {});
+			if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+			throw new CancellationException("Move no longer wanted");
+		} catch (ExecutionException e) {
+			throw new UncheckedIOException((IOException) e.getCause());
+		}
+		switch (answer.status) {
+			case Wire.MOVE: return answer.move;
+			case Wire.TIMEOUT:
+				// the host gave up just before the caller will, which interrupts once it has
+				long until = deadline.hardNanos() + AiInvoker.GRACE.toNanos();
+				while (!Thread.currentThread().isInterrupted() && until - System.nanoTime() > 0)
+					LockSupport.parkNanos(until - System.nanoTime());
+				throw new CancellationException("Ai(" + name + ") did not move in time");
+			default: throw new IllegalStateException("Ai(" + name + ") failed: " + answer.text);
+		}
+	}
+
+	@Override public void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+		client.setup(board.getSetup());
+		long request = client.nextId();
+		var done = client.request(Wire.PONDER, request, out -> {
+			out.writeLong(id);
+			out.writeLong(Math.max(0, deadline.remainingHardNanos()));
+			Wire.writeBoard(out, board);
+		});
+		while (!deadline.shouldStop()) LockSupport.parkNanos(PONDER_POLL_NANOS);
+		client.send(Wire.CANCEL, request, out -> {});
+		try {
+			done.get(AiInvoker.GRACE.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			// pondering is only ever a head start
+		}
+	}
+
+	@Override public void onMoveMade(@Nonnull Board board, @Nonnull Move move) {
+		client.setup(board.getSetup());
+		client.send(Wire.MOVE_MADE, id, out -> {
+			Wire.writeBoard(out, board);
+			Wire.writeMove(out, move);
+		});
+	}
+
+	@Override public void onTerminate() { client.send(Wire.TERMINATE, id, out -> {}); }
+
+	@Override public String toString() { return "RemoteAi(" + name + ")"; }
+}
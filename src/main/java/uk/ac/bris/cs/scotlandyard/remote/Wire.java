@@ -0,0 +1,367 @@
+package uk.ac.bris.cs.scotlandyard.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.EndpointPair;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+import com.google.common.hash.HashCode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * The protocol between {@link AiHostClient} and {@link AiHost}.
+ * <br>
+ * Every frame is a big endian {@code int} length followed by that many bytes: a type byte, a
+ * {@code long} id and the body. Client frames are {@link #SETUP}, {@link #CREATE},
+ * {@link #START}, {@link #PICK}, {@link #PONDER}, {@link #CANCEL}, {@link #MOVE_MADE} and
+ * {@link #TERMINATE}; the host only sends {@link #REPLY}, with the id of the request and a status
+ * byte. Ids of AIs and of requests come from the same counter, so a reply is never ambiguous.
+ * <br>
+ * Boards are sent as snapshots of everything {@link Board} exposes, except the setup, which is
+ * sent once per connection and then referred to by its {@link GameSetup#fingerprint()}.
+ */
+final class Wire {
+
+	/** The body is a fingerprint and a setup; no reply */
+	static final byte SETUP = 1;
+	/** The id is the new AI's and the body its class name; replies {@link #NAME} */
+	static final byte CREATE = 2;
+	/** The id is the AI's; no reply */
+	static final byte START = 3;
+	/** The body is the AI's id, the soft and hard limits in nanoseconds from now and a board */
+	static final byte PICK = 4;
+	/** The body is the AI's id, the limit in nanoseconds from now and a board */
+	static final byte PONDER = 5;
+	/** The id is the request's; replies {@link #DONE} for a pondering */
+	static final byte CANCEL = 6;
+	/** The id is the AI's and the body a board and a move; no reply */
+	static final byte MOVE_MADE = 7;
+	/** The id is the AI's; no reply */
+	static final byte TERMINATE = 8;
+	/** The id is the request's, the body a status and what goes with it */
+	static final byte REPLY = 16;
+
+	/** Followed by a move */
+	static final byte MOVE = 0;
+	/** The AI did not move in time */
+	static final byte TIMEOUT = 1;
+	/** Followed by a description of what went wrong */
+	static final byte ERROR = 2;
+	/** Followed by the AI's name */
+	static final byte NAME = 3;
+	/** A pondering has stopped */
+	static final byte DONE = 4;
+
+	// more than a setup of the standard map by three orders of magnitude
+	private static final int MAX_FRAME = 64 << 20;
+
+	private Wire() {}
+
+	/**
+	 * A frame as read
+	 */
+	static final class Frame {
+		final byte type;
+		final long id;
+		final DataInputStream body;
+
+		Frame(byte type, long id, DataInputStream body) {
+			this.type = type;
+			this.id = id;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Writes the body of a frame
+	 */
+	interface Body {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Reads frames from one thread
+	 */
+	static final class Reader {
+		private final ReadableByteChannel in;
+		private final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+
+		Reader(ReadableByteChannel in) { this.in = in; }
+
+		/**
+		 * @return the next frame, or null once the channel has ended between frames
+		 * @throws IOException if the channel fails or ends inside a frame
+		 */
+		Frame read() throws IOException {
+			length.clear();
+			if (!fill(length, true)) return null;
+			int size = length.flip().getInt();
+			if (size < 1 + Long.BYTES || size > MAX_FRAME)
+				throw new IOException("Bad frame length " + size);
+			var frame = ByteBuffer.allocate(size);
+			fill(frame, false);
+			var body = new DataInputStream(new ByteArrayInputStream(frame.array()));
+			return new Frame(body.readByte(), body.readLong(), body);
+		}
+
+		private boolean fill(ByteBuffer buffer, boolean mayEnd) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (in.read(buffer) >= 0) continue;
+				if (mayEnd && buffer.position() == 0) return false;
+				throw new EOFException("Channel ended inside a frame");
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes whole frames from any number of threads
+	 */
+	static final class Writer {
+		private final WritableByteChannel out;
+
+		Writer(WritableByteChannel out) { this.out = out; }
+
+		void write(byte type, long id, Body body) throws IOException {
+			var bytes = new ByteArrayOutputStream(64);
+			var data = new DataOutputStream(bytes);
+			data.writeInt(0);
+			data.writeByte(type);
+			data.writeLong(id);
+			body.write(data);
+			data.flush();
+			var frame = ByteBuffer.wrap(bytes.toByteArray());
+			frame.putInt(0, frame.limit() - Integer.BYTES);
+			synchronized (this) {
+				while (frame.hasRemaining()) out.write(frame);
+			}
+		}
+	}
+
+	static void writeFingerprint(DataOutput out, HashCode fingerprint) throws IOException {
+		byte[] bytes = fingerprint.asBytes();
+		out.writeByte(bytes.length);
+		out.write(bytes);
+	}
+
+	static HashCode readFingerprint(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedByte()];
+		in.readFully(bytes);
+		return HashCode.fromBytes(bytes);
+	}
+
+	static void writeSetup(DataOutput out, GameSetup setup) throws IOException {
+		var graph = setup.graph;
+		out.writeInt(graph.nodes().size());
+		for (int node : graph.nodes()) out.writeInt(node);
+		out.writeInt(graph.edges().size());
+		for (EndpointPair<Integer> edge : graph.edges()) {
+			out.writeInt(edge.nodeU());
+			out.writeInt(edge.nodeV());
+			int transports = 0;
+			for (Transport t : graph.edgeValueOrDefault(edge, ImmutableSet.of()))
+				transports |= 1 << t.ordinal();
+			out.writeByte(transports);
+		}
+		out.writeInt(setup.moves.size());
+		for (boolean reveal : setup.moves) out.writeBoolean(reveal);
+	}
+
+	static GameSetup readSetup(DataInput in) throws IOException {
+		int nodes = in.readInt();
+		MutableValueGraph<Integer, ImmutableSet<Transport>> graph =
+				ValueGraphBuilder.undirected().expectedNodeCount(nodes).build();
+		for (int i = 0; i < nodes; i++) graph.addNode(in.readInt());
+		int edges = in.readInt();
+		for (int i = 0; i < edges; i++) {
+			int u = in.readInt(), v = in.readInt(), transports = in.readUnsignedByte();
+			var set = EnumSet.noneOf(Transport.class);
+			for (Transport t : Transport.values())
+				if ((transports & 1 << t.ordinal()) != 0) set.add(t);
+			graph.putEdgeValue(u, v, ImmutableSet.copyOf(set));
+		}
+		var moves = ImmutableList.<Boolean>builder();
+		for (int i = in.readInt(); i > 0; i--) moves.add(in.readBoolean());
+		return new GameSetup(ImmutableValueGraph.copyOf(graph), moves.build());
+	}
+
+	static void writePiece(DataOutput out, Piece piece) throws IOException {
+		out.writeByte(piece.isMrX() ? 0 : ((Piece.Detective) piece).ordinal() + 1);
+	}
+
+	static Piece readPiece(DataInput in) throws IOException {
+		int piece = in.readUnsignedByte();
+		if (piece == 0) return Piece.MrX.MRX;
+		if (piece > Piece.Detective.values().length) throw new IOException("Bad piece " + piece);
+		return Piece.Detective.values()[piece - 1];
+	}
+
+	private static Ticket readTicket(DataInput in) throws IOException {
+		int ticket = in.readUnsignedByte();
+		if (ticket >= Ticket.values().length) throw new IOException("Bad ticket " + ticket);
+		return Ticket.values()[ticket];
+	}
+
+	static void writeMove(DataOutput out, Move move) throws IOException {
+		if (move instanceof Move.SingleMove) {
+			var single = (Move.SingleMove) move;
+			out.writeByte(0);
+			writePiece(out, single.commencedBy());
+			out.writeInt(single.source());
+			out.writeByte(single.ticket.ordinal());
+			out.writeInt(single.destination);
+		} else {
+			var twice = (Move.DoubleMove) move;
+			out.writeByte(1);
+			writePiece(out, twice.commencedBy());
+			out.writeInt(twice.source());
+			out.writeByte(twice.ticket1.ordinal());
+			out.writeInt(twice.destination1);
+			out.writeByte(twice.ticket2.ordinal());
+			out.writeInt(twice.destination2);
+		}
+	}
+
+	static Move readMove(DataInput in) throws IOException {
+		boolean twice = in.readBoolean();
+		Piece piece = readPiece(in);
+		int source = in.readInt();
+		Ticket ticket = readTicket(in);
+		int destination = in.readInt();
+		if (!twice) return new Move.SingleMove(piece, source, ticket, destination);
+		Ticket ticket2 = readTicket(in);
+		return new Move.DoubleMove(piece, source, ticket, destination, ticket2, in.readInt());
+	}
+
+	/**
+	 * Writes everything but the setup, which the reader has to know by its fingerprint
+	 */
+	static void writeBoard(DataOutput out, Board board) throws IOException {
+		writeFingerprint(out, board.getSetup().fingerprint());
+		var players = board.getPlayers();
+		out.writeByte(players.size());
+		for (Piece piece : players) {
+			writePiece(out, piece);
+			out.writeInt(piece.isDetective()
+					? board.getDetectiveLocation((Piece.Detective) piece).orElse(-1) : -1);
+			var tickets = board.getPlayerTickets(piece).orElseThrow();
+			for (Ticket ticket : Ticket.values()) out.writeInt(tickets.getCount(ticket));
+		}
+		var log = board.getMrXTravelLog();
+		out.writeInt(log.size());
+		for (LogEntry entry : log) {
+			out.writeByte(entry.ticket().ordinal());
+			out.writeInt(entry.location().orElse(-1));
+		}
+		var winner = board.getWinner();
+		out.writeByte(winner.size());
+		for (Piece piece : winner) writePiece(out, piece);
+		var moves = board.getAvailableMoves();
+		out.writeInt(moves.size());
+		for (Move move : moves) writeMove(out, move);
+	}
+
+	/**
+	 * @param setups the setups sent so far, by fingerprint
+	 */
+	static Board readBoard(DataInput in, Function<HashCode, GameSetup> setups)
+			throws IOException {
+		HashCode fingerprint = readFingerprint(in);
+		GameSetup setup = setups.apply(fingerprint);
+		if (setup == null) throw new IOException("Setup " + fingerprint + " was never sent");
+		var players = ImmutableSet.<Piece>builder();
+		var locations = ImmutableMap.<Piece.Detective, Integer>builder();
+		var tickets = ImmutableMap.<Piece, ImmutableMap<Ticket, Integer>>builder();
+		for (int i = in.readUnsignedByte(); i > 0; i--) {
+			Piece piece = readPiece(in);
+			players.add(piece);
+			int location = in.readInt();
+			if (piece.isDetective() && location >= 0)
+				locations.put((Piece.Detective) piece, location);
+			var counts = ImmutableMap.<Ticket, Integer>builder();
+			for (Ticket ticket : Ticket.values()) counts.put(ticket, in.readInt());
+			tickets.put(piece, counts.build());
+		}
+		var log = ImmutableList.<LogEntry>builder();
+		for (int i = in.readInt(); i > 0; i--) {
+			Ticket ticket = readTicket(in);
+			int location = in.readInt();
+			log.add(location < 0 ? LogEntry.hidden(ticket) : LogEntry.reveal(ticket, location));
+		}
+		var winner = ImmutableSet.<Piece>builder();
+		for (int i = in.readUnsignedByte(); i > 0; i--) winner.add(readPiece(in));
+		var moves = ImmutableSet.<Move>builder();
+		for (int i = in.readInt(); i > 0; i--) moves.add(readMove(in));
+		return new SnapshotBoard(setup, players.build(), locations.build(), tickets.build(),
+				log.build(), winner.build(), moves.build());
+	}
+
+	/**
+	 * A board read off the wire
+	 */
+	private static final class SnapshotBoard implements Board {
+		private final GameSetup setup;
+		private final ImmutableSet<Piece> players;
+		private final ImmutableMap<Piece.Detective, Integer> locations;
+		private final ImmutableMap<Piece, ImmutableMap<Ticket, Integer>> tickets;
+		private final ImmutableList<LogEntry> log;
+		private final ImmutableSet<Piece> winner;
+		private final ImmutableSet<Move> moves;
+
+		SnapshotBoard(GameSetup setup, ImmutableSet<Piece> players,
+		              ImmutableMap<Piece.Detective, Integer> locations,
+		              ImmutableMap<Piece, ImmutableMap<Ticket, Integer>> tickets,
+		              ImmutableList<LogEntry> log, ImmutableSet<Piece> winner,
+		              ImmutableSet<Move> moves) {
+			this.setup = setup;
+			this.players = players;
+			this.locations = locations;
+			this.tickets = tickets;
+			this.log = log;
+			this.winner = winner;
+			this.moves = moves;
+		}
+
+		@Override public GameSetup getSetup() { return setup; }
+		@Override public ImmutableSet<Piece> getPlayers() { return players; }
+
+		@Override public Optional<Integer> getDetectiveLocation(Piece.Detective detective) {
+			return Optional.ofNullable(locations.get(detective));
+		}
+
+		@Override public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+			Map<Ticket, Integer> counts = tickets.get(piece);
+			if (counts == null) return Optional.empty();
+			return Optional.of(ticket -> counts.getOrDefault(ticket, 0));
+		}
+
+		@Override public ImmutableList<LogEntry> getMrXTravelLog() { return log; }
+		@Override public ImmutableSet<Piece> getWinner() { return winner; }
+		@Override public ImmutableSet<Move> getAvailableMoves() { return moves; }
+	}
+}
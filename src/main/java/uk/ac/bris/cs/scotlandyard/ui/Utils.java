@@ -106,6 +106,19 @@ public class Utils {
 		});
 	}
 
+	public static void showReport(String title, String report) {
+		Alert alert = new Alert(AlertType.INFORMATION);
+		alert.setTitle(title);
+		alert.setHeaderText(title);
+		TextArea textArea = new TextArea(report);
+		textArea.setEditable(false);
+		textArea.setStyle("-fx-font-family: monospace");
+		textArea.setPrefColumnCount(100);
+		alert.getDialogPane().setContent(textArea);
+		alert.getDialogPane().getScene().getWindow().sizeToScene();
+		alert.show();
+	}
+
 	private static Parent createExceptionView(Throwable throwable) {
 		Label label = new Label("The exception stacktrace was (also dumped to stderr):");
 		TextArea textArea = new TextArea(Throwables.getStackTraceAsString(throwable));
@@ -21,6 +21,7 @@ import uk.ac.bris.cs.scotlandyard.ResourceManager;
 import uk.ac.bris.cs.scotlandyard.ResourceManager.ImageResource;
 import uk.ac.bris.cs.scotlandyard.model.Board;
 import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.GameSetupRegistry;
 import uk.ac.bris.cs.scotlandyard.model.Model;
 import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
 import uk.ac.bris.cs.scotlandyard.model.Move;
@@ -38,6 +39,7 @@ import uk.ac.bris.cs.scotlandyard.ui.model.ModelProperty;
 import uk.ac.bris.cs.scotlandyard.ui.model.PlayerProperty;
 
 import static uk.ac.bris.cs.scotlandyard.ui.Utils.handleFatalException;
+import static uk.ac.bris.cs.scotlandyard.ui.Utils.showReport;
 
 public final class LocalGameController extends BaseGameController<MapController> {
 
@@ -85,17 +87,19 @@ public final class LocalGameController extends BaseGameController<MapController>
 		controls.forEach(model::unregisterObserver);
 		map.lock();
 		notifications.dismissAll();
-		notifications.show("notify_gameover",
-				new NotificationBuilder(
-						"Game over, winner is \n" + winners)
-						.addAction("Start again(same location)", () -> {
-							notifications.dismissAll();
-							createGame(setup);
-						}, true)
-						.addAction("Main menu", () -> {
-							notifications.dismissAll();
-							setupGame();
-						}, false).create());
+		var gameOver = new NotificationBuilder(
+				"Game over, winner is \n" + winners)
+				.addAction("Start again(same location)", () -> {
+					notifications.dismissAll();
+					createGame(setup);
+				}, true)
+				.addAction("Main menu", () -> {
+					notifications.dismissAll();
+					setupGame();
+				}, false);
+		map.aiReport().forEach(report -> gameOver.addAction("AI metrics",
+				() -> showReport("AI metrics", report), false));
+		notifications.show("notify_gameover", gameOver.create());
 	}
 
 	interface RecordingModel extends Model {
@@ -184,9 +188,9 @@ public final class LocalGameController extends BaseGameController<MapController>
 		hideOverlay();
 		try {
 			var modelFactory = (new MyModelFactory());
-			var model = modelFactory.build(new GameSetup(
+			var model = modelFactory.build(GameSetupRegistry.shared().intern(new GameSetup(
 							setup.graphProperty().get(),
-							ImmutableList.copyOf(setup.revealRounds())),
+							ImmutableList.copyOf(setup.revealRounds()))),
 					setup.mrX().asPlayer(),
 					setup.detectives().stream()
 							.map(PlayerProperty::asPlayer)
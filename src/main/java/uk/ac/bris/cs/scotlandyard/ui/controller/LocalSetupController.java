@@ -39,6 +39,7 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
@@ -61,6 +62,7 @@ import uk.ac.bris.cs.fxkit.Controller;
 import uk.ac.bris.cs.fxkit.LambdaStringConverter;
 import uk.ac.bris.cs.fxkit.SpinnerTableCell;
 import uk.ac.bris.cs.fxkit.interpolator.DecelerateInterpolator;
+import uk.ac.bris.cs.scotlandyard.AiLoader;
 import uk.ac.bris.cs.scotlandyard.ResourceManager;
 import uk.ac.bris.cs.scotlandyard.model.Ai;
 import uk.ac.bris.cs.scotlandyard.model.Piece;
@@ -88,8 +90,10 @@ final class LocalSetupController implements Controller {
 
 	@FXML private VBox root;
 
-	@FXML private ChoiceBox<Option<Ai>> mrXAi;
-	@FXML private ChoiceBox<Option<Ai>> detectivesAi;
+	@FXML private ChoiceBox<Option<AiLoader.Available>> mrXAi;
+	@FXML private ChoiceBox<Option<AiLoader.Available>> detectivesAi;
+	@FXML private CheckBox isolateAi;
+	@FXML private CheckBox warmUpAi;
 
 	// players config tab
 	@FXML private GridPane playerEditor;
@@ -115,7 +119,7 @@ final class LocalSetupController implements Controller {
 
 	private ObservableList<PlayerProperty<? super Piece>> playerEntries = FXCollections
 			.observableArrayList(v -> new Observable[]{v.enabledProperty(),});
-	private final ImmutableList<Ai> availableAIs;
+	private final ImmutableList<AiLoader.Available> availableAIs;
 	private final EnumSet<Features> features;
 
 	public enum Features {
@@ -125,7 +129,7 @@ final class LocalSetupController implements Controller {
 	LocalSetupController(ResourceManager manager,
 	                     BoardViewProperty boardConfig,
 	                     ModelProperty config,
-	                     ImmutableList<Ai> availableAIs,
+	                     ImmutableList<AiLoader.Available> availableAIs,
 	                     EnumSet<Features> features,
 	                     Consumer<ModelProperty> consumer) {
 		Controller.bind(this);
@@ -143,6 +147,10 @@ final class LocalSetupController implements Controller {
 		bindPlayersConfig(config);
 		bindAiForSide(config.mrXAiProperty(), mrXAi);
 		bindAiForSide(config.detectivesAiProperty(), detectivesAi);
+		isolateAi.setSelected(config.isIsolateAi());
+		isolateAi.setDisable(!features.contains(Features.AI));
+		warmUpAi.setSelected(config.isWarmUpAi());
+		warmUpAi.setDisable(!features.contains(Features.AI));
 
 		start.disableProperty().bind(blackSelected.and(atLeastTwoPlayer).not());
 		start.setOnAction(e -> {
@@ -151,14 +159,20 @@ final class LocalSetupController implements Controller {
 		});
 	}
 
-	private void bindAiForSide(ObjectProperty<Option<Ai>> source, ChoiceBox<Option<Ai>> aiOption) {
-		aiOption.setItems(FXCollections.observableArrayList(ImmutableList.<Option<Ai>>builder()
+	// the AIs are only created when the game starts, see createGameConfig
+	private void bindAiForSide(ObjectProperty<Option<Ai>> source,
+	                           ChoiceBox<Option<AiLoader.Available>> aiOption) {
+		var items = ImmutableList.<Option<AiLoader.Available>>builder()
 				.add(Option.none())
 				.addAll(availableAIs.stream().map(Option::some).collect(Collectors.toList()))
-				.build()));
+				.build();
+		aiOption.setItems(FXCollections.observableArrayList(items));
 		aiOption.setConverter(LambdaStringConverter.forwardOnly("N/A(Human)",
-				a -> a.fold(() -> "N/A(Human)", Ai::name)));
-		aiOption.getSelectionModel().select(source.get());
+				a -> a.fold(() -> "N/A(Human)", AiLoader.Available::name)));
+		aiOption.getSelectionModel().select(source.get().fold(Option::none,
+				ai -> items.stream()
+						.filter(a -> a.exists(x -> x.className().equals(ai.getClass().getName())))
+						.findFirst().orElse(Option.none())));
 		aiOption.setDisable(!features.contains(Features.AI));
 	}
 
@@ -334,7 +348,7 @@ final class LocalSetupController implements Controller {
 			} else p.locationProperty().set(deque.pop());
 		});
 
-		return new ModelProperty(
+		var property = new ModelProperty(
 				Duration.ofSeconds(Math.round(timeout.getValue())),
 				moveConfig.getChildren().stream()
 						.map(ToggleButton.class::cast)
@@ -342,8 +356,11 @@ final class LocalSetupController implements Controller {
 						.collect(ImmutableList.toImmutableList()),
 				ImmutableList.copyOf(playerEntries.filtered(PlayerProperty::enabled)),
 				manager.getGraph(),
-				mrXAi.valueProperty().get(),
-				detectivesAi.valueProperty().get());
+				mrXAi.valueProperty().get().map(AiLoader.Available::create),
+				detectivesAi.valueProperty().get().map(AiLoader.Available::create));
+		property.isolateAiProperty().set(isolateAi.isSelected());
+		property.warmUpAiProperty().set(warmUpAi.isSelected());
+		return property;
 	}
 
 
@@ -3,28 +3,28 @@ package uk.ac.bris.cs.scotlandyard.ui.controller;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.kurobako.gesturefx.GesturePane;
 import net.kurobako.gesturefx.GesturePane.FitMode;
 import net.kurobako.gesturefx.GesturePane.ScrollBarPolicy;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 
 import io.atlassian.fugue.Option;
-import io.atlassian.fugue.Pair;
 import io.atlassian.fugue.Unit;
 import javafx.animation.Interpolator;
 import javafx.application.Platform;
@@ -48,9 +48,15 @@ import javafx.util.Duration;
 import uk.ac.bris.cs.fxkit.BindFXML;
 import uk.ac.bris.cs.fxkit.Controller;
 import uk.ac.bris.cs.fxkit.interpolator.DecelerateInterpolator;
+import uk.ac.bris.cs.scotlandyard.AiInvoker;
+import uk.ac.bris.cs.scotlandyard.AiLoader;
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.AiWarmUp;
 import uk.ac.bris.cs.scotlandyard.ResourceManager;
 import uk.ac.bris.cs.scotlandyard.ResourceManager.ImageResource;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
 import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
 import uk.ac.bris.cs.scotlandyard.model.Board;
 import uk.ac.bris.cs.scotlandyard.model.Model;
 import uk.ac.bris.cs.scotlandyard.model.Move;
@@ -60,6 +66,7 @@ import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
 import uk.ac.bris.cs.scotlandyard.model.Move.Visitor;
 import uk.ac.bris.cs.scotlandyard.model.Piece;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.remote.AiHostClient;
 import uk.ac.bris.cs.scotlandyard.ui.GameControl;
 import uk.ac.bris.cs.scotlandyard.ui.Utils;
 import uk.ac.bris.cs.scotlandyard.ui.controller.NotificationController.NotificationBuilder;
@@ -78,6 +85,11 @@ import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
 class MapController implements Controller, GameControl {
 
 	private static final Duration DURATION = Duration.millis(400);
+	// short enough to keep the wait before the first move to a few seconds, with two passes so
+	// the report shows how much faster the second one was
+	private static final java.time.Duration WARM_UP_MOVE = java.time.Duration.ofMillis(250);
+	private static final int WARM_UP_BOARDS = 4;
+	private static final int WARM_UP_PASSES = 2;
 
 	@FXML private Pane root;
 	@FXML private ImageView mapView;
@@ -149,15 +161,23 @@ class MapController implements Controller, GameControl {
 	ModelProperty config;
 	Consumer<ImmutableSet<Piece>> timeout;
 
-	Option<ExecutorService> aiExecutor = none();
+	Option<AiInvoker> aiInvoker = none();
 	Option<Ai> mrXAi = none();
 	Option<Ai> detectiveAi = none();
+	Option<AiInvoker.Pondering> pondering = none();
+	Option<AiHostClient> aiHost = none();
+	boolean attached;
+	// what warming the AIs of the current game up did, if enabled
+	ImmutableList<AiWarmUp.Report> warmUps = ImmutableList.of();
+	// what the AIs of the last game cost, once it is over
+	Option<String> aiReport = none();
 
 	@Override public void onGameAttach(
 			Model model, ModelProperty config, Consumer<ImmutableSet<Piece>> timeout) {
 		this.model = requireNonNull(model);
 		this.config = requireNonNull(config);
 		this.timeout = requireNonNull(timeout);
+		attached = true;
 		unlock();
 		counters.clear();
 		counterPane.getChildren().clear();
@@ -183,30 +203,130 @@ class MapController implements Controller, GameControl {
 			view.historyProperty().set(true);
 		}
 
-		aiExecutor = some(runInContainment(() -> {
-			mrXAi = config.getMrXAi();
-			detectiveAi = config.getDetectivesAi();
-			mrXAi.forEach(Ai::onStart);
-			detectiveAi.forEach(Ai::onStart);
-			return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-					.setNameFormat("ai-thread-%d")
-					.setUncaughtExceptionHandler((t, e) -> Utils.handleFatalException(new RuntimeException("An ai instance crashed on thread " + t.getName(), e)))
-					.build());
-		}));
-		advanceModel(model);
+		aiReport = none();
+		warmUps = ImmutableList.of();
+		mrXAi = none();
+		detectiveAi = none();
+		aiInvoker = some(runInContainment(() -> new AiInvoker("ui-game", new AiMetrics())));
+		var mrX = config.getMrXAi();
+		var detectives = config.getDetectivesAi();
+		if (mrX.isEmpty() && detectives.isEmpty()) {
+			advanceModel(model);
+			return;
+		}
+		Option<AiWarmUp> warmUp = config.isWarmUpAi()
+				? some(new AiWarmUp(model.getCurrentBoard().getSetup())
+						.detectives(config.detectives().size())
+						.boards(WARM_UP_BOARDS)
+						.passes(WARM_UP_PASSES)
+						.perMove(WARM_UP_MOVE))
+				: none();
+		boolean isolate = config.isIsolateAi();
+		notifications.show("notify_warm_up", new NotificationBuilder(warmUp.isDefined()
+				? "Warming up AIs before the first move"
+				: "Starting AIs").create());
+		CompletableFuture.supplyAsync(() -> prepare(warmUp, mrX, detectives, isolate))
+				.whenComplete((ais, e) -> Platform.runLater(() -> {
+					if (e != null) Utils.handleFatalException(e);
+					// unless another game was attached meanwhile
+					else if (attached && this.model == model) {
+						aiHost = ais.host;
+						mrXAi = ais.mrX;
+						detectiveAi = ais.detectives;
+						warmUps = ais.warmUps;
+						notifications.dismissAll();
+						advanceModel(model);
+					} else ais.close();
+				}));
+	}
+
+	// the AIs of a game, once ready to play
+	private static final class Ais {
+		final Option<AiHostClient> host;
+		final Option<Ai> mrX, detectives;
+		final ImmutableList<AiWarmUp.Report> warmUps;
+
+		Ais(Option<AiHostClient> host, Option<Ai> mrX, Option<Ai> detectives,
+		    ImmutableList<AiWarmUp.Report> warmUps) {
+			this.host = host;
+			this.mrX = mrX;
+			this.detectives = detectives;
+			this.warmUps = warmUps;
+		}
+
+		void close() {
+			mrX.forEach(Ai::onTerminate);
+			detectives.forEach(Ai::onTerminate);
+			host.forEach(AiHostClient::close);
+		}
+	}
+
+	// launches the host of isolated AIs, starts the AIs and, if asked to, gets their code
+	// compiled before their first timed move, all of which may take seconds, so never on the
+	// FX thread
+	private static Ais prepare(Option<AiWarmUp> warmUp, Option<Ai> mrX, Option<Ai> detectives,
+	                           boolean isolate) {
+		Option<AiHostClient> host = none();
+		try {
+			if (isolate) host = some(AiHostClient.launch(List.of()));
+			// the AIs created by the setup only name the classes the host creates
+			var hosted = host;
+			Function<Ai, Ai> create = ai -> hosted.fold(() -> ai,
+					client -> client.ai(ai.getClass().getName()));
+			var started = ImmutableList.of(mrX.map(create), detectives.map(create));
+			started.forEach(ai -> ai.forEach(Ai::onStart));
+			var reports = ImmutableList.<AiWarmUp.Report>builder();
+			warmUp.forEach(warm -> {
+				// a hosted AI is warmed up in its host, where it will run
+				BiConsumer<Class<? extends Ai>, AiMetrics.Side> run = (type, side) -> reports.add(
+						warm.run(type.getSimpleName(), hosted.fold(
+								() -> () -> AiLoader.instantiate(type),
+								client -> () -> client.ai(type.getName())),
+						side, AiScheduler.shared()));
+				mrX.forEach(ai -> run.accept(ai.getClass(), AiMetrics.Side.MRX));
+				detectives.forEach(ai -> run.accept(ai.getClass(), AiMetrics.Side.DETECTIVES));
+			});
+			return new Ais(host, started.get(0), started.get(1), reports.build());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			host.forEach(AiHostClient::close);
+			throw e;
+		}
 	}
 
 	@Override public void onGameDetached() {
+		attached = false;
 		clearMoveHints();
 		lock();
 		runInContainment(() -> {
+			stopPondering();
 			mrXAi.forEach(Ai::onTerminate);
 			detectiveAi.forEach(Ai::onTerminate);
-			aiExecutor.forEach(x -> runInContainment(x::shutdownNow));
+			aiInvoker.forEach(x -> runInContainment(() -> {
+				x.close();
+				if (!x.metrics().recorders().isEmpty()) aiReport = some(report(x.metrics()));
+				return Unit.VALUE;
+			}));
+			aiHost.forEach(AiHostClient::close);
+			aiHost = none();
 			return Unit.VALUE;
 		});
 	}
 
+	// the warm-ups first, as they came before the game
+	private String report(AiMetrics metrics) {
+		var report = new StringBuilder();
+		warmUps.forEach(warmUp -> report.append(warmUp).append('\n'));
+		return report.append(metrics.report()).toString();
+	}
+
+	/**
+	 * @return the metrics report of the AIs in the game just detached, if any played, after
+	 * what their warm-up did if they were warmed up
+	 */
+	Option<String> aiReport() { return aiReport; }
+
 	private static <T> T runInContainment(Callable<T> r) {
 		try {
 			return r.call();
@@ -219,35 +339,36 @@ class MapController implements Controller, GameControl {
 	double maxLength() { return Math.max(root.getWidth(), root.getHeight()); }
 
 	Runnable requestAi(Model board, Ai ai) {
-		//var terminate = new AtomicBoolean(false);
 		var moves = board.getCurrentBoard().getAvailableMoves();
 		drawMoveHighlights(moves);
-		aiExecutor.forEach(x -> x.submit(() -> {
-			try {
-				final var move = ai.pickMove(board.getCurrentBoard(), new Pair<>(config.timeoutProperty().get().getSeconds(), TimeUnit.SECONDS));
-				if (!moves.contains(move)) {
-					Utils.handleFatalException(
-							new Exception("Ai(" + ai.name() + ") selected an invalid move, got: " + move + ", was expecting one of " + moves));
-				} else {
-					Platform.runLater(() -> selectAndMove(board, move));
-				}
-			} catch (Exception e) {
-				Utils.handleFatalException(new Exception("Ai(" + ai.name() + ") " +
-						"threw an exception while picking a move", e));
-			}
-		}, aiExecutor));
-		return () -> handleAITimeOut(ai);
-	}
-
-	private void handleAITimeOut(Ai ai) {
-		aiExecutor.forEach(x -> {
-			try {
-				x.awaitTermination(1l, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				Utils.handleFatalException(
-						new Exception("Ai(" + ai.name() + ") was interrupted during the bail-out grace period.", e));
+		// leave a tenth of the turn so the move arrives before the notification times out
+		var budget = config.timeoutProperty().get().multipliedBy(9).dividedBy(10);
+		var call = aiInvoker.get().invoke(ai, board.getCurrentBoard(), AiDeadline.within(budget));
+		call.result().thenAccept(result -> {
+			switch (result.outcome()) {
+				case MOVE:
+				case BEST_SO_FAR:
+					var move = result.move().orElseThrow();
+					if (!moves.contains(move)) {
+						aiInvoker.get().metrics()
+								.recorder(ai.name(), AiMetrics.Side.of(board.getCurrentBoard()))
+								.invalidMove(AiMetrics.Outcome.valueOf(result.outcome().name()));
+						Utils.handleFatalException(
+								new Exception("Ai(" + ai.name() + ") selected an invalid move, got: " + move + ", was expecting one of " + moves));
+					} else {
+						Platform.runLater(() -> selectAndMove(board, move));
+					}
+					break;
+				case ERROR:
+					Utils.handleFatalException(new Exception("Ai(" + ai.name() + ") " +
+							"threw an exception while picking a move", result.error().orElseThrow()));
+					break;
+				default:
+					// the notification declares the timeout
+					break;
 			}
 		});
+		return call::cancel;
 	}
 
 	Runnable requestHuman(ImmutableSet<Move> moves, Consumer<Move> moveCallback) {
@@ -290,6 +411,9 @@ class MapController implements Controller, GameControl {
 
 		if (mrX) counters.get(MRX).animateVisibility(true);
 
+		if (mrX) ponder(detectiveAi, mrXAi, board);
+		else ponder(mrXAi, detectiveAi, board);
+
 		final Runnable terminateAction;
 		if (mrX && mrXAi.isDefined()) {
 			terminateAction = requestAi(board, mrXAi.get());
@@ -326,7 +450,7 @@ class MapController implements Controller, GameControl {
 				counter.animateTicketMove(move.destination, some(() -> {
 					counter.location(move.destination);
 					counter.updateLocation();
-					model.chooseMove(m);
+					chooseMove(model, m);
 					drawHistory(move, move.commencedBy());
 				}));
 
@@ -340,7 +464,7 @@ class MapController implements Controller, GameControl {
 									some(() -> {
 										counter.location(move.destination2);
 										counter.updateLocation();
-										model.chooseMove(m);
+										chooseMove(model, m);
 										drawHistory(move, move.commencedBy());
 									}));
 						}));
@@ -350,6 +474,34 @@ class MapController implements Controller, GameControl {
 
 	}
 
+	private void ponder(Option<Ai> waiting, Option<Ai> moving, Model board) {
+		// an AI playing both sides has no one to wait for
+		waiting.filter(ai -> moving.forall(x -> x != ai)).forEach(ai -> pondering = some(
+				aiInvoker.get().ponder(ai, board.getCurrentBoard(), config.timeoutProperty().get())));
+	}
+
+	private void stopPondering() {
+		pondering.forEach(AiInvoker.Pondering::stop);
+		pondering = none();
+	}
+
+	private void chooseMove(Model model, Move m) {
+		// the AI must be done pondering before it hears of the move, which the FX thread must
+		// not wait for
+		var stopped = pondering.fold(() -> CompletableFuture.<Void>completedFuture(null),
+				AiInvoker.Pondering::stopAsync);
+		pondering = none();
+		stopped.thenRun(() -> Platform.runLater(() -> {
+			// unless the game ended meanwhile
+			if (!attached || this.model != model) return;
+			var board = model.getCurrentBoard();
+			mrXAi.forEach(ai -> ai.onMoveMade(board, m));
+			detectiveAi.filter(ai -> mrXAi.forall(x -> x != ai))
+					.forEach(ai -> ai.onMoveMade(board, m));
+			model.chooseMove(m);
+		}));
+	}
+
 	@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
 		if (event != Event.MOVE_MADE) return;
 		counters.get(MRX).animateVisibility(Iterables.getLast(board.getMrXTravelLog()).location().isPresent());
@@ -9,7 +9,9 @@ import java.time.Duration;
 import java.util.Objects;
 
 import io.atlassian.fugue.Option;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -28,6 +30,10 @@ public class ModelProperty {
 			new SimpleObjectProperty<>(Option.none());
 	private final ObjectProperty<Option<Ai>> detectivesAi =
 			new SimpleObjectProperty<>(Option.none());
+	// whether the AIs run in an AiHost of their own rather than in the UI's JVM
+	private final BooleanProperty isolateAi = new SimpleBooleanProperty();
+	// whether the AIs play a few untimed boards before the first move, see AiWarmUp
+	private final BooleanProperty warmUpAi = new SimpleBooleanProperty();
 
 	private final ObservableList<PlayerProperty<? super Piece>> players =
 			FXCollections.observableArrayList();
@@ -85,6 +91,10 @@ public class ModelProperty {
 	public ObjectProperty<Option<Ai>> mrXAiProperty() { return mrXAi; }
 	public Option<Ai> getDetectivesAi() { return detectivesAi.get(); }
 	public ObjectProperty<Option<Ai>> detectivesAiProperty() { return detectivesAi; }
+	public boolean isIsolateAi() { return isolateAi.get(); }
+	public BooleanProperty isolateAiProperty() { return isolateAi; }
+	public boolean isWarmUpAi() { return warmUpAi.get(); }
+	public BooleanProperty warmUpAiProperty() { return warmUpAi; }
 
 
 	@Override public String toString() {
@@ -0,0 +1,246 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+
+/**
+ * Checks that the invoker takes offered moves at the limits and gets the threads back
+ */
+public class AiInvokerTest {
+
+	private static Board board;
+	private static Move first;
+	private AiInvoker invoker;
+
+	@BeforeClass public static void setUpBoard() throws IOException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+		board = new MyGameStateFactory().build(setup,
+				new Player(MRX, ScotlandYard.defaultMrXTickets(), 45),
+				ImmutableList.of(new Player(RED, ScotlandYard.defaultDetectiveTickets(), 111)));
+		first = board.getAvailableMoves().iterator().next();
+	}
+
+	@Before public void setUp() { invoker = new AiInvoker("test-ai"); }
+
+	@After public void tearDown() { invoker.close(); }
+
+	private static Ai ai(BiFunction<Board, AiDeadline, Move> pick) {
+		return new Ai() {
+			@Nonnull @Override public String name() { return "test"; }
+
+			@Nonnull @Override
+			public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+				return pickMove(board, AiDeadline.within(timeoutPair));
+			}
+
+			@Nonnull @Override
+			public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+				return pick.apply(board, deadline);
+			}
+		};
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void awaitIdle() {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (invoker.running() > 0 && System.nanoTime() < end) sleep(5);
+		assertThat(invoker.running()).isZero();
+	}
+
+	@Test public void testMoveInTime() throws Exception {
+		var result = invoker.invoke(ai((b, d) -> first), board,
+				AiDeadline.within(Duration.ofSeconds(5))).result().get();
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.MOVE);
+		assertThat(result.move()).contains(first);
+	}
+
+	@Test public void testOfferedMoveTakenAtSoftLimit() throws Exception {
+		var call = invoker.invoke(ai((b, d) -> {
+			d.offer(first);
+			sleep(TimeUnit.MINUTES.toMillis(1));
+			return first;
+		}), board, AiDeadline.of(Duration.ofMillis(100), Duration.ofSeconds(30)));
+		var result = call.result().get(5, TimeUnit.SECONDS);
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.BEST_SO_FAR);
+		assertThat(result.move()).contains(first);
+		assertThat(call.deadline().isCancelled()).isTrue();
+		awaitIdle();
+	}
+
+	@Test public void testCooperatingAiStopsAtHardLimit() throws Exception {
+		var call = invoker.invoke(ai((b, d) -> {
+			while (!d.isCancelled()) Thread.onSpinWait();
+			return first;
+		}), board, AiDeadline.of(Duration.ofMillis(50), Duration.ofMillis(150)));
+		var result = call.result().get(5, TimeUnit.SECONDS);
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.TIMEOUT);
+		assertThat(result.move()).isEmpty();
+		assertThat(result.elapsedNanos()).isGreaterThanOrEqualTo(
+				TimeUnit.MILLISECONDS.toNanos(150));
+		awaitIdle();
+	}
+
+	@Test public void testThrowingAi() throws Exception {
+		var result = invoker.invoke(ai((b, d) -> {
+			throw new IllegalStateException("broken");
+		}), board, AiDeadline.within(Duration.ofSeconds(5))).result().get();
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.ERROR);
+		assertThat(result.error().orElseThrow()).hasMessage("broken");
+	}
+
+	@Test public void testCancelGivesUpAtOnce() throws Exception {
+		var call = invoker.invoke(ai((b, d) -> {
+			d.offer(first);
+			sleep(TimeUnit.MINUTES.toMillis(1));
+			return first;
+		}), board, AiDeadline.within(Duration.ofMinutes(1)));
+		call.cancel();
+		var result = call.result().get(1, TimeUnit.SECONDS);
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.TIMEOUT);
+		awaitIdle();
+	}
+
+	@Test public void testCallsRecordedPerSide() throws Exception {
+		var metrics = new AiMetrics();
+		try (var recorded = new AiInvoker(
+				AiScheduler.shared().lane("test-metrics", AiScheduler.Kind.CPU, 2), metrics)) {
+			var deadline = AiDeadline.within(Duration.ofSeconds(5));
+			recorded.invoke(ai((b, d) -> first), board, deadline).result().get();
+			recorded.invoke(ai((b, d) -> {
+				throw new IllegalStateException("broken");
+			}), board, AiDeadline.within(Duration.ofSeconds(5))).result().get();
+		}
+		var recorder = metrics.recorder("test", AiMetrics.Side.MRX);
+		assertThat(metrics.recorders()).containsExactly(recorder);
+		assertThat(recorder.calls()).isEqualTo(2);
+		assertThat(recorder.count(AiMetrics.Outcome.MOVE)).isEqualTo(1);
+		assertThat(recorder.rate(AiMetrics.Outcome.ERROR)).isEqualTo(0.5);
+		assertThat(recorder.deadlineUsed().max()).isLessThan(1000);
+		recorder.invalidMove(AiMetrics.Outcome.MOVE);
+		assertThat(recorder.count(AiMetrics.Outcome.MOVE)).isZero();
+		assertThat(recorder.count(AiMetrics.Outcome.INVALID_MOVE)).isEqualTo(1);
+		assertThat(metrics.report()).contains("test").contains("MRX").contains("50.0%");
+	}
+
+	@Test public void testCpuOverBudgetForfeitsAtOnce() throws Exception {
+		var call = invoker.invoke(ai((b, d) -> {
+			while (!d.isCancelled()) Thread.onSpinWait();
+			return first;
+		}), board, AiDeadline.within(Duration.ofMinutes(1)), AiBudget.UNLIMITED
+				.cpu(Duration.ofMillis(50)).action(AiBudget.Action.FORFEIT));
+		var result = call.result().get(5, TimeUnit.SECONDS);
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.OVER_BUDGET);
+		assertThat(result.overBudget().orElseThrow()).contains("CPU");
+		assertThat(result.usage().cpuNanos()).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(50));
+		awaitIdle();
+	}
+
+	@Test public void testSpawnedThreadsCharged() throws Exception {
+		var budget = AiBudget.UNLIMITED.threads(0).allocation(1_000_000);
+		var result = invoker.invoke(ai((b, d) -> {
+			var spawned = new Thread(() -> {
+				long[][] garbage = new long[64][];
+				for (int i = 0; i < 1000; i++) garbage[i % 64] = new long[1024];
+				sleep(100);
+			});
+			spawned.start();
+			try {
+				spawned.join();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return first;
+		}), board, AiDeadline.within(Duration.ofSeconds(5)), budget).result().get();
+		// a warning only, the move stands
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.MOVE);
+		assertThat(result.usage().threads()).isPositive();
+		assertThat(result.usage().allocatedBytes()).isGreaterThan(8_000_000);
+		assertThat(result.overBudget().orElseThrow()).contains("threads").contains("MB");
+	}
+
+	@Test public void testPonderingStopsOnRequest() {
+		var pondered = new AtomicLong();
+		var pondering = invoker.ponder(new Ai() {
+			@Nonnull @Override public String name() { return "ponderer"; }
+
+			@Nonnull @Override
+			public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+				return first;
+			}
+
+			@Override public void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+				while (!deadline.shouldStop()) pondered.incrementAndGet();
+			}
+		}, board, Duration.ofMinutes(1));
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (pondered.get() == 0 && System.nanoTime() < end) Thread.onSpinWait();
+		assertThat(pondering.isDone()).isFalse();
+		pondering.stop();
+		assertThat(pondering.isDone()).isTrue();
+		assertThat(pondered.get()).isPositive();
+		awaitIdle();
+	}
+
+	@Test public void testPonderingStoppedAsyncCompletesOnceTheAiReturns() throws Exception {
+		var inside = new CountDownLatch(1);
+		var leave = new CountDownLatch(1);
+		var pondering = invoker.ponder(new Ai() {
+			@Nonnull @Override public String name() { return "slow ponderer"; }
+
+			@Nonnull @Override
+			public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+				return first;
+			}
+
+			@Override public void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+				inside.countDown();
+				// ignores the deadline and interrupts until let go
+				while (leave.getCount() > 0) Thread.onSpinWait();
+			}
+		}, board, Duration.ofMinutes(1));
+		assertThat(inside.await(5, TimeUnit.SECONDS)).isTrue();
+		var stopped = pondering.stopAsync();
+		Thread.sleep(AiInvoker.GRACE.toMillis() * 2);
+		// still inside ponder, interrupted or not
+		assertThat(stopped).isNotDone();
+		leave.countDown();
+		stopped.get(5, TimeUnit.SECONDS);
+		assertThat(pondering.isDone()).isTrue();
+		awaitIdle();
+	}
+}
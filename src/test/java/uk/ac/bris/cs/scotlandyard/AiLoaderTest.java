@@ -0,0 +1,122 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that AIs are found through the index without being created
+ */
+public class AiLoaderTest {
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final AtomicInteger created = new AtomicInteger();
+
+	public static class CountingAi implements Ai {
+		public CountingAi() { created.incrementAndGet(); }
+
+		@Nonnull @Override public String name() { return "counting"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	public static class UnnamedAi implements Ai {
+		@Nonnull @Override public String name() { return "unnamed"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	private abstract static class HiddenAi implements Ai {}
+
+	@Test public void testIndexNamesEveryListableAi() throws Exception {
+		var out = new StringWriter();
+		AiLoader.writeIndex(ImmutableList.of(CountingAi.class), out);
+		assertThat(out.toString()).contains(CountingAi.class.getName() + " # counting\n");
+		assertThat(AiLoader.listable(CountingAi.class)).isTrue();
+		assertThat(AiLoader.listable(HiddenAi.class)).isFalse();
+	}
+
+	@Test public void testDiscoverCreatesNothingUntilAsked() throws Exception {
+		var index = folder.getRoot().toPath().resolve(AiLoader.INDEX);
+		Files.createDirectories(index.getParent());
+		Files.writeString(index, "# test\n" + CountingAi.class.getName() + " # counting\n" +
+				UnnamedAi.class.getName() + "\n", StandardCharsets.UTF_8);
+		var thread = Thread.currentThread();
+		var previous = thread.getContextClassLoader();
+		try (var loader = new URLClassLoader(
+				new URL[]{folder.getRoot().toURI().toURL()}, previous)) {
+			thread.setContextClassLoader(loader);
+			created.set(0);
+			var found = AiLoader.discover();
+			assertThat(found).extracting(AiLoader.Available::className)
+					.contains(CountingAi.class.getName(), UnnamedAi.class.getName());
+			var counting = found.stream()
+					.filter(a -> a.className().equals(CountingAi.class.getName()))
+					.findFirst().orElseThrow();
+			assertThat(counting.name()).isEqualTo("counting");
+			assertThat(created.get()).isZero();
+			assertThat(counting.create()).isInstanceOf(CountingAi.class);
+			assertThat(created.get()).isEqualTo(1);
+			// not named in the index, so a throwaway instance names it
+			assertThat(found).extracting(AiLoader.Available::name).contains("unnamed");
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+	@Test public void testAisMissingFromAStaleIndexAreStillFound() throws Exception {
+		var index = folder.getRoot().toPath().resolve(AiLoader.INDEX);
+		Files.createDirectories(index.getParent());
+		Files.writeString(index, CountingAi.class.getName() + " # counting\n",
+				StandardCharsets.UTF_8);
+		// compiled next to the index after it was written, as by an IDE
+		var classFile = UnnamedAi.class.getName().replace('.', '/') + ".class";
+		var compiled = folder.getRoot().toPath().resolve(classFile);
+		Files.createDirectories(compiled.getParent());
+		try (var in = UnnamedAi.class.getClassLoader().getResourceAsStream(classFile)) {
+			Files.copy(Objects.requireNonNull(in), compiled);
+		}
+		var thread = Thread.currentThread();
+		var previous = thread.getContextClassLoader();
+		try (var loader = new URLClassLoader(
+				new URL[]{folder.getRoot().toURI().toURL()}, previous)) {
+			thread.setContextClassLoader(loader);
+			created.set(0);
+			var found = AiLoader.discover();
+			assertThat(found).extracting(AiLoader.Available::className)
+					.contains(CountingAi.class.getName(), UnnamedAi.class.getName())
+					.doesNotHaveDuplicates();
+			assertThat(found).extracting(AiLoader.Available::name).contains("unnamed");
+			assertThat(created.get()).isZero();
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks quotas, fairness between lanes and the counters of the scheduler
+ */
+public class AiSchedulerTest {
+
+	private AiScheduler scheduler;
+
+	@Before public void setUp() { scheduler = new AiScheduler(1); }
+
+	@After public void tearDown() { scheduler.close(); }
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void get(Future<?> future) throws Exception {
+		future.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test public void testLanesTakeTurns() throws Exception {
+		var a = scheduler.lane("a", AiScheduler.Kind.CPU, 4);
+		var b = scheduler.lane("b", AiScheduler.Kind.CPU, 4);
+		var release = new CountDownLatch(1);
+		List<String> order = new CopyOnWriteArrayList<>();
+		a.submit(() -> {
+			order.add("a0");
+			await(release);
+		});
+		Future<?> last = null;
+		for (int i = 1; i < 5; i++) {
+			String name = "a" + i;
+			last = a.submit(() -> order.add(name));
+		}
+		var fromB = b.submit(() -> order.add("b0"));
+		assertThat(scheduler.stats().queued()).isEqualTo(5);
+		assertThat(scheduler.stats().running()).isEqualTo(1);
+		release.countDown();
+		get(last);
+		get(fromB);
+		// b waits behind the a task already in line, not behind all of them
+		assertThat(order).containsExactly("a0", "a1", "b0", "a2", "a3", "a4");
+		assertThat(b.stats().started()).isEqualTo(1);
+		assertThat(a.stats().maxWaitNanos()).isPositive();
+		assertThat(scheduler.stats().started()).isEqualTo(6);
+	}
+
+	@Test public void testQuotaLimitsALane() throws Exception {
+		var wide = new AiScheduler(4);
+		try {
+			var lane = wide.lane("game", AiScheduler.Kind.CPU, 2);
+			var running = new AtomicInteger();
+			var most = new AtomicInteger();
+			var release = new CountDownLatch(1);
+			Future<?> last = null;
+			for (int i = 0; i < 6; i++) last = lane.submit(() -> {
+				most.accumulateAndGet(running.incrementAndGet(), Math::max);
+				await(release);
+				running.decrementAndGet();
+			});
+			assertThat(lane.stats().running()).isEqualTo(2);
+			assertThat(lane.stats().queued()).isEqualTo(4);
+			// other lanes still get the free threads
+			get(wide.lane("other", AiScheduler.Kind.CPU, 1).submit(() -> {}));
+			// both started tasks must be inside before any of them leaves
+			while (running.get() < 2) Thread.onSpinWait();
+			release.countDown();
+			get(last);
+			assertThat(most.get()).isEqualTo(2);
+		} finally {
+			wide.close();
+		}
+	}
+
+	@Test public void testIoLanesDoNotUsePlatformThreads() throws Exception {
+		var blocked = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+		scheduler.lane("cpu", AiScheduler.Kind.CPU, 1).submit(() -> {
+			blocked.countDown();
+			await(release);
+		});
+		blocked.await();
+		var io = scheduler.lane("remote", AiScheduler.Kind.IO, 2);
+		get(io.submit(() -> {}));
+		assertThat(io.stats().started()).isEqualTo(1);
+		release.countDown();
+	}
+
+	@Test public void testClosedLaneInterruptsAndRejects() throws Exception {
+		var lane = scheduler.lane("game", AiScheduler.Kind.CPU, 1);
+		var started = new CountDownLatch(1);
+		var interrupted = new CountDownLatch(1);
+		var running = lane.submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		var queued = lane.submit(() -> {});
+		started.await();
+		lane.close();
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(running.isCancelled()).isTrue();
+		assertThat(queued.isCancelled()).isTrue();
+		assertThatThrownBy(() -> lane.submit(() -> {}))
+				.isInstanceOf(RejectedExecutionException.class);
+		// the thread is free again for other lanes
+		get(scheduler.lane("next", AiScheduler.Kind.CPU, 1).submit(() -> {}));
+		assertThat(lane.stats().queued()).isZero();
+	}
+}
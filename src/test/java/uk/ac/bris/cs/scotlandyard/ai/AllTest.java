@@ -0,0 +1,32 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+import uk.ac.bris.cs.scotlandyard.ai.book.OpeningBookTest;
+import uk.ac.bris.cs.scotlandyard.ai.endgame.TablebaseTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.AlphaBetaSearchTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.BatchSimulatorTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.InformationSetSearchTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.MonteCarloTreeSearchTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.PlayoutKernelTest;
+import uk.ac.bris.cs.scotlandyard.ai.search.TranspositionTableTest;
+
+/**
+ * Includes all tests for the AI support code
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+		LandmarkHeuristicTest.class,
+		MrXLocationTrackerTest.class,
+		MrXLocationDistributionTest.class,
+		MonteCarloTreeSearchTest.class,
+		InformationSetSearchTest.class,
+		AlphaBetaSearchTest.class,
+		TranspositionTableTest.class,
+		PlayoutKernelTest.class,
+		BatchSimulatorTest.class,
+		OpeningBookTest.class,
+		TablebaseTest.class
+})
+public class AllTest {}
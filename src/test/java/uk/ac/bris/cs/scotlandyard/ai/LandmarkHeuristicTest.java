@@ -0,0 +1,88 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.TransportClass;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.ai.LandmarkHeuristic.UNREACHABLE;
+
+/**
+ * Tests landmark bounds and A* distances against plain breadth first search
+ */
+public class LandmarkHeuristicTest {
+
+	private static ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph;
+
+	@BeforeClass public static void setUp() throws IOException {
+		graph = ScotlandYard.standardGraph();
+	}
+
+	private static int bfs(int from, int to, TransportClass c) {
+		Map<Integer, Integer> distance = new HashMap<>();
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		distance.put(from, 0);
+		queue.add(from);
+		while (!queue.isEmpty()) {
+			int current = queue.poll();
+			if (current == to) return distance.get(current);
+			for (int next : graph.adjacentNodes(current)) {
+				if (distance.containsKey(next)) continue;
+				var transports = graph.edgeValue(current, next).orElseThrow();
+				if (transports.stream().noneMatch(c.transports()::contains)) continue;
+				distance.put(next, distance.get(current) + 1);
+				queue.add(next);
+			}
+		}
+		return UNREACHABLE;
+	}
+
+	@Test public void testBoundsAndDistancesMatchBreadthFirstSearch() {
+		var heuristic = new LandmarkHeuristic(GraphIndex.of(graph), 8);
+		var random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			int from = random.nextInt(199) + 1, to = random.nextInt(199) + 1;
+			for (TransportClass c : TransportClass.values()) {
+				int exact = bfs(from, to, c);
+				assertThat(heuristic.distance(from, to, c)).isEqualTo(exact);
+				int lower = heuristic.lowerBound(from, to, c);
+				if (exact == UNREACHABLE) continue;
+				assertThat(lower).isLessThanOrEqualTo(exact);
+				assertThat(heuristic.upperBound(from, to, c)).isGreaterThanOrEqualTo(exact);
+			}
+		}
+	}
+
+	@Test public void testLandmarksAreDistinct() {
+		var landmarks = new LandmarkHeuristic(GraphIndex.of(graph), 16).landmarks();
+		assertThat(landmarks).hasSize(16).doesNotHaveDuplicates();
+	}
+
+	@Test public void testSetupsOfOneGraphShareLandmarks() {
+		var standard = new GameSetup(graph, ScotlandYard.STANDARD24MOVES);
+		var allHidden = new GameSetup(graph, ImmutableList.copyOf(Collections.nCopies(
+				ScotlandYard.STANDARD24MOVES.size(), false)));
+		assertThat(LandmarkHeuristic.of(allHidden)).isSameAs(LandmarkHeuristic.of(standard));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownStationShouldThrow() {
+		new LandmarkHeuristic(GraphIndex.of(graph), 4).lowerBound(1, 1000,
+				TransportClass.ANY);
+	}
+}
@@ -0,0 +1,87 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyModelFactory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static uk.ac.bris.cs.scotlandyard.ai.MrXLocationTrackerTest.detectives;
+import static uk.ac.bris.cs.scotlandyard.ai.MrXLocationTrackerTest.mrX;
+
+/**
+ * Checks the weighted distribution stays consistent with the flat candidate set
+ */
+public class MrXLocationDistributionTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	@Test public void testSupportMatchesTrackerAndSumsToOne() {
+		for (int seed = 0; seed < 5; seed++) {
+			var random = new Random(seed);
+			var model = new MyModelFactory().build(setup, mrX(seed), detectives(seed));
+			var tracker = new MrXLocationTracker(setup);
+			var distribution = new MrXLocationDistribution(setup);
+			model.registerObserver(tracker);
+			model.registerObserver(distribution);
+			int location = mrX(seed).location();
+			while (model.getCurrentBoard().getWinner().isEmpty()) {
+				var moves = model.getCurrentBoard().getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				if (move.commencedBy().isMrX()) location = move.accept(new Move.FunctionalVisitor<>(
+						m -> m.destination, m -> m.destination2));
+				model.chooseMove(move);
+				if (!model.getCurrentBoard().getWinner().isEmpty()) break;
+				var probabilities = distribution.snapshot().probabilities();
+				assertThat(probabilities.keySet()).isEqualTo(tracker.candidates());
+				assertThat(probabilities.values().stream().mapToDouble(d -> d).sum())
+						.isCloseTo(1, within(1e-9));
+				assertThat(distribution.probability(location)).isPositive();
+			}
+		}
+	}
+
+	@Test public void testCreatedMidGameKeepsTheTrueLocation() {
+		for (int seed = 0; seed < 5; seed++) {
+			var random = new Random(seed);
+			var model = new MyModelFactory().build(setup, mrX(seed), detectives(seed));
+			int location = mrX(seed).location();
+			while (model.getCurrentBoard().getWinner().isEmpty()) {
+				var moves = model.getCurrentBoard().getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				if (move.commencedBy().isMrX()) location = move.accept(new Move.FunctionalVisitor<>(
+						m -> m.destination, m -> m.destination2));
+				model.chooseMove(move);
+				var board = model.getCurrentBoard();
+				if (!board.getWinner().isEmpty()) break;
+				// every entry so far caught up on at once, as by an AI joining late
+				var distribution = new MrXLocationDistribution(setup);
+				distribution.update(board);
+				var tracker = new MrXLocationTracker(setup);
+				tracker.update(board);
+				assertThat(distribution.probability(location)).isPositive();
+				assertThat(distribution.snapshot().probabilities().keySet())
+						.isEqualTo(tracker.candidates());
+			}
+		}
+	}
+
+	@Test public void testSamplesComeFromTheSupport() {
+		var distribution = new MrXLocationDistribution(setup);
+		var random = new SplittableRandom(1);
+		for (int i = 0; i < 1000; i++)
+			assertThat(ScotlandYard.MRX_LOCATIONS).contains(distribution.sample(random));
+	}
+}
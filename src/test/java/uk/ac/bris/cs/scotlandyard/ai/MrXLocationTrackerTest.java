@@ -0,0 +1,124 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyModelFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Plays random games and checks the tracker against a naive recomputation from the travel log
+ */
+public class MrXLocationTrackerTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	static Player mrX(int seed) {
+		return new Player(Piece.MrX.MRX, defaultMrXTickets(),
+				ScotlandYard.generateMrXLocation(seed));
+	}
+
+	static ImmutableList<Player> detectives(int seed) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var builder = ImmutableList.<Player>builder();
+		for (int i = 0; i < locations.size(); i++)
+			builder.add(new Player(pieces.get(i), defaultDetectiveTickets(), locations.get(i)));
+		return builder.build();
+	}
+
+	private static Set<Integer> naive(Board board) {
+		Set<Integer> candidates = new HashSet<>(ScotlandYard.MRX_LOCATIONS);
+		for (LogEntry entry : board.getMrXTravelLog()) {
+			if (entry.location().isPresent()) {
+				candidates = new HashSet<>(Set.of(entry.location().get()));
+				continue;
+			}
+			Set<Integer> next = new HashSet<>();
+			for (int node : candidates) {
+				for (int adjacent : setup.graph.adjacentNodes(node)) {
+					var transports = setup.graph.edgeValue(node, adjacent).orElseThrow();
+					if (entry.ticket() == Ticket.SECRET || transports.stream()
+							.anyMatch(t -> t.requiredTicket() == entry.ticket()))
+						next.add(adjacent);
+				}
+			}
+			candidates = next;
+		}
+		for (Piece piece : board.getPlayers()) {
+			if (piece.isDetective())
+				board.getDetectiveLocation((Detective) piece).ifPresent(candidates::remove);
+		}
+		return candidates;
+	}
+
+	@Test public void testTrueLocationIsAlwaysACandidate() {
+		for (int seed = 0; seed < 10; seed++) {
+			var random = new Random(seed);
+			var mrX = mrX(seed);
+			var model = new MyModelFactory().build(setup, mrX, detectives(seed));
+			var tracker = new MrXLocationTracker(setup);
+			model.registerObserver(tracker);
+			int location = mrX.location();
+			while (model.getCurrentBoard().getWinner().isEmpty()) {
+				var moves = model.getCurrentBoard().getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				if (move.commencedBy().isMrX()) location = move.accept(new Move.FunctionalVisitor<>(
+						m -> m.destination, m -> m.destination2));
+				model.chooseMove(move);
+				if (!model.getCurrentBoard().getWinner().isEmpty()) break;
+				assertThat(tracker.isCandidate(location)).isTrue();
+				assertThat(naive(model.getCurrentBoard())).containsAll(tracker.candidates());
+			}
+		}
+	}
+
+	@Test public void testUpdateOnlyProcessesNewEntries() {
+		var model = new MyModelFactory().build(setup, mrX(1), detectives(1));
+		var tracker = new MrXLocationTracker(setup);
+		var move = model.getCurrentBoard().getAvailableMoves().iterator().next();
+		model.chooseMove(move);
+		tracker.update(model.getCurrentBoard());
+		var first = tracker.candidates();
+		tracker.update(model.getCurrentBoard());
+		assertThat(tracker.processedEntries())
+				.isEqualTo(model.getCurrentBoard().getMrXTravelLog().size());
+		assertThat(tracker.candidates()).isEqualTo(first);
+	}
+
+	@Test public void testTrackersShareMasksButNotCandidates() {
+		var model = new MyModelFactory().build(setup, mrX(2), detectives(2));
+		var tracker = new MrXLocationTracker(setup);
+		// another setup on the same graph
+		var other = new MrXLocationTracker(new GameSetup(setup.graph, ImmutableList.of(false)));
+		assertThat(tracker.masks()).isNotNull().isSameAs(other.masks());
+		model.chooseMove(model.getCurrentBoard().getAvailableMoves().iterator().next());
+		tracker.update(model.getCurrentBoard());
+		assertThat(other.candidates()).isEqualTo(ImmutableSet.copyOf(ScotlandYard.MRX_LOCATIONS));
+		assertThat(tracker.candidates()).isNotEqualTo(other.candidates());
+	}
+}
@@ -0,0 +1,89 @@
+package uk.ac.bris.cs.scotlandyard.ai.book;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.bris.cs.scotlandyard.ai.search.GameStateEngine;
+import uk.ac.bris.cs.scotlandyard.ai.search.TranspositionTable;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Builds a tiny book and checks it survives a round trip and ignores detective colours
+ */
+public class OpeningBookTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	private static GameStateEngine.State start(Detective first, Detective second) {
+		return new GameStateEngine.State(new MyGameStateFactory().build(setup,
+				new Player(Piece.MrX.MRX, defaultMrXTickets(), 35),
+				ImmutableList.of(new Player(first, defaultDetectiveTickets(), 26),
+						new Player(second, defaultDetectiveTickets(), 50))), 35);
+	}
+
+	@Test public void testBookRoundTripsAndIgnoresColours() throws Exception {
+		var searched = new AtomicInteger();
+		OpeningBook book = new OpeningBookBuilder(setup)
+				.mrXStarts(ImmutableList.of(35))
+				.detectiveStarts(ImmutableList.of(26, 50))
+				.detectives(2)
+				.millisPerMove(50)
+				.maxDepth(1)
+				.threads(1)
+				.table(new TranspositionTable(1 << 10))
+				.progress((done, total, positions) -> searched.set(done))
+				.build();
+		assertThat(book.size()).isEqualTo(1);
+		assertThat(searched.get()).isEqualTo(1);
+
+		var bytes = new ByteArrayOutputStream();
+		book.write(bytes);
+		OpeningBook read = OpeningBook.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThat(read.size()).isEqualTo(1);
+		assertThat(read.fingerprint()).isEqualTo(setup.fingerprint());
+
+		var state = start(Detective.RED, Detective.GREEN);
+		var swapped = start(Detective.BLUE, Detective.RED);
+		assertThat(read.lookup(state)).isPresent();
+		assertThat(read.lookup(swapped)).isEqualTo(read.lookup(state));
+		assertThat(state.gameState().getAvailableMoves()).contains(read.lookup(state).get());
+		assertThat(read.depth(state)).isEqualTo(1);
+	}
+
+	@Test public void testEmptyBookFindsNothing() {
+		assertThat(OpeningBook.empty().lookup(start(Detective.RED, Detective.GREEN))).isEmpty();
+	}
+
+	@Test public void testGarbageIsRejected() {
+		assertThatThrownBy(() -> OpeningBook.read(new ByteArrayInputStream(new byte[64])))
+				.isInstanceOf(IOException.class);
+	}
+
+	@Test public void testBuilderRejectsNonPositiveLimits() {
+		var builder = new OpeningBookBuilder(setup);
+		assertThatThrownBy(() -> builder.maxDepth(0)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> builder.threads(0)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> builder.rounds(-1)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -0,0 +1,174 @@
+package uk.ac.bris.cs.scotlandyard.ai.endgame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import uk.ac.bris.cs.scotlandyard.ai.search.AlphaBetaSearch;
+import uk.ac.bris.cs.scotlandyard.ai.search.GameStateEngine;
+import uk.ac.bris.cs.scotlandyard.ai.search.TranspositionTable;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+
+/**
+ * Solves a one detective tablebase for the last two rounds of a three round game and checks it
+ * against an exhaustive search over the real rules
+ */
+public class TablebaseTest {
+
+	private static GameSetup setup;
+	private static Tablebase tablebase;
+	private static final GameStateEngine exact = new GameStateEngine(Tablebase.empty());
+
+	@BeforeClass public static void setUp() throws Exception {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ImmutableList.of(false, false, false));
+		tablebase = new TablebaseBuilder(setup)
+				.detectives(1)
+				.secrets(1)
+				.doubles(1)
+				.rounds(2)
+				.threads(2)
+				.build();
+	}
+
+	private static GameStateEngine.State state(int mrX, int detective, int roundsLeft,
+	                                           int secrets, int doubles) {
+		var tickets = ImmutableMap.of(Ticket.TAXI, 4, Ticket.BUS, 4, Ticket.UNDERGROUND, 4,
+				Ticket.SECRET, secrets, Ticket.DOUBLE, doubles);
+		var log = ImmutableList.copyOf(
+				Collections.nCopies(3 - roundsLeft, LogEntry.hidden(Ticket.TAXI)));
+		return new GameStateEngine.State(new MyGameStateFactory().resume(setup,
+				new Player(Piece.MrX.MRX, tickets, mrX),
+				ImmutableList.of(new Player(Piece.Detective.RED, defaultDetectiveTickets(),
+						detective)),
+				log, ImmutableSet.of(Piece.MrX.MRX)), mrX);
+	}
+
+	private static boolean mrXWins(GameStateEngine.State state) {
+		var game = state.gameState();
+		if (!game.getWinner().isEmpty()) return game.getWinner().contains(Piece.MrX.MRX);
+		var moves = exact.moves(state);
+		if (moves.isEmpty()) return true;
+		boolean mrXToMove = moves.get(0).commencedBy().isMrX();
+		for (Move move : moves)
+			if (mrXWins(exact.advance(state, move)) == mrXToMove) return mrXToMove;
+		return !mrXToMove;
+	}
+
+	@Test public void testProbesAgreeWithExhaustiveSearch() {
+		var graph = setup.graph;
+		Map<Tablebase.Outcome, Integer> seen = new EnumMap<>(Tablebase.Outcome.class);
+		for (int mrX : graph.nodes()) {
+			for (int detective : graph.adjacentNodes(mrX)) {
+				for (int roundsLeft = 1; roundsLeft <= 2; roundsLeft++) {
+					for (int secrets = 0; secrets <= 1; secrets++) {
+						var state = state(mrX, detective, roundsLeft, secrets, 0);
+						var outcome = tablebase.probe(state);
+						assertThat(outcome)
+								.as("MrX at %d, detective at %d, %d rounds left, %d secrets",
+										mrX, detective, roundsLeft, secrets)
+								.isEqualTo(mrXWins(state) ? Tablebase.Outcome.MRX_WINS
+										: Tablebase.Outcome.DETECTIVES_WIN);
+						seen.merge(outcome, 1, Integer::sum);
+					}
+				}
+			}
+		}
+		assertThat(seen).containsKeys(Tablebase.Outcome.MRX_WINS,
+				Tablebase.Outcome.DETECTIVES_WIN);
+	}
+
+	@Test public void testDoubleMovesAreSolved() {
+		for (int mrX : new int[]{1, 89, 108, 146, 194}) {
+			int detective = setup.graph.adjacentNodes(mrX).iterator().next();
+			var state = state(mrX, detective, 2, 0, 1);
+			assertThat(tablebase.probe(state)).isEqualTo(mrXWins(state)
+					? Tablebase.Outcome.MRX_WINS : Tablebase.Outcome.DETECTIVES_WIN);
+		}
+	}
+
+	@Test public void testTwoDetectivesAgreeWithExhaustiveSearch() throws Exception {
+		var solved = new ArrayList<Integer>();
+		Tablebase two = new TablebaseBuilder(setup).detectives(2).secrets(0).doubles(0)
+				.rounds(2).threads(2).progress((round, rounds) -> solved.add(round)).build();
+		assertThat(solved).containsExactly(1, 2);
+		var tickets = ImmutableMap.of(Ticket.TAXI, 4, Ticket.BUS, 4, Ticket.UNDERGROUND, 4,
+				Ticket.SECRET, 0, Ticket.DOUBLE, 0);
+		for (int mrX : new int[]{1, 8, 57, 108, 146, 171, 194}) {
+			var adjacent = ImmutableList.copyOf(setup.graph.adjacentNodes(mrX));
+			int first = adjacent.get(0), second = adjacent.get(adjacent.size() - 1);
+			var state = new GameStateEngine.State(new MyGameStateFactory().resume(setup,
+					new Player(Piece.MrX.MRX, tickets, mrX),
+					ImmutableList.of(
+							new Player(Piece.Detective.RED, defaultDetectiveTickets(), first),
+							new Player(Piece.Detective.BLUE, defaultDetectiveTickets(), second)),
+					ImmutableList.of(LogEntry.hidden(Ticket.TAXI)),
+					ImmutableSet.of(Piece.MrX.MRX)), mrX);
+			assertThat(two.probe(state)).as("MrX at %d", mrX).isEqualTo(mrXWins(state)
+					? Tablebase.Outcome.MRX_WINS : Tablebase.Outcome.DETECTIVES_WIN);
+		}
+	}
+
+	@Test public void testUncoveredPositionsAreUnknown() {
+		// three rounds left is more than was solved
+		assertThat(tablebase.probe(state(1, 8, 3, 0, 0))).isEqualTo(Tablebase.Outcome.UNKNOWN);
+		assertThat(Tablebase.empty().probe(state(1, 8, 1, 0, 0)))
+				.isEqualTo(Tablebase.Outcome.UNKNOWN);
+		// MrX holds more secret tickets than the table tracks, so only his wins are certain
+		for (int mrX : setup.graph.nodes()) {
+			for (int detective : setup.graph.adjacentNodes(mrX)) {
+				var state = state(mrX, detective, 2, 3, 0);
+				assertThat(tablebase.probe(state)).isEqualTo(mrXWins(state)
+						? Tablebase.Outcome.MRX_WINS : Tablebase.Outcome.UNKNOWN);
+			}
+		}
+	}
+
+	@Test public void testSearchUsesTablebase() {
+		var engine = new GameStateEngine(tablebase);
+		for (int mrX : new int[]{1, 108, 194}) {
+			int detective = setup.graph.adjacentNodes(mrX).iterator().next();
+			var state = state(mrX, detective, 2, 0, 0);
+			var result = new AlphaBetaSearch(engine, new TranspositionTable(1 << 10), 2)
+					.search(state, Long.MAX_VALUE);
+			assertThat(result.score() > 0).isEqualTo(mrXWins(state));
+			assertThat(Math.abs(result.score()))
+					.isGreaterThanOrEqualTo(AlphaBetaSearch.TABLEBASE_WIN);
+		}
+	}
+
+	@Test public void testRoundTrip() throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		tablebase.write(bytes);
+		Tablebase read = Tablebase.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThat(read.rounds()).isEqualTo(2);
+		assertThat(read.detectives()).isEqualTo(1);
+		assertThat(read.bytes()).isEqualTo(tablebase.bytes());
+		assertThat(read.fingerprint()).isEqualTo(setup.fingerprint());
+		for (int mrX = 1; mrX <= 199; mrX += 7) {
+			int detective = setup.graph.adjacentNodes(mrX).iterator().next();
+			var state = state(mrX, detective, 2, 1, 0);
+			assertThat(read.probe(state)).isEqualTo(tablebase.probe(state));
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that searches are deterministic and respect their deadline
+ */
+public class AlphaBetaSearchTest {
+
+	@Test public void testSearchIsDeterministic() {
+		GameState game = MonteCarloTreeSearchTest.game(4);
+		var root = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var first = new AlphaBetaSearch(new GameStateEngine(), new TranspositionTable(1 << 12), 2)
+				.search(root, Long.MAX_VALUE);
+		var second = new AlphaBetaSearch(new GameStateEngine(), new TranspositionTable(1 << 12), 2)
+				.search(root, Long.MAX_VALUE);
+		assertThat(first.depth()).isEqualTo(2);
+		assertThat(game.getAvailableMoves()).contains(first.bestMove());
+		assertThat(second.bestMove()).isEqualTo(first.bestMove());
+		assertThat(second.nodes()).isEqualTo(first.nodes());
+	}
+
+	@Test public void testExpiredDeadlineStillReturnsAMove() {
+		GameState game = MonteCarloTreeSearchTest.game(4);
+		var root = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var result = new AlphaBetaSearch(new GameStateEngine(), new TranspositionTable(64), 8)
+				.search(root, System.nanoTime());
+		assertThat(game.getAvailableMoves()).contains(result.bestMove());
+	}
+
+	@Test public void testCancelledTurnStopsWithOfferedMove() throws InterruptedException {
+		GameState game = MonteCarloTreeSearchTest.game(4);
+		var root = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var turn = AiDeadline.of(Duration.ofMinutes(1), Duration.ofMinutes(1));
+		var canceller = new Thread(() -> {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException ignored) {}
+			turn.cancel();
+		});
+		canceller.start();
+		long start = System.nanoTime();
+		var result = new AlphaBetaSearch(new GameStateEngine(), new TranspositionTable(1 << 12),
+				32).search(root, turn);
+		canceller.join();
+		assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(10));
+		assertThat(result.depth()).isPositive();
+		assertThat(turn.best()).contains(result.bestMove());
+	}
+}
@@ -0,0 +1,117 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Checks the batch simulator against the playout kernel and that its results do not depend on
+ * how the games are spread over threads and lanes
+ */
+public class BatchSimulatorTest {
+
+	@BeforeClass public static void setUp() throws IOException {
+		MonteCarloTreeSearchTest.setUp();
+	}
+
+	private static GameStateEngine.State start(int seed) {
+		GameState game = MonteCarloTreeSearchTest.game(seed);
+		return new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+	}
+
+	@Test public void testWinRateMatchesKernel() throws InterruptedException {
+		var start = start(2);
+		int games = 4000;
+		var kernel = new PlayoutKernel(start.gameState().getSetup());
+		var random = new SplittableRandom(5);
+		long wins = 0, rounds = 0;
+		for (int i = 0; i < games; i++) {
+			kernel.load(start.gameState(), start.mrXLocation());
+			if (kernel.play(random, PlayoutKernel.Policy.UNIFORM, Integer.MAX_VALUE)
+					== PlayoutKernel.MRX_WON) wins++;
+			rounds += kernel.round();
+		}
+		var stats = new BatchSimulator(start.gameState().getSetup())
+				.threads(2)
+				.lanes(256)
+				.simulate(ImmutableList.of(start), games, 11)
+				.get(0);
+		assertThat(stats.games()).isEqualTo(games);
+		assertThat(stats.unfinished()).isZero();
+		double p = (double) wins / games;
+		double sigma = Math.sqrt(2 * p * (1 - p) / games);
+		assertThat(Math.abs(stats.mrXWinRate() - p)).isLessThan(5 * sigma + 1e-9);
+		assertThat(stats.meanRounds()).isCloseTo((double) rounds / games,
+				offset(1.0));
+	}
+
+	@Test public void testSameGamesAsKernelFromRandomPositions() {
+		var engine = new GameStateEngine();
+		for (int seed = 0; seed < 40; seed++) {
+			var random = new SplittableRandom(seed);
+			var state = start(seed % 8);
+			// anywhere from the start to late in the game
+			for (int ply = random.nextInt(60); ply > 0 && !engine.isTerminal(state); ply--) {
+				var moves = engine.moves(state);
+				state = engine.advance(state, moves.get(random.nextInt(moves.size())));
+			}
+			if (engine.isTerminal(state)) continue;
+			var setup = state.gameState().getSetup();
+			var kernel = new PlayoutKernel(setup);
+			kernel.load(state.gameState(), state.mrXLocation());
+			List<Integer> kernelCounts = new ArrayList<>();
+			int status = kernel.play(new SplittableRandom(seed), (k, r) -> {
+				kernelCounts.add(k.moveCount());
+				return r.nextInt(k.moveCount());
+			}, Integer.MAX_VALUE);
+			List<Integer> batchCounts = new ArrayList<>();
+			var choices = new SplittableRandom(seed);
+			var stats = new BatchSimulator(setup).lanes(1).replay(state, count -> {
+				batchCounts.add(count);
+				return choices.nextInt(count);
+			});
+			// the same moves to choose from at every ply, so the same game
+			assertThat(batchCounts).isEqualTo(kernelCounts);
+			assertThat(stats.meanPlies()).isEqualTo(kernel.plies());
+			assertThat(stats.meanRounds()).isEqualTo(kernel.round());
+			assertThat(stats.mrXWins()).isEqualTo(status == PlayoutKernel.MRX_WON ? 1 : 0);
+			assertThat(stats.detectiveWins())
+					.isEqualTo(status == PlayoutKernel.DETECTIVES_WON ? 1 : 0);
+			assertThat(stats.stalled()).isEqualTo(status == PlayoutKernel.STALLED ? 1 : 0);
+		}
+	}
+
+	@Test public void testResultsIgnoreThreadsAndLanes() throws InterruptedException {
+		var starts = ImmutableList.of(start(0), start(1), start(4));
+		var setup = starts.get(0).gameState().getSetup();
+		var one = new BatchSimulator(setup).threads(1).lanes(7).simulate(starts, 100, 3);
+		var many = new BatchSimulator(setup).threads(3).lanes(64).simulate(starts, 100, 3);
+		for (int s = 0; s < starts.size(); s++) {
+			assertThat(many.get(s).games()).isEqualTo(100);
+			assertThat(many.get(s).mrXWins()).isEqualTo(one.get(s).mrXWins());
+			assertThat(many.get(s).detectiveWins()).isEqualTo(one.get(s).detectiveWins());
+			assertThat(many.get(s).meanPlies()).isEqualTo(one.get(s).meanPlies());
+		}
+	}
+
+	@Test public void testPlyLimitLeavesGamesUnfinished() throws InterruptedException {
+		var start = start(0);
+		var stats = new BatchSimulator(start.gameState().getSetup()).threads(1).maxPlies(3)
+				.simulate(ImmutableList.of(start), 50, 1).get(0);
+		assertThat(stats.meanPlies()).isLessThanOrEqualTo(3.0);
+		assertThat(stats.unfinished() + stats.mrXWins() + stats.detectiveWins()
+				+ stats.stalled()).isEqualTo(50);
+		assertThat(stats.unfinished()).isPositive();
+	}
+}
@@ -0,0 +1,79 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import org.junit.Test;
+
+import java.util.stream.Collectors;
+
+import uk.ac.bris.cs.scotlandyard.ai.MrXLocationDistribution;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ImmutableBoard;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs a small detective search after MrX's first move
+ */
+public class InformationSetSearchTest {
+
+	@Test public void testPlanCoversEveryRemainingDetectiveOnce() {
+		GameState game = MonteCarloTreeSearchTest.game(11);
+		GameState detectiveTurn = game.advance(game.getAvailableMoves().asList().get(0));
+		var board = new ImmutableBoard(detectiveTurn);
+		var distribution = new MrXLocationDistribution(board.getSetup());
+		distribution.update(board);
+		var snapshot = distribution.snapshot();
+		var determiniser = GameStateEngine.determiniser(board);
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(2).withSeed(7);
+		try (var search = new InformationSetSearch<>(new GameStateEngine(), config)) {
+			var result = search.search(r -> determiniser.apply(snapshot.sample(r)), 300)
+					.orElseThrow();
+			assertThat(result.playouts()).isEqualTo(300);
+			assertThat(board.getAvailableMoves()).contains(result.bestMove());
+			assertThat(result.plan()).allMatch(m -> m.commencedBy().isDetective());
+			assertThat(result.plan().stream().map(Move::commencedBy)
+					.collect(Collectors.toSet())).hasSize(result.plan().size());
+		}
+	}
+
+	@Test public void testExpiredDeadlineStillPicksALegalMove() {
+		GameState game = MonteCarloTreeSearchTest.game(11);
+		GameState detectiveTurn = game.advance(game.getAvailableMoves().asList().get(0));
+		var board = new ImmutableBoard(detectiveTurn);
+		long now = System.nanoTime();
+		var expired = new AiDeadline(now - 3_000_000_000L, now - 2_000_000_000L,
+				now - 1_000_000_000L);
+		var ai = new DetectiveIsmctsAi();
+		ai.onStart();
+		try {
+			assertThat(board.getAvailableMoves()).contains(ai.pickMove(board, expired));
+		} finally {
+			ai.onTerminate();
+		}
+	}
+
+	@Test public void testNothingSearchedOnceTheDeadlineHasPassed() {
+		GameState game = MonteCarloTreeSearchTest.game(11);
+		GameState detectiveTurn = game.advance(game.getAvailableMoves().asList().get(0));
+		var board = new ImmutableBoard(detectiveTurn);
+		var distribution = new MrXLocationDistribution(board.getSetup());
+		distribution.update(board);
+		var snapshot = distribution.snapshot();
+		var determiniser = GameStateEngine.determiniser(board);
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(2).withSeed(7);
+		try (var search = new InformationSetSearch<>(new GameStateEngine(), config)) {
+			assertThat(search.search(r -> determiniser.apply(snapshot.sample(r)),
+					System.nanoTime() - 1)).isEmpty();
+		}
+	}
+
+	@Test public void testDeterminisationIgnoresRealMrXLocation() {
+		GameState game = MonteCarloTreeSearchTest.game(5);
+		int real = GameStateEngine.mrXLocation(game).orElseThrow();
+		int guess = real == 1 ? 2 : 1;
+		var state = GameStateEngine.determinise(game, guess);
+		assertThat(state.gameState()).isNotSameAs(game);
+		assertThat(GameStateEngine.mrXLocation(state.gameState())).hasValue(guess);
+	}
+}
@@ -0,0 +1,121 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.ImmutableBoard;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Runs small fixed size searches on the standard game
+ */
+public class MonteCarloTreeSearchTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	static GameState game(int seed) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < locations.size(); i++)
+			detectives.add(new Player(pieces.get(i), defaultDetectiveTickets(), locations.get(i)));
+		return new MyGameStateFactory().build(setup,
+				new Player(Piece.MrX.MRX, defaultMrXTickets(),
+						ScotlandYard.generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	@Test public void testSearchReturnsLegalMoveAndCountsPlayouts() {
+		GameState game = game(7);
+		int location = GameStateEngine.mrXLocation(game).orElseThrow();
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(2).withSeed(42);
+		try (var search = new MonteCarloTreeSearch<>(new GameStateEngine(), config)) {
+			var result = search.search(new GameStateEngine.State(game, location), 200);
+			assertThat(game.getAvailableMoves()).contains(result.bestMove());
+			assertThat(result.playouts()).isEqualTo(200);
+			assertThat(result.visits().values().stream().mapToInt(Integer::intValue).sum())
+					.isEqualTo(200);
+			assertThat(result.value()).isBetween(0.0, 1.0);
+		}
+	}
+
+	@Test public void testTreeIsReusedAfterReportedMoves() {
+		var engine = new GameStateEngine();
+		GameState game = game(9);
+		var state = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(2).withSeed(3);
+		try (var search = new MonteCarloTreeSearch<>(engine, config)) {
+			var first = search.resume(state, Long.MAX_VALUE, 800);
+			assertThat(first.reusedVisits()).isZero();
+			var next = engine.advance(state, first.bestMove());
+			search.advance(first.bestMove());
+			var second = search.resume(next, Long.MAX_VALUE, 100);
+			assertThat(second.reusedVisits()).isEqualTo(first.visits().get(first.bestMove()).longValue());
+		}
+	}
+
+	@Test public void testPonderingGrowsTheRetainedTree() {
+		var engine = new GameStateEngine();
+		GameState game = game(9);
+		var state = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(2).withSeed(3);
+		try (var search = new MonteCarloTreeSearch<>(engine, config)) {
+			assertThat(search.ponder(Long.MAX_VALUE, () -> false)).isEmpty();
+			var first = search.resume(state, Long.MAX_VALUE, 400);
+			var next = engine.advance(state, first.bestMove());
+			search.advance(first.bestMove());
+			var stopAt = new AtomicLong(300);
+			var pondered = search.ponder(Long.MAX_VALUE, () -> stopAt.decrementAndGet() < 0)
+					.orElseThrow();
+			assertThat(pondered.playouts()).isPositive();
+			var second = search.resume(next, Long.MAX_VALUE, 100);
+			assertThat(second.reusedVisits()).isEqualTo(
+					first.visits().get(first.bestMove()) + pondered.playouts());
+		}
+	}
+
+	@Test public void testTreeIsFoundFromBoardWithoutReportedMoves() {
+		var engine = new GameStateEngine();
+		GameState game = game(9);
+		var state = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var config = MonteCarloTreeSearch.Config.defaults().withWorkers(1).withSeed(3);
+		try (var search = new MonteCarloTreeSearch<>(engine, config)) {
+			var first = search.resume(state, Long.MAX_VALUE, 800);
+			var next = engine.advance(state, first.bestMove());
+			var rebuilt = GameStateEngine.resume(new ImmutableBoard(next.gameState()),
+					next.mrXLocation());
+			var second = search.resume(rebuilt, Long.MAX_VALUE, 100);
+			assertThat(second.reusedVisits()).isEqualTo(first.visits().get(first.bestMove()).longValue());
+		}
+	}
+
+	@Test public void testResumedStateHasSameMoves() {
+		GameState game = game(3);
+		var engine = new GameStateEngine();
+		var start = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var next = engine.advance(start, engine.moves(start).get(0));
+		var detectiveTurn = next.gameState();
+		var resumed = GameStateEngine.resume(new ImmutableBoard(detectiveTurn),
+				next.mrXLocation());
+		assertThat(resumed.gameState().getAvailableMoves())
+				.isEqualTo(detectiveTurn.getAvailableMoves());
+	}
+}
@@ -0,0 +1,127 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Plays random games through the kernel and the real engine side by side, checking that both
+ * offer exactly the same moves and end the same way
+ */
+public class PlayoutKernelTest {
+
+	@BeforeClass public static void setUp() throws IOException {
+		MonteCarloTreeSearchTest.setUp();
+	}
+
+	private static void assertLockstep(GameState start, long seed) {
+		var random = new SplittableRandom(seed);
+		var kernel = new PlayoutKernel(start.getSetup());
+		int mrX = GameStateEngine.mrXLocation(start).orElseThrow();
+		kernel.load(start, mrX);
+		GameState game = start;
+		while (true) {
+			var moves = ImmutableSet.<Move>builder();
+			for (int i = 0; i < kernel.moveCount(); i++) moves.add(kernel.move(i));
+			assertThat(moves.build()).isEqualTo(game.getAvailableMoves());
+			assertThat(kernel.moveCount()).isEqualTo(game.getAvailableMoves().size());
+			assertThat(kernel.round()).isEqualTo(game.getMrXTravelLog().size());
+			var winner = game.getWinner();
+			if (!winner.isEmpty()) {
+				assertThat(kernel.status()).isEqualTo(winner.contains(Piece.MrX.MRX)
+						? PlayoutKernel.MRX_WON : PlayoutKernel.DETECTIVES_WON);
+				return;
+			}
+			if (game.getAvailableMoves().isEmpty()) {
+				assertThat(kernel.status()).isEqualTo(PlayoutKernel.STALLED);
+				return;
+			}
+			assertThat(kernel.status()).isEqualTo(PlayoutKernel.ONGOING);
+			int i = random.nextInt(kernel.moveCount());
+			game = game.advance(kernel.move(i));
+			kernel.play(i);
+		}
+	}
+
+	private static GameState sparse(int seed, int taxi, int bus, int underground, int rounds)
+			throws IOException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(),
+				ImmutableList.copyOf(ScotlandYard.STANDARD24MOVES.subList(0, rounds)));
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var pieces = ScotlandYard.DETECTIVES.asList();
+		var tickets = ImmutableMap.of(Ticket.TAXI, taxi, Ticket.BUS, bus,
+				Ticket.UNDERGROUND, underground, Ticket.DOUBLE, 0, Ticket.SECRET, 0);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < locations.size(); i++)
+			detectives.add(new Player(pieces.get(i), tickets, locations.get(i)));
+		var mrX = ImmutableMap.of(Ticket.TAXI, 2, Ticket.BUS, 1, Ticket.UNDERGROUND, 1,
+				Ticket.DOUBLE, 2, Ticket.SECRET, 1);
+		return new MyGameStateFactory().build(setup,
+				new Player(Piece.MrX.MRX, mrX, ScotlandYard.generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	@Test public void testStandardGamesMatchEngine() {
+		for (int seed = 0; seed < 6; seed++)
+			assertLockstep(MonteCarloTreeSearchTest.game(seed), seed);
+	}
+
+	@Test public void testShortTicketsMatchEngine() throws IOException {
+		// few tickets make detectives drop out, MrX run dry and blocked detectives wait
+		for (int seed = 0; seed < 40; seed++)
+			assertLockstep(sparse(seed, 2 + seed % 3, seed % 2, seed % 3 == 0 ? 1 : 0,
+					1 + seed % 6), seed);
+	}
+
+	@Test public void testPlayoutsDoNotAllocate() {
+		var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		GameState start = MonteCarloTreeSearchTest.game(3);
+		var kernel = new PlayoutKernel(start.getSetup());
+		int mrX = GameStateEngine.mrXLocation(start).orElseThrow();
+		var random = new SplittableRandom(1);
+		for (int i = 0; i < 200; i++) {
+			kernel.load(start, mrX);
+			kernel.play(random, PlayoutKernel.Policy.UNIFORM, Integer.MAX_VALUE);
+		}
+		long total = 0, plies = 0;
+		for (int i = 0; i < 50; i++) {
+			kernel.load(start, mrX);
+			long before = bean.getCurrentThreadAllocatedBytes();
+			kernel.play(random, PlayoutKernel.Policy.UNIFORM, Integer.MAX_VALUE);
+			total += bean.getCurrentThreadAllocatedBytes() - before;
+			plies += kernel.plies();
+		}
+		assertThat(plies).isGreaterThan(50);
+		assertThat(total).isLessThan(plies);
+	}
+
+	@Test public void testEnginePlayoutsUseKernelRules() {
+		GameState game = MonteCarloTreeSearchTest.game(5);
+		var state = new GameStateEngine.State(game, GameStateEngine.mrXLocation(game).orElseThrow());
+		var engine = new GameStateEngine();
+		var random = new SplittableRandom(9);
+		for (int i = 0; i < 100; i++) {
+			double reward = engine.playout(state, random, 1000);
+			assertThat(reward == 0 || reward == 1).isTrue();
+		}
+		assertThat(engine.playout(state, random, 2)).isBetween(0.0, 1.0);
+	}
+}
@@ -0,0 +1,93 @@
+package uk.ac.bris.cs.scotlandyard.ai.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks entry packing, the replacement policy and that concurrent use never yields a corrupted
+ * entry
+ */
+public class TranspositionTableTest {
+
+	@Test public void testEntriesRoundTrip() {
+		var table = new TranspositionTable(1000);
+		assertThat(table.capacity()).isEqualTo(1024);
+		table.store(42L, 7, TranspositionTable.LOWER, -123456, 0xBEEF);
+		long entry = table.probe(42L);
+		assertThat(TranspositionTable.depth(entry)).isEqualTo(7);
+		assertThat(TranspositionTable.bound(entry)).isEqualTo(TranspositionTable.LOWER);
+		assertThat(TranspositionTable.score(entry)).isEqualTo(-123456);
+		assertThat(TranspositionTable.moveCode(entry)).isEqualTo(0xBEEF);
+		assertThat(table.probe(43L)).isEqualTo(TranspositionTable.MISS);
+		assertThat(table.stats().hits()).isEqualTo(1);
+		assertThat(table.stats().misses()).isEqualTo(1);
+	}
+
+	@Test public void testMegabytesAreRespected() {
+		var table = TranspositionTable.ofMegabytes(3);
+		assertThat(table.bytes()).isEqualTo(2L << 20);
+		assertThatThrownBy(() -> TranspositionTable.ofMegabytes(0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testShallowestEntryOfOlderGenerationIsReplacedFirst() {
+		// a single bucket, so every key collides
+		var table = new TranspositionTable(TranspositionTable.BUCKET);
+		for (int i = 0; i < TranspositionTable.BUCKET; i++)
+			table.store(100 + i, 10 + i, TranspositionTable.EXACT, i, 0);
+		table.store(200, 1, TranspositionTable.EXACT, 0, 0);
+		assertThat(table.probe(200)).isNotEqualTo(TranspositionTable.MISS);
+		assertThat(table.probe(100)).isEqualTo(TranspositionTable.MISS);
+		assertThat(table.stats().overwrites()).isEqualTo(1);
+		assertThat(table.stats().collisions()).isEqualTo(1);
+
+		table.newSearch();
+		table.store(200, 1, TranspositionTable.EXACT, 0, 0);
+		table.store(300, 0, TranspositionTable.EXACT, 0, 0);
+		// the deep entries of the old generation now go before the fresh shallow one
+		assertThat(table.probe(200)).isNotEqualTo(TranspositionTable.MISS);
+		assertThat(table.probe(101)).isEqualTo(TranspositionTable.MISS);
+	}
+
+	@Test public void testConcurrentWritersNeverCorruptEntries() throws Exception {
+		var table = new TranspositionTable(1 << 10);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int seed = t;
+				tasks.add(() -> {
+					var random = new SplittableRandom(seed);
+					int checked = 0;
+					for (int i = 0; i < 200_000; i++) {
+						long key = random.nextLong(1 << 14) * 0x9E3779B97F4A7C15L;
+						long entry = table.probe(key);
+						if (entry != TranspositionTable.MISS) {
+							if (TranspositionTable.score(entry) != (int) (key >>> 16))
+								throw new AssertionError("Corrupted entry for " + key);
+							checked++;
+						}
+						table.store(key, (int) (key >>> 8 & 0x3f), TranspositionTable.EXACT,
+								(int) (key >>> 16), 0);
+					}
+					return checked;
+				});
+			}
+			int checked = 0;
+			for (Future<Integer> f : executor.invokeAll(tasks)) checked += f.get();
+			assertThat(checked).isPositive();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
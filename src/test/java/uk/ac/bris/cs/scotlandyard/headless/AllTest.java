@@ -0,0 +1,28 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+import uk.ac.bris.cs.scotlandyard.AiInvokerTest;
+import uk.ac.bris.cs.scotlandyard.AiLoaderTest;
+import uk.ac.bris.cs.scotlandyard.AiSchedulerTest;
+import uk.ac.bris.cs.scotlandyard.metrics.HistogramTest;
+import uk.ac.bris.cs.scotlandyard.metrics.UsageTest;
+import uk.ac.bris.cs.scotlandyard.remote.AiHostTest;
+
+/**
+ * Includes all tests for headless play and the AI loading, scheduling, metrics and hosting it
+ * shares with the UI
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+		AiSchedulerTest.class,
+		AiInvokerTest.class,
+		AiLoaderTest.class,
+		HistogramTest.class,
+		UsageTest.class,
+		TournamentTest.class,
+		RatingsTest.class,
+		AiHostTest.class
+})
+public class AllTest {}
@@ -0,0 +1,112 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Checks the rating fit against results drawn from known ratings, and the SPRT on clear and
+ * even matches
+ */
+public class RatingsTest {
+
+	private static GameResult.Winner play(Random random, double mrX, double detectives) {
+		double p = 1 / (1 + Math.pow(10, (detectives - mrX) / 400));
+		return random.nextDouble() < p ? GameResult.Winner.MRX : GameResult.Winner.DETECTIVES;
+	}
+
+	private static GameResult result(long game, String mrX, String detectives,
+	                                 GameResult.Winner winner) {
+		return new GameResult(game, 0, new GameResult.Side(mrX, 1, 0, 0),
+				new GameResult.Side(detectives, 1, 0, 0), winner, GameResult.Ending.NORMAL, 1, 0);
+	}
+
+	@Test public void testRecoversRatingDifferences() {
+		String[] names = {"a", "b", "c"};
+		double[] mrX = {1700, 1500, 1350}, detectives = {1600, 1450, 1500};
+		var random = new Random(1);
+		var ratings = new Ratings();
+		for (int n = 0; n < 4000; n++)
+			for (int m = 0; m < 3; m++)
+				for (int d = 0; d < 3; d++)
+					ratings.add(names[m], names[d], play(random, mrX[m], detectives[d]));
+		var board = ratings.leaderboard();
+		assertThat(board).extracting(Ratings.Standing::ai).containsExactly("a", "b", "c");
+		var a = board.get(0);
+		assertThat(a.mrX().games()).isEqualTo(12000);
+		// the scale is only anchored by the virtual games, so compare differences
+		assertThat(a.mrX().elo() - a.detectives().elo()).isCloseTo(100, offset(15.0));
+		for (var s : board) {
+			int i = s.ai().charAt(0) - 'a';
+			assertThat(s.mrX().elo() - a.mrX().elo()).isCloseTo(mrX[i] - mrX[0], offset(20.0));
+			assertThat(s.detectives().elo() - a.mrX().elo())
+					.isCloseTo(detectives[i] - mrX[0], offset(20.0));
+			assertThat(s.mrX().low()).isLessThan(s.mrX().elo());
+			assertThat(s.mrX().high() - s.mrX().low()).isLessThan(40);
+		}
+	}
+
+	@Test public void testUnbeatenSideStaysFinite() {
+		var ratings = new Ratings();
+		for (int i = 0; i < 100; i++) ratings.add("strong", "weak", GameResult.Winner.MRX);
+		var board = ratings.leaderboard();
+		var strong = board.stream().filter(s -> s.ai().equals("strong")).findFirst()
+				.orElseThrow();
+		assertThat(strong.mrX().elo()).isFinite().isGreaterThan(Ratings.BASE);
+		assertThat(strong.detectives().elo()).isNaN();
+		assertThat(strong.overall().elo()).isNaN();
+		var weak = board.stream().filter(s -> s.ai().equals("weak")).findFirst().orElseThrow();
+		assertThat(weak.detectives().elo()).isFinite().isLessThan(Ratings.BASE);
+	}
+
+	@Test public void testReadsBothResultFormats() throws IOException {
+		var csv = new StringWriter();
+		var jsonl = new StringWriter();
+		var direct = new Ratings();
+		var random = new Random(3);
+		try (var c = ResultWriter.csv(csv); var j = ResultWriter.jsonl(jsonl)) {
+			for (int i = 0; i < 200; i++) {
+				var winner = i % 17 == 0 ? GameResult.Winner.NONE : play(random, 1500, 1500);
+				var result = result(i, i % 2 == 0 ? "x, \"quoted\"" : "yé",
+						i % 3 == 0 ? "x, \"quoted\"" : "yé", winner);
+				c.write(result);
+				j.write(result);
+				direct.add(result);
+			}
+		}
+		for (var text : new String[]{csv.toString(), jsonl.toString()}) {
+			var read = new Ratings();
+			assertThat(read.read(new StringReader(text))).isEqualTo(200);
+			var expected = direct.leaderboard();
+			var actual = read.leaderboard();
+			assertThat(actual).hasSameSizeAs(expected);
+			for (int i = 0; i < expected.size(); i++) {
+				assertThat(actual.get(i).ai()).isEqualTo(expected.get(i).ai());
+				assertThat(actual.get(i).mrX().elo()).isEqualTo(expected.get(i).mrX().elo());
+			}
+		}
+	}
+
+	@Test public void testSprtAcceptsClearDifference() {
+		var sprt = new Sprt(0, 50, 0.05, 0.05);
+		var random = new Random(7);
+		while (sprt.decision() == Sprt.Decision.CONTINUE && sprt.games() < 100_000)
+			sprt.add(Ratings.score(play(random, 1700, 1500)));
+		assertThat(sprt.decision()).isEqualTo(Sprt.Decision.ACCEPT_H1);
+		assertThat(sprt.llr()).isGreaterThanOrEqualTo(sprt.upperBound());
+	}
+
+	@Test public void testSprtRejectsEvenMatch() {
+		var sprt = new Sprt(0, 50, 0.05, 0.05);
+		var random = new Random(11);
+		while (sprt.decision() == Sprt.Decision.CONTINUE && sprt.games() < 100_000)
+			sprt.add(Ratings.score(play(random, 1500, 1500)));
+		assertThat(sprt.decision()).isEqualTo(Sprt.Decision.ACCEPT_H0);
+	}
+}
@@ -0,0 +1,213 @@
+package uk.ac.bris.cs.scotlandyard.headless;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.AiBudget;
+import uk.ac.bris.cs.scotlandyard.AiWarmUp;
+import uk.ac.bris.cs.scotlandyard.metrics.AiMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Plays small tournaments between stub AIs
+ */
+public class TournamentTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	public static class FirstMoveAi implements Ai {
+		@Nonnull @Override public String name() { return "first"; }
+
+		@Nonnull @Override public Move pickMove(@Nonnull Board board,
+		                                        Pair<Long, TimeUnit> timeoutPair) {
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	public static class RandomAi implements Ai {
+		private final Random random = new Random(42);
+
+		@Nonnull @Override public String name() { return "random"; }
+
+		@Nonnull @Override public Move pickMove(@Nonnull Board board,
+		                                        Pair<Long, TimeUnit> timeoutPair) {
+			var moves = board.getAvailableMoves().asList();
+			return moves.get(random.nextInt(moves.size()));
+		}
+	}
+
+	public static class SlowAi implements Ai {
+		@Nonnull @Override public String name() { return "slow"; }
+
+		@Nonnull @Override public Move pickMove(@Nonnull Board board,
+		                                        Pair<Long, TimeUnit> timeoutPair) {
+			try {
+				Thread.sleep(timeoutPair.left() * 50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	@Test public void testWarmUpBoardsForEachSide() {
+		var warmUp = new AiWarmUp(setup).boards(6).seed(3);
+		for (AiMetrics.Side side : AiMetrics.Side.values()) {
+			var boards = warmUp.boards(side);
+			assertThat(boards).hasSize(6);
+			assertThat(boards).allSatisfy(b -> assertThat(AiMetrics.Side.of(b)).isEqualTo(side));
+			assertThat(warmUp.boards(side).get(5).getAvailableMoves())
+					.isEqualTo(boards.get(5).getAvailableMoves());
+		}
+	}
+
+	@Test public void testEntrantsWarmedUpBeforeTheGames() throws InterruptedException,
+			IOException {
+		var tournament = new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.entrant("random", RandomAi::new)
+				.games(1)
+				.threads(2)
+				.warmUp(Duration.ofMillis(200));
+		var results = tournament.run(ResultWriter.csv(new StringWriter()));
+		assertThat(tournament.warmUps()).hasSize(4);
+		assertThat(tournament.warmUps()).allSatisfy(r -> {
+			assertThat(r.moves()).isEqualTo(16);
+			assertThat(r.failures()).isZero();
+			assertThat(r.speedUp()).isPositive();
+		});
+		// warm-up moves are not counted with the real ones
+		assertThat(tournament.metrics().recorders().stream().mapToLong(r -> r.calls()).sum())
+				.isEqualTo(results.stream().mapToLong(r -> r.mrX().moves() + r.detectives().moves())
+						.sum());
+	}
+
+	@Test public void testEveryPairingPlaysTheSameStarts() throws InterruptedException,
+			IOException {
+		var out = new StringWriter();
+		var results = new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.entrant("random", RandomAi::new)
+				.games(3)
+				.seed(7)
+				.threads(2)
+				.ponder(true)
+				.run(ResultWriter.csv(out));
+		assertThat(results).hasSize(12);
+		for (int i = 0; i < results.size(); i++) {
+			var result = results.get(i);
+			assertThat(result.game()).isEqualTo(i);
+			assertThat(result.seed()).isEqualTo(7 + i % 3);
+			assertThat(result.ending()).isEqualTo(GameResult.Ending.NORMAL);
+			assertThat(result.winner()).isNotEqualTo(GameResult.Winner.NONE);
+			assertThat(result.mrX().moves()).isPositive();
+		}
+		assertThat(results.get(0).mrX().ai()).isEqualTo("first");
+		assertThat(results.get(3).detectives().ai()).isEqualTo("random");
+		assertThat(results.get(6).mrX().ai()).isEqualTo("random");
+		// deterministic AIs on the same start play the same game
+		assertThat(results.get(0).rounds()).isEqualTo(new Tournament(setup)
+				.entrant("first", FirstMoveAi::new).games(1).seed(7)
+				.run(ResultWriter.csv(new StringWriter())).get(0).rounds());
+		var lines = out.toString().split("\n");
+		assertThat(lines).hasSize(13);
+		assertThat(lines[0]).startsWith("game,seed,mrx_ai,detective_ai,winner,ending");
+		assertThat(Tournament.summary(results)).hasSize(4);
+	}
+
+	@Test public void testSlowSideForfeits() throws InterruptedException {
+		var out = new StringWriter();
+		var results = new Tournament(setup)
+				.entrant("slow", SlowAi::new)
+				.entrant("first", FirstMoveAi::new)
+				.timeout(Duration.ofMillis(100))
+				.games(1)
+				.run(ResultWriter.jsonl(out));
+		assertThat(results).hasSize(4);
+		var slowMrX = results.get(1);
+		assertThat(slowMrX.ending()).isEqualTo(GameResult.Ending.TIMEOUT);
+		assertThat(slowMrX.winner()).isEqualTo(GameResult.Winner.DETECTIVES);
+		var slowDetectives = results.get(2);
+		assertThat(slowDetectives.ending()).isEqualTo(GameResult.Ending.TIMEOUT);
+		assertThat(slowDetectives.winner()).isEqualTo(GameResult.Winner.MRX);
+		assertThat(slowDetectives.mrX().moves()).isEqualTo(1);
+		assertThat(slowDetectives.detectives().maxNanos())
+				.isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+		assertThat(results.get(3).ending()).isEqualTo(GameResult.Ending.NORMAL);
+		var lines = out.toString().split("\n");
+		assertThat(lines).hasSize(4);
+		assertThat(lines[1]).startsWith("{\"game\":1,").contains("\"ending\":\"TIMEOUT\"")
+				.contains("\"mrX\":{\"ai\":\"slow\"");
+	}
+
+	@Test public void testMatchStopsOnceDecided() throws InterruptedException, IOException {
+		var sprt = new Sprt(0, 100, 0.05, 0.05);
+		var results = new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.entrant("slow", SlowAi::new)
+				.timeout(Duration.ofMillis(50))
+				.games(50)
+				.threads(2)
+				.match(ResultWriter.csv(new StringWriter()), sprt);
+		assertThat(sprt.decision()).isEqualTo(Sprt.Decision.ACCEPT_H1);
+		assertThat(results.size()).isLessThan(20).isEqualTo(sprt.games());
+		for (var result : results) {
+			assertThat(result.seed()).isEqualTo((int) result.game() / 2);
+			assertThat(result.mrX().ai()).isEqualTo(result.game() % 2 == 0 ? "first" : "slow");
+			assertThat(result.ending()).isEqualTo(GameResult.Ending.TIMEOUT);
+		}
+	}
+
+	@Test public void testForfeitingBudgetNeedsOneGameAtATime() throws InterruptedException,
+			IOException {
+		var forfeit = AiBudget.UNLIMITED.cpu(Duration.ofSeconds(1))
+				.action(AiBudget.Action.FORFEIT);
+		assertThatThrownBy(() -> new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.threads(2)
+				.budget(forfeit)
+				.run(ResultWriter.csv(new StringWriter())))
+				.isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.threads(1)
+				.ponder(true)
+				.budget("first", forfeit)
+				.run(ResultWriter.csv(new StringWriter())))
+				.isInstanceOf(IllegalStateException.class);
+		var results = new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.threads(1)
+				.games(1)
+				.budget(forfeit)
+				.run(ResultWriter.csv(new StringWriter()));
+		assertThat(results).hasSize(1);
+	}
+
+	@Test public void testRejectsDuplicateEntrants() {
+		assertThatThrownBy(() -> new Tournament(setup)
+				.entrant("first", FirstMoveAi::new)
+				.entrant("first", RandomAi::new))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+}
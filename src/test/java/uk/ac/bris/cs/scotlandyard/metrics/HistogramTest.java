@@ -0,0 +1,76 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+/**
+ * Checks the bucket layout, percentile accuracy and recording from many threads
+ */
+public class HistogramTest {
+
+	@Test public void testBucketsAreContiguous() {
+		assertThat(Histogram.lowest(0)).isZero();
+		for (int i = 1; Histogram.lowest(i) < Long.MAX_VALUE / 2; i++) {
+			assertThat(Histogram.lowest(i)).isEqualTo(Histogram.highest(i - 1) + 1);
+			assertThat(Histogram.index(Histogram.lowest(i))).isEqualTo(i);
+			assertThat(Histogram.index(Histogram.highest(i))).isEqualTo(i);
+		}
+		assertThat(Histogram.index(Long.MAX_VALUE)).isEqualTo(Histogram.index(Long.MAX_VALUE - 1));
+	}
+
+	@Test public void testPercentilesWithinResolution() {
+		var histogram = new Histogram();
+		var random = new Random(1);
+		long[] values = new long[100_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 25);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double p : new double[]{10, 50, 90, 99, 99.9}) {
+			long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+			assertThat((double) histogram.percentile(p)).isCloseTo(exact, withinPercentage(3.2));
+		}
+		assertThat(histogram.percentile(100)).isEqualTo(values[values.length - 1]);
+		assertThat(histogram.max()).isEqualTo(values[values.length - 1]);
+		assertThat(histogram.count()).isEqualTo(values.length);
+	}
+
+	@Test public void testEmptyAndInvalid() {
+		var histogram = new Histogram();
+		assertThat(histogram.percentile(99)).isZero();
+		assertThat(histogram.mean()).isZero();
+		assertThatThrownBy(() -> histogram.record(-1))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> histogram.percentile(101))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testConcurrentRecordingLosesNothing() throws Exception {
+		var histogram = new Histogram();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			var futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++)
+				futures.add(executor.submit(() -> {
+					for (long v = 1; v <= 100_000; v++) histogram.record(v);
+				}));
+			for (Future<?> future : futures) future.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(histogram.count()).isEqualTo(400_000);
+		assertThat(histogram.mean()).isEqualTo(50_000.5);
+		assertThat(histogram.max()).isEqualTo(100_000);
+	}
+}
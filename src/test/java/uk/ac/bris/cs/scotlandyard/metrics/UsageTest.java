@@ -0,0 +1,59 @@
+package uk.ac.bris.cs.scotlandyard.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that work handed to other threads is charged to the call, new threads or not
+ */
+public class UsageTest {
+
+	private static final long BURN_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+
+	private ExecutorService pool;
+
+	@Before public void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean().isThreadCpuTimeSupported());
+		pool = Executors.newFixedThreadPool(1);
+	}
+
+	@After public void tearDown() {
+		if (pool != null) pool.shutdownNow();
+	}
+
+	// uses the given CPU time on the pool's thread
+	private void burn() throws Exception {
+		pool.submit(() -> {
+			var threads = ManagementFactory.getThreadMXBean();
+			long end = threads.getCurrentThreadCpuTime() + BURN_NANOS;
+			while (threads.getCurrentThreadCpuTime() < end) Thread.onSpinWait();
+		}).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test public void testReusedPoolIsChargedEveryTime() throws Exception {
+		for (int call = 0; call < 2; call++) {
+			var meter = Usage.start();
+			burn();
+			var usage = meter.stop();
+			// the second call finds the pool's thread already running
+			assertThat(usage.cpuNanos()).isGreaterThanOrEqualTo(BURN_NANOS);
+			assertThat(usage.threads()).isPositive();
+		}
+	}
+
+	@Test public void testIdleThreadsAreNotCharged() throws Exception {
+		burn();
+		var meter = Usage.start();
+		var usage = meter.stop();
+		assertThat(usage.cpuNanos()).isLessThan(BURN_NANOS);
+	}
+}
@@ -15,6 +15,10 @@ import org.junit.runners.Suite;
 		GameStateDetectivesAvailableMovesTest.class,
 		GameStateMrXAvailableMovesTest.class,
 		GameStatePlayoutTest.class,
-		ModelObserverTest.class
+		ModelObserverTest.class,
+		ObserverDispatchTest.class,
+		GameSetupTest.class,
+		GameSetupRegistryTest.class,
+		RevealScheduleTest.class
 })
 public class AllTest {}
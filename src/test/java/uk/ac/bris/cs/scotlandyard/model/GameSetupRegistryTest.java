@@ -0,0 +1,48 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.GameSetupTest.graph;
+
+/**
+ * Tests that the registry only ever hands back a setup equal to the one interned
+ */
+public class GameSetupRegistryTest {
+
+	@Test public void testInternReturnsTheFirstEqualSetup() {
+		var registry = new GameSetupRegistry();
+		var first = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		var second = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		assertThat(registry.intern(first)).isSameAs(first);
+		assertThat(registry.intern(second)).isSameAs(first);
+		assertThat(registry.lookup(second.fingerprint())).containsSame(first);
+		assertThat(registry.size()).isEqualTo(1);
+	}
+
+	@Test public void testDifferentSetupsAreKeptApart() {
+		var registry = new GameSetupRegistry();
+		var bus = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		var underground = new GameSetup(graph(Transport.UNDERGROUND), ImmutableList.of(false, true));
+		assertThat(registry.intern(bus)).isSameAs(bus);
+		assertThat(registry.intern(underground)).isSameAs(underground);
+		assertThat(registry.lookup(underground.fingerprint())).containsSame(underground);
+		assertThat(registry.size()).isEqualTo(2);
+	}
+
+	@Test public void testCollisionNeverReturnsTheOtherSetup() {
+		var registry = new GameSetupRegistry();
+		var setup = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		var colliding = new GameSetup(graph(Transport.UNDERGROUND), ImmutableList.of(false, true),
+				setup.fingerprint());
+		registry.intern(setup);
+		assertThat(registry.intern(colliding)).isSameAs(colliding);
+		// the first setup keeps its place
+		assertThat(registry.intern(setup)).isSameAs(setup);
+		assertThat(registry.lookup(setup.fingerprint())).containsSame(setup);
+	}
+}
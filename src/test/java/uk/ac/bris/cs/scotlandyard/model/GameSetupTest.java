@@ -0,0 +1,53 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+import org.junit.Test;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that setups are equal by content, whatever their fingerprints say
+ */
+public class GameSetupTest {
+
+	static ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph(Transport transport) {
+		return ValueGraphBuilder.undirected()
+				.<Integer, ImmutableSet<Transport>>immutable()
+				.putEdgeValue(1, 2, ImmutableSet.of(Transport.TAXI))
+				.putEdgeValue(2, 3, ImmutableSet.of(transport))
+				.build();
+	}
+
+	@Test public void testSameContentIsEqual() {
+		var a = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		var b = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		assertThat(a).isEqualTo(b);
+		assertThat(a.hashCode()).isEqualTo(b.hashCode());
+		assertThat(a.fingerprint()).isEqualTo(b.fingerprint());
+	}
+
+	@Test public void testDifferentContentIsNotEqual() {
+		var setup = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		assertThat(setup).isNotEqualTo(
+				new GameSetup(graph(Transport.UNDERGROUND), ImmutableList.of(false, true)));
+		assertThat(setup).isNotEqualTo(
+				new GameSetup(graph(Transport.BUS), ImmutableList.of(true, false)));
+		assertThat(setup).isNotEqualTo(
+				new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true, false)));
+	}
+
+	@Test public void testCollidingFingerprintsAreNotEqual() {
+		var setup = new GameSetup(graph(Transport.BUS), ImmutableList.of(false, true));
+		var colliding = new GameSetup(graph(Transport.UNDERGROUND), ImmutableList.of(false, true),
+				setup.fingerprint());
+		assertThat(colliding.fingerprint()).isEqualTo(setup.fingerprint());
+		assertThat(colliding).isNotEqualTo(setup);
+		assertThat(setup).isNotEqualTo(colliding);
+	}
+}
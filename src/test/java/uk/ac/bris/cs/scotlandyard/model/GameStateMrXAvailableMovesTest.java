@@ -145,6 +145,35 @@ public class GameStateMrXAvailableMovesTest extends ParameterisedModelTestBase {
 				secret(MRX, 104, 116));
 	}
 
+	@Test public void testMrXNoDoubleMovesInFinalRound() {
+		var mrX = new Player(MRX, makeTickets(4, 3, 3, 2, 5), 104);
+		var blue = new Player(BLUE, defaultDetectiveTickets(), 117);
+
+		GameState state = gameStateFactory.build(
+				new GameSetup(standardGraph(), ImmutableList.of(false, false)),
+				mrX, blue);
+		state = state.advance(taxi(MRX, 104, 86));
+		state = state.advance(avoiding(state, 86));
+
+		// one round left, so the second move would go past the end of the game
+		assertThat(state.getAvailableMoves())
+				.isNotEmpty()
+				.noneMatch(m -> m instanceof Move.DoubleMove);
+		var last = (Move.SingleMove) state.getAvailableMoves().iterator().next();
+		state = state.advance(last);
+		assertThat(state.getMrXTravelLog()).hasSize(2);
+		state = state.advance(avoiding(state, last.destination));
+		assertThat(state.getWinner()).containsExactly(MRX);
+	}
+
+	// a detective move that does not end on the given station
+	private static Move avoiding(GameState state, int station) {
+		return state.getAvailableMoves().stream()
+				.filter(m -> m.accept(new Move.FunctionalVisitor<>(
+						single -> single.destination != station, x2 -> false)))
+				.findFirst().orElseThrow();
+	}
+
 	@Test public void testMrXNoTicketMovesIfNoTicketMoveTickets() {
 		var mrX = new Player(MRX, makeTickets(1, 0, 1, 0, 0), 104);
 		var blue = new Player(BLUE, defaultDetectiveTickets(), 117);
@@ -0,0 +1,268 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.metrics.ObserverMetrics;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer.Event;
+import uk.ac.bris.cs.scotlandyard.model.ObserverDispatch.Ordering;
+import uk.ac.bris.cs.scotlandyard.model.ObserverDispatch.Overflow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+
+/**
+ * Checks that asynchronous observers keep the game moving, in the order and with the drops
+ * asked for, and never miss the end of the game
+ */
+public class ObserverDispatchTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUpSetup() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ImmutableList.of(false, true, false));
+	}
+
+	private static Model model(ObserverDispatch dispatch) {
+		return new MyModelFactory(dispatch).build(setup,
+				new Player(MRX, ScotlandYard.defaultMrXTickets(), 45),
+				ImmutableList.of(new Player(RED, ScotlandYard.defaultDetectiveTickets(), 111)));
+	}
+
+	// plays the first available move until the game is over
+	private static int play(Model model) {
+		int moves = 0;
+		while (model.getCurrentBoard().getWinner().isEmpty()) {
+			model.chooseMove(model.getCurrentBoard().getAvailableMoves().iterator().next());
+			moves++;
+		}
+		return moves;
+	}
+
+	/**
+	 * Records every event, waiting for a gate first
+	 */
+	private static final class Recording implements Observer {
+		final List<Event> events = new CopyOnWriteArrayList<>();
+		final CountDownLatch gate;
+		final CountDownLatch over = new CountDownLatch(1);
+
+		Recording(CountDownLatch gate) { this.gate = gate; }
+
+		@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			events.add(event);
+			if (event == Event.GAME_OVER) over.countDown();
+		}
+
+		void awaitGameOver() throws InterruptedException {
+			assertThat(over.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+	}
+
+	@Test public void testSynchronousHasNoOptions() {
+		assertThat(ObserverDispatch.SYNCHRONOUS.isAsync()).isFalse();
+		assertThatThrownBy(() -> ObserverDispatch.SYNCHRONOUS.capacity(1))
+				.isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> ObserverDispatch.async().capacity(0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testSlowObserverDoesNotHoldUpTheGame() throws Exception {
+		var gate = new CountDownLatch(1);
+		var observer = new Recording(gate);
+		var model = model(ObserverDispatch.async().metrics(new ObserverMetrics()));
+		model.registerObserver(observer);
+		int moves = play(model);
+		// every move made while the observer is still stuck on the first
+		assertThat(observer.events).isEmpty();
+		gate.countDown();
+		observer.awaitGameOver();
+		assertThat(observer.events).hasSize(moves);
+		assertThat(observer.events.subList(0, moves - 1)).containsOnly(Event.MOVE_MADE);
+		assertThat(observer.events.get(moves - 1)).isEqualTo(Event.GAME_OVER);
+	}
+
+	@Test public void testDropOldestKeepsTheLatestAndGameOver() throws Exception {
+		var metrics = new ObserverMetrics();
+		var gate = new CountDownLatch(1);
+		var observer = new Recording(gate);
+		var model = model(ObserverDispatch.async().capacity(1).overflow(Overflow.DROP_OLDEST)
+				.metrics(metrics));
+		model.registerObserver(observer);
+		int moves = play(model);
+		gate.countDown();
+		observer.awaitGameOver();
+		// at most the one being handled and the last
+		assertThat(observer.events.size()).isLessThanOrEqualTo(2);
+		assertThat(observer.events.get(observer.events.size() - 1)).isEqualTo(Event.GAME_OVER);
+		var recorder = metrics.recorder(Recording.class.getSimpleName());
+		assertThat(recorder.dropped() + recorder.handled()).isEqualTo(moves);
+	}
+
+	@Test public void testDropNewestStillDeliversGameOver() throws Exception {
+		var metrics = new ObserverMetrics();
+		var gate = new CountDownLatch(1);
+		var observer = new Recording(gate);
+		var model = model(ObserverDispatch.async().capacity(2).overflow(Overflow.DROP_NEWEST)
+				.metrics(metrics));
+		model.registerObserver(observer);
+		int moves = play(model);
+		gate.countDown();
+		observer.awaitGameOver();
+		assertThat(observer.events.get(0)).isEqualTo(Event.MOVE_MADE);
+		assertThat(observer.events.get(observer.events.size() - 1)).isEqualTo(Event.GAME_OVER);
+		assertThat(metrics.recorder(Recording.class.getSimpleName()).dropped())
+				.isEqualTo(moves - observer.events.size());
+	}
+
+	@Test public void testBlockHoldsTheMoveUntilThereIsRoom() throws Exception {
+		var gate = new CountDownLatch(1);
+		var observer = new Recording(gate);
+		var model = model(ObserverDispatch.async().capacity(1).overflow(Overflow.BLOCK)
+				.metrics(new ObserverMetrics()));
+		model.registerObserver(observer);
+		var game = CompletableFuture.supplyAsync(() -> play(model));
+		Thread.sleep(100);
+		// one event being handled, one waiting, and the next move waiting for room
+		assertThat(game).isNotDone();
+		gate.countDown();
+		int moves = game.get(5, TimeUnit.SECONDS);
+		observer.awaitGameOver();
+		assertThat(observer.events).hasSize(moves);
+	}
+
+	@Test public void testOrderedAcrossObservers() throws Exception {
+		var slowDone = new AtomicInteger();
+		var violations = new AtomicInteger();
+		var fastSeen = new AtomicInteger();
+		var over = new CountDownLatch(2);
+		Observer slow = new Observer() {
+			@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				slowDone.incrementAndGet();
+				if (event == Event.GAME_OVER) over.countDown();
+			}
+		};
+		Observer fast = new Observer() {
+			@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+				// the slow observer must be done with every earlier event
+				if (slowDone.get() < fastSeen.getAndIncrement()) violations.incrementAndGet();
+				if (event == Event.GAME_OVER) over.countDown();
+			}
+		};
+		var model = model(ObserverDispatch.async().ordering(Ordering.ACROSS_OBSERVERS)
+				.metrics(new ObserverMetrics()));
+		model.registerObserver(slow);
+		model.registerObserver(fast);
+		int moves = play(model);
+		assertThat(over.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(fastSeen.get()).isEqualTo(moves);
+		assertThat(violations.get()).isZero();
+	}
+
+	@Test public void testInterruptedMoveDoesNotHoldUpLaterEvents() throws Exception {
+		var gate = new CountDownLatch(1);
+		var slow = new Recording(gate);
+		var other = new Recording(new CountDownLatch(0));
+		var model = model(ObserverDispatch.async().capacity(1).overflow(Overflow.BLOCK)
+				.ordering(Ordering.ACROSS_OBSERVERS).metrics(new ObserverMetrics()));
+		model.registerObserver(slow);
+		model.registerObserver(other);
+		// one event being handled, one waiting, and the third waiting for room
+		var moving = new AtomicInteger();
+		var mover = new Thread(() -> {
+			for (int i = 0; i < 3; i++) {
+				moving.set(i);
+				model.chooseMove(model.getCurrentBoard().getAvailableMoves().iterator().next());
+			}
+		});
+		mover.start();
+		// the second may wait briefly too, until the other observer takes the first
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((moving.get() < 2 || mover.getState() != Thread.State.WAITING)
+				&& System.nanoTime() < end)
+			Thread.sleep(1);
+		assertThat(moving.get()).isEqualTo(2);
+		assertThat(mover.getState()).isEqualTo(Thread.State.WAITING);
+		// the third event is lost for both, before the other observer was offered it
+		mover.interrupt();
+		mover.join(5000);
+		assertThat(mover.isAlive()).isFalse();
+		gate.countDown();
+		// left waiting on the lost event, the other observer would soon hold up the game
+		int moves = 3 + CompletableFuture.supplyAsync(() -> play(model)).get(5, TimeUnit.SECONDS);
+		other.awaitGameOver();
+		assertThat(other.events).hasSize(moves - 1);
+	}
+
+	@Test public void testFailingObserverCountedAndOthersUnaffected() throws Exception {
+		var metrics = new ObserverMetrics();
+		var observer = new Recording(new CountDownLatch(0));
+		class Failing implements Observer {
+			@Override public void onModelChanged(@Nonnull Board board, @Nonnull Event event) {
+				throw new IllegalStateException("broken on purpose");
+			}
+		}
+		var model = model(ObserverDispatch.async().metrics(metrics));
+		model.registerObserver(new Failing());
+		model.registerObserver(observer);
+		var handler = Thread.getDefaultUncaughtExceptionHandler();
+		// the failures are expected, keep them out of the test output
+		Thread.setDefaultUncaughtExceptionHandler((t, e) -> {});
+		try {
+			int moves = play(model);
+			observer.awaitGameOver();
+			assertThat(observer.events).hasSize(moves);
+			var failing = metrics.recorder(Failing.class.getSimpleName());
+			long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (failing.failed() < moves && System.nanoTime() < end) Thread.sleep(1);
+			assertThat(failing.failed()).isEqualTo(moves);
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(handler);
+		}
+	}
+
+	@Test public void testUnregisteredObserverGetsNothingMore() throws Exception {
+		var gate = new CountDownLatch(1);
+		var observer = new Recording(gate);
+		var model = model(ObserverDispatch.async().ordering(Ordering.ACROSS_OBSERVERS)
+				.metrics(new ObserverMetrics()));
+		var other = new Recording(new CountDownLatch(0));
+		model.registerObserver(observer);
+		model.registerObserver(other);
+		var board = model.getCurrentBoard();
+		model.chooseMove(board.getAvailableMoves().iterator().next());
+		model.chooseMove(model.getCurrentBoard().getAvailableMoves().iterator().next());
+		model.unregisterObserver(observer);
+		gate.countDown();
+		int moves = 2 + play(model);
+		other.awaitGameOver();
+		// the first was already being handled, the second was skipped
+		assertThat(observer.events).hasSizeLessThanOrEqualTo(1);
+		assertThat(other.events).hasSize(moves);
+	}
+}
@@ -0,0 +1,120 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.RevealSchedule.NONE;
+
+/**
+ * Tests reveal lookups and the next and previous reveal tables at their edges
+ */
+public class RevealScheduleTest {
+
+	// reveals in the first and last rounds, and one in the middle
+	private static final RevealSchedule EDGES =
+			new RevealSchedule(ImmutableList.of(true, false, false, true, false, true));
+
+	@Test public void testRevealRounds() {
+		assertThat(EDGES.rounds()).isEqualTo(6);
+		assertThat(EDGES.isReveal(0)).isTrue();
+		assertThat(EDGES.isReveal(1)).isFalse();
+		assertThat(EDGES.isReveal(3)).isTrue();
+		assertThat(EDGES.isReveal(5)).isTrue();
+		// outside the game nothing is revealed
+		assertThat(EDGES.isReveal(-1)).isFalse();
+		assertThat(EDGES.isReveal(6)).isFalse();
+	}
+
+	@Test public void testRevealRoundsMatchStandardMoves() {
+		var schedule = new RevealSchedule(ScotlandYard.STANDARD24MOVES);
+		assertThat(schedule.rounds()).isEqualTo(24);
+		for (int i = 0; i < 24; i++)
+			assertThat(schedule.isReveal(i)).isEqualTo(ScotlandYard.STANDARD24MOVES.get(i));
+	}
+
+	@Test public void testFirstRound() {
+		assertThat(EDGES.nextReveal(0)).isEqualTo(0);
+		assertThat(EDGES.previousReveal(0)).isEqualTo(0);
+		assertThat(EDGES.roundsUntilReveal(0)).isZero();
+		assertThat(EDGES.roundsLeft(0)).isEqualTo(6);
+		var late = new RevealSchedule(ImmutableList.of(false, false, true));
+		assertThat(late.nextReveal(0)).isEqualTo(2);
+		assertThat(late.previousReveal(0)).isEqualTo(NONE);
+		assertThat(late.roundsUntilReveal(0)).isEqualTo(2);
+	}
+
+	@Test public void testBetweenReveals() {
+		assertThat(EDGES.nextReveal(1)).isEqualTo(3);
+		assertThat(EDGES.previousReveal(2)).isEqualTo(0);
+		assertThat(EDGES.nextReveal(4)).isEqualTo(5);
+		assertThat(EDGES.previousReveal(4)).isEqualTo(3);
+	}
+
+	@Test public void testLastRound() {
+		assertThat(EDGES.nextReveal(5)).isEqualTo(5);
+		assertThat(EDGES.previousReveal(5)).isEqualTo(5);
+		assertThat(EDGES.roundsLeft(5)).isEqualTo(1);
+		// once every round is played there is nothing left to reveal
+		assertThat(EDGES.nextReveal(6)).isEqualTo(NONE);
+		assertThat(EDGES.previousReveal(6)).isEqualTo(5);
+		assertThat(EDGES.roundsUntilReveal(6)).isEqualTo(NONE);
+		assertThat(EDGES.roundsLeft(6)).isZero();
+		var early = new RevealSchedule(ImmutableList.of(true, false, false));
+		assertThat(early.nextReveal(2)).isEqualTo(NONE);
+		assertThat(early.previousReveal(2)).isEqualTo(0);
+	}
+
+	@Test public void testNoReveals() {
+		var hidden = new RevealSchedule(Collections.nCopies(5, false));
+		for (int i = 0; i <= 5; i++) {
+			assertThat(hidden.isReveal(i)).isFalse();
+			assertThat(hidden.nextReveal(i)).isEqualTo(NONE);
+			assertThat(hidden.previousReveal(i)).isEqualTo(NONE);
+			assertThat(hidden.roundsUntilReveal(i)).isEqualTo(NONE);
+		}
+		assertThat(hidden.toBits()).containsOnly(0L);
+	}
+
+	@Test public void testNoRounds() {
+		var empty = new RevealSchedule(ImmutableList.of());
+		assertThat(empty.rounds()).isZero();
+		assertThat(empty.nextReveal(0)).isEqualTo(NONE);
+		assertThat(empty.previousReveal(0)).isEqualTo(NONE);
+		assertThat(empty.toBits()).isEmpty();
+	}
+
+	@Test public void testRoundsOutsideTheGameThrow() {
+		assertThatThrownBy(() -> EDGES.nextReveal(-1))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+		assertThatThrownBy(() -> EDGES.previousReveal(7))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+	@Test public void testBeyondOneWord() {
+		var moves = new Boolean[70];
+		Arrays.fill(moves, false);
+		moves[66] = true;
+		var schedule = new RevealSchedule(ImmutableList.copyOf(moves));
+		// the 67th round must not alias the 3rd
+		assertThat(schedule.isReveal(2)).isFalse();
+		assertThat(schedule.isReveal(66)).isTrue();
+		assertThat(schedule.nextReveal(2)).isEqualTo(66);
+		assertThat(schedule.previousReveal(70)).isEqualTo(66);
+		assertThat(schedule.toBits()).containsExactly(0L, 1L << 2);
+	}
+
+	@Test public void testEqualByContent() {
+		assertThat(new RevealSchedule(ImmutableList.of(true, false, false, true, false, true)))
+				.isEqualTo(EDGES)
+				.hasSameHashCodeAs(EDGES)
+				.hasToString("R..R.R");
+		assertThat(new RevealSchedule(ImmutableList.of(true, false, false, true, false)))
+				.isNotEqualTo(EDGES);
+	}
+}
@@ -0,0 +1,334 @@
+package uk.ac.bris.cs.scotlandyard.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.AiInvoker;
+import uk.ac.bris.cs.scotlandyard.AiScheduler;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.AiDeadline;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+
+/**
+ * Checks that AIs in a host pick the same moves as they would in process, within their limits,
+ * and that a connection carries many calls at once with little overhead
+ */
+public class AiHostTest {
+
+	private static Board board;
+	private static Move first;
+	private AiHostClient client;
+	private AiInvoker invoker;
+
+	@BeforeClass public static void setUpBoard() throws IOException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+		board = new MyGameStateFactory().build(setup,
+				new Player(MRX, ScotlandYard.defaultMrXTickets(), 45),
+				ImmutableList.of(new Player(RED, ScotlandYard.defaultDetectiveTickets(), 111)));
+		first = board.getAvailableMoves().iterator().next();
+	}
+
+	@Before public void setUp() {
+		client = AiHostClient.inProcess();
+		invoker = new AiInvoker("test-remote");
+	}
+
+	@After public void tearDown() {
+		invoker.close();
+		client.close();
+	}
+
+	public static class FirstMoveAi implements Ai {
+		@Nonnull @Override public String name() { return "first"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	private static final AtomicBoolean notAnAiInitialised = new AtomicBoolean();
+
+	public static class NotAnAi {
+		static { notAnAiInitialised.set(true); }
+	}
+
+	public static class SlowAi implements Ai {
+		@Nonnull @Override public String name() { return "slow"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return board.getAvailableMoves().iterator().next();
+		}
+	}
+
+	public static class OfferingAi implements Ai {
+		@Nonnull @Override public String name() { return "offering"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+			deadline.offer(board.getAvailableMoves().iterator().next());
+			// keeps searching well past the hard limit
+			while (true) deadline.checkCancelled();
+		}
+	}
+
+	public static class HangingAi implements Ai {
+		@Nonnull @Override public String name() { return "hanging"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+			while (true) deadline.checkCancelled();
+		}
+	}
+
+	public static class ThrowingAi implements Ai {
+		@Nonnull @Override public String name() { return "throwing"; }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			throw new IllegalStateException("broken on purpose");
+		}
+	}
+
+	public static class RecordingAi implements Ai {
+		static final ConcurrentLinkedQueue<String> EVENTS = new ConcurrentLinkedQueue<>();
+		static final AtomicBoolean PONDERED = new AtomicBoolean();
+
+		@Nonnull @Override public String name() { return "recording"; }
+
+		@Override public void onStart() { EVENTS.add("start"); }
+
+		@Nonnull @Override
+		public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+			EVENTS.add("pick");
+			return board.getAvailableMoves().iterator().next();
+		}
+
+		@Override public void ponder(@Nonnull Board board, @Nonnull AiDeadline deadline) {
+			while (!deadline.shouldStop()) Thread.onSpinWait();
+			PONDERED.set(true);
+		}
+
+		@Override public void onMoveMade(@Nonnull Board board, @Nonnull Move move) {
+			EVENTS.add("moveMade " + move.equals(first));
+		}
+
+		@Override public void onTerminate() { EVENTS.add("terminate"); }
+	}
+
+	private static void await(BooleanSupplier condition) {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean() && System.nanoTime() < end) Thread.onSpinWait();
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	@Test public void testSnapshotRoundTrips() throws IOException {
+		var setup = board.getSetup();
+		Board.GameState state = new MyGameStateFactory().build(setup,
+				new Player(MRX, ScotlandYard.defaultMrXTickets(), 45),
+				ImmutableList.of(new Player(RED, ScotlandYard.defaultDetectiveTickets(), 111),
+						new Player(BLUE, ScotlandYard.defaultDetectiveTickets(), 94)));
+		var random = new Random(7);
+		// past the first reveal, so the log has both kinds of entries
+		for (int i = 0; i < 12 && state.getWinner().isEmpty(); i++) {
+			var moves = state.getAvailableMoves().asList();
+			state = state.advance(moves.get(random.nextInt(moves.size())));
+		}
+		var bytes = new ByteArrayOutputStream();
+		Wire.writeBoard(new DataOutputStream(bytes), state);
+		Map<HashCode, GameSetup> setups = Map.of(setup.fingerprint(), setup);
+		Board copy = Wire.readBoard(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), setups::get);
+
+		assertThat(copy.getSetup()).isSameAs(setup);
+		assertThat(copy.getPlayers()).isEqualTo(state.getPlayers());
+		for (Piece piece : state.getPlayers()) {
+			for (Ticket ticket : Ticket.values())
+				assertThat(copy.getPlayerTickets(piece).orElseThrow().getCount(ticket))
+						.isEqualTo(state.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+			if (piece.isDetective())
+				assertThat(copy.getDetectiveLocation((Piece.Detective) piece))
+						.isEqualTo(state.getDetectiveLocation((Piece.Detective) piece));
+		}
+		assertThat(copy.getMrXTravelLog()).isEqualTo(state.getMrXTravelLog());
+		assertThat(copy.getWinner()).isEqualTo(state.getWinner());
+		assertThat(copy.getAvailableMoves()).isEqualTo(state.getAvailableMoves());
+	}
+
+	@Test public void testSetupRoundTrips() throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		Wire.writeSetup(new DataOutputStream(bytes), board.getSetup());
+		GameSetup copy = Wire.readSetup(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(copy.fingerprint()).isEqualTo(board.getSetup().fingerprint());
+	}
+
+	@Test public void testMovePickedInTheHost() {
+		var ai = client.ai(FirstMoveAi.class.getName());
+		assertThat(ai.name()).isEqualTo("first");
+		assertThat(ai.pickMove(board, AiDeadline.within(Duration.ofSeconds(1)))).isEqualTo(first);
+	}
+
+	@Test public void testUnknownClassRejected() {
+		assertThatThrownBy(() -> client.ai("no.such.Ai"))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> client.ai(String.class.getName()))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testClassNotInitialisedUnlessAnAi() {
+		assertThatThrownBy(() -> client.ai(NotAnAi.class.getName()))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThat(notAnAiInitialised.get()).isFalse();
+	}
+
+	@Test public void testBestSoFarTakenAtTheSoftLimit() throws Exception {
+		var ai = client.ai(OfferingAi.class.getName());
+		var result = invoker.invoke(ai, board,
+				AiDeadline.of(Duration.ofMillis(100), Duration.ofSeconds(2))).result().get();
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.MOVE);
+		assertThat(result.move()).contains(first);
+		assertThat(result.elapsedNanos()).isLessThan(TimeUnit.SECONDS.toNanos(1));
+	}
+
+	@Test public void testTimesOutWhenNothingOffered() throws Exception {
+		var ai = client.ai(HangingAi.class.getName());
+		var result = invoker.invoke(ai, board,
+				AiDeadline.of(Duration.ofMillis(100), Duration.ofMillis(300))).result().get();
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.TIMEOUT);
+		// and the connection is still usable
+		assertThat(client.ai(FirstMoveAi.class.getName())
+				.pickMove(board, AiDeadline.within(Duration.ofSeconds(1)))).isEqualTo(first);
+	}
+
+	@Test public void testErrorsReachTheCaller() throws Exception {
+		var ai = client.ai(ThrowingAi.class.getName());
+		var result = invoker.invoke(ai, board, AiDeadline.within(Duration.ofSeconds(1)))
+				.result().get();
+		assertThat(result.outcome()).isEqualTo(AiInvoker.Outcome.ERROR);
+		assertThat(result.error().orElseThrow()).hasMessageContaining("broken on purpose");
+	}
+
+	@Test public void testLifecycleInOrder() {
+		RecordingAi.EVENTS.clear();
+		var ai = client.ai(RecordingAi.class.getName());
+		ai.onStart();
+		Move move = ai.pickMove(board, AiDeadline.within(Duration.ofSeconds(1)));
+		ai.onMoveMade(board, move);
+		ai.onTerminate();
+		await(() -> RecordingAi.EVENTS.size() == 4);
+		assertThat(RecordingAi.EVENTS).containsExactly("start", "pick", "moveMade true",
+				"terminate");
+	}
+
+	@Test public void testPonderingStopsInTheHost() {
+		RecordingAi.PONDERED.set(false);
+		var ai = client.ai(RecordingAi.class.getName());
+		var pondering = invoker.ponder(ai, board, Duration.ofSeconds(5));
+		await(() -> client.pending() == 1);
+		long start = System.nanoTime();
+		pondering.stop();
+		assertThat(pondering.isDone()).isTrue();
+		assertThat(RecordingAi.PONDERED).isTrue();
+		assertThat(System.nanoTime() - start).isLessThan(AiInvoker.GRACE.toNanos());
+	}
+
+	@Test public void testCallsPipelinedOverSockets() throws Exception {
+		Path directory = Files.createTempDirectory("ai-host-test");
+		var scheduler = new AiScheduler(4);
+		var host = new AiHost(scheduler);
+		try (var uds = host.listen(UnixDomainSocketAddress.of(directory.resolve("host.sock")));
+		     var tcp = host.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			for (var address : List.of(uds.address(), tcp.address())) {
+				try (var remote = AiHostClient.connect(address)) {
+					var ai = remote.ai(SlowAi.class.getName());
+					long start = System.nanoTime();
+					List<CompletableFuture<Move>> moves = new ArrayList<>();
+					for (int i = 0; i < 4; i++)
+						moves.add(CompletableFuture.supplyAsync(() ->
+								ai.pickMove(board, AiDeadline.within(Duration.ofSeconds(5)))));
+					for (var move : moves) assertThat(move.get()).isEqualTo(first);
+					// one at a time would take 1.2 s
+					assertThat(System.nanoTime() - start)
+							.isLessThan(TimeUnit.MILLISECONDS.toNanos(900));
+				}
+			}
+		} finally {
+			scheduler.close();
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@Test public void testOverheadUnderAMillisecond() {
+		var ai = client.ai(FirstMoveAi.class.getName());
+		for (int i = 0; i < 2000; i++)
+			ai.pickMove(board, AiDeadline.within(Duration.ofSeconds(1)));
+		long[] nanos = new long[1000];
+		for (int i = 0; i < nanos.length; i++) {
+			long start = System.nanoTime();
+			ai.pickMove(board, AiDeadline.within(Duration.ofSeconds(1)));
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		assertThat(nanos[nanos.length / 2]).isLessThan(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}